@@ -0,0 +1,215 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.services;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.helpers.SpillSegments;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.*;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.runtime.IServicesConfig;
+import play.Logger;
+import play.inject.ApplicationLifecycle;
+import play.libs.Json;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Jobs evicted from memory are written to disk as deflated JSON: the
+ * results of the devices of a job are mostly the same, and compress well.
+ * When the spill directory can't be used the cache only uses memory.
+ */
+@Singleton
+public class CompletedJobCache implements ICompletedJobCache {
+
+    private static final Logger.ALogger log = Logger.of(CompletedJobCache.class);
+
+    // Not all the service models have setters, read and write their fields
+    private static final ObjectMapper mapper = Json.newDefaultMapper()
+        .setVisibility(PropertyAccessor.ALL, JsonAutoDetect.Visibility.NONE)
+        .setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY)
+        .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    // Weighted by the number of devices in each job
+    private final Cache<String, JobServiceModel> jobs;
+    private final SpillSegments spill;
+
+    // Keys of the jobs read back from disk into memory
+    private final Set<String> promoted = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+
+    @Inject
+    public CompletedJobCache(final IServicesConfig config, final ApplicationLifecycle lifecycle) {
+        this.spill = openSpill(config);
+        if (this.spill != null) {
+            lifecycle.addStopHook(() -> {
+                this.spill.close();
+                return CompletableFuture.completedFuture(null);
+            });
+        }
+
+        this.jobs = Caffeine.newBuilder()
+            .maximumWeight(config.getCompletedJobCacheMaxDevices())
+            .weigher((String key, JobServiceModel job) -> job.getDevices() == null ? 1 : job.getDevices().size() + 1)
+            // Write the evicted jobs on the thread adding jobs, instead
+            // of the common pool
+            .executor(Runnable::run)
+            .removalListener((String key, JobServiceModel job, RemovalCause cause) -> {
+                if (cause == RemovalCause.SIZE) {
+                    this.writeToSpill(key, job);
+                }
+                if (cause != RemovalCause.REPLACED) {
+                    this.promoted.remove(key);
+                }
+            })
+            .recordStats()
+            .build();
+    }
+
+    @Override
+    public JobServiceModel get(
+        final String jobId,
+        final boolean includeDeviceDetails,
+        final DeviceJobStatus deviceJobStatus) {
+        String key = getKey(jobId, includeDeviceDetails, deviceJobStatus);
+        JobServiceModel job = this.jobs.getIfPresent(key);
+        if (job == null) {
+            job = this.readFromSpill(key);
+            if (job != null) {
+                this.promoted.add(key);
+                this.jobs.put(key, job);
+            }
+        }
+
+        if (job == null) {
+            this.missCount.increment();
+        } else {
+            this.hitCount.increment();
+        }
+
+        return job;
+    }
+
+    @Override
+    public void put(
+        final String jobId,
+        final boolean includeDeviceDetails,
+        final DeviceJobStatus deviceJobStatus,
+        final JobServiceModel job) {
+        if (job != null && job.getJobStatus() != null && job.getJobStatus().isFinal() && areDevicesFinal(job)) {
+            this.jobs.put(getKey(jobId, includeDeviceDetails, deviceJobStatus), job);
+        }
+    }
+
+    @Override
+    public CacheStatsServiceModel getStats() {
+        return new CacheStatsServiceModel(
+            this.hitCount.sum(),
+            0,
+            this.missCount.sum(),
+            this.jobs.stats().evictionCount(),
+            this.jobs.estimatedSize() + this.getSpillOnlySize());
+    }
+
+    /**
+     * The job and the device rows are read separately: a job can read as
+     * completed while the rows of some devices are not updated yet.
+     */
+    private static boolean areDevicesFinal(final JobServiceModel job) {
+        if (job.getDevices() == null) {
+            return true;
+        }
+
+        for (DeviceJobServiceModel device : job.getDevices()) {
+            if (device.getStatus() == null || !device.getStatus().isFinal()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Jobs read back from disk stay on disk, don't count them twice
+     */
+    private long getSpillOnlySize() {
+        if (this.spill == null) {
+            return 0;
+        }
+
+        long inBoth = this.promoted.stream().filter(this.spill::contains).count();
+        return this.spill.size() - inBoth;
+    }
+
+    private void writeToSpill(final String key, final JobServiceModel job) {
+        if (this.spill == null || this.spill.contains(key)) {
+            return;
+        }
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DeflaterOutputStream output = new DeflaterOutputStream(bytes)) {
+                mapper.writeValue(output, job);
+            }
+            this.spill.put(key, bytes.toByteArray());
+        } catch (IOException e) {
+            log.warn("Unable to write the job to disk: " + key, e);
+        }
+    }
+
+    private JobServiceModel readFromSpill(final String key) {
+        if (this.spill == null) {
+            return null;
+        }
+
+        try {
+            byte[] bytes = this.spill.get(key);
+            if (bytes == null) {
+                return null;
+            }
+            try (InflaterInputStream input = new InflaterInputStream(new ByteArrayInputStream(bytes))) {
+                return mapper.readValue(input, JobServiceModel.class);
+            }
+        } catch (IOException e) {
+            log.warn("Unable to read the job from disk: " + key, e);
+            return null;
+        }
+    }
+
+    private static SpillSegments openSpill(final IServicesConfig config) {
+        String path = config.getCompletedJobCacheSpillPath();
+        try {
+            return new SpillSegments(Paths.get(path), config.getCompletedJobCacheSpillMaxBytes());
+        } catch (IOException e) {
+            log.warn("Unable to use the spill directory, finished jobs are only cached in memory: " + path, e);
+            return null;
+        }
+    }
+
+    private static String getKey(
+        final String jobId,
+        final boolean includeDeviceDetails,
+        final DeviceJobStatus deviceJobStatus) {
+        if (!includeDeviceDetails) {
+            return jobId;
+        }
+
+        return jobId + "\n" + (deviceJobStatus == null ? "" : deviceJobStatus.name());
+    }
+}
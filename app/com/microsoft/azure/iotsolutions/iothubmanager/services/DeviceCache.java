@@ -0,0 +1,172 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.*;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.runtime.IServicesConfig;
+import play.Logger;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+@Singleton
+public class DeviceCache implements IDeviceCache {
+
+    private static final Logger.ALogger log = Logger.of(DeviceCache.class);
+
+    private static final String QUERY_BY_ID_FORMAT = "SELECT * FROM devices WHERE deviceId = '%s'";
+
+    private final IIoTHubWrapper ioTHubService;
+    private final IIoTHubQueryClient queryClient;
+    private final boolean enabled;
+    private final long ttlMillis;
+
+    // Caffeine evicts with W-TinyLFU once the maximum size is reached
+    private final Cache<String, CachedDevice> devices;
+
+    // Incremented by every invalidation, so that a device read before a
+    // change is not added to the cache after the change
+    private final AtomicLong generation = new AtomicLong(0);
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder revalidationCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+
+    @Inject
+    public DeviceCache(
+        final IIoTHubWrapper ioTHubService,
+        final IIoTHubQueryClient queryClient,
+        final IServicesConfig config) {
+        this.ioTHubService = ioTHubService;
+        this.queryClient = queryClient;
+        this.enabled = config.isDeviceCacheEnabled();
+        this.ttlMillis = config.getDeviceCacheTtl().toMillis();
+        this.devices = Caffeine.newBuilder()
+            .maximumSize(config.getDeviceCacheMaxSize())
+            .expireAfterWrite(config.getDeviceCacheMaxAge().toMillis(), TimeUnit.MILLISECONDS)
+            .recordStats()
+            .build();
+    }
+
+    @Override
+    public CompletionStage<DeviceServiceModel> getAsync(
+        final String id,
+        final Function<String, CompletionStage<DeviceServiceModel>> loader) {
+        if (!this.enabled) {
+            return loader.apply(id);
+        }
+
+        CachedDevice cached = this.devices.getIfPresent(id);
+        if (cached == null) {
+            this.missCount.increment();
+            return this.load(id, loader);
+        }
+
+        if (System.currentTimeMillis() - cached.validatedMillis <= this.ttlMillis) {
+            this.hitCount.increment();
+            return CompletableFuture.completedFuture(cached.device);
+        }
+
+        return this.revalidate(id, cached, loader);
+    }
+
+    @Override
+    public void invalidate(final String id) {
+        this.generation.incrementAndGet();
+        this.devices.invalidate(id);
+    }
+
+    @Override
+    public CacheStatsServiceModel getStats() {
+        return new CacheStatsServiceModel(
+            this.hitCount.sum(),
+            this.revalidationCount.sum(),
+            this.missCount.sum(),
+            this.devices.stats().evictionCount(),
+            this.devices.estimatedSize());
+    }
+
+    private CompletionStage<DeviceServiceModel> load(
+        final String id,
+        final Function<String, CompletionStage<DeviceServiceModel>> loader) {
+        long generation = this.generation.get();
+        return loader.apply(id).thenApply(device -> {
+            this.put(id, device, generation);
+            return device;
+        });
+    }
+
+    /**
+     * Query the device, which returns the twin and the registry fields
+     * but not the keys. When the device ETag is unchanged the cached keys
+     * are still valid and the registry doesn't need to be read.
+     */
+    private CompletionStage<DeviceServiceModel> revalidate(
+        final String id,
+        final CachedDevice cached,
+        final Function<String, CompletionStage<DeviceServiceModel>> loader) {
+        if (id.contains("'")) {
+            this.missCount.increment();
+            return this.load(id, loader);
+        }
+
+        try {
+            String hostName = this.ioTHubService.getIotHubHostName();
+            long generation = this.generation.get();
+            return this.queryClient.queryAsync(String.format(QUERY_BY_ID_FORMAT, id), null, 1)
+                .thenCompose(page -> {
+                    if (!page.getItems().isEmpty()) {
+                        JsonNode twin = page.getItems().get(0);
+                        DeviceServiceModel device = new DeviceServiceModel(twin, hostName);
+                        if (Objects.equals(device.getETag(), cached.device.getETag())) {
+                            this.revalidationCount.increment();
+                            device = device.withAuthentication(cached.device.getAuthentication());
+                            this.put(id, device, generation);
+                            return CompletableFuture.completedFuture(device);
+                        }
+                    }
+
+                    this.missCount.increment();
+                    this.devices.invalidate(id);
+                    return this.load(id, loader);
+                });
+        } catch (Exception e) {
+            log.warn("Unable to revalidate cached device {}", id, e);
+            this.missCount.increment();
+            return this.load(id, loader);
+        }
+    }
+
+    private void put(final String id, final DeviceServiceModel device, final long generation) {
+        if (this.generation.get() != generation) {
+            return;
+        }
+
+        this.devices.put(id, new CachedDevice(device));
+        // The device may have been invalidated just before the put
+        if (this.generation.get() != generation) {
+            this.devices.invalidate(id);
+        }
+    }
+
+    private static class CachedDevice {
+
+        private final DeviceServiceModel device;
+        private final long validatedMillis;
+
+        CachedDevice(final DeviceServiceModel device) {
+            this.device = device;
+            this.validatedMillis = System.currentTimeMillis();
+        }
+    }
+}
@@ -0,0 +1,498 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.exceptions.*;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.helpers.QueryConditionClause;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.helpers.QueryConditionEvaluator;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.helpers.QueryConditionTranslator;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.*;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.runtime.IServicesConfig;
+import org.roaringbitmap.RoaringBitmap;
+import play.Logger;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+@Singleton
+public class DeviceGroups implements IDeviceGroups {
+
+    private static final Logger.ALogger log = Logger.of(DeviceGroups.class);
+
+    private static final String QueryPrefix = "SELECT deviceId FROM devices";
+
+    // Changes kept per group to answer delta requests, older versions get the whole membership
+    private static final int MAX_CHANGES = 10000;
+
+    // While twin update jobs run, a group is reloaded from IoT Hub at most this often
+    private static final long JOB_RELOAD_INTERVAL_MILLIS = 10000;
+
+    private final IDeviceRegistryMirror mirror;
+    private final IDeviceTwinIndex index;
+    private final IIoTHubQueryClient queryClient;
+    private final int pageSize;
+
+    private final ConcurrentHashMap<String, Group> groups = new ConcurrentHashMap<>();
+
+    @Inject
+    public DeviceGroups(
+        final IDeviceRegistryMirror mirror,
+        final IDeviceTwinIndex index,
+        final IIoTHubQueryClient queryClient,
+        final IServicesConfig config) {
+        this.mirror = mirror;
+        this.index = index;
+        this.queryClient = queryClient;
+        this.pageSize = config.getDeviceQueryPageSize();
+
+        // The mirror refreshes report the twins changed outside of this service
+        mirror.addListener(new IDeviceRegistryMirror.Listener() {
+            @Override
+            public void onDeviceChanged(final DeviceServiceModel device) {
+                DeviceGroups.this.onDeviceChanged(device);
+            }
+
+            @Override
+            public void onDeviceRemoved(final String id) {
+                DeviceGroups.this.onDeviceRemoved(id);
+            }
+        });
+    }
+
+    @Override
+    public CompletionStage<DeviceGroupServiceModel> createOrUpdateAsync(final String id, final String conditions) {
+        List<QueryConditionClause> clauses;
+        try {
+            clauses = QueryConditionTranslator.parse(conditions);
+            if (!QueryConditionEvaluator.isSupported(clauses)) {
+                throw new InvalidInputException(
+                    "Device group conditions can only use the device id, tags and properties, and no null value: "
+                        + conditions);
+            }
+        } catch (InvalidInputException e) {
+            CompletableFuture<DeviceGroupServiceModel> result = new CompletableFuture<>();
+            result.completeExceptionally(new CompletionException(e));
+            return result;
+        }
+
+        Group group = this.groups.computeIfAbsent(id, key -> new Group(key, clauses));
+        synchronized (group) {
+            group.clauses = clauses;
+        }
+
+        // The membership of an existing group is reloaded, the differences
+        // are recorded as changes so that clients can keep using deltas
+        return this.loadAsync(group).thenApply(ignored -> group.toServiceModel());
+    }
+
+    @Override
+    public CompletionStage<List<DeviceGroupServiceModel>> getListAsync() {
+        List<CompletableFuture<DeviceGroupServiceModel>> loads = new ArrayList<>();
+        for (Group group : this.groups.values()) {
+            loads.add(this.readyAsync(group).thenApply(ignored -> group.toServiceModel()));
+        }
+
+        return CompletableFuture
+            .allOf(loads.toArray(new CompletableFuture[loads.size()]))
+            .thenApply(ignored -> {
+                List<DeviceGroupServiceModel> result = new ArrayList<>(loads.size());
+                for (CompletableFuture<DeviceGroupServiceModel> load : loads) {
+                    result.add(load.join());
+                }
+                result.sort(Comparator.comparing(DeviceGroupServiceModel::getId));
+                return result;
+            });
+    }
+
+    @Override
+    public CompletionStage<DeviceGroupServiceModel> getAsync(final String id) {
+        return this.getGroupAsync(id).thenApply(Group::toServiceModel);
+    }
+
+    @Override
+    public CompletionStage<DeviceGroupMembersServiceModel> getMembersAsync(final String id) {
+        return this.getGroupAsync(id).thenApply(group -> {
+            synchronized (group) {
+                List<String> members = new ArrayList<>(group.members);
+                Collections.sort(members);
+                return new DeviceGroupMembersServiceModel(group.id, group.version, members);
+            }
+        });
+    }
+
+    @Override
+    public CompletionStage<DeviceGroupChangesServiceModel> getChangesAsync(final String id, final long sinceVersion) {
+        return this.getGroupAsync(id).thenApply(group -> group.getChanges(sinceVersion));
+    }
+
+    @Override
+    public CompletionStage<Boolean> deleteAsync(final String id) {
+        // Not loaded first, so that groups can be deleted while IoT Hub is down
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        if (this.groups.remove(id) == null) {
+            result.completeExceptionally(new CompletionException(
+                new ResourceNotFoundException("Device group not found: " + id)));
+        } else {
+            result.complete(true);
+        }
+        return result;
+    }
+
+    @Override
+    public void onDeviceChanged(final DeviceServiceModel device) {
+        if (device == null || device.getId() == null) {
+            return;
+        }
+
+        for (Group group : this.groups.values()) {
+            synchronized (group) {
+                group.touch(device.getId());
+                group.set(device.getId(), QueryConditionEvaluator.matches(group.clauses, device.getTwin()));
+            }
+        }
+    }
+
+    @Override
+    public void onDeviceRemoved(final String id) {
+        for (Group group : this.groups.values()) {
+            synchronized (group) {
+                group.touch(id);
+                group.set(id, false);
+            }
+        }
+    }
+
+    @Override
+    public void onTwinUpdateJob(final DeviceTwinServiceModel twin, final long maxExecutionTimeInSeconds) {
+        if (this.mirror.isEnabled()) {
+            return;
+        }
+
+        Set<String> fields = DeviceQueryCache.getChangedFields(twin);
+        long reloadUntil = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(maxExecutionTimeInSeconds);
+        for (Group group : this.groups.values()) {
+            synchronized (group) {
+                if (group.filtersOn(fields)) {
+                    group.stale = true;
+                    group.reloadUntilMillis = Math.max(group.reloadUntilMillis, reloadUntil);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void onDevicesWritten(final DeviceTwinServiceModel twin, final boolean created) {
+        if (this.mirror.isEnabled()) {
+            return;
+        }
+
+        // Any group can match a new device, only the groups on the fields
+        // written can change for an existing one
+        Set<String> fields = DeviceQueryCache.getChangedFields(twin);
+        for (Group group : this.groups.values()) {
+            synchronized (group) {
+                if (created || group.filtersOn(fields)) {
+                    group.stale = true;
+                }
+            }
+        }
+    }
+
+    private CompletableFuture<Group> getGroupAsync(final String id) {
+        Group group = this.groups.get(id);
+        if (group == null) {
+            CompletableFuture<Group> result = new CompletableFuture<>();
+            result.completeExceptionally(new CompletionException(
+                new ResourceNotFoundException("Device group not found: " + id)));
+            return result;
+        }
+
+        return this.readyAsync(group).thenApply(ignored -> group);
+    }
+
+    /**
+     * Wait for the first load of the group, or reload it while a twin
+     * update job may be changing its members.
+     */
+    private CompletableFuture<Void> readyAsync(final Group group) {
+        List<QueryConditionClause> clauses;
+        CompletableFuture<Void> load;
+        synchronized (group) {
+            long now = System.currentTimeMillis();
+            boolean reload = group.stale
+                || group.load.isCompletedExceptionally()
+                || (now < group.reloadUntilMillis && now - group.loadStartedMillis >= JOB_RELOAD_INTERVAL_MILLIS);
+            if (!reload) {
+                return group.load;
+            }
+            clauses = group.clauses;
+            load = group.startLoad();
+        }
+
+        // The members are computed without the lock, which device writes need
+        return this.runLoadAsync(group, clauses, load);
+    }
+
+    private CompletableFuture<Void> loadAsync(final Group group) {
+        List<QueryConditionClause> clauses;
+        CompletableFuture<Void> load;
+        synchronized (group) {
+            clauses = group.clauses;
+            load = group.startLoad();
+        }
+
+        return this.runLoadAsync(group, clauses, load);
+    }
+
+    /**
+     * Load the membership of a group from the mirror, or from IoT Hub when
+     * the mirror is not fresh. Devices changed while the load runs are not
+     * overwritten by the older data it fetched. Must be called without the
+     * group lock: walking the mirror can take a while.
+     */
+    private CompletableFuture<Void> runLoadAsync(
+        final Group group,
+        final List<QueryConditionClause> clauses,
+        final CompletableFuture<Void> load) {
+        Optional<Set<String>> local = this.getLocalMembers(clauses);
+        CompletableFuture<Set<String>> members = local.isPresent()
+            ? CompletableFuture.completedFuture(local.get())
+            : this.getHubMembersAsync(QueryPrefix + " WHERE " + QueryConditionTranslator.render(clauses),
+                null, new HashSet<>());
+
+        members.whenComplete((loaded, error) -> {
+            synchronized (group) {
+                // Another load started in the meantime, e.g. the conditions
+                // changed, only the latest one is applied
+                if (group.load != load) {
+                    return;
+                }
+                if (error == null) {
+                    group.merge(loaded);
+                } else {
+                    group.touched = null;
+                }
+            }
+
+            if (error == null) {
+                load.complete(null);
+            } else {
+                log.error(String.format("Unable to load the members of device group %s", group.id), error);
+                load.completeExceptionally(error);
+            }
+        });
+
+        return load;
+    }
+
+    private Optional<Set<String>> getLocalMembers(final List<QueryConditionClause> clauses) {
+        if (!this.mirror.isFresh()) {
+            return Optional.empty();
+        }
+
+        Set<String> members = new HashSet<>();
+        Optional<RoaringBitmap> matches = this.index.evaluate(clauses);
+        if (matches.isPresent()) {
+            matches.get().forEach((int ordinal) -> {
+                String id = this.index.getDeviceId(ordinal);
+                if (id != null) {
+                    members.add(id);
+                }
+            });
+            return Optional.of(members);
+        }
+
+        String lastId = null;
+        while (true) {
+            Optional<List<DeviceServiceModel>> devices = this.mirror.getPage(lastId, this.pageSize);
+            if (!devices.isPresent()) {
+                return Optional.empty();
+            }
+            for (DeviceServiceModel device : devices.get()) {
+                lastId = device.getId();
+                if (QueryConditionEvaluator.matches(clauses, device.getTwin())) {
+                    members.add(device.getId());
+                }
+            }
+            if (devices.get().size() < this.pageSize) {
+                return Optional.of(members);
+            }
+        }
+    }
+
+    private CompletableFuture<Set<String>> getHubMembersAsync(
+        final String query,
+        final String continuationToken,
+        final Set<String> members) {
+        try {
+            return this.queryClient.queryAsync(query, continuationToken, this.pageSize)
+                .toCompletableFuture()
+                .thenCompose(page -> {
+                    for (JsonNode item : page.getItems()) {
+                        members.add(item.path("deviceId").asText());
+                    }
+                    return page.getContinuationToken() == null
+                        ? CompletableFuture.completedFuture(members)
+                        : this.getHubMembersAsync(query, page.getContinuationToken(), members);
+                });
+        } catch (ExternalDependencyException | InvalidConfigurationException e) {
+            CompletableFuture<Set<String>> result = new CompletableFuture<>();
+            result.completeExceptionally(new CompletionException(e));
+            return result;
+        }
+    }
+
+    /**
+     * Membership of one group. All the fields are guarded by the group lock.
+     */
+    private static final class Group {
+
+        private final String id;
+        private List<QueryConditionClause> clauses;
+        private final Set<String> members = new HashSet<>();
+        private long version = 0;
+
+        // One entry per device joining or leaving the group, by version
+        private final ArrayDeque<Change> changes = new ArrayDeque<>();
+
+        private CompletableFuture<Void> load = new CompletableFuture<>();
+
+        // Devices changed while a load runs, null when no load runs
+        private Set<String> touched = null;
+        private long loadStartedMillis = 0;
+
+        // Set when a twin update job starts, until the job times out
+        private boolean stale = false;
+        private long reloadUntilMillis = 0;
+
+        private Group(final String id, final List<QueryConditionClause> clauses) {
+            this.id = id;
+            this.clauses = clauses;
+        }
+
+        /**
+         * Start tracking the devices changed during a new load, and make
+         * it the current load of the group
+         */
+        private CompletableFuture<Void> startLoad() {
+            CompletableFuture<Void> load = new CompletableFuture<>();
+            this.touched = new HashSet<>();
+            this.stale = false;
+            this.loadStartedMillis = System.currentTimeMillis();
+            CompletableFuture<Void> previous = this.load;
+            if (!previous.isDone()) {
+                // Readers waiting for the previous load get this one instead
+                load.whenComplete((result, error) -> {
+                    if (error == null) {
+                        previous.complete(null);
+                    } else {
+                        previous.completeExceptionally(error);
+                    }
+                });
+            }
+            this.load = load;
+            return load;
+        }
+
+        private void touch(final String deviceId) {
+            if (this.touched != null) {
+                this.touched.add(deviceId);
+            }
+        }
+
+        private void set(final String deviceId, final boolean member) {
+            boolean changed = member ? this.members.add(deviceId) : this.members.remove(deviceId);
+            if (!changed) {
+                return;
+            }
+
+            this.version++;
+            this.changes.addLast(new Change(this.version, deviceId, member));
+            if (this.changes.size() > MAX_CHANGES) {
+                this.changes.removeFirst();
+            }
+        }
+
+        private void merge(final Set<String> loaded) {
+            for (String deviceId : loaded) {
+                if (!this.touched.contains(deviceId)) {
+                    this.set(deviceId, true);
+                }
+            }
+            for (String deviceId : new ArrayList<>(this.members)) {
+                if (!loaded.contains(deviceId) && !this.touched.contains(deviceId)) {
+                    this.set(deviceId, false);
+                }
+            }
+            this.touched = null;
+        }
+
+        private boolean filtersOn(final Set<String> changedFields) {
+            for (QueryConditionClause clause : this.clauses) {
+                String key = QueryConditionEvaluator.normalizeKey(clause.getKey()).toLowerCase();
+                for (String field : changedFields) {
+                    if (key.equals(field) || key.startsWith(field + ".") || field.startsWith(key + ".")) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        private synchronized DeviceGroupServiceModel toServiceModel() {
+            return new DeviceGroupServiceModel(this.id, this.clauses, this.version, this.members.size());
+        }
+
+        private synchronized DeviceGroupChangesServiceModel getChanges(final long sinceVersion) {
+            long oldestKnown = this.changes.isEmpty() ? this.version : this.changes.getFirst().version - 1;
+            if (sinceVersion < oldestKnown || sinceVersion > this.version) {
+                List<String> all = new ArrayList<>(this.members);
+                Collections.sort(all);
+                return new DeviceGroupChangesServiceModel(
+                    this.id, sinceVersion, this.version, true, all, Collections.emptyList());
+            }
+
+            // Only the net change of each device is returned: whether it was
+            // a member at the version requested, and whether it is now
+            Map<String, Boolean> wasMember = new HashMap<>();
+            Iterator<Change> newest = this.changes.descendingIterator();
+            while (newest.hasNext()) {
+                Change change = newest.next();
+                if (change.version <= sinceVersion) {
+                    break;
+                }
+                wasMember.put(change.deviceId, !change.added);
+            }
+
+            List<String> added = new ArrayList<>();
+            List<String> removed = new ArrayList<>();
+            for (Map.Entry<String, Boolean> device : wasMember.entrySet()) {
+                boolean isMember = this.members.contains(device.getKey());
+                if (isMember && !device.getValue()) {
+                    added.add(device.getKey());
+                } else if (!isMember && device.getValue()) {
+                    removed.add(device.getKey());
+                }
+            }
+            Collections.sort(added);
+            Collections.sort(removed);
+
+            return new DeviceGroupChangesServiceModel(this.id, sinceVersion, this.version, false, added, removed);
+        }
+    }
+
+    private static final class Change {
+        private final long version;
+        private final String deviceId;
+        private final boolean added;
+
+        private Change(final long version, final String deviceId, final boolean added) {
+            this.version = version;
+            this.deviceId = deviceId;
+            this.added = added;
+        }
+    }
+}
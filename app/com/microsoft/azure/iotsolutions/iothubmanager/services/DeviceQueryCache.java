@@ -0,0 +1,236 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.*;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.runtime.IServicesConfig;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+@Singleton
+public class DeviceQueryCache implements IDeviceQueryCache {
+
+    private static final Pattern WHERE = Pattern.compile("\\swhere\\s", Pattern.CASE_INSENSITIVE);
+    // Quotes in values are escaped with a backslash, see QueryConditionClause
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^'\\\\]|\\\\.)*'");
+    private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z_$][\\w$]*(?:\\.[\\w$]+)*(?!\\w|\\s*\\()");
+    private static final String TAGS_PREFIX = "tags.";
+    private static final String PROPERTIES_PREFIX = "properties.";
+    private static final String DESIRED_PREFIX = "properties.desired.";
+    private static final Set<String> KEYWORDS = new HashSet<>(Arrays.asList(
+        "and", "or", "not", "in", "nin", "true", "false", "null"));
+
+    private final boolean enabled;
+
+    // Weighted by the number of devices in each page
+    private final Cache<String, CachedPage> pages;
+
+    // Incremented by every change, before the pages are invalidated, so
+    // that a page loaded while devices changed is not added to the cache
+    private final AtomicLong generation = new AtomicLong(0);
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+
+    @Inject
+    public DeviceQueryCache(final IServicesConfig config) {
+        this.enabled = config.isDeviceQueryCacheEnabled();
+        this.pages = Caffeine.newBuilder()
+            .maximumWeight(config.getDeviceQueryCacheMaxDevices())
+            .weigher((String key, CachedPage page) -> page.page.getItems().size() + 1)
+            .expireAfterWrite(config.getDeviceQueryCacheTtl().toMillis(), TimeUnit.MILLISECONDS)
+            .recordStats()
+            .build();
+    }
+
+    @Override
+    public CompletionStage<DeviceServiceListModel> getAsync(
+        final String query,
+        final String continuationToken,
+        final Supplier<CompletionStage<DeviceServiceListModel>> loader) {
+        if (!this.enabled) {
+            return loader.get();
+        }
+
+        String key = query + "\n" + (continuationToken == null ? "" : continuationToken);
+        CachedPage cached = this.pages.getIfPresent(key);
+        if (cached != null) {
+            this.hitCount.increment();
+            return CompletableFuture.completedFuture(cached.page);
+        }
+
+        this.missCount.increment();
+        long generation = this.generation.get();
+        return loader.get().thenApply(page -> {
+            if (this.generation.get() == generation) {
+                this.pages.put(key, new CachedPage(query, page));
+                // A change may have been invalidated just before the put
+                if (this.generation.get() != generation) {
+                    this.pages.invalidate(key);
+                }
+            }
+            return page;
+        });
+    }
+
+    @Override
+    public void onDeviceCreated(final String deviceId, final DeviceTwinServiceModel twin) {
+        this.generation.incrementAndGet();
+        Set<String> fields = getChangedFields(twin);
+        this.invalidateIf(page -> page.unfiltered || page.registryFiltered || page.filtersOn(fields));
+    }
+
+    @Override
+    public void onDeviceUpdated(final String deviceId, final DeviceTwinServiceModel twin) {
+        this.generation.incrementAndGet();
+        this.invalidateQueriesContaining(deviceId);
+        Set<String> fields = getChangedFields(twin);
+        if (!fields.isEmpty()) {
+            this.invalidateIf(page -> page.filtersOn(fields));
+        }
+    }
+
+    @Override
+    public void onDeviceDeleted(final String deviceId) {
+        this.generation.incrementAndGet();
+        this.invalidateQueriesContaining(deviceId);
+    }
+
+    @Override
+    public void onTwinUpdateJob(final DeviceTwinServiceModel twin) {
+        this.generation.incrementAndGet();
+        Set<String> fields = getChangedFields(twin);
+        if (!fields.isEmpty()) {
+            this.invalidateIf(page -> page.filtersOn(fields));
+        }
+    }
+
+    @Override
+    public CacheStatsServiceModel getStats() {
+        return new CacheStatsServiceModel(
+            this.hitCount.sum(),
+            0,
+            this.missCount.sum(),
+            this.pages.stats().evictionCount(),
+            this.pages.estimatedSize());
+    }
+
+    /**
+     * All the pages of a query are invalidated, the continuation tokens of
+     * the following pages are not valid once the results changed.
+     */
+    private void invalidateQueriesContaining(final String deviceId) {
+        Set<String> queries = new HashSet<>();
+        for (CachedPage page : this.pages.asMap().values()) {
+            if (page.deviceIds.contains(deviceId)) {
+                queries.add(page.query);
+            }
+        }
+
+        if (!queries.isEmpty()) {
+            this.invalidateIf(page -> queries.contains(page.query));
+        }
+    }
+
+    private void invalidateIf(final Predicate<CachedPage> predicate) {
+        this.pages.asMap().values().removeIf(predicate);
+    }
+
+    /**
+     * Get the fields referenced by the conditions of an IoT Hub query, e.g.
+     * `tags.building` or `properties.reported.firmware`
+     */
+    static Set<String> getFilteredFields(final String query) {
+        Matcher where = WHERE.matcher(query);
+        if (!where.find()) {
+            return Collections.emptySet();
+        }
+
+        String conditions = STRING_LITERAL.matcher(query.substring(where.end())).replaceAll("''");
+        Set<String> fields = new HashSet<>();
+        Matcher identifier = IDENTIFIER.matcher(conditions);
+        while (identifier.find()) {
+            String field = identifier.group().toLowerCase();
+            if (!KEYWORDS.contains(field)) {
+                fields.add(field);
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * Get the twin fields written by an update, e.g. `tags.building` or
+     * `properties.desired.interval`. Nested values are not listed, a query
+     * on `tags.building.floor` matches a change of `tags.building`.
+     */
+    static Set<String> getChangedFields(final DeviceTwinServiceModel twin) {
+        if (twin == null) {
+            return Collections.emptySet();
+        }
+
+        Set<String> fields = new HashSet<>();
+        if (twin.getTags() != null) {
+            for (Object key : twin.getTags().keySet()) {
+                fields.add(TAGS_PREFIX + key.toString().toLowerCase());
+            }
+        }
+        if (twin.getProperties() != null && twin.getProperties().getDesired() != null) {
+            for (String key : twin.getProperties().getDesired().keySet()) {
+                fields.add(DESIRED_PREFIX + key.toLowerCase());
+            }
+        }
+        return fields;
+    }
+
+    private static class CachedPage {
+
+        private final String query;
+        private final DeviceServiceListModel page;
+        private final Set<String> deviceIds = new HashSet<>();
+        private final Set<String> fields;
+        private final boolean unfiltered;
+        private final boolean registryFiltered;
+
+        CachedPage(final String query, final DeviceServiceListModel page) {
+            this.query = query;
+            this.page = page;
+            for (DeviceServiceModel device : page.getItems()) {
+                this.deviceIds.add(device.getId());
+            }
+            this.unfiltered = !WHERE.matcher(query).find();
+            this.fields = getFilteredFields(query);
+            this.registryFiltered = this.fields.stream().anyMatch(
+                field -> !field.startsWith(TAGS_PREFIX) && !field.startsWith(PROPERTIES_PREFIX));
+        }
+
+        /**
+         * A change to `tags.building` can change the results of a query on
+         * `tags.building.floor` and the other way round.
+         */
+        boolean filtersOn(final Set<String> changedFields) {
+            for (String field : changedFields) {
+                for (String filtered : this.fields) {
+                    if (filtered.equals(field)
+                        || filtered.startsWith(field + ".")
+                        || field.startsWith(filtered + ".")) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+    }
+}
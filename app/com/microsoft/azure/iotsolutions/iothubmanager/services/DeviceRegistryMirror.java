@@ -0,0 +1,345 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.exceptions.*;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.*;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.runtime.IServicesConfig;
+import play.Logger;
+import play.inject.ApplicationLifecycle;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+@Singleton
+public class DeviceRegistryMirror implements IDeviceRegistryMirror {
+
+    private static final Logger.ALogger log = Logger.of(DeviceRegistryMirror.class);
+
+    private static final int REFRESH_PAGE_SIZE = 100;
+    private static final String QUERY_ALL = "SELECT * FROM devices";
+    private static final String QUERY_VERSIONS = "SELECT deviceId, etag, deviceEtag, connectionState FROM devices";
+
+    private final IIoTHubWrapper ioTHubService;
+    private final IIoTHubQueryClient queryClient;
+    private final boolean enabled;
+    private final long refreshIntervalMillis;
+    private final long maxStalenessMillis;
+
+    // Sorted by device id, so that listings can be paged with the last id returned
+    private final ConcurrentSkipListMap<String, DeviceServiceModel> devices = new ConcurrentSkipListMap<>();
+
+    // Devices written or deleted locally while a refresh is running, the
+    // refresh must not overwrite them with the older data it fetched
+    private final Set<String> touchedDuringRefresh = ConcurrentHashMap.newKeySet();
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private final AtomicBoolean refreshing = new AtomicBoolean(false);
+    private volatile long lastRefreshMillis = 0;
+    private ScheduledExecutorService scheduler;
+
+    @Inject
+    public DeviceRegistryMirror(
+        final IIoTHubWrapper ioTHubService,
+        final IIoTHubQueryClient queryClient,
+        final IServicesConfig config,
+        final ApplicationLifecycle lifecycle) {
+        this.ioTHubService = ioTHubService;
+        this.queryClient = queryClient;
+        this.enabled = config.isDeviceMirrorEnabled();
+        this.refreshIntervalMillis = config.getDeviceMirrorRefreshInterval().toMillis();
+        this.maxStalenessMillis = config.getDeviceMirrorMaxStaleness().toMillis();
+
+        if (this.enabled) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "device-registry-mirror");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.scheduler.scheduleWithFixedDelay(
+                this::refresh, 0, this.refreshIntervalMillis, TimeUnit.MILLISECONDS);
+
+            lifecycle.addStopHook(() -> {
+                this.scheduler.shutdownNow();
+                return CompletableFuture.completedFuture(null);
+            });
+        }
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    @Override
+    public boolean isFresh() {
+        return this.enabled
+            && this.lastRefreshMillis > 0
+            && System.currentTimeMillis() - this.lastRefreshMillis <= this.maxStalenessMillis;
+    }
+
+    @Override
+    public Optional<DeviceServiceModel> get(final String id) {
+        if (!this.isFresh()) {
+            return Optional.empty();
+        }
+
+        return Optional.ofNullable(this.devices.get(id));
+    }
+
+    /**
+     * Get up to `limit` devices sorted by id, starting after `afterId`.
+     * The first page requires a fresh mirror; following pages are served
+     * as long as the mirror has been loaded once, so that a listing started
+     * from the mirror can be completed.
+     */
+    @Override
+    public Optional<List<DeviceServiceModel>> getPage(final String afterId, final int limit) {
+        boolean available = afterId == null ? this.isFresh() : this.enabled && this.lastRefreshMillis > 0;
+        if (!available) {
+            return Optional.empty();
+        }
+
+        Collection<DeviceServiceModel> tail = afterId == null
+            ? this.devices.values()
+            : this.devices.tailMap(afterId, false).values();
+
+        List<DeviceServiceModel> page = new ArrayList<>(Math.min(limit, this.devices.size()));
+        for (DeviceServiceModel device : tail) {
+            if (page.size() >= limit) {
+                break;
+            }
+            page.add(device);
+        }
+
+        return Optional.of(page);
+    }
+
+    @Override
+    public void put(final DeviceServiceModel device) {
+        if (!this.enabled || device == null || device.getId() == null) {
+            return;
+        }
+
+        this.devices.put(device.getId(), device);
+        if (this.refreshing.get()) {
+            this.touchedDuringRefresh.add(device.getId());
+        }
+        this.notifyChanged(device);
+    }
+
+    @Override
+    public void remove(final String id) {
+        if (!this.enabled) {
+            return;
+        }
+
+        DeviceServiceModel removed = this.devices.remove(id);
+        if (this.refreshing.get()) {
+            this.touchedDuringRefresh.add(id);
+        }
+        if (removed != null) {
+            this.notifyRemoved(id);
+        }
+    }
+
+    @Override
+    public void addListener(final Listener listener) {
+        this.listeners.add(listener);
+    }
+
+    /**
+     * Run one synchronization pass against IoT Hub. The first pass reads
+     * all the devices with a single query, which returns the twins
+     * together with the registry fields. Later passes only read the ids
+     * and versions of the devices, then the whole documents of the devices
+     * that are new or changed, so that unchanged twins are not transferred
+     * again. Entries are replaced one at a time so that readers never
+     * observe an empty mirror. The query does not return the device keys,
+     * so the keys already loaded for a device are kept as long as the
+     * device has not changed.
+     */
+    @Override
+    public void refresh() {
+        if (!this.refreshing.compareAndSet(false, true)) {
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        try {
+            String hostName = this.ioTHubService.getIotHubHostName();
+            int read = this.lastRefreshMillis == 0 ? this.loadAll(hostName) : this.loadChanged(hostName);
+
+            this.lastRefreshMillis = start;
+            log.info("Device registry mirror refreshed: {} devices, {} read, in {} ms",
+                this.devices.size(), read, System.currentTimeMillis() - start);
+        } catch (CompletionException | ExternalDependencyException | InvalidConfigurationException e) {
+            log.error("Unable to refresh the device registry mirror", e);
+        } catch (Exception e) {
+            // Never let an error cancel the scheduled refresh
+            log.error("Unexpected error while refreshing the device registry mirror", e);
+        } finally {
+            // Cleared before the flag, so that no local write can be left
+            // unmarked while the pass is still applying hub data
+            this.touchedDuringRefresh.clear();
+            this.refreshing.set(false);
+        }
+    }
+
+    /**
+     * Read all the devices and twins
+     *
+     * @return Number of devices read
+     */
+    private int loadAll(final String hostName)
+        throws ExternalDependencyException, InvalidConfigurationException {
+        HashSet<String> seen = new HashSet<>();
+        String continuationToken = null;
+        do {
+            QueryResultServiceModel page = this.queryClient
+                .queryAsync(QUERY_ALL, continuationToken, REFRESH_PAGE_SIZE)
+                .toCompletableFuture()
+                .join();
+            for (JsonNode twin : page.getItems()) {
+                seen.add(this.apply(new DeviceServiceModel(twin, hostName)));
+            }
+            continuationToken = page.getContinuationToken();
+        } while (continuationToken != null);
+
+        this.removeUnseen(seen);
+        return seen.size();
+    }
+
+    /**
+     * Read the versions of all the devices, then the devices whose twin
+     * ETag, device ETag or connection state changed since the last pass
+     *
+     * @return Number of devices read
+     */
+    private int loadChanged(final String hostName)
+        throws ExternalDependencyException, InvalidConfigurationException {
+        HashSet<String> seen = new HashSet<>();
+        List<String> changed = new ArrayList<>();
+        String continuationToken = null;
+        do {
+            QueryResultServiceModel page = this.queryClient
+                .queryAsync(QUERY_VERSIONS, continuationToken, REFRESH_PAGE_SIZE)
+                .toCompletableFuture()
+                .join();
+            for (JsonNode version : page.getItems()) {
+                String id = version.path("deviceId").asText(null);
+                if (id == null) {
+                    continue;
+                }
+
+                seen.add(id);
+                DeviceServiceModel existing = this.devices.get(id);
+                boolean connected = "Connected".equalsIgnoreCase(version.path("connectionState").asText());
+                if (existing == null
+                    || !Objects.equals(getTwinETag(existing), version.path("etag").asText(null))
+                    || !Objects.equals(existing.getETag(), version.path("deviceEtag").asText(null))
+                    || !Objects.equals(existing.getConnected(), connected)) {
+                    changed.add(id);
+                }
+            }
+            continuationToken = page.getContinuationToken();
+        } while (continuationToken != null);
+
+        this.removeUnseen(seen);
+
+        for (int i = 0; i < changed.size(); i += REFRESH_PAGE_SIZE) {
+            List<String> ids = changed.subList(i, Math.min(changed.size(), i + REFRESH_PAGE_SIZE));
+            String query = getDevicesQuery(ids);
+            continuationToken = null;
+            do {
+                QueryResultServiceModel page = this.queryClient
+                    .queryAsync(query, continuationToken, REFRESH_PAGE_SIZE)
+                    .toCompletableFuture()
+                    .join();
+                for (JsonNode twin : page.getItems()) {
+                    this.apply(new DeviceServiceModel(twin, hostName));
+                }
+                continuationToken = page.getContinuationToken();
+            } while (continuationToken != null);
+        }
+
+        return changed.size();
+    }
+
+    /**
+     * Store a device read from IoT Hub, unless it was written locally
+     * during the pass
+     *
+     * @return Id of the device
+     */
+    private String apply(DeviceServiceModel device) {
+        String id = device.getId();
+        if (this.touchedDuringRefresh.contains(id)) {
+            return id;
+        }
+
+        DeviceServiceModel existing = this.devices.get(id);
+        if (existing != null && existing.hasKeys()
+            && Objects.equals(existing.getETag(), device.getETag())) {
+            device = device.withAuthentication(existing.getAuthentication());
+        }
+
+        this.devices.put(id, device);
+        if (existing == null || !Objects.equals(getTwinETag(existing), getTwinETag(device))) {
+            this.notifyChanged(device);
+        }
+        return id;
+    }
+
+    private void removeUnseen(final Set<String> seen) {
+        for (String id : this.devices.keySet()) {
+            if (!seen.contains(id) && !this.touchedDuringRefresh.contains(id)) {
+                this.devices.remove(id);
+                this.notifyRemoved(id);
+            }
+        }
+    }
+
+    /**
+     * Device ids can contain quotes, they are escaped as in the query values
+     */
+    private static String getDevicesQuery(final List<String> ids) {
+        StringBuilder query = new StringBuilder(QUERY_ALL).append(" WHERE deviceId IN [");
+        for (int i = 0; i < ids.size(); i++) {
+            if (i > 0) {
+                query.append(", ");
+            }
+            query.append('\'').append(ids.get(i).replace("\\", "\\\\").replace("'", "\\'")).append('\'');
+        }
+        return query.append(']').toString();
+    }
+
+    private void notifyChanged(final DeviceServiceModel device) {
+        for (Listener listener : this.listeners) {
+            try {
+                listener.onDeviceChanged(device);
+            } catch (Exception e) {
+                log.error("Device registry mirror listener failed", e);
+            }
+        }
+    }
+
+    private void notifyRemoved(final String id) {
+        for (Listener listener : this.listeners) {
+            try {
+                listener.onDeviceRemoved(id);
+            } catch (Exception e) {
+                log.error("Device registry mirror listener failed", e);
+            }
+        }
+    }
+
+    private static String getTwinETag(final DeviceServiceModel device) {
+        return device.getTwin() == null ? null : device.getTwin().getETag();
+    }
+}
@@ -0,0 +1,372 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.helpers.KeyPathFlattener;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.helpers.QueryConditionClause;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.helpers.QueryConditionEvaluator;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.helpers.QueryConditionOperator;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.DeviceServiceModel;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.DeviceTwinServiceModel;
+import org.roaringbitmap.FastAggregation;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+@Singleton
+public class DeviceTwinIndex implements IDeviceTwinIndex {
+
+    private static final String TAGS_PATH = "tags";
+    private static final String DESIRED_PATH = "properties.desired";
+    private static final String REPORTED_PATH = "properties.reported";
+    private static final int MAX_RANGES_PER_PATH = 64;
+
+    private final IDeviceRegistryMirror mirror;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Ordinals are never reused, so that a page token holding the last
+    // ordinal returned keeps pointing to the same position
+    private final HashMap<String, Integer> ordinals = new HashMap<>();
+    private final ArrayList<String> deviceIds = new ArrayList<>();
+    private final RoaringBitmap live = new RoaringBitmap();
+
+    // The values indexed for each device, needed to remove the device
+    // from the postings when it changes or is deleted
+    private final HashMap<Integer, List<Entry>> entries = new HashMap<>();
+
+    // For each path, the devices having each value, and the devices having any value
+    private final HashMap<String, TreeMap<Value, RoaringBitmap>> postings = new HashMap<>();
+    private final HashMap<String, RoaringBitmap> defined = new HashMap<>();
+
+    // Range conditions OR one bitmap per distinct value, which is the costly
+    // part of an evaluation; the results are kept until the path changes
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, RoaringBitmap>> ranges =
+        new ConcurrentHashMap<>();
+
+    @Inject
+    public DeviceTwinIndex(final IDeviceRegistryMirror mirror) {
+        this.mirror = mirror;
+        mirror.addListener(new IDeviceRegistryMirror.Listener() {
+            @Override
+            public void onDeviceChanged(final DeviceServiceModel device) {
+                DeviceTwinIndex.this.put(device.getId(), device.getTwin());
+            }
+
+            @Override
+            public void onDeviceRemoved(final String id) {
+                DeviceTwinIndex.this.remove(id);
+            }
+        });
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return this.mirror.isFresh();
+    }
+
+    @Override
+    public Optional<RoaringBitmap> evaluate(final List<QueryConditionClause> clauses) {
+        this.lock.readLock().lock();
+        try {
+            RoaringBitmap[] matches = new RoaringBitmap[clauses.size()];
+            for (int i = 0; i < matches.length; i++) {
+                QueryConditionClause clause = clauses.get(i);
+                // Only the tags and properties are indexed, not the device id
+                String path = QueryConditionEvaluator.normalizeKey(clause.getKey());
+                if (path == null || !path.contains(".")) {
+                    return Optional.empty();
+                }
+
+                matches[i] = this.evaluate(path, clause);
+                if (matches[i] == null) {
+                    return Optional.empty();
+                }
+            }
+
+            switch (matches.length) {
+                case 0:
+                    return Optional.of(this.live.clone());
+                case 1:
+                    // Never hand out a bitmap owned by the index
+                    return Optional.of(matches[0].clone());
+                default:
+                    return Optional.of(FastAggregation.and(matches));
+            }
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public String getDeviceId(final int ordinal) {
+        this.lock.readLock().lock();
+        try {
+            return ordinal >= 0 && ordinal < this.deviceIds.size() ? this.deviceIds.get(ordinal) : null;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        this.lock.readLock().lock();
+        try {
+            return this.ordinals.size();
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    void put(final String id, final DeviceTwinServiceModel twin) {
+        if (id == null) {
+            return;
+        }
+
+        List<Entry> newEntries = new ArrayList<>();
+        if (twin != null) {
+            addEntries(TAGS_PATH, twin.getTags(), newEntries);
+            if (twin.getProperties() != null) {
+                addEntries(DESIRED_PATH, twin.getProperties().getDesired(), newEntries);
+                addEntries(REPORTED_PATH, twin.getProperties().getReported(), newEntries);
+            }
+        }
+
+        this.lock.writeLock().lock();
+        try {
+            Integer ordinal = this.ordinals.get(id);
+            if (ordinal == null) {
+                ordinal = this.deviceIds.size();
+                this.ordinals.put(id, ordinal);
+                this.deviceIds.add(id);
+                this.live.add(ordinal);
+            } else {
+                this.removePostings(ordinal);
+            }
+
+            for (Entry entry : newEntries) {
+                this.postings
+                    .computeIfAbsent(entry.path, path -> new TreeMap<>())
+                    .computeIfAbsent(entry.value, value -> new RoaringBitmap())
+                    .add(ordinal);
+                this.defined.computeIfAbsent(entry.path, path -> new RoaringBitmap()).add(ordinal);
+                this.ranges.remove(entry.path);
+            }
+            this.entries.put(ordinal, newEntries);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    void remove(final String id) {
+        this.lock.writeLock().lock();
+        try {
+            Integer ordinal = this.ordinals.remove(id);
+            if (ordinal != null) {
+                this.removePostings(ordinal);
+                this.deviceIds.set(ordinal, null);
+                this.live.remove(ordinal);
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    private void removePostings(final int ordinal) {
+        List<Entry> previous = this.entries.remove(ordinal);
+        if (previous == null) {
+            return;
+        }
+
+        for (Entry entry : previous) {
+            TreeMap<Value, RoaringBitmap> values = this.postings.get(entry.path);
+            RoaringBitmap devices = values.get(entry.value);
+            devices.remove(ordinal);
+            if (devices.isEmpty()) {
+                values.remove(entry.value);
+            }
+
+            this.ranges.remove(entry.path);
+            RoaringBitmap any = this.defined.get(entry.path);
+            any.remove(ordinal);
+            if (any.isEmpty()) {
+                this.postings.remove(entry.path);
+                this.defined.remove(entry.path);
+            }
+        }
+    }
+
+    /**
+     * Evaluate one condition, returns null when the value cannot be compared
+     * by the index. Comparisons only match values of the same type, like
+     * IoT Hub queries do.
+     */
+    private RoaringBitmap evaluate(final String path, final QueryConditionClause clause) {
+        TreeMap<Value, RoaringBitmap> values = this.postings.getOrDefault(path, new TreeMap<>());
+
+        if (clause.getValue().isArray()) {
+            ArrayList<RoaringBitmap> matches = new ArrayList<>();
+            for (JsonNode item : clause.getValue()) {
+                Value value = Value.of(item);
+                if (value == null) {
+                    return null;
+                }
+                matches.add(values.getOrDefault(value, new RoaringBitmap()));
+            }
+            return FastAggregation.or(matches.iterator());
+        }
+
+        Value value = Value.of(clause.getValue());
+        if (value == null) {
+            return null;
+        }
+
+        switch (clause.getOperator()) {
+            case EQ:
+                return values.getOrDefault(value, new RoaringBitmap());
+            case NE:
+                return RoaringBitmap.andNot(
+                    this.defined.getOrDefault(path, new RoaringBitmap()),
+                    values.getOrDefault(value, new RoaringBitmap()));
+            case LT:
+            case LE:
+            case GT:
+            case GE:
+                ConcurrentHashMap<String, RoaringBitmap> cached =
+                    this.ranges.computeIfAbsent(path, key -> new ConcurrentHashMap<>());
+                if (cached.size() >= MAX_RANGES_PER_PATH) {
+                    cached.clear();
+                }
+                return cached.computeIfAbsent(
+                    clause.getOperator().name() + " " + clause.getValue(),
+                    key -> FastAggregation.or(getRange(values, clause.getOperator(), value).values().iterator()));
+            default:
+                return null;
+        }
+    }
+
+    private static NavigableMap<Value, RoaringBitmap> getRange(
+        final TreeMap<Value, RoaringBitmap> values,
+        final QueryConditionOperator operator,
+        final Value value) {
+        switch (operator) {
+            case LT:
+                return values.subMap(Value.lowest(value.rank), true, value, false);
+            case LE:
+                return values.subMap(Value.lowest(value.rank), true, value, true);
+            case GT:
+                return values.subMap(value, false, Value.highest(value.rank), true);
+            default:
+                return values.subMap(value, true, Value.highest(value.rank), true);
+        }
+    }
+
+    private static void addEntries(final String prefix, final Map<?, ?> values, final List<Entry> result) {
+        KeyPathFlattener.forEachValue(prefix, values, (path, field) -> {
+            Value value = Value.of(field);
+            if (value != null) {
+                result.add(new Entry(path, value));
+            }
+        });
+    }
+
+    private static final class Entry {
+        private final String path;
+        private final Value value;
+
+        private Entry(final String path, final Value value) {
+            this.path = path;
+            this.value = value;
+        }
+    }
+
+    /**
+     * A twin value, ordered by type first: booleans, then numbers, then
+     * strings. The lowest and highest values of each type bound the range
+     * conditions.
+     */
+    private static final class Value implements Comparable<Value> {
+
+        private static final int BOOLEAN = 0;
+        private static final int NUMBER = 1;
+        private static final int STRING = 2;
+
+        private static final int LOWEST = -1;
+        private static final int HIGHEST = 1;
+
+        private final int rank;
+        private final int bound;
+        private final double number;
+        private final String text;
+
+        private Value(final int rank, final int bound, final double number, final String text) {
+            this.rank = rank;
+            this.bound = bound;
+            this.number = number;
+            this.text = text;
+        }
+
+        static Value lowest(final int rank) {
+            return new Value(rank, LOWEST, 0, null);
+        }
+
+        static Value highest(final int rank) {
+            return new Value(rank, HIGHEST, 0, null);
+        }
+
+        static Value of(final Object value) {
+            if (value instanceof Boolean) {
+                return new Value(BOOLEAN, 0, (Boolean) value ? 1 : 0, null);
+            }
+            if (value instanceof Number) {
+                return new Value(NUMBER, 0, ((Number) value).doubleValue(), null);
+            }
+            if (value instanceof String) {
+                return new Value(STRING, 0, 0, (String) value);
+            }
+            return null;
+        }
+
+        static Value of(final JsonNode value) {
+            if (value.isBoolean()) {
+                return new Value(BOOLEAN, 0, value.asBoolean() ? 1 : 0, null);
+            }
+            if (value.isNumber()) {
+                return new Value(NUMBER, 0, value.asDouble(), null);
+            }
+            if (value.isTextual()) {
+                return new Value(STRING, 0, 0, value.asText());
+            }
+            return null;
+        }
+
+        @Override
+        public int compareTo(final Value other) {
+            if (this.rank != other.rank) {
+                return Integer.compare(this.rank, other.rank);
+            }
+            if (this.bound != 0 || other.bound != 0) {
+                return Integer.compare(this.bound, other.bound);
+            }
+            return this.rank == STRING
+                ? this.text.compareTo(other.text)
+                : Double.compare(this.number, other.number);
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            return other instanceof Value && this.compareTo((Value) other) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return this.rank == STRING ? this.text.hashCode() : Double.hashCode(this.number);
+        }
+    }
+}
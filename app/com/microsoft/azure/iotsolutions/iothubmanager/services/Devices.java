@@ -2,18 +2,31 @@
 
 package com.microsoft.azure.iotsolutions.iothubmanager.services;
 
+import akka.NotUsed;
+import akka.japi.Pair;
+import akka.stream.javadsl.Source;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.google.inject.Inject;
 import com.microsoft.azure.iotsolutions.iothubmanager.services.exceptions.*;
 import com.microsoft.azure.iotsolutions.iothubmanager.services.external.IConfigService;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.helpers.QueryConditionClause;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.helpers.QueryConditionEvaluator;
 import com.microsoft.azure.iotsolutions.iothubmanager.services.helpers.QueryConditionTranslator;
 import com.microsoft.azure.iotsolutions.iothubmanager.services.models.*;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.runtime.IServicesConfig;
 import com.microsoft.azure.sdk.iot.service.*;
 import com.microsoft.azure.sdk.iot.service.devicetwin.*;
 import com.microsoft.azure.sdk.iot.service.exceptions.*;
+import org.roaringbitmap.PeekableIntIterator;
+import org.roaringbitmap.RoaringBitmap;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import play.Logger;
 import play.libs.Json;
@@ -22,8 +35,9 @@ public final class Devices implements IDevices {
 
     private static final Logger.ALogger log = Logger.of(Devices.class);
 
-    private static final int MAX_GET_LIST = 1000;
     private static final String QueryPrefix = "SELECT * FROM devices";
+    private static final String MIRROR_TOKEN_PREFIX = "mirror:";
+    private static final String INDEX_TOKEN_PREFIX = "index:";
 
     private final RegistryManager registry;
     private final DeviceTwin deviceTwinClient;
@@ -31,11 +45,49 @@ public final class Devices implements IDevices {
     private final String iotHubHostName;
     IIoTHubWrapper _ioTHubService;
     private final IConfigService configService;
+    private final IDeviceRegistryMirror mirror;
+    private final IDeviceTwinIndex index;
+    private final IDeviceGroups deviceGroups;
+    private final IDeviceCache cache;
+    private final IDeviceQueryCache queryCache;
+    private final IRequestCoalescer coalescer;
+    private final IIoTHubQueryClient queryClient;
+    private final IIoTHubRegistryClient registryClient;
+    private final Executor registryExecutor;
+    private final Executor twinExecutor;
+    private final Executor methodExecutor;
+    private final int pageSize;
+    private final int bulkConcurrency;
 
     @Inject
-    public Devices(final IIoTHubWrapper ioTHubService, final IConfigService configService) throws Exception {
+    public Devices(
+        final IIoTHubWrapper ioTHubService,
+        final IConfigService configService,
+        final IDeviceRegistryMirror mirror,
+        final IDeviceTwinIndex index,
+        final IDeviceGroups deviceGroups,
+        final IDeviceCache cache,
+        final IDeviceQueryCache queryCache,
+        final IRequestCoalescer coalescer,
+        final IIoTHubQueryClient queryClient,
+        final IIoTHubRegistryClient registryClient,
+        final IIoTHubExecutors executors,
+        final IServicesConfig config) throws Exception {
         _ioTHubService = ioTHubService;
         this.configService = configService;
+        this.mirror = mirror;
+        this.index = index;
+        this.deviceGroups = deviceGroups;
+        this.cache = cache;
+        this.queryCache = queryCache;
+        this.coalescer = coalescer;
+        this.queryClient = queryClient;
+        this.registryClient = registryClient;
+        this.registryExecutor = executors.getRegistryExecutor();
+        this.twinExecutor = executors.getTwinExecutor();
+        this.methodExecutor = executors.getMethodExecutor();
+        this.pageSize = config.getDeviceQueryPageSize();
+        this.bulkConcurrency = Math.max(1, config.getDeviceBulkConcurrency());
         this.registry = ioTHubService.getRegistryManagerClient();
         this.deviceTwinClient = ioTHubService.getDeviceTwinClient();
         this.deviceMethodClient = ioTHubService.getDeviceMethodClient();
@@ -43,76 +95,127 @@ public final class Devices implements IDevices {
     }
 
     public CompletionStage<DeviceServiceModel> getAsync(final String id) throws ExternalDependencyException {
-        try {
-            return this.registry.getDeviceAsync(id)
-                .handle((device, error) -> {
-                    if (error != null) {
-                        String message = String.format("Unable to get device by id: %s", id);
-                        log.error(message, error);
-                        if (error instanceof IotHubNotFoundException) {
-                            throw new CompletionException(
-                                new ResourceNotFoundException(message, error));
-                        } else {
-                            throw new CompletionException(message, error);
-                        }
-                    }
-
-                    try {
-                        DeviceTwinDevice twin = new DeviceTwinDevice(id);
-                        this.deviceTwinClient.getTwin(twin);
-                        return new DeviceServiceModel(device, new DeviceTwinServiceModel(twin), this.iotHubHostName);
-                    } catch (IOException | IotHubException e) {
-                        String message = String.format("Unable to retrieve device twin by id: %s", id);
-                        log.error(message, error);
-                        throw new CompletionException(
-                            new ExternalDependencyException(message, e));
-                    }
-                });
-        } catch (IOException | IotHubException e) {
-            String message = String.format("Unable to get device by id: %s", id);
-            log.error(message, e);
-            throw new ExternalDependencyException(message, e);
+        // Devices loaded with a query have no keys, they are read from the registry once
+        Optional<DeviceServiceModel> mirrored = this.mirror.get(id);
+        if (mirrored.isPresent() && mirrored.get().hasKeys()) {
+            return CompletableFuture.completedFuture(mirrored.get());
         }
+
+        // Only devices read from IoT Hub update the local views: a cached
+        // device can be older than the mirror and the groups
+        return this.coalescer.coalesce("device:" + id, () -> this.cache.getAsync(
+            id, deviceId -> this.fetchAsync(deviceId).thenApply(this::updateLocalViews)));
+    }
+
+    private CompletionStage<DeviceServiceModel> fetchAsync(final String id) {
+        // The device and its twin are read concurrently, the blocking SDK
+        // calls run on the IoT Hub executors
+        CompletableFuture<Device> device = CompletableFuture.supplyAsync(() -> {
+            try {
+                return this.registry.getDevice(id);
+            } catch (IOException | IotHubException e) {
+                String message = String.format("Unable to get device by id: %s", id);
+                log.error(message, e);
+                throw new CompletionException(e instanceof IotHubNotFoundException
+                    ? new ResourceNotFoundException(message, e)
+                    : new ExternalDependencyException(message, e));
+            }
+        }, this.registryExecutor);
+
+        CompletableFuture<DeviceTwinDevice> twin = CompletableFuture.supplyAsync(() -> {
+            try {
+                DeviceTwinDevice result = new DeviceTwinDevice(id);
+                this.deviceTwinClient.getTwin(result);
+                return result;
+            } catch (IOException | IotHubException e) {
+                String message = String.format("Unable to retrieve device twin by id: %s", id);
+                log.error(message, e);
+                throw new CompletionException(e instanceof IotHubNotFoundException
+                    ? new ResourceNotFoundException(message, e)
+                    : new ExternalDependencyException(message, e));
+            }
+        }, this.twinExecutor);
+
+        return device
+            .thenCombine(twin, (azureDevice, azureTwin) ->
+                new DeviceServiceModel(azureDevice, new DeviceTwinServiceModel(azureTwin), this.iotHubHostName));
     }
 
     public CompletionStage<DeviceServiceListModel> queryAsync(final String query, String continuationToken) throws
         ExternalDependencyException {
-        try {
-            // normally we need deviceTwins for all devices to show device list
-            return this.registry.getDevicesAsync(MAX_GET_LIST)
-                .handle((devices, error) -> {
-                    if (error != null) {
-                        String message = String.format("Unable to get device by query: %s", query);
-                        log.error(message, error);
-                        throw new CompletionException(new ExternalDependencyException(message, error));
-                    }
+        // Devices are served from the mirror while it is fresh. Its continuation
+        // tokens are only understood locally.
+        boolean firstPage = continuationToken == null || continuationToken.isEmpty();
+        boolean localToken = !firstPage
+            && (continuationToken.startsWith(MIRROR_TOKEN_PREFIX) || continuationToken.startsWith(INDEX_TOKEN_PREFIX));
+        if (firstPage || localToken) {
+            Optional<DeviceServiceListModel> local = this.queryLocal(query, continuationToken);
+            if (local.isPresent()) {
+                return CompletableFuture.completedFuture(local.get());
+            }
+            if (localToken) {
+                // The mirror is no longer available and IoT Hub does not understand
+                // its tokens: restarting silently would return the first page again
+                String message = "The device listing can no longer be continued, restart it from the first page";
+                log.warn(message);
+                CompletableFuture<DeviceServiceListModel> result = new CompletableFuture<>();
+                result.completeExceptionally(new CompletionException(new InvalidInputException(message)));
+                return result;
+            }
+        }
 
-                    try {
-                        HashMap<String, DeviceTwinServiceModel> twins = GetTwinByQueryAsync(
-                            QueryConditionTranslator.ToQueryString(query),
-                            continuationToken,
-                            MAX_GET_LIST);
-                        ArrayList<DeviceServiceModel> deviceList = new ArrayList<>();
-                        for (Device azureDevice : devices) {
-                            if (twins.containsKey(azureDevice.getDeviceId())) {
-                                deviceList.add(new DeviceServiceModel(
-                                    azureDevice,
-                                    twins.get(azureDevice.getDeviceId()),
-                                    this.iotHubHostName));
-                            }
-                        }
-                        return new DeviceServiceListModel(deviceList, continuationToken);
-                    } catch (InvalidInputException | ExternalDependencyException e) {
-                        String message = String.format("Unable to get device twin by query: %s", query);
-                        log.error(message, error);
-                        throw new CompletionException(message, e);
-                    }
-                });
-        } catch (IOException | IotHubException e) {
-            String message = String.format("Unable to get devices with max count: %d", MAX_GET_LIST);
+        String fullQuery;
+        try {
+            fullQuery = getFullQuery(query);
+        } catch (InvalidInputException e) {
+            String message = String.format("Unable to translate device query: %s", query);
             log.error(message, e);
-            throw new ExternalDependencyException(message, e);
+            CompletableFuture<DeviceServiceListModel> result = new CompletableFuture<>();
+            result.completeExceptionally(new CompletionException(e));
+            return result;
         }
+
+        // Identical queries running at the same time share one call to IoT Hub
+        String pageToken = continuationToken;
+        return this.queryCache.getAsync(fullQuery, pageToken, () -> this.coalescer.coalesce(
+            "query:" + fullQuery + "\n" + (pageToken == null ? "" : pageToken),
+            () -> {
+                try {
+                    return this.getPageAsync(fullQuery, pageToken);
+                } catch (ExternalDependencyException e) {
+                    throw new CompletionException(e);
+                }
+            }));
+    }
+
+    public Source<DeviceServiceModel, NotUsed> streamAsync(final String query) throws InvalidInputException {
+        String fullQuery = getFullQuery(query);
+
+        // The next page is requested only when the previous one has been consumed
+        return Source.unfoldAsync(
+            Optional.of(""),
+            (Optional<String> continuationToken) -> {
+                if (!continuationToken.isPresent()) {
+                    return CompletableFuture.completedFuture(Optional.empty());
+                }
+
+                CompletionStage<DeviceServiceListModel> page;
+                try {
+                    page = this.getPageAsync(fullQuery, continuationToken.get());
+                } catch (ExternalDependencyException e) {
+                    CompletableFuture<DeviceServiceListModel> failed = new CompletableFuture<>();
+                    failed.completeExceptionally(new CompletionException(e));
+                    page = failed;
+                }
+
+                return page.thenApply(result -> {
+                    String next = result.getContinuationToken();
+                    Optional<String> nextState = next == null || next.isEmpty()
+                        ? Optional.empty() : Optional.of(next);
+                    return Optional.of(Pair.create(nextState, result.getItems()));
+                });
+            })
+            .mapConcat(items -> items);
     }
 
     public CompletionStage<DeviceServiceModel> createAsync(
@@ -122,42 +225,47 @@ public final class Devices implements IDevices {
             device.setId(UUID.randomUUID().toString());
         }
 
-        try {
-            return this.registry.addDeviceAsync(device.toAzureModel())
-                .handle((azureDevice, error) -> {
-                    if (error != null) {
-                        String message = String.format("Unable to create new device: %s", device.getId());
-                        log.error(message, error);
-                        throw new CompletionException(message, error);
-                    }
-
-                    try {
-                        DeviceTwinServiceModel twinServiceModel = device.getTwin();
-                        DeviceTwinDevice azureTwin = new DeviceTwinDevice(device.getId());
-                        if (twinServiceModel == null || twinServiceModel.getETag() == null) {
-                            this.deviceTwinClient.getTwin(azureTwin);
-                            return new DeviceServiceModel(azureDevice, new DeviceTwinServiceModel(azureTwin), this.iotHubHostName);
-                        } else {
-                            if (twinServiceModel.getDeviceId() == null || twinServiceModel.getDeviceId().isEmpty()) {
-                                twinServiceModel.setDeviceId(device.getId());
-                            }
-                            if (twinServiceModel.getProperties() != null || twinServiceModel.getTags() != null) {
-                                this.deviceTwinClient.updateTwin(twinServiceModel.toDeviceTwinDevice());
-                            }
-                            return new DeviceServiceModel(azureDevice, device.getTwin(), this.iotHubHostName);
+        Device azureModel = device.toAzureModel();
+        return CompletableFuture
+            .supplyAsync(() -> {
+                try {
+                    return this.registry.addDevice(azureModel);
+                } catch (IOException | IotHubException e) {
+                    String message = String.format("Unable to create new device: %s", device.getId());
+                    log.error(message, e);
+                    throw new CompletionException(message, e);
+                }
+            }, this.registryExecutor)
+            .thenApplyAsync(azureDevice -> {
+                try {
+                    DeviceTwinServiceModel twinServiceModel = device.getTwin();
+                    DeviceTwinDevice azureTwin = new DeviceTwinDevice(device.getId());
+                    if (twinServiceModel == null || twinServiceModel.getETag() == null) {
+                        this.deviceTwinClient.getTwin(azureTwin);
+                        return new DeviceServiceModel(azureDevice, new DeviceTwinServiceModel(azureTwin), this.iotHubHostName);
+                    } else {
+                        if (twinServiceModel.getDeviceId() == null || twinServiceModel.getDeviceId().isEmpty()) {
+                            twinServiceModel.setDeviceId(device.getId());
                         }
-                    } catch (IOException | IotHubException e) {
-                        String message = String.format("Unable to get or update twin of device: %s", device.getId());
-                        log.error(message, e);
-                        throw new CompletionException(
-                            new ExternalDependencyException(message, e));
+                        if (twinServiceModel.getProperties() != null || twinServiceModel.getTags() != null) {
+                            this.deviceTwinClient.updateTwin(twinServiceModel.toDeviceTwinDevice());
+                        }
+                        // Read the whole twin back, the request only holds the fields written
+                        this.deviceTwinClient.getTwin(azureTwin);
+                        return new DeviceServiceModel(azureDevice, new DeviceTwinServiceModel(azureTwin), this.iotHubHostName);
                     }
-                });
-        } catch (IOException | IotHubException e) {
-            String message = String.format("Unable to create new device: %s", device.getId());
-            log.error(message, e);
-            throw new ExternalDependencyException(message, e);
-        }
+                } catch (IOException | IotHubException e) {
+                    String message = String.format("Unable to get or update twin of device: %s", device.getId());
+                    log.error(message, e);
+                    throw new CompletionException(
+                        new ExternalDependencyException(message, e));
+                }
+            }, this.twinExecutor)
+            .whenComplete((result, error) -> {
+                this.cache.invalidate(device.getId());
+                this.queryCache.onDeviceCreated(device.getId(), device.getTwin());
+            })
+            .thenApply(this::updateLocalViews);
     }
 
     public CompletionStage<DeviceServiceModel> createOrUpdateAsync(
@@ -171,100 +279,444 @@ public final class Devices implements IDevices {
             throw new InvalidInputException("Mismatched device id in the request");
         }
 
-        try {
-            return this.registry.getDeviceAsync(id)
-                .handle((azureDevice, error) -> {
-                    if (error != null || azureDevice == null) {
-                        try {
-                            azureDevice = this.registry.addDeviceAsync(device.toAzureModel()).get();
-                        } catch (Exception e) {
-                            String message = String.format("Unable to create new device: %s", id);
-                            log.error(message, e);
-                            throw new CompletionException(message, e);
-                        }
-                    }
+        AtomicBoolean created = new AtomicBoolean(false);
+        return CompletableFuture
+            .supplyAsync(() -> {
+                Device azureDevice = null;
+                try {
+                    azureDevice = this.registry.getDevice(id);
+                } catch (IOException | IotHubException e) {
+                    // The device doesn't exist yet, it is created below
+                }
 
+                if (azureDevice == null) {
                     try {
-                        DeviceTwinDevice twin = new DeviceTwinDevice(device.getId());
-                        if (device.getTwin() == null) {
-                            this.deviceTwinClient.getTwin(twin);
-                            return new DeviceServiceModel(azureDevice, new DeviceTwinServiceModel(twin), this.iotHubHostName);
-                        } else {
-                            this.deviceTwinClient.updateTwin(device.getTwin().toDeviceTwinDevice());
-                            // Update the deviceGroupFilter cache, no need to wait
-                            this.configService.updateDeviceGroupFiltersAsync(device.getTwin());
-                            return new DeviceServiceModel(azureDevice, device.getTwin(), this.iotHubHostName);
-                        }
-                    } catch (IOException | IotHubException e) {
-                        String message = String.format("Unable to get or update twin of device: %s", id);
+                        azureDevice = this.registry.addDevice(device.toAzureModel());
+                        created.set(true);
+                    } catch (Exception e) {
+                        String message = String.format("Unable to create new device: %s", id);
                         log.error(message, e);
-                        throw new CompletionException(
-                            new ExternalDependencyException(message, e));
+                        throw new CompletionException(message, e);
                     }
-                });
-        } catch (IOException | IotHubException e) {
-            String message = String.format("Unable to get device by id: %s", id);
-            log.error(message, e);
-            throw new ExternalDependencyException(message, e);
-        }
+                }
+
+                return azureDevice;
+            }, this.registryExecutor)
+            .thenApplyAsync(azureDevice -> {
+                try {
+                    DeviceTwinDevice twin = new DeviceTwinDevice(device.getId());
+                    if (device.getTwin() == null) {
+                        this.deviceTwinClient.getTwin(twin);
+                        return new DeviceServiceModel(azureDevice, new DeviceTwinServiceModel(twin), this.iotHubHostName);
+                    } else {
+                        this.deviceTwinClient.updateTwin(device.getTwin().toDeviceTwinDevice());
+                        // Update the deviceGroupFilter cache, no need to wait
+                        this.configService.updateDeviceGroupFiltersAsync(device.getTwin());
+                        // Read the whole twin back, the request only holds the fields written
+                        this.deviceTwinClient.getTwin(twin);
+                        return new DeviceServiceModel(azureDevice, new DeviceTwinServiceModel(twin), this.iotHubHostName);
+                    }
+                } catch (IOException | IotHubException e) {
+                    String message = String.format("Unable to get or update twin of device: %s", id);
+                    log.error(message, e);
+                    throw new CompletionException(
+                        new ExternalDependencyException(message, e));
+                }
+            }, this.twinExecutor)
+            .whenComplete((result, error) -> {
+                this.cache.invalidate(device.getId());
+                if (created.get()) {
+                    this.queryCache.onDeviceCreated(device.getId(), device.getTwin());
+                } else {
+                    this.queryCache.onDeviceUpdated(device.getId(), device.getTwin());
+                }
+            })
+            .thenApply(this::updateLocalViews);
     }
 
     public CompletionStage<Boolean> deleteAsync(final String id) throws ExternalDependencyException {
+        return CompletableFuture
+            .supplyAsync(() -> {
+                try {
+                    this.registry.removeDevice(id);
+                    return true;
+                } catch (IotHubNotFoundException e) {
+                    throw new CompletionException(new ResourceNotFoundException("Unable to delete non-exist device: " + id, e));
+                } catch (IOException | IotHubException e) {
+                    throw new CompletionException(new ExternalDependencyException("Unable to delete device" + id, e));
+                }
+            }, this.registryExecutor)
+            .whenComplete((result, error) -> {
+                this.cache.invalidate(id);
+                this.queryCache.onDeviceDeleted(id);
+            })
+            .thenApply(result -> {
+                this.mirror.remove(id);
+                this.deviceGroups.onDeviceRemoved(id);
+                return result;
+            });
+    }
+
+    /**
+     * Apply the same registry operation to many devices. The devices are
+     * sent to IoT Hub in bulk registry operations of up to 100 devices, a
+     * bounded number of batches at a time, then the tags and desired
+     * properties are written to the twins of the devices created or
+     * updated. A failed batch only fails its own devices.
+     */
+    public CompletionStage<List<BulkDeviceResultServiceModel>> bulkAsync(
+        final List<DeviceServiceModel> devices,
+        final BulkOperationMode mode)
+        throws InvalidInputException {
+        for (DeviceServiceModel device : devices) {
+            if (device.getId() == null || device.getId().isEmpty()) {
+                if (mode != BulkOperationMode.create) {
+                    throw new InvalidInputException("Device id is empty");
+                }
+                device.setId(UUID.randomUUID().toString());
+            }
+        }
+
+        List<List<DeviceServiceModel>> batches = new ArrayList<>();
+        for (int i = 0; i < devices.size(); i += IIoTHubRegistryClient.MAX_BULK_SIZE) {
+            batches.add(devices.subList(i, Math.min(devices.size(), i + IIoTHubRegistryClient.MAX_BULK_SIZE)));
+        }
+
+        // Each worker runs one batch after the other until all batches are started
+        AtomicReferenceArray<List<BulkDeviceResultServiceModel>> results = new AtomicReferenceArray<>(batches.size());
+        AtomicInteger nextBatch = new AtomicInteger(0);
+        CompletableFuture<?>[] workers = new CompletableFuture<?>[Math.min(this.bulkConcurrency, batches.size())];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = this.runBatchesAsync(batches, mode, nextBatch, results);
+        }
+
+        return CompletableFuture.allOf(workers).thenApply(done -> {
+            List<BulkDeviceResultServiceModel> all = new ArrayList<>(devices.size());
+            for (int i = 0; i < results.length(); i++) {
+                all.addAll(results.get(i));
+            }
+            return all;
+        });
+    }
+
+    private CompletableFuture<Void> runBatchesAsync(
+        final List<List<DeviceServiceModel>> batches,
+        final BulkOperationMode mode,
+        final AtomicInteger nextBatch,
+        final AtomicReferenceArray<List<BulkDeviceResultServiceModel>> results) {
+        int index = nextBatch.getAndIncrement();
+        if (index >= batches.size()) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return this.runBatchAsync(batches.get(index), mode)
+            .thenCompose(batchResults -> {
+                results.set(index, batchResults);
+                return this.runBatchesAsync(batches, mode, nextBatch, results);
+            });
+    }
+
+    private CompletableFuture<List<BulkDeviceResultServiceModel>> runBatchAsync(
+        final List<DeviceServiceModel> batch,
+        final BulkOperationMode mode) {
+        CompletableFuture<List<BulkDeviceResultServiceModel>> registryResults;
         try {
-            return this.registry.removeDeviceAsync(id)
-                .exceptionally(error -> {
-                    if (error instanceof IotHubNotFoundException) {
-                        throw new CompletionException(new ResourceNotFoundException("Unable to delete non-exist device: " + id, error));
+            registryResults = this.registryClient.bulkAsync(batch, mode).toCompletableFuture();
+        } catch (ExternalDependencyException | InvalidConfigurationException | InvalidInputException e) {
+            registryResults = new CompletableFuture<>();
+            registryResults.completeExceptionally(e);
+        }
+
+        return registryResults
+            .handle((batchResults, error) -> {
+                if (error == null) {
+                    return batchResults;
+                }
+
+                Throwable cause = error instanceof CompletionException && error.getCause() != null
+                    ? error.getCause() : error;
+                log.error(String.format("Unable to %s a batch of %d devices", mode, batch.size()), cause);
+                List<BulkDeviceResultServiceModel> failures = new ArrayList<>(batch.size());
+                for (DeviceServiceModel device : batch) {
+                    failures.add(BulkDeviceResultServiceModel.failure(
+                        device.getId(), cause.getClass().getSimpleName(), cause.getMessage()));
+                }
+                return failures;
+            })
+            .thenCompose(batchResults -> this.updateTwinsAsync(batch, batchResults, mode))
+            .thenApply(batchResults -> {
+                for (BulkDeviceResultServiceModel result : batchResults) {
+                    this.cache.invalidate(result.getDeviceId());
+                }
+                for (int i = 0; i < batch.size(); i++) {
+                    DeviceServiceModel device = batch.get(i);
+                    if (batchResults.get(i).isSucceeded()) {
+                        if (mode == BulkOperationMode.delete) {
+                            this.deviceGroups.onDeviceRemoved(device.getId());
+                        } else {
+                            // The twins are not read back, the groups can't be checked here
+                            this.deviceGroups.onDevicesWritten(device.getTwin(), mode != BulkOperationMode.update);
+                        }
+                    }
+
+                    if (mode == BulkOperationMode.delete) {
+                        this.queryCache.onDeviceDeleted(device.getId());
+                        this.mirror.remove(device.getId());
+                    } else if (mode == BulkOperationMode.create) {
+                        this.queryCache.onDeviceCreated(device.getId(), device.getTwin());
                     } else {
-                        throw new CompletionException(new ExternalDependencyException("Unable to delete device" + id, error));
+                        // Created or updated, the cache cannot tell which one
+                        this.queryCache.onDeviceCreated(device.getId(), device.getTwin());
+                        this.queryCache.onDeviceUpdated(device.getId(), device.getTwin());
                     }
-                });
-        } catch (IOException | IotHubException e) {
-            String message = String.format("Unable to get device by id: %s", id);
-            log.error(message, e);
-            throw new ExternalDependencyException(message, e);
+                }
+                return batchResults;
+            });
+    }
+
+    /**
+     * The bulk registry operations do not write twins, the twins carrying
+     * tags or desired properties are updated one by one on the twin executor.
+     */
+    private CompletableFuture<List<BulkDeviceResultServiceModel>> updateTwinsAsync(
+        final List<DeviceServiceModel> batch,
+        final List<BulkDeviceResultServiceModel> batchResults,
+        final BulkOperationMode mode) {
+        if (mode == BulkOperationMode.delete) {
+            return CompletableFuture.completedFuture(batchResults);
+        }
+
+        HashMap<String, Object> tags = new HashMap<>();
+        List<CompletableFuture<BulkDeviceResultServiceModel>> updates = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            DeviceServiceModel device = batch.get(i);
+            BulkDeviceResultServiceModel result = batchResults.get(i);
+            DeviceTwinServiceModel twin = device.getTwin();
+            boolean hasDesired = twin != null && twin.getProperties() != null && twin.getProperties().getDesired() != null;
+            if (!result.isSucceeded() || twin == null || (twin.getTags() == null && !hasDesired)) {
+                updates.add(CompletableFuture.completedFuture(result));
+                continue;
+            }
+
+            if (twin.getDeviceId() == null || twin.getDeviceId().isEmpty()) {
+                twin.setDeviceId(device.getId());
+            }
+            if (twin.getTags() != null) {
+                tags.putAll(twin.getTags());
+            }
+
+            try {
+                updates.add(CompletableFuture
+                    .supplyAsync(() -> {
+                        try {
+                            this.deviceTwinClient.updateTwin(twin.toDeviceTwinDevice());
+                            return result;
+                        } catch (IOException | IotHubException e) {
+                            log.error(String.format("Unable to update twin of device: %s", device.getId()), e);
+                            return BulkDeviceResultServiceModel.failure(
+                                device.getId(), e.getClass().getSimpleName(), e.getMessage());
+                        }
+                    }, this.twinExecutor));
+            } catch (RejectedExecutionException e) {
+                updates.add(CompletableFuture.completedFuture(BulkDeviceResultServiceModel.failure(
+                    device.getId(), e.getClass().getSimpleName(), e.getMessage())));
+            }
         }
+
+        if (!tags.isEmpty()) {
+            // Update the deviceGroupFilter cache once per batch, no need to wait
+            this.configService.updateDeviceGroupFiltersAsync(
+                new DeviceTwinServiceModel(null, null, null, tags, false));
+        }
+
+        return CompletableFuture
+            .allOf(updates.toArray(new CompletableFuture<?>[0]))
+            .thenApply(done -> {
+                List<BulkDeviceResultServiceModel> results = new ArrayList<>(updates.size());
+                for (CompletableFuture<BulkDeviceResultServiceModel> update : updates) {
+                    results.add(update.join());
+                }
+                return results;
+            });
     }
 
     public CompletionStage<MethodResultServiceModel> invokeDeviceMethodAsync(
         final String id,
         MethodParameterServiceModel parameter)
         throws ExternalDependencyException {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                MethodResult result = this.deviceMethodClient.invoke(
+                    id, parameter.getName(),
+                    parameter.getResponseTimeout().getSeconds(),
+                    parameter.getConnectionTimeout().getSeconds(),
+                    parameter.getJsonPayload());
+                return new MethodResultServiceModel(result);
+            } catch (IOException | IotHubException e) {
+                String message = String.format("Unable to invoke device method: %s, %s",
+                    id, Json.stringify(Json.toJson(parameter)));
+                log.error(message, e);
+                throw new CompletionException(new ExternalDependencyException(message, e));
+            }
+        }, this.methodExecutor);
+    }
+
+    /**
+     * Keep the mirror and the device group memberships in line with the
+     * devices read from or written to IoT Hub. The device must carry its
+     * whole twin as read from IoT Hub, not the fields of a request.
+     */
+    private DeviceServiceModel updateLocalViews(final DeviceServiceModel device) {
+        this.mirror.put(device);
+        this.deviceGroups.onDeviceChanged(device);
+        return device;
+    }
+
+    private static String getFullQuery(final String query) throws InvalidInputException {
+        String condition = QueryConditionTranslator.ToQueryString(query);
+        return condition.isEmpty() ? QueryPrefix : String.format("%s where %s", QueryPrefix, condition);
+    }
+
+    /**
+     * Get one page of devices from IoT Hub. The query API returns the twins
+     * together with the registry fields of each device, so the registry
+     * does not need to be read.
+     */
+    private CompletableFuture<DeviceServiceListModel> getPageAsync(
+        final String fullQuery, final String continuationToken)
+        throws ExternalDependencyException {
         try {
-            MethodResult result = this.deviceMethodClient.invoke(
-                id, parameter.getName(),
-                parameter.getResponseTimeout().getSeconds(),
-                parameter.getConnectionTimeout().getSeconds(),
-                parameter.getJsonPayload());
-            return CompletableFuture.supplyAsync(() -> new MethodResultServiceModel(result));
-        } catch (IOException | IotHubException e) {
-            String message = String.format("Unable to invoke device method: %s, %s",
-                id, Json.stringify(Json.toJson(parameter)));
+            return this.queryClient.queryAsync(fullQuery, continuationToken, this.pageSize)
+                .thenApply(page -> {
+                    ArrayList<DeviceServiceModel> deviceList = new ArrayList<>(page.getItems().size());
+                    for (JsonNode twin : page.getItems()) {
+                        deviceList.add(new DeviceServiceModel(twin, this.iotHubHostName));
+                    }
+                    return new DeviceServiceListModel(deviceList, page.getContinuationToken());
+                })
+                .toCompletableFuture();
+        } catch (InvalidConfigurationException e) {
+            String message = String.format("Unable to query devices: %s", fullQuery);
             log.error(message, e);
             throw new ExternalDependencyException(message, e);
         }
     }
 
-    private HashMap<String, DeviceTwinServiceModel> GetTwinByQueryAsync(
-        final String query, String continuationToken, int nubmerOfResult)
-        throws ExternalDependencyException {
-        String fullQuery = query.isEmpty() ? QueryPrefix : String.format("%s where %s", QueryPrefix, query);
-        QueryOptions options = new QueryOptions();
-        if (continuationToken != null && !continuationToken.isEmpty()) {
-            options.setContinuationToken(continuationToken);
+    /**
+     * Get one page of devices from the mirror, or empty when the mirror is not
+     * available or the query cannot be evaluated locally. Unfiltered listings
+     * are paged by id, conditions on tags and properties are evaluated by the
+     * twin index, and other conditions supported by the evaluator filter the
+     * devices of the mirror one by one.
+     */
+    private Optional<DeviceServiceListModel> queryLocal(final String query, final String continuationToken) {
+        List<QueryConditionClause> clauses = Collections.emptyList();
+        if (query != null && !query.isEmpty()) {
+            if (!query.trim().startsWith("[")) {
+                return Optional.empty();
+            }
+            try {
+                clauses = QueryConditionTranslator.parse(query);
+            } catch (InvalidInputException e) {
+                // Reported by the IoT Hub query path
+                return Optional.empty();
+            }
+            if (!QueryConditionEvaluator.isSupported(clauses)) {
+                return Optional.empty();
+            }
         }
 
-        HashMap<String, DeviceTwinServiceModel> twins = new HashMap();
-        try {
-            QueryCollection twinQuery = this.deviceTwinClient.queryTwinCollection(fullQuery);
-            while (this.deviceTwinClient.hasNext(twinQuery) && twins.size() < nubmerOfResult) {
-                QueryCollectionResponse<DeviceTwinDevice> response = this.deviceTwinClient.next(twinQuery, options);
-                response.getCollection().forEach(twin -> twins.put(twin.getDeviceId(), new DeviceTwinServiceModel(twin)));
+        boolean firstPage = continuationToken == null || continuationToken.isEmpty();
+        if (!firstPage && continuationToken.startsWith(INDEX_TOKEN_PREFIX)) {
+            Integer afterOrdinal = decodeIndexToken(continuationToken);
+            return afterOrdinal == null ? Optional.empty() : this.queryIndex(clauses, afterOrdinal);
+        }
+        if (firstPage && !clauses.isEmpty()) {
+            Optional<DeviceServiceListModel> indexed = this.queryIndex(clauses, -1);
+            if (indexed.isPresent()) {
+                return indexed;
             }
-        } catch (IotHubException | IOException e) {
-            throw new ExternalDependencyException("Unable to query device twin", e);
         }
 
-        return twins;
+        return this.scanMirror(clauses, firstPage ? null : decodeMirrorToken(continuationToken));
+    }
+
+    /**
+     * Get one page of devices from the twin index. The devices are checked
+     * again against the conditions, since the mirror can be updated between
+     * the evaluation of the index and the reads of the devices.
+     */
+    private Optional<DeviceServiceListModel> queryIndex(final List<QueryConditionClause> clauses, final int afterOrdinal) {
+        if (!this.index.isAvailable()) {
+            return Optional.empty();
+        }
+
+        Optional<RoaringBitmap> matches = this.index.evaluate(clauses);
+        if (!matches.isPresent()) {
+            return Optional.empty();
+        }
+
+        PeekableIntIterator ordinals = matches.get().getIntIterator();
+        ordinals.advanceIfNeeded(afterOrdinal + 1);
+
+        ArrayList<DeviceServiceModel> page = new ArrayList<>();
+        int lastOrdinal = afterOrdinal;
+        while (page.size() < this.pageSize && ordinals.hasNext()) {
+            lastOrdinal = ordinals.next();
+            String id = this.index.getDeviceId(lastOrdinal);
+            Optional<DeviceServiceModel> device = id == null ? Optional.empty() : this.mirror.get(id);
+            if (device.isPresent() && QueryConditionEvaluator.matches(clauses, device.get().getTwin())) {
+                page.add(device.get());
+            }
+        }
+
+        String nextToken = ordinals.hasNext() ? INDEX_TOKEN_PREFIX + lastOrdinal : null;
+        return Optional.of(new DeviceServiceListModel(page, nextToken));
+    }
+
+    private Optional<DeviceServiceListModel> scanMirror(final List<QueryConditionClause> clauses, final String afterId) {
+        ArrayList<DeviceServiceModel> page = new ArrayList<>();
+        String lastId = afterId;
+        while (true) {
+            Optional<List<DeviceServiceModel>> devices = this.mirror.getPage(lastId, this.pageSize);
+            if (!devices.isPresent()) {
+                return Optional.empty();
+            }
+
+            for (DeviceServiceModel device : devices.get()) {
+                lastId = device.getId();
+                if (clauses.isEmpty() || QueryConditionEvaluator.matches(clauses, device.getTwin())) {
+                    page.add(device);
+                    if (page.size() >= this.pageSize) {
+                        return Optional.of(new DeviceServiceListModel(page, encodeMirrorToken(lastId)));
+                    }
+                }
+            }
+
+            if (devices.get().size() < this.pageSize) {
+                return Optional.of(new DeviceServiceListModel(page, null));
+            }
+        }
+    }
+
+    private static Integer decodeIndexToken(final String continuationToken) {
+        try {
+            return Integer.valueOf(continuationToken.substring(INDEX_TOKEN_PREFIX.length()));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static String encodeMirrorToken(final String lastId) {
+        return MIRROR_TOKEN_PREFIX + Base64.getUrlEncoder().encodeToString(lastId.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String decodeMirrorToken(final String continuationToken) {
+        try {
+            byte[] lastId = Base64.getUrlDecoder().decode(continuationToken.substring(MIRROR_TOKEN_PREFIX.length()));
+            return new String(lastId, StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
     }
 }
@@ -0,0 +1,31 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.services;
+
+import com.google.inject.ImplementedBy;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.CacheStatsServiceModel;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.DeviceJobStatus;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.JobServiceModel;
+
+/**
+ * Cache of the jobs in a final status (completed, failed, cancelled) with
+ * the results of their devices. These jobs never change, so the entries
+ * never expire: the least recently used jobs are moved from memory to
+ * disk, and are dropped from disk once its size limit is reached.
+ */
+@ImplementedBy(CompletedJobCache.class)
+public interface ICompletedJobCache {
+
+    /**
+     * @return The job read with the same options, or null when the job is
+     * not cached
+     */
+    JobServiceModel get(String jobId, boolean includeDeviceDetails, DeviceJobStatus deviceJobStatus);
+
+    /**
+     * Cache the job read with the given options, if it is in a final status
+     */
+    void put(String jobId, boolean includeDeviceDetails, DeviceJobStatus deviceJobStatus, JobServiceModel job);
+
+    CacheStatsServiceModel getStats();
+}
@@ -0,0 +1,31 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.services;
+
+import com.google.inject.ImplementedBy;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.CacheStatsServiceModel;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.DeviceServiceModel;
+
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+
+/**
+ * Bounded cache of single device reads. Entries younger than the TTL are
+ * served from memory; older entries are revalidated with one device query
+ * comparing the device ETag, instead of reading the registry and the twin.
+ */
+@ImplementedBy(DeviceCache.class)
+public interface IDeviceCache {
+
+    /**
+     * Get a device from the cache, calling `loader` when the device is not
+     * cached or changed since it was cached.
+     */
+    CompletionStage<DeviceServiceModel> getAsync(
+        String id,
+        Function<String, CompletionStage<DeviceServiceModel>> loader);
+
+    void invalidate(String id);
+
+    CacheStatsServiceModel getStats();
+}
@@ -0,0 +1,54 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.services;
+
+import com.google.inject.ImplementedBy;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.*;
+
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Device groups registered with their conditions, and the membership of
+ * each group kept up to date as twins change: devices written by this
+ * service, twin update jobs and the registry mirror refreshes. Clients can
+ * read the membership, or only the changes since the version they hold.
+ */
+@ImplementedBy(DeviceGroups.class)
+public interface IDeviceGroups {
+
+    /**
+     * Register a group, or change its conditions. Only conditions on the
+     * device id, tags and properties can be maintained from twin changes.
+     */
+    CompletionStage<DeviceGroupServiceModel> createOrUpdateAsync(String id, String conditions);
+
+    CompletionStage<List<DeviceGroupServiceModel>> getListAsync();
+
+    CompletionStage<DeviceGroupServiceModel> getAsync(String id);
+
+    CompletionStage<DeviceGroupMembersServiceModel> getMembersAsync(String id);
+
+    CompletionStage<DeviceGroupChangesServiceModel> getChangesAsync(String id, long sinceVersion);
+
+    CompletionStage<Boolean> deleteAsync(String id);
+
+    void onDeviceChanged(DeviceServiceModel device);
+
+    void onDeviceRemoved(String id);
+
+    /**
+     * A twin update job changes the twins in the background: groups on the
+     * fields it writes are reloaded from IoT Hub when read, until the job
+     * has timed out, unless the mirror reports the twins.
+     */
+    void onTwinUpdateJob(DeviceTwinServiceModel twin, long maxExecutionTimeInSeconds);
+
+    /**
+     * Devices were written without reading their twins back, so their
+     * membership can't be checked: the groups that may have changed are
+     * reloaded from IoT Hub when read, unless the mirror reports the twins.
+     * The twin holds the tags and desired properties written, if any.
+     */
+    void onDevicesWritten(DeviceTwinServiceModel twin, boolean created);
+}
@@ -0,0 +1,50 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.services;
+
+import com.google.inject.ImplementedBy;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.CacheStatsServiceModel;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.DeviceServiceListModel;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.DeviceTwinServiceModel;
+
+import java.util.concurrent.CompletionStage;
+import java.util.function.Supplier;
+
+/**
+ * Cache of device query pages, keyed by the IoT Hub query and the page
+ * continuation token. Writes invalidate only the pages they can affect:
+ * pages containing the written device, and pages of queries filtering on
+ * a field the write changes. Changes made outside of the service, e.g.
+ * reported properties sent by devices, are visible once the TTL expires.
+ */
+@ImplementedBy(DeviceQueryCache.class)
+public interface IDeviceQueryCache {
+
+    CompletionStage<DeviceServiceListModel> getAsync(
+        String query,
+        String continuationToken,
+        Supplier<CompletionStage<DeviceServiceListModel>> loader);
+
+    /**
+     * A device was created, it can be part of any query without conditions,
+     * filtering on registry fields or on the twin fields it sets.
+     */
+    void onDeviceCreated(String deviceId, DeviceTwinServiceModel twin);
+
+    /**
+     * A device was updated, it can leave the queries it is part of and
+     * join the queries filtering on the twin fields it changes.
+     */
+    void onDeviceUpdated(String deviceId, DeviceTwinServiceModel twin);
+
+    void onDeviceDeleted(String deviceId);
+
+    /**
+     * A job updates the twins of the devices matching its condition, the
+     * devices are not known so only the queries filtering on the twin
+     * fields changed are invalidated.
+     */
+    void onTwinUpdateJob(DeviceTwinServiceModel twin);
+
+    CacheStatsServiceModel getStats();
+}
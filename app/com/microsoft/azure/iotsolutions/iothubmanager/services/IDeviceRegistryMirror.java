@@ -0,0 +1,46 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.services;
+
+import com.google.inject.ImplementedBy;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.DeviceServiceModel;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * In-memory copy of the devices and twins stored in IoT Hub, refreshed in
+ * the background. Reads return empty when the mirror is disabled or older
+ * than the configured staleness bound, so that callers go back to IoT Hub.
+ */
+@ImplementedBy(DeviceRegistryMirror.class)
+public interface IDeviceRegistryMirror {
+
+    boolean isEnabled();
+
+    boolean isFresh();
+
+    Optional<DeviceServiceModel> get(String id);
+
+    Optional<List<DeviceServiceModel>> getPage(String afterId, int limit);
+
+    void put(DeviceServiceModel device);
+
+    void remove(String id);
+
+    void refresh();
+
+    /**
+     * Get notified of the devices added, changed or removed, by local writes
+     * or by the background refresh. Refreshes only report the devices whose
+     * twin changed.
+     */
+    void addListener(Listener listener);
+
+    interface Listener {
+
+        void onDeviceChanged(DeviceServiceModel device);
+
+        void onDeviceRemoved(String id);
+    }
+}
@@ -0,0 +1,41 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.services;
+
+import com.google.inject.ImplementedBy;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.helpers.QueryConditionClause;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Secondary indexes over the twin tags and the desired and reported
+ * properties of the devices held by the registry mirror. Devices are
+ * identified by dense ordinals, and the devices matching a list of
+ * conditions are computed with bitmap operations.
+ */
+@ImplementedBy(DeviceTwinIndex.class)
+public interface IDeviceTwinIndex {
+
+    /**
+     * Whether the index reflects the current content of IoT Hub, i.e.
+     * whether the registry mirror it is built from is fresh.
+     */
+    boolean isAvailable();
+
+    /**
+     * Get the ordinals of the devices matching all the conditions, in
+     * ascending order. Returns empty when one of the conditions cannot be
+     * evaluated by the index, e.g. on a registry field like `deviceId`.
+     */
+    Optional<RoaringBitmap> evaluate(List<QueryConditionClause> clauses);
+
+    /**
+     * Get the id of the device with the given ordinal, null when the
+     * device has been removed since the ordinal was returned.
+     */
+    String getDeviceId(int ordinal);
+
+    int size();
+}
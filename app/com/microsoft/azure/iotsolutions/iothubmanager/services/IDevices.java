@@ -2,10 +2,13 @@
 
 package com.microsoft.azure.iotsolutions.iothubmanager.services;
 
+import akka.NotUsed;
+import akka.stream.javadsl.Source;
 import com.google.inject.ImplementedBy;
 import com.microsoft.azure.iotsolutions.iothubmanager.services.exceptions.*;
 import com.microsoft.azure.iotsolutions.iothubmanager.services.models.*;
 
+import java.util.List;
 import java.util.concurrent.CompletionStage;
 
 // TODO: documentation
@@ -15,6 +18,8 @@ public interface IDevices {
 
     CompletionStage<DeviceServiceListModel> queryAsync(String query, String continuationToken) throws ExternalDependencyException;
 
+    Source<DeviceServiceModel, NotUsed> streamAsync(String query) throws InvalidInputException;
+
     CompletionStage<DeviceServiceModel> getAsync(String id) throws ExternalDependencyException;
 
     CompletionStage<DeviceServiceModel> createAsync(DeviceServiceModel device) throws InvalidInputException, ExternalDependencyException;
@@ -23,5 +28,7 @@ public interface IDevices {
 
     CompletionStage<Boolean> deleteAsync(String id) throws ExternalDependencyException;
 
+    CompletionStage<List<BulkDeviceResultServiceModel>> bulkAsync(List<DeviceServiceModel> devices, BulkOperationMode mode) throws InvalidInputException;
+
     CompletionStage<MethodResultServiceModel> invokeDeviceMethodAsync(String id, MethodParameterServiceModel parameter) throws ExternalDependencyException;
 }
@@ -0,0 +1,39 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.services;
+
+import com.google.inject.ImplementedBy;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Thread pools dedicated to the blocking calls of the IoT Hub SDK, so that
+ * these calls never run on Play's default dispatcher or on the threads
+ * completing other futures. Each kind of operation has its own bounded
+ * pool, e.g. slow device methods can not starve device reads. When a pool
+ * and its queue are full the call is rejected with a
+ * RejectedExecutionException, returned to the client as 503.
+ */
+@ImplementedBy(IoTHubExecutors.class)
+public interface IIoTHubExecutors {
+
+    /**
+     * @return Executor of the device registry calls
+     */
+    Executor getRegistryExecutor();
+
+    /**
+     * @return Executor of the device twin calls
+     */
+    Executor getTwinExecutor();
+
+    /**
+     * @return Executor of the device method invocations
+     */
+    Executor getMethodExecutor();
+
+    /**
+     * @return Executor of the job calls
+     */
+    Executor getJobsExecutor();
+}
@@ -0,0 +1,21 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.services;
+
+import com.google.inject.ImplementedBy;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.exceptions.*;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.QueryResultServiceModel;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Run IoT Hub queries and return the raw documents, one page per call.
+ * Unlike the SDK query clients, twin documents keep the registry fields
+ * reported by IoT Hub, e.g. status, connection state and last activity.
+ */
+@ImplementedBy(IoTHubQueryClient.class)
+public interface IIoTHubQueryClient {
+
+    CompletionStage<QueryResultServiceModel> queryAsync(String query, String continuationToken, int pageSize)
+        throws ExternalDependencyException, InvalidConfigurationException;
+}
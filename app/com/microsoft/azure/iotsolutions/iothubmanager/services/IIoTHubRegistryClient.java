@@ -0,0 +1,31 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.services;
+
+import com.google.inject.ImplementedBy;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.exceptions.*;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.BulkDeviceResultServiceModel;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.BulkOperationMode;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.DeviceServiceModel;
+
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Run IoT Hub bulk registry operations, which create, update or delete
+ * up to {@link #MAX_BULK_SIZE} devices with a single call. The SDK does
+ * not expose these operations.
+ */
+@ImplementedBy(IoTHubRegistryClient.class)
+public interface IIoTHubRegistryClient {
+
+    int MAX_BULK_SIZE = 100;
+
+    /**
+     * @return One result per device, in the same order as `devices`
+     */
+    CompletionStage<List<BulkDeviceResultServiceModel>> bulkAsync(
+        List<DeviceServiceModel> devices,
+        BulkOperationMode mode)
+        throws ExternalDependencyException, InvalidConfigurationException, InvalidInputException;
+}
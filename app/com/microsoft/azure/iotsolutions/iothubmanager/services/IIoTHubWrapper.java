@@ -11,7 +11,7 @@ import com.microsoft.azure.sdk.iot.service.jobs.JobClient;
 
 /**
  * A wrapper to create IoTHub Registry and DeviceTwin client to facilitate
- * access Azure IoT SDK.
+ * access Azure IoT SDK. The clients are shared, callers must not close them.
  */
 @ImplementedBy(IoTHubWrapper.class)
 public interface IIoTHubWrapper {
@@ -24,4 +24,10 @@ public interface IIoTHubWrapper {
     String getIotHubHostName() throws InvalidConfigurationException;
 
     JobClient getJobClient() throws ExternalDependencyException;
+
+    /**
+     * @return SAS token to call the IoT Hub REST API with the credentials
+     * of the connection string
+     */
+    String getServiceSasToken() throws ExternalDependencyException;
 }
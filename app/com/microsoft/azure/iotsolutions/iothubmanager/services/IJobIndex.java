@@ -0,0 +1,52 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.services;
+
+import com.google.inject.ImplementedBy;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.exceptions.InvalidInputException;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.*;
+
+import java.util.concurrent.CompletionStage;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Jobs of the hub sorted by creation time, newest first, so that listing
+ * the jobs of a time window reads only that window. IoT Hub can not
+ * filter jobs by time, so the index is loaded by reading all the jobs,
+ * once per configured interval instead of once per listing.
+ */
+@ImplementedBy(JobIndex.class)
+public interface IJobIndex {
+
+    /**
+     * @return Whether the jobs were loaded at least once
+     */
+    boolean isLoaded();
+
+    boolean isFresh();
+
+    /**
+     * Replace the jobs with the ones passed by `loader` to its consumer.
+     * The jobs are listed as soon as they are passed, the jobs that were
+     * not passed are removed once the loader completes. Concurrent calls
+     * share the same load.
+     */
+    CompletionStage<Void> loadAsync(Function<Consumer<JobServiceModel>, CompletionStage<Void>> loader);
+
+    /**
+     * Add or update a job, e.g. after it has been scheduled or read
+     */
+    void put(JobServiceModel job);
+
+    /**
+     * Get up to `limit` jobs created between `from` and `to` included,
+     * newest first, starting after the job of the continuation token.
+     */
+    JobServiceListModel getPage(
+        JobType jobType,
+        JobStatus jobStatus,
+        long from, long to,
+        int limit,
+        String continuationToken) throws InvalidInputException;
+}
@@ -0,0 +1,46 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.services;
+
+import com.google.inject.ImplementedBy;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.JobServiceModel;
+
+/**
+ * Progress of running jobs. Each job is polled by a single poller, shared
+ * by all the watchers of the job, and stopped once the job is finished or
+ * nobody watches it anymore.
+ */
+@ImplementedBy(JobWatcher.class)
+public interface IJobWatcher {
+
+    /**
+     * Send the job to `listener` now, and again every time its status or
+     * statistics change, until the job is finished or the watch is closed.
+     */
+    Watch watch(String jobId, Listener listener);
+
+    /**
+     * @return Number of jobs being polled
+     */
+    int getActiveJobCount();
+
+    interface Listener {
+
+        void onUpdate(JobServiceModel job);
+
+        /**
+         * The job is finished, no more updates will be sent
+         */
+        void onCompleted();
+
+        /**
+         * The job could not be read from IoT Hub, no more updates will be sent
+         */
+        void onError(Throwable error);
+    }
+
+    interface Watch {
+
+        void close();
+    }
+}
@@ -2,6 +2,8 @@
 
 package com.microsoft.azure.iotsolutions.iothubmanager.services;
 
+import akka.NotUsed;
+import akka.stream.javadsl.Source;
 import com.google.inject.ImplementedBy;
 import com.microsoft.azure.iotsolutions.iothubmanager.services.exceptions.*;
 import com.microsoft.azure.iotsolutions.iothubmanager.services.models.*;
@@ -12,11 +14,12 @@ import java.util.concurrent.CompletionStage;
 @ImplementedBy(Jobs.class)
 public interface IJobs {
 
-    CompletionStage<List<JobServiceModel>> getJobsAsync(
+    CompletionStage<JobServiceListModel> getJobsAsync(
         JobType jobType,
         JobStatus jobStatus,
         Integer pageSize,
-        long from, long to)
+        long from, long to,
+        String continuationToken)
         throws ExternalDependencyException, InvalidInputException;
 
     CompletionStage<JobServiceModel> getJobAsync(
@@ -25,6 +28,24 @@ public interface IJobs {
         DeviceJobStatus devicejobStatus)
         throws ExternalDependencyException;
 
+    /**
+     * Get one page of the device results of a job, with the number of
+     * devices of the page in each status.
+     */
+    CompletionStage<DeviceJobServiceListModel> getDeviceJobsAsync(
+        String jobId,
+        DeviceJobStatus deviceJobStatus,
+        int pageSize,
+        String continuationToken)
+        throws ExternalDependencyException;
+
+    /**
+     * Get all the device results of a job, one page at a time.
+     */
+    Source<DeviceJobServiceListModel, NotUsed> streamDeviceJobsAsync(
+        String jobId,
+        DeviceJobStatus deviceJobStatus);
+
     CompletionStage<JobServiceModel> scheduleTwinUpdateAsync(
         String jobId,
         String queryCondition,
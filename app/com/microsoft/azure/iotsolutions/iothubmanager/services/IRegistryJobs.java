@@ -0,0 +1,38 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.services;
+
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+import com.google.inject.ImplementedBy;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.exceptions.*;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.JobServiceModel;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Export and import the whole device registry with IoT Hub jobs, through
+ * the blob containers in the configuration. Devices are exchanged as JSON
+ * lines, one device per line, in the IoT Hub import/export format.
+ * IoT Hub runs one import or export job at a time.
+ */
+@ImplementedBy(RegistryJobs.class)
+public interface IRegistryJobs {
+
+    CompletionStage<JobServiceModel> exportAsync(boolean excludeKeys) throws ExternalDependencyException, InvalidConfigurationException;
+
+    /**
+     * Upload the devices to the import container, then start the import job.
+     */
+    CompletionStage<JobServiceModel> importAsync(Source<ByteString, ?> devices) throws ExternalDependencyException, InvalidConfigurationException;
+
+    CompletionStage<JobServiceModel> getJobAsync(String jobId) throws ExternalDependencyException;
+
+    /**
+     * Stream the devices written by an export job, once it is completed.
+     * Every export writes to the same blob, so only the latest export
+     * started by this service can be read: older jobs, and jobs started
+     * before a restart, are not found.
+     */
+    CompletionStage<Source<ByteString, ?>> getExportedDevicesAsync(String jobId) throws ExternalDependencyException, InvalidConfigurationException;
+}
@@ -0,0 +1,28 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.services;
+
+import com.google.inject.ImplementedBy;
+
+import java.util.concurrent.CompletionStage;
+import java.util.function.Supplier;
+
+/**
+ * Share one in-flight call between concurrent identical requests, e.g.
+ * dashboards refreshing the same device list at the same time. A call is
+ * shared only while it is running, results are not cached.
+ */
+@ImplementedBy(RequestCoalescer.class)
+public interface IRequestCoalescer {
+
+    /**
+     * Run `call`, unless a call with the same key is already running, in
+     * which case its result is returned instead.
+     */
+    <T> CompletionStage<T> coalesce(String key, Supplier<CompletionStage<T>> call);
+
+    /**
+     * @return Number of requests which joined a call already running
+     */
+    long getCoalescedCount();
+}
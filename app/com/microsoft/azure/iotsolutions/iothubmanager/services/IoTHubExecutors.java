@@ -0,0 +1,188 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.services;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.runtime.ExecutorConfig;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.runtime.IServicesConfig;
+import play.Logger;
+import play.inject.ApplicationLifecycle;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Singleton
+public class IoTHubExecutors implements IIoTHubExecutors {
+
+    private static final Logger.ALogger log = Logger.of(IoTHubExecutors.class);
+
+    private final boolean virtualThreads;
+    private final int virtualThreadMaxCalls;
+    private final List<ExecutorService> executorServices = new ArrayList<>();
+    private final Executor registryExecutor;
+    private final Executor twinExecutor;
+    private final Executor methodExecutor;
+    private final Executor jobsExecutor;
+
+    @Inject
+    public IoTHubExecutors(final IServicesConfig config, final ApplicationLifecycle lifecycle) {
+        this.virtualThreads = config.isVirtualThreadsEnabled() && VirtualThreads.isSupported();
+        if (config.isVirtualThreadsEnabled() && !this.virtualThreads) {
+            log.warn("Virtual threads are not supported by this Java runtime, using platform threads");
+        }
+        this.virtualThreadMaxCalls = config.getVirtualThreadMaxCalls();
+
+        this.registryExecutor = this.createExecutor("iothub-registry", config.getRegistryExecutorConfig());
+        this.twinExecutor = this.createExecutor("iothub-twin", config.getTwinExecutorConfig());
+        this.methodExecutor = this.createExecutor("iothub-method", config.getMethodExecutorConfig());
+        this.jobsExecutor = this.createExecutor("iothub-jobs", config.getJobsExecutorConfig());
+
+        lifecycle.addStopHook(() -> {
+            this.executorServices.forEach(ExecutorService::shutdown);
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    @Override
+    public Executor getRegistryExecutor() {
+        return this.registryExecutor;
+    }
+
+    @Override
+    public Executor getTwinExecutor() {
+        return this.twinExecutor;
+    }
+
+    @Override
+    public Executor getMethodExecutor() {
+        return this.methodExecutor;
+    }
+
+    @Override
+    public Executor getJobsExecutor() {
+        return this.jobsExecutor;
+    }
+
+    /**
+     * @return True if the blocking calls run on virtual threads
+     */
+    public boolean isVirtualThreads() {
+        return this.virtualThreads;
+    }
+
+    /**
+     * With platform threads, calls wait in the queue for one of the pool
+     * threads. With virtual threads every accepted call gets its own
+     * thread, up to the virtual thread limit of each pool; the number of
+     * threads and the queue size are not used.
+     */
+    private Executor createExecutor(final String name, final ExecutorConfig config) {
+        if (this.virtualThreads) {
+            ExecutorService executor = VirtualThreads.newThreadPerTaskExecutor(name);
+            this.executorServices.add(executor);
+            if (this.virtualThreadMaxCalls <= 0) {
+                return executor;
+            }
+            return new BoundedExecutor(name, executor, this.virtualThreadMaxCalls);
+        }
+
+        AtomicInteger count = new AtomicInteger(0);
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+
+        RejectedExecutionHandler rejectionHandler = (runnable, executor) -> {
+            throw rejected(name, executor.getQueue().size());
+        };
+
+        ExecutorService executor = new ThreadPoolExecutor(
+            config.getThreads(),
+            config.getThreads(),
+            0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(config.getQueueSize()),
+            threadFactory,
+            rejectionHandler);
+        this.executorServices.add(executor);
+        return executor;
+    }
+
+    private static RejectedExecutionException rejected(final String name, final int pending) {
+        String message = String.format("Too many pending %s calls (%d)", name, pending);
+        log.warn(message);
+        return new RejectedExecutionException(message);
+    }
+
+    /**
+     * Executor running at most a given number of tasks at a time, further
+     * tasks are rejected instead of being queued.
+     */
+    private static class BoundedExecutor implements Executor {
+
+        private final String name;
+        private final Executor executor;
+        private final int limit;
+        private final Semaphore permits;
+
+        BoundedExecutor(final String name, final Executor executor, final int limit) {
+            this.name = name;
+            this.executor = executor;
+            this.limit = limit;
+            this.permits = new Semaphore(limit);
+        }
+
+        @Override
+        public void execute(final Runnable command) {
+            if (!this.permits.tryAcquire()) {
+                throw rejected(this.name, this.limit);
+            }
+
+            try {
+                this.executor.execute(() -> {
+                    try {
+                        command.run();
+                    } finally {
+                        this.permits.release();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                this.permits.release();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Virtual threads are available from Java 21; the service is built
+     * for Java 8, so they are created with reflection.
+     */
+    private static class VirtualThreads {
+
+        static boolean isSupported() {
+            try {
+                Thread.class.getMethod("ofVirtual");
+                return true;
+            } catch (NoSuchMethodException e) {
+                return false;
+            }
+        }
+
+        static ExecutorService newThreadPerTaskExecutor(final String name) {
+            try {
+                Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name + "-", 1L);
+                ThreadFactory threadFactory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+                return (ExecutorService) Executors.class
+                    .getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                    .invoke(null, threadFactory);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Unable to create virtual threads", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.inject.Inject;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.exceptions.*;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.QueryResultServiceModel;
+import play.Logger;
+import play.libs.Json;
+import play.libs.ws.WSClient;
+import play.libs.ws.WSRequest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Client for the IoT Hub query REST endpoint, see
+ * https://docs.microsoft.com/rest/api/iothub/service/queryiothub
+ */
+public class IoTHubQueryClient implements IIoTHubQueryClient {
+
+    private static final Logger.ALogger log = Logger.of(IoTHubQueryClient.class);
+
+    private static final String API_VERSION = "2017-06-30";
+    private static final String CONTINUATION_TOKEN_HEADER = "x-ms-continuation";
+    private static final String PAGE_SIZE_HEADER = "x-ms-max-item-count";
+
+    private final IIoTHubWrapper ioTHubService;
+    private final WSClient wsClient;
+
+    @Inject
+    public IoTHubQueryClient(final IIoTHubWrapper ioTHubService, final WSClient wsClient) {
+        this.ioTHubService = ioTHubService;
+        this.wsClient = wsClient;
+    }
+
+    @Override
+    public CompletionStage<QueryResultServiceModel> queryAsync(
+        final String query,
+        final String continuationToken,
+        final int pageSize)
+        throws ExternalDependencyException, InvalidConfigurationException {
+
+        String url = String.format("https://%s/devices/query?api-version=%s",
+            this.ioTHubService.getIotHubHostName(), API_VERSION);
+
+        WSRequest request = this.wsClient.url(url)
+            .addHeader("Authorization", this.ioTHubService.getServiceSasToken())
+            .addHeader(PAGE_SIZE_HEADER, String.valueOf(pageSize));
+        if (continuationToken != null && !continuationToken.isEmpty()) {
+            request.addHeader(CONTINUATION_TOKEN_HEADER, continuationToken);
+        }
+
+        ObjectNode body = Json.newObject().put("query", query);
+        return request.post(body)
+            .handle((response, error) -> {
+                if (error != null) {
+                    String message = String.format("Unable to query IoT Hub: %s", query);
+                    log.error(message, error);
+                    throw new CompletionException(new ExternalDependencyException(message, error));
+                }
+
+                if (response.getStatus() >= 400) {
+                    String message = String.format("Unable to query IoT Hub: %s, status: %d, %s",
+                        query, response.getStatus(), response.getBody());
+                    log.error(message);
+                    throw new CompletionException(response.getStatus() == 400
+                        ? new InvalidInputException(message)
+                        : new ExternalDependencyException(message));
+                }
+
+                List<JsonNode> items = new ArrayList<>();
+                response.asJson().forEach(items::add);
+                String next = response.getSingleHeader(CONTINUATION_TOKEN_HEADER).orElse(null);
+                return new QueryResultServiceModel(items, next == null || next.isEmpty() ? null : next);
+            });
+    }
+}
@@ -0,0 +1,142 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.inject.Inject;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.exceptions.*;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.*;
+import play.Logger;
+import play.libs.Json;
+import play.libs.ws.WSClient;
+
+import java.util.*;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Client for the IoT Hub bulk registry REST endpoint, see
+ * https://docs.microsoft.com/rest/api/iothub/service/bulkcreateorupdatedevices
+ */
+public class IoTHubRegistryClient implements IIoTHubRegistryClient {
+
+    private static final Logger.ALogger log = Logger.of(IoTHubRegistryClient.class);
+
+    private static final String API_VERSION = "2017-06-30";
+
+    private final IIoTHubWrapper ioTHubService;
+    private final WSClient wsClient;
+
+    @Inject
+    public IoTHubRegistryClient(final IIoTHubWrapper ioTHubService, final WSClient wsClient) {
+        this.ioTHubService = ioTHubService;
+        this.wsClient = wsClient;
+    }
+
+    @Override
+    public CompletionStage<List<BulkDeviceResultServiceModel>> bulkAsync(
+        final List<DeviceServiceModel> devices,
+        final BulkOperationMode mode)
+        throws ExternalDependencyException, InvalidConfigurationException, InvalidInputException {
+        if (devices.size() > MAX_BULK_SIZE) {
+            throw new InvalidInputException(String.format(
+                "Bulk registry operations are limited to %d devices", MAX_BULK_SIZE));
+        }
+
+        String url = String.format("https://%s/devices?api-version=%s",
+            this.ioTHubService.getIotHubHostName(), API_VERSION);
+
+        ArrayNode body = Json.newArray();
+        for (DeviceServiceModel device : devices) {
+            body.add(toImportDevice(device, mode));
+        }
+
+        return this.wsClient.url(url)
+            .addHeader("Authorization", this.ioTHubService.getServiceSasToken())
+            .post(body)
+            .handle((response, error) -> {
+                if (error != null) {
+                    String message = String.format("Unable to %s %d devices", mode, devices.size());
+                    log.error(message, error);
+                    throw new CompletionException(new ExternalDependencyException(message, error));
+                }
+
+                // Partial failures are reported with status 400 and the list of devices in error
+                JsonNode errors = null;
+                try {
+                    errors = response.asJson().path("errors");
+                } catch (RuntimeException e) {
+                    // Not a bulk result, handled below
+                }
+
+                if (response.getStatus() >= 400 && (errors == null || errors.size() == 0)) {
+                    String message = String.format("Unable to %s %d devices, status: %d, %s",
+                        mode, devices.size(), response.getStatus(), response.getBody());
+                    log.error(message);
+                    throw new CompletionException(response.getStatus() == 400
+                        ? new InvalidInputException(message)
+                        : new ExternalDependencyException(message));
+                }
+
+                Map<String, JsonNode> errorsById = new HashMap<>();
+                if (errors != null) {
+                    errors.forEach(e -> errorsById.put(e.path("deviceId").asText(), e));
+                }
+
+                List<BulkDeviceResultServiceModel> results = new ArrayList<>(devices.size());
+                for (DeviceServiceModel device : devices) {
+                    JsonNode deviceError = errorsById.get(device.getId());
+                    results.add(deviceError == null
+                        ? BulkDeviceResultServiceModel.success(device.getId())
+                        : BulkDeviceResultServiceModel.failure(
+                        device.getId(),
+                        deviceError.path("errorCode").asText(null),
+                        deviceError.path("errorStatus").asText(null)));
+                }
+                return results;
+            });
+    }
+
+    /**
+     * When Enabled is not set, new devices are enabled and the status of
+     * existing devices is left unchanged.
+     */
+    static ObjectNode toImportDevice(final DeviceServiceModel device, final BulkOperationMode mode) {
+        ObjectNode node = Json.newObject()
+            .put("id", device.getId())
+            .put("importMode", mode.name());
+        if (mode == BulkOperationMode.delete) {
+            return node;
+        }
+
+        if (device.getEnabled() != null) {
+            node.put("status", device.getEnabled() ? "enabled" : "disabled");
+        } else if (mode == BulkOperationMode.create) {
+            node.put("status", "enabled");
+        }
+
+        AuthenticationMechanismServiceModel authentication = device.getAuthentication();
+        ObjectNode auth = node.putObject("authentication");
+        if (authentication == null
+            || authentication.getAuthenticationType() == null
+            || authentication.getAuthenticationType() == AuthenticationType.Sas) {
+            // Keys are generated by IoT Hub when not provided
+            auth.put("type", "sas");
+            if (authentication != null && authentication.getPrimaryKey() != null) {
+                auth.putObject("symmetricKey")
+                    .put("primaryKey", authentication.getPrimaryKey())
+                    .put("secondaryKey", authentication.getSecondaryKey());
+            }
+        } else {
+            auth.put("type", authentication.getAuthenticationType() == AuthenticationType.SelfSinged
+                ? "selfSigned" : "certificateAuthority");
+            auth.putObject("x509Thumbprint")
+                .put("primaryThumbprint", authentication.getPrimaryThumbprint())
+                .put("secondaryThumbprint", authentication.getSecondaryThumbprint());
+        }
+
+        return node;
+    }
+}
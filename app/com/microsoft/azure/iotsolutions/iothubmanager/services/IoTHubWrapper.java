@@ -3,81 +3,160 @@
 package com.microsoft.azure.iotsolutions.iothubmanager.services;
 
 import com.google.inject.Inject;
+import com.google.inject.Singleton;
 import com.microsoft.azure.iotsolutions.iothubmanager.services.exceptions.ExternalDependencyException;
 import com.microsoft.azure.iotsolutions.iothubmanager.services.exceptions.InvalidConfigurationException;
 import com.microsoft.azure.iotsolutions.iothubmanager.services.runtime.IServicesConfig;
+import com.microsoft.azure.sdk.iot.service.IotHubConnectionString;
 import com.microsoft.azure.sdk.iot.service.IotHubConnectionStringBuilder;
 import com.microsoft.azure.sdk.iot.service.RegistryManager;
+import com.microsoft.azure.sdk.iot.service.auth.IotHubServiceSasToken;
 import com.microsoft.azure.sdk.iot.service.devicetwin.DeviceMethod;
 import com.microsoft.azure.sdk.iot.service.devicetwin.DeviceTwin;
 import com.microsoft.azure.sdk.iot.service.jobs.JobClient;
 import play.Logger;
+import play.inject.ApplicationLifecycle;
 
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * A wrapper for static methods in Azure IoT SDK.
  * The only logic here should be a proxy to static methods, to facilitate
  * dependency injection and unit testing.
+ *
+ * The SDK clients are created once and shared by all the requests, the
+ * connection string is parsed once and the service SAS token is reused
+ * until it is about to expire.
  */
+@Singleton
 public final class IoTHubWrapper implements IIoTHubWrapper {
 
     private static Logger.ALogger log = Logger.of(IoTHubWrapper.class);
 
+    // Renew the SAS token a few minutes before it expires
+    private static final long SAS_TOKEN_RENEWAL_MARGIN_MILLIS = 5 * 60 * 1000;
+
+    // Used when the expiry can not be read from the token
+    private static final long SAS_TOKEN_DEFAULT_LIFETIME_MILLIS = 60 * 60 * 1000;
+
+    private static final Pattern SAS_TOKEN_EXPIRY = Pattern.compile("[?&]?se=(\\d+)");
+
     private final IServicesConfig config;
+    private final ConcurrentHashMap<Class<?>, Object> clients = new ConcurrentHashMap<>();
+
+    private volatile IotHubConnectionString connectionString;
+    private volatile String sasToken;
+    private volatile long sasTokenExpiryMillis;
 
     @Inject
-    public IoTHubWrapper(final IServicesConfig config) {
+    public IoTHubWrapper(final IServicesConfig config, final ApplicationLifecycle lifecycle) {
         this.config = config;
+
+        lifecycle.addStopHook(() -> {
+            RegistryManager registry = (RegistryManager) this.clients.get(RegistryManager.class);
+            if (registry != null) {
+                registry.close();
+            }
+            this.clients.clear();
+            return CompletableFuture.completedFuture(null);
+        });
     }
 
     public DeviceTwin getDeviceTwinClient() throws ExternalDependencyException {
-        try {
-            return DeviceTwin.createFromConnectionString(this.config.getHubConnString());
-        } catch (Exception e) {
-            String message = "Can not create IoTHub connection for DeviceTwin client";
-            log.error(message, e);
-            throw new ExternalDependencyException(message, e);
-        }
+        return this.getClient(DeviceTwin.class, "DeviceTwin",
+            () -> DeviceTwin.createFromConnectionString(this.config.getHubConnString()));
     }
 
     public RegistryManager getRegistryManagerClient() throws ExternalDependencyException {
-        try {
-            return RegistryManager.createFromConnectionString(this.config.getHubConnString());
-        } catch (Exception e) {
-            String message = "Can not create IoTHub connection for RegistryManager client";
-            log.error(message, e);
-            throw new ExternalDependencyException(message, e);
-        }
+        return this.getClient(RegistryManager.class, "RegistryManager",
+            () -> RegistryManager.createFromConnectionString(this.config.getHubConnString()));
     }
 
     public DeviceMethod getDeviceMethodClient() throws ExternalDependencyException {
-        try {
-            return DeviceMethod.createFromConnectionString(this.config.getHubConnString());
-        } catch (Exception e) {
-            String message = "Can not create IoTHub connection for DeviceMethod client";
-            log.error(message, e);
-            throw new ExternalDependencyException(message, e);
-        }
+        return this.getClient(DeviceMethod.class, "DeviceMethod",
+            () -> DeviceMethod.createFromConnectionString(this.config.getHubConnString()));
     }
 
     public String getIotHubHostName() throws InvalidConfigurationException {
-        try {
-            return IotHubConnectionStringBuilder.createConnectionString(this.config.getHubConnString()).getHostName();
-        } catch (IOException e) {
-            String message = "Can not parse IoTHubHostName";
-            log.error(message, e);
-            throw new InvalidConfigurationException(message, e);
-        }
+        return this.getConnectionString().getHostName();
     }
 
     public JobClient getJobClient() throws ExternalDependencyException {
-        try {
-            return JobClient.createFromConnectionString(this.config.getHubConnString());
-        } catch (Exception e) {
-            String message = "Can not create IoTHub connection for Job client";
-            log.error(message, e);
-            throw new ExternalDependencyException(message, e);
+        return this.getClient(JobClient.class, "Job",
+            () -> JobClient.createFromConnectionString(this.config.getHubConnString()));
+    }
+
+    public String getServiceSasToken() throws ExternalDependencyException {
+        if (this.sasToken == null || System.currentTimeMillis() >= this.sasTokenExpiryMillis - SAS_TOKEN_RENEWAL_MARGIN_MILLIS) {
+            synchronized (this) {
+                if (this.sasToken == null || System.currentTimeMillis() >= this.sasTokenExpiryMillis - SAS_TOKEN_RENEWAL_MARGIN_MILLIS) {
+                    try {
+                        String token = new IotHubServiceSasToken(this.getConnectionString()).toString();
+                        this.sasTokenExpiryMillis = getExpiryMillis(token);
+                        this.sasToken = token;
+                    } catch (Exception e) {
+                        String message = "Can not create IoTHub SAS token";
+                        log.error(message, e);
+                        throw new ExternalDependencyException(message, e);
+                    }
+                }
+            }
+        }
+
+        return this.sasToken;
+    }
+
+    private IotHubConnectionString getConnectionString() throws InvalidConfigurationException {
+        if (this.connectionString == null) {
+            try {
+                this.connectionString = IotHubConnectionStringBuilder.createConnectionString(this.config.getHubConnString());
+            } catch (IOException e) {
+                String message = "Can not parse IoTHubHostName";
+                log.error(message, e);
+                throw new InvalidConfigurationException(message, e);
+            }
         }
+
+        return this.connectionString;
+    }
+
+    private <T> T getClient(final Class<T> type, final String name, final ClientFactory<T> factory)
+        throws ExternalDependencyException {
+        Object client = this.clients.get(type);
+        if (client == null) {
+            synchronized (this.clients) {
+                client = this.clients.get(type);
+                if (client == null) {
+                    try {
+                        client = factory.create();
+                    } catch (Exception e) {
+                        String message = String.format("Can not create IoTHub connection for %s client", name);
+                        log.error(message, e);
+                        throw new ExternalDependencyException(message, e);
+                    }
+                    this.clients.put(type, client);
+                }
+            }
+        }
+
+        return type.cast(client);
+    }
+
+    private static long getExpiryMillis(final String sasToken) {
+        Matcher matcher = SAS_TOKEN_EXPIRY.matcher(sasToken);
+        if (matcher.find()) {
+            return Long.parseLong(matcher.group(1)) * 1000;
+        }
+
+        return System.currentTimeMillis() + SAS_TOKEN_DEFAULT_LIFETIME_MILLIS;
+    }
+
+    @FunctionalInterface
+    private interface ClientFactory<T> {
+        T create() throws Exception;
     }
 }
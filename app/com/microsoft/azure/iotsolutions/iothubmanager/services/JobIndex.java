@@ -0,0 +1,225 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.services;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.exceptions.InvalidInputException;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.*;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.runtime.IServicesConfig;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+@Singleton
+public class JobIndex implements IJobIndex {
+
+    private static final String TOKEN_SEPARATOR = ":";
+
+    private final long maxAgeMillis;
+
+    // Newest first, jobs created at the same time sorted by id
+    private final ConcurrentSkipListMap<Key, JobServiceModel> jobs = new ConcurrentSkipListMap<>();
+    private final ConcurrentHashMap<String, Key> keys = new ConcurrentHashMap<>();
+
+    // Jobs written while a load is running, the load must not overwrite
+    // them with the older data it fetched
+    private final Set<String> touchedDuringLoad = ConcurrentHashMap.newKeySet();
+
+    private volatile long loadedAtMillis = 0;
+    private volatile CompletableFuture<Void> loading = null;
+
+    @Inject
+    public JobIndex(final IServicesConfig config) {
+        this.maxAgeMillis = config.getJobIndexMaxAge().toMillis();
+    }
+
+    @Override
+    public boolean isLoaded() {
+        return this.loadedAtMillis > 0;
+    }
+
+    @Override
+    public boolean isFresh() {
+        return this.loadedAtMillis > 0 && System.currentTimeMillis() - this.loadedAtMillis <= this.maxAgeMillis;
+    }
+
+    @Override
+    public CompletionStage<Void> loadAsync(final Function<Consumer<JobServiceModel>, CompletionStage<Void>> loader) {
+        CompletableFuture<Void> load;
+        synchronized (this) {
+            if (this.loading != null) {
+                return this.loading;
+            }
+            load = new CompletableFuture<>();
+            this.touchedDuringLoad.clear();
+            this.loading = load;
+        }
+
+        long start = System.currentTimeMillis();
+        Set<String> loaded = ConcurrentHashMap.newKeySet();
+        CompletionStage<Void> result;
+        try {
+            result = loader.apply(job -> this.putLoaded(job, loaded));
+        } catch (RuntimeException e) {
+            result = failedFuture(e);
+        }
+
+        result.whenComplete((ignored, error) -> {
+            if (error == null) {
+                this.removeNotLoaded(loaded);
+                this.loadedAtMillis = start;
+            }
+
+            synchronized (this) {
+                this.loading = null;
+            }
+
+            if (error == null) {
+                load.complete(null);
+            } else {
+                load.completeExceptionally(error instanceof CompletionException ? error.getCause() : error);
+            }
+        });
+        return load;
+    }
+
+    @Override
+    public void put(final JobServiceModel job) {
+        if (job == null || job.getJobId() == null) {
+            return;
+        }
+
+        synchronized (this) {
+            if (this.loading != null) {
+                this.touchedDuringLoad.add(job.getJobId());
+            }
+            this.putEntry(job);
+        }
+    }
+
+    @Override
+    public JobServiceListModel getPage(
+        final JobType jobType,
+        final JobStatus jobStatus,
+        final long from, final long to,
+        final int limit,
+        final String continuationToken) throws InvalidInputException {
+        if (limit < 1) {
+            throw new InvalidInputException("Invalid page size: " + limit);
+        }
+
+        Key start = new Key(to, "");
+        boolean inclusive = true;
+        if (continuationToken != null && !continuationToken.isEmpty()) {
+            Key last = Key.parse(continuationToken);
+            if (last.compareTo(start) >= 0) {
+                start = last;
+                inclusive = false;
+            }
+        }
+
+        List<JobServiceModel> page = new ArrayList<>(Math.min(limit, this.jobs.size()));
+        Key lastKey = null;
+        for (Map.Entry<Key, JobServiceModel> entry : this.jobs.tailMap(start, inclusive).entrySet()) {
+            if (entry.getKey().createdMillis < from) {
+                break;
+            }
+
+            JobServiceModel job = entry.getValue();
+            if ((jobType == null || jobType == job.getJobType())
+                && (jobStatus == null || jobStatus == job.getJobStatus())) {
+                page.add(job);
+                lastKey = entry.getKey();
+                if (page.size() >= limit) {
+                    break;
+                }
+            }
+        }
+
+        return new JobServiceListModel(page, page.size() >= limit ? lastKey.toToken() : null);
+    }
+
+    private synchronized void putLoaded(final JobServiceModel job, final Set<String> loaded) {
+        if (job == null || job.getJobId() == null) {
+            return;
+        }
+
+        loaded.add(job.getJobId());
+        if (!this.touchedDuringLoad.contains(job.getJobId())) {
+            this.putEntry(job);
+        }
+    }
+
+    private void removeNotLoaded(final Set<String> loaded) {
+        for (String id : this.keys.keySet()) {
+            if (!loaded.contains(id) && !this.touchedDuringLoad.contains(id)) {
+                this.removeEntry(id);
+            }
+        }
+    }
+
+    private synchronized void putEntry(final JobServiceModel job) {
+        Date created = job.getCreatedTimeUtc();
+        Key key = new Key(created == null ? 0 : created.getTime(), job.getJobId());
+        Key previous = this.keys.put(job.getJobId(), key);
+        if (previous != null && !previous.equals(key)) {
+            this.jobs.remove(previous);
+        }
+        this.jobs.put(key, job);
+    }
+
+    private synchronized void removeEntry(final String id) {
+        Key key = this.keys.remove(id);
+        if (key != null) {
+            this.jobs.remove(key);
+        }
+    }
+
+    private static <T> CompletableFuture<T> failedFuture(final Throwable error) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(error);
+        return future;
+    }
+
+    private static final class Key implements Comparable<Key> {
+        private final long createdMillis;
+        private final String jobId;
+
+        private Key(final long createdMillis, final String jobId) {
+            this.createdMillis = createdMillis;
+            this.jobId = jobId;
+        }
+
+        static Key parse(final String token) throws InvalidInputException {
+            int separator = token.indexOf(TOKEN_SEPARATOR);
+            try {
+                return new Key(Long.parseLong(token.substring(0, separator)), token.substring(separator + 1));
+            } catch (NumberFormatException | IndexOutOfBoundsException e) {
+                throw new InvalidInputException("Invalid continuation token: " + token, e);
+            }
+        }
+
+        String toToken() {
+            return this.createdMillis + TOKEN_SEPARATOR + this.jobId;
+        }
+
+        @Override
+        public int compareTo(final Key other) {
+            int result = Long.compare(other.createdMillis, this.createdMillis);
+            return result != 0 ? result : this.jobId.compareTo(other.jobId);
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            return other instanceof Key && this.compareTo((Key) other) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(this.createdMillis) * 31 + this.jobId.hashCode();
+        }
+    }
+}
@@ -0,0 +1,218 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.services;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.JobServiceModel;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.JobStatistics;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.runtime.IServicesConfig;
+import play.Logger;
+import play.inject.ApplicationLifecycle;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Jobs are polled with an adaptive interval: the interval starts at the
+ * minimum, doubles every time the job didn't change, up to the maximum,
+ * and goes back to the minimum once the job changes.
+ *
+ * The pollers, and their watchers, are only used on the scheduler thread,
+ * so that adding a watcher, sending an update and stopping a poller never
+ * run concurrently.
+ */
+@Singleton
+public class JobWatcher implements IJobWatcher {
+
+    private static final Logger.ALogger log = Logger.of(JobWatcher.class);
+
+    // Consecutive failures to read a job before its watchers are closed
+    private static final int MAX_FAILURES = 5;
+
+    private final IJobs jobs;
+    private final long minIntervalMillis;
+    private final long maxIntervalMillis;
+    private final ScheduledExecutorService scheduler;
+
+    private final ConcurrentHashMap<String, Poller> pollers = new ConcurrentHashMap<>();
+
+    @Inject
+    public JobWatcher(
+        final IJobs jobs,
+        final IServicesConfig config,
+        final ApplicationLifecycle lifecycle) {
+        this.jobs = jobs;
+        this.minIntervalMillis = config.getJobWatchMinInterval().toMillis();
+        this.maxIntervalMillis = Math.max(this.minIntervalMillis, config.getJobWatchMaxInterval().toMillis());
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "job-watcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        lifecycle.addStopHook(() -> {
+            this.scheduler.shutdownNow();
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    @Override
+    public Watch watch(final String jobId, final Listener listener) {
+        this.scheduler.execute(() -> {
+            Poller poller = this.pollers.get(jobId);
+            if (poller == null) {
+                poller = new Poller(jobId);
+                this.pollers.put(jobId, poller);
+                poller.poll();
+            }
+            poller.add(listener);
+        });
+
+        return () -> {
+            // Clients can disconnect after the service stopped
+            if (this.scheduler.isShutdown()) {
+                return;
+            }
+            this.scheduler.execute(() -> {
+                Poller poller = this.pollers.get(jobId);
+                if (poller != null) {
+                    poller.remove(listener);
+                }
+            });
+        };
+    }
+
+    @Override
+    public int getActiveJobCount() {
+        return this.pollers.size();
+    }
+
+    private class Poller {
+
+        private final String jobId;
+        private final List<Listener> listeners = new ArrayList<>();
+        private JobServiceModel last = null;
+        private long intervalMillis = minIntervalMillis;
+        private int failureCount = 0;
+        private ScheduledFuture<?> next = null;
+        private boolean stopped = false;
+
+        Poller(final String jobId) {
+            this.jobId = jobId;
+        }
+
+        void add(final Listener listener) {
+            this.listeners.add(listener);
+            if (this.last != null) {
+                this.send(listener, this.last);
+            }
+        }
+
+        void remove(final Listener listener) {
+            this.listeners.remove(listener);
+            if (this.listeners.isEmpty()) {
+                this.stop();
+            }
+        }
+
+        void poll() {
+            this.next = null;
+            try {
+                jobs.getJobAsync(this.jobId, false, null)
+                    .whenComplete((job, error) -> {
+                        // The service stopped while the job was read
+                        if (!scheduler.isShutdown()) {
+                            scheduler.execute(() -> this.onResult(job, error));
+                        }
+                    });
+            } catch (Exception e) {
+                this.onResult(null, e);
+            }
+        }
+
+        private void onResult(final JobServiceModel job, final Throwable error) {
+            if (this.stopped) {
+                return;
+            }
+
+            if (error != null) {
+                this.failureCount++;
+                if (this.failureCount >= MAX_FAILURES) {
+                    Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                    log.error("Unable to read the progress of job " + this.jobId, cause);
+                    List<Listener> listeners = new ArrayList<>(this.listeners);
+                    this.stop();
+                    listeners.forEach(listener -> listener.onError(cause));
+                    return;
+                }
+
+                this.schedule(Math.min(this.intervalMillis * 2, maxIntervalMillis));
+                return;
+            }
+
+            this.failureCount = 0;
+            boolean changed = this.last == null || hasChanged(this.last, job);
+            if (changed) {
+                this.last = job;
+                new ArrayList<>(this.listeners).forEach(listener -> this.send(listener, job));
+            }
+
+            if (job.getJobStatus() != null && job.getJobStatus().isFinal()) {
+                // Stop first, so that a watcher added once the job is
+                // completed starts a new poller
+                List<Listener> listeners = new ArrayList<>(this.listeners);
+                this.stop();
+                listeners.forEach(Listener::onCompleted);
+            } else if (!this.stopped) {
+                this.schedule(changed ? minIntervalMillis : Math.min(this.intervalMillis * 2, maxIntervalMillis));
+            }
+        }
+
+        private void send(final Listener listener, final JobServiceModel job) {
+            try {
+                listener.onUpdate(job);
+            } catch (Exception e) {
+                log.warn("Removing the watcher of job " + this.jobId + " after an error", e);
+                this.remove(listener);
+            }
+        }
+
+        private void schedule(final long delayMillis) {
+            this.intervalMillis = delayMillis;
+            this.next = scheduler.schedule(this::poll, delayMillis, TimeUnit.MILLISECONDS);
+        }
+
+        private void stop() {
+            if (this.stopped) {
+                return;
+            }
+
+            this.stopped = true;
+            this.listeners.clear();
+            if (this.next != null) {
+                this.next.cancel(false);
+            }
+            pollers.remove(this.jobId, this);
+        }
+    }
+
+    private static boolean hasChanged(final JobServiceModel previous, final JobServiceModel job) {
+        if (previous.getJobStatus() != job.getJobStatus()) {
+            return true;
+        }
+
+        JobStatistics a = previous.getResultStatistics();
+        JobStatistics b = job.getResultStatistics();
+        if (a == null || b == null) {
+            return a != b;
+        }
+
+        return a.getDeviceCount() != b.getDeviceCount()
+            || a.getSucceededCount() != b.getSucceededCount()
+            || a.getFailedCount() != b.getFailedCount()
+            || a.getRunningCount() != b.getRunningCount()
+            || a.getPendingCount() != b.getPendingCount();
+    }
+}
@@ -2,10 +2,16 @@
 
 package com.microsoft.azure.iotsolutions.iothubmanager.services;
 
+import akka.NotUsed;
+import akka.japi.Pair;
+import akka.stream.javadsl.Source;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.google.inject.Inject;
 import com.microsoft.azure.iotsolutions.iothubmanager.services.exceptions.*;
 import com.microsoft.azure.iotsolutions.iothubmanager.services.external.IConfigService;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.helpers.AsyncHelper;
 import com.microsoft.azure.iotsolutions.iothubmanager.services.models.*;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.runtime.IServicesConfig;
 import com.microsoft.azure.sdk.iot.service.devicetwin.Query;
 import com.microsoft.azure.sdk.iot.service.exceptions.IotHubException;
 import com.microsoft.azure.sdk.iot.service.jobs.JobClient;
@@ -14,84 +20,238 @@ import play.Logger;
 import play.libs.Json;
 
 import java.io.IOException;
+import java.time.Duration;
 import java.util.*;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.CompletionStage;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
+/**
+ * The JobClient calls are blocking: they run on the jobs pool, so that
+ * polling jobs never holds Play threads or the threads of the device
+ * calls. Each request has a time limit; when it is reached, or when the
+ * returned future is cancelled, the call is skipped if it is still queued
+ * or interrupted if it is running. Scheduling a job is not safe to retry:
+ * once sent, it waits for IoT Hub instead of failing with an unknown
+ * outcome, which would invite the client to schedule the job again.
+ *
+ * IoT Hub can only filter jobs by type and status, and returns them in no
+ * particular order: job listings are served from a local index sorted by
+ * creation time, rebuilt in the background by reading all the jobs once it
+ * is too old, and updated with the jobs scheduled or read by this service.
+ *
+ * Finished jobs never change: once read, they are served from the
+ * completed job cache without calling IoT Hub.
+ */
 public class Jobs implements IJobs {
 
     private static final Logger.ALogger log = Logger.of(Jobs.class);
 
     private IIoTHubWrapper ioTHubService;
+    private final IIoTHubQueryClient queryClient;
     private final IConfigService configService;
+    private final IDeviceQueryCache queryCache;
+    private final IDeviceGroups deviceGroups;
+    private final IJobIndex jobIndex;
+    private final ICompletedJobCache completedJobs;
     private final JobClient jobClient;
+    private final Executor jobsExecutor;
+    private final Duration timeout;
+
+    private static final int JOB_INDEX_PAGE_SIZE = 100;
+    private static final int DEVICE_JOBS_PAGE_SIZE = 100;
 
     private final String DEVICE_DETAILS_QUERY_FORMAT = "select * from devices.jobs where devices.jobs.jobId = '%s'";
     private final String DEVICE_DETAILS_QUERYWITH_STATUS_FORMAT = "select * from devices.jobs where devices.jobs.jobId = '%s' and devices.jobs.status = '%s'";
 
     @Inject
-    public Jobs(final IIoTHubWrapper ioTHubService, final IConfigService configService) throws Exception {
+    public Jobs(
+        final IIoTHubWrapper ioTHubService,
+        final IIoTHubQueryClient queryClient,
+        final IConfigService configService,
+        final IDeviceQueryCache queryCache,
+        final IDeviceGroups deviceGroups,
+        final IJobIndex jobIndex,
+        final ICompletedJobCache completedJobs,
+        final IIoTHubExecutors executors,
+        final IServicesConfig config) throws Exception {
         this.ioTHubService = ioTHubService;
+        this.queryClient = queryClient;
         this.configService = configService;
+        this.queryCache = queryCache;
+        this.deviceGroups = deviceGroups;
+        this.jobIndex = jobIndex;
+        this.completedJobs = completedJobs;
         this.jobClient = ioTHubService.getJobClient();
+        this.jobsExecutor = executors.getJobsExecutor();
+        this.timeout = config.getJobsTimeout();
     }
 
+    /**
+     * Get a page of the jobs created between `from` and `to`, newest
+     * first. The continuation token of the result, if any, returns the
+     * next page. Once loaded, the index is served right away: when it is
+     * too old, it is reloaded in the background for the next listings.
+     * The first listing waits for the load up to the jobs timeout, then
+     * lists the jobs read so far.
+     */
     @Override
-    public CompletionStage<List<JobServiceModel>> getJobsAsync(
+    public CompletionStage<JobServiceListModel> getJobsAsync(
         JobType jobType,
         JobStatus jobStatus,
         Integer pageSize,
-        long from, long to)
+        long from, long to,
+        String continuationToken)
         throws InvalidInputException, ExternalDependencyException {
-        try {
-            Query query = this.jobClient.queryJobResponse(
-                jobType == null ? null : JobType.toAzureJobType(jobType),
-                jobStatus == null ? null : JobStatus.toAzureJobStatus(jobStatus),
-                pageSize);
-
-            List jobs = new ArrayList<JobResult>();
-            while (this.jobClient.hasNextJob(query)) {
-                JobResult job = this.jobClient.getNextJob(query);
-                if (job.getCreatedTime().getTime() >= from && job.getCreatedTime().getTime() <= to) {
-                    jobs.add(new JobServiceModel(job, null));
-                }
+        int limit = pageSize == null ? JOB_INDEX_PAGE_SIZE : pageSize;
+        if (this.jobIndex.isLoaded()) {
+            if (!this.jobIndex.isFresh()) {
+                // Failures are logged by the load, the next listing retries
+                this.jobIndex.loadAsync(this::loadJobsAsync);
             }
-            return CompletableFuture.supplyAsync(() -> jobs);
-        } catch (IOException | IotHubException e) {
-            String message = String.format("Unable to query device jobs by: %s, %s, %d", jobType, jobStatus, pageSize);
-            log.error(message, e);
-            throw new ExternalDependencyException(message, e);
+            return CompletableFuture.completedFuture(
+                this.jobIndex.getPage(jobType, jobStatus, from, to, limit, continuationToken));
         }
+
+        // Reading a long job history can take longer than a request: past the
+        // time limit, the jobs read so far are listed and the load goes on
+        CompletableFuture<Boolean> loaded = this.jobIndex.loadAsync(this::loadJobsAsync)
+            .toCompletableFuture()
+            .thenApply(ignored -> true);
+        return AsyncHelper.completeOnTimeout(loaded, false, this.timeout).thenApply(complete -> {
+            if (!complete) {
+                log.warn("The job index is still loading, listing the jobs read so far");
+            }
+            try {
+                return this.jobIndex.getPage(jobType, jobStatus, from, to, limit, continuationToken);
+            } catch (InvalidInputException e) {
+                throw new CompletionException(e);
+            }
+        });
     }
 
+    /**
+     * The job and the status of its devices are read in parallel, unless
+     * the job is finished and was already read with the same options.
+     */
     @Override
     public CompletionStage<JobServiceModel> getJobAsync(
         String jobId,
         boolean includeDeviceDetails,
         DeviceJobStatus devicejobStatus)
         throws ExternalDependencyException {
-        try {
-            JobResult result = this.jobClient.getJob(jobId);
-            JobServiceModel jobModel;
-            if (!includeDeviceDetails) {
-                jobModel = new JobServiceModel(result, null);
-            } else {
-                String queryString = devicejobStatus == null ? String.format(DEVICE_DETAILS_QUERY_FORMAT, jobId) :
-                    String.format(DEVICE_DETAILS_QUERYWITH_STATUS_FORMAT, jobId, devicejobStatus);
-                Query query = this.jobClient.queryDeviceJob(queryString);
-                List deviceJobs = new ArrayList<JobServiceModel>();
-                while (this.jobClient.hasNextJob(query)) {
-                    JobResult deviceJob = this.jobClient.getNextJob(query);
-                    deviceJobs.add(deviceJob);
-                }
-                jobModel = new JobServiceModel(result, deviceJobs);
+        JobServiceModel cached = this.completedJobs.get(jobId, includeDeviceDetails, devicejobStatus);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        Supplier<String> errorMessage = () -> String.format("Unable to get device job by id: %s", jobId);
+        CompletableFuture<JobResult> job = this.callAsync(() -> this.jobClient.getJob(jobId), errorMessage);
+        if (!includeDeviceDetails) {
+            CompletableFuture<JobServiceModel> result = job.thenApply(value -> toServiceModel(value, null));
+            result.thenAccept(value -> this.onJobRead(jobId, false, null, value));
+            return result;
+        }
+
+        String queryString = devicejobStatus == null ? String.format(DEVICE_DETAILS_QUERY_FORMAT, jobId) :
+            String.format(DEVICE_DETAILS_QUERYWITH_STATUS_FORMAT, jobId, devicejobStatus);
+        CompletableFuture<List<JobResult>> deviceJobs = this.callAsync(() -> {
+            Query query = this.jobClient.queryDeviceJob(queryString);
+            List<JobResult> results = new ArrayList<>();
+            while (!Thread.currentThread().isInterrupted() && this.jobClient.hasNextJob(query)) {
+                results.add(this.jobClient.getNextJob(query));
+            }
+            return results;
+        }, errorMessage);
+
+        CompletableFuture<JobServiceModel> result = job.thenCombine(deviceJobs, Jobs::toServiceModel);
+
+        // Once one of the calls failed, or the request was cancelled, the
+        // other call is not needed anymore
+        result.whenComplete((value, error) -> {
+            if (error != null) {
+                job.cancel(true);
+                deviceJobs.cancel(true);
             }
-            return CompletableFuture.supplyAsync(() -> jobModel);
-        } catch (IOException | IotHubException e) {
-            String message = String.format("Unable to get device job by id: %s", jobId);
+        });
+        result.thenAccept(value -> this.onJobRead(jobId, true, devicejobStatus, value));
+        return result;
+    }
+
+    /**
+     * Pages are read with the IoT Hub query API, which returns the token
+     * of the next page, instead of the JobClient, which reads all the
+     * pages: memory stays bounded by the page size whatever the number of
+     * devices of the job.
+     */
+    @Override
+    public CompletionStage<DeviceJobServiceListModel> getDeviceJobsAsync(
+        String jobId,
+        DeviceJobStatus deviceJobStatus,
+        int pageSize,
+        String continuationToken)
+        throws ExternalDependencyException {
+        String query = deviceJobStatus == null ? String.format(DEVICE_DETAILS_QUERY_FORMAT, jobId) :
+            String.format(DEVICE_DETAILS_QUERYWITH_STATUS_FORMAT, jobId, deviceJobStatus);
+
+        CompletableFuture<QueryResultServiceModel> page;
+        try {
+            page = this.queryClient.queryAsync(query, continuationToken, pageSize).toCompletableFuture();
+        } catch (InvalidConfigurationException e) {
+            String message = String.format("Unable to query device jobs: %s", query);
             log.error(message, e);
             throw new ExternalDependencyException(message, e);
         }
+
+        return AsyncHelper.withTimeout(page, this.timeout, () -> {
+            String message = String.format("Unable to query device jobs: %s, timed out after %d ms",
+                query, this.timeout.toMillis());
+            log.error(message);
+            return new ExternalDependencyException(message);
+        }).thenApply(result -> {
+            List<DeviceJobServiceModel> items = new ArrayList<>(result.getItems().size());
+            Map<DeviceJobStatus, Long> counts = new EnumMap<>(DeviceJobStatus.class);
+            try {
+                for (JsonNode document : result.getItems()) {
+                    DeviceJobServiceModel deviceJob = new DeviceJobServiceModel(document);
+                    items.add(deviceJob);
+                    if (deviceJob.getStatus() != null) {
+                        counts.merge(deviceJob.getStatus(), 1L, Long::sum);
+                    }
+                }
+            } catch (ExternalDependencyException e) {
+                throw new CompletionException(e);
+            }
+            return new DeviceJobServiceListModel(items, result.getContinuationToken(), counts);
+        });
+    }
+
+    @Override
+    public Source<DeviceJobServiceListModel, NotUsed> streamDeviceJobsAsync(
+        String jobId,
+        DeviceJobStatus deviceJobStatus) {
+        // The next page is requested only when the previous one has been consumed
+        return Source.unfoldAsync(
+            Optional.of(""),
+            (Optional<String> continuationToken) -> {
+                if (!continuationToken.isPresent()) {
+                    return CompletableFuture.completedFuture(Optional.empty());
+                }
+
+                CompletionStage<DeviceJobServiceListModel> page;
+                try {
+                    page = this.getDeviceJobsAsync(jobId, deviceJobStatus, DEVICE_JOBS_PAGE_SIZE, continuationToken.get());
+                } catch (ExternalDependencyException e) {
+                    throw new CompletionException(e);
+                }
+
+                return page.thenApply(result -> {
+                    String next = result.getContinuationToken();
+                    Optional<String> nextState = next == null || next.isEmpty()
+                        ? Optional.empty() : Optional.of(next);
+                    return Optional.of(Pair.create(nextState, result));
+                });
+            });
     }
 
     @Override
@@ -102,7 +262,7 @@ public class Jobs implements IJobs {
         Date startTime,
         long maxExecutionTimeInSeconds)
         throws ExternalDependencyException {
-        try {
+        return this.scheduleAsync(() -> {
             JobResult result = this.jobClient.scheduleDeviceMethod(
                 jobId,
                 queryCondition,
@@ -112,14 +272,11 @@ public class Jobs implements IJobs {
                 parameter.getJsonPayload(),
                 startTime,
                 maxExecutionTimeInSeconds);
-            JobServiceModel jobModel = new JobServiceModel(result, null);
-            return CompletableFuture.supplyAsync(() -> jobModel);
-        } catch (IOException | IotHubException e) {
-            String message = String.format("Unable to schedule device method job: %s, %s, %s",
-                jobId, queryCondition, Json.stringify(Json.toJson(parameter)));
-            log.error(message, e);
-            throw new ExternalDependencyException(message, e);
-        }
+            JobServiceModel model = new JobServiceModel(result, null);
+            this.jobIndex.put(model);
+            return model;
+        }, () -> String.format("Unable to schedule device method job: %s, %s, %s",
+            jobId, queryCondition, Json.stringify(Json.toJson(parameter))));
     }
 
     @Override
@@ -130,23 +287,106 @@ public class Jobs implements IJobs {
         Date startTime,
         long maxExecutionTimeInSeconds)
         throws ExternalDependencyException {
-        try {
-            // Update the deviceGroupFilter cache, no need to wait
-            this.configService.updateDeviceGroupFiltersAsync(twin);
+        // Update the deviceGroupFilter cache, no need to wait
+        this.configService.updateDeviceGroupFiltersAsync(twin);
 
+        return this.scheduleAsync(() -> {
             JobResult result = this.jobClient.scheduleUpdateTwin(
                 jobId,
                 queryCondition,
                 twin.toDeviceTwinDevice(),
                 startTime,
                 maxExecutionTimeInSeconds);
-            JobServiceModel jobModel = new JobServiceModel(result, null);
-            return CompletableFuture.supplyAsync(() -> jobModel);
-        } catch (IOException | IotHubException e) {
-            String message = String.format("Unable to schedule twin update job: %s, %s, %s",
-                jobId, queryCondition, Json.stringify(Json.toJson(twin)));
-            log.error(message, e);
-            throw new ExternalDependencyException(message, e);
+            JobServiceModel model = new JobServiceModel(result, null);
+            this.jobIndex.put(model);
+            return model;
+        }, () -> String.format("Unable to schedule twin update job: %s, %s, %s",
+            jobId, queryCondition, Json.stringify(Json.toJson(twin))))
+            .whenComplete((result, error) -> {
+                this.queryCache.onTwinUpdateJob(twin);
+                if (error == null) {
+                    this.deviceGroups.onTwinUpdateJob(twin, maxExecutionTimeInSeconds);
+                }
+            });
+    }
+
+    private void onJobRead(
+        final String jobId,
+        final boolean includeDeviceDetails,
+        final DeviceJobStatus devicejobStatus,
+        final JobServiceModel job) {
+        this.jobIndex.put(job);
+        this.completedJobs.put(jobId, includeDeviceDetails, devicejobStatus, job);
+    }
+
+    /**
+     * Read all the jobs, to rebuild the job index. The jobs are passed to
+     * the index as they are read. The whole history can take longer than
+     * the time limit of a request, so the load is not timed out.
+     */
+    private CompletionStage<Void> loadJobsAsync(final Consumer<JobServiceModel> jobs) {
+        return AsyncHelper.supplyAsync(toExternalDependencyErrors(() -> {
+            Query query = this.jobClient.queryJobResponse(null, null, JOB_INDEX_PAGE_SIZE);
+
+            // Stop fetching pages once the load was cancelled
+            while (!Thread.currentThread().isInterrupted() && this.jobClient.hasNextJob(query)) {
+                jobs.accept(new JobServiceModel(this.jobClient.getNextJob(query), null));
+            }
+            return null;
+        }, () -> "Unable to query device jobs"), this.jobsExecutor);
+    }
+
+    private static JobServiceModel toServiceModel(final JobResult job, final List<JobResult> deviceJobs) {
+        try {
+            return new JobServiceModel(job, deviceJobs);
+        } catch (ExternalDependencyException e) {
+            throw new CompletionException(e);
         }
     }
+
+    /**
+     * Run a JobClient call on the jobs pool, within the time limit. IoT Hub
+     * errors and timeouts fail the result with an ExternalDependencyException.
+     */
+    private <T> CompletableFuture<T> callAsync(final Callable<T> call, final Supplier<String> errorMessage) {
+        CompletableFuture<T> result = AsyncHelper.supplyAsync(
+            toExternalDependencyErrors(call, errorMessage), this.jobsExecutor);
+
+        return AsyncHelper.withTimeout(result, this.timeout, () -> {
+            String message = String.format("%s, timed out after %d ms", errorMessage.get(), this.timeout.toMillis());
+            log.error(message);
+            return new ExternalDependencyException(message);
+        });
+    }
+
+    /**
+     * Run a JobClient call creating a job on the jobs pool. The time limit
+     * only applies while the call is queued: once sent, IoT Hub may create
+     * the job even if the response is late, so the call is not timed out.
+     */
+    private <T> CompletableFuture<T> scheduleAsync(final Callable<T> call, final Supplier<String> errorMessage) {
+        return AsyncHelper.supplyAsync(
+            toExternalDependencyErrors(call, errorMessage),
+            this.jobsExecutor,
+            this.timeout,
+            () -> {
+                String message = String.format("%s, not sent after %d ms", errorMessage.get(), this.timeout.toMillis());
+                log.error(message);
+                return new ExternalDependencyException(message);
+            });
+    }
+
+    private static <T> Callable<T> toExternalDependencyErrors(
+        final Callable<T> call,
+        final Supplier<String> errorMessage) {
+        return () -> {
+            try {
+                return call.call();
+            } catch (IOException | IotHubException e) {
+                String message = errorMessage.get();
+                log.error(message, e);
+                throw new ExternalDependencyException(message, e);
+            }
+        };
+    }
 }
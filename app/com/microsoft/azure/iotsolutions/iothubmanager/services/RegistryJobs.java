@@ -0,0 +1,138 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.services;
+
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.exceptions.*;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.external.IBlobContainerClient;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.*;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.runtime.IServicesConfig;
+import com.microsoft.azure.sdk.iot.service.RegistryManager;
+import com.microsoft.azure.sdk.iot.service.exceptions.IotHubException;
+import com.microsoft.azure.sdk.iot.service.exceptions.IotHubNotFoundException;
+import play.Logger;
+
+import java.io.IOException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+@Singleton
+public class RegistryJobs implements IRegistryJobs {
+
+    private static final Logger.ALogger log = Logger.of(RegistryJobs.class);
+
+    // Blob names used by IoT Hub for the devices of import and export jobs
+    private static final String DEVICES_BLOB = "devices.txt";
+
+    private final RegistryManager registry;
+    private final IBlobContainerClient blobClient;
+    private final Executor jobsExecutor;
+    private final String exportContainerUri;
+    private final String importContainerUri;
+
+    // IoT Hub writes every export to the same blob, so only the output of
+    // the latest export started by this instance can be served
+    private final AtomicReference<String> latestExportJobId = new AtomicReference<>();
+
+    @Inject
+    public RegistryJobs(
+        final IIoTHubWrapper ioTHubService,
+        final IBlobContainerClient blobClient,
+        final IIoTHubExecutors executors,
+        final IServicesConfig config) throws ExternalDependencyException {
+        this.registry = ioTHubService.getRegistryManagerClient();
+        this.blobClient = blobClient;
+        this.jobsExecutor = executors.getJobsExecutor();
+        this.exportContainerUri = config.getRegistryExportContainerUri();
+        this.importContainerUri = config.getRegistryImportContainerUri();
+    }
+
+    @Override
+    public CompletionStage<JobServiceModel> exportAsync(final boolean excludeKeys)
+        throws InvalidConfigurationException {
+        String containerUri = getContainerUri(this.exportContainerUri, "export");
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                JobServiceModel job = new JobServiceModel(this.registry.exportDevices(containerUri, excludeKeys));
+                this.latestExportJobId.set(job.getJobId());
+                return job;
+            } catch (IOException | IotHubException e) {
+                String message = "Unable to start the registry export job";
+                log.error(message, e);
+                throw new CompletionException(new ExternalDependencyException(message, e));
+            }
+        }, this.jobsExecutor);
+    }
+
+    @Override
+    public CompletionStage<JobServiceModel> importAsync(final Source<ByteString, ?> devices)
+        throws InvalidConfigurationException {
+        String containerUri = getContainerUri(this.importContainerUri, "import");
+        if (containerUri.equals(this.exportContainerUri)) {
+            // The upload overwrites the output of the latest export
+            this.latestExportJobId.set(null);
+        }
+        return this.blobClient.uploadAsync(containerUri, DEVICES_BLOB, devices)
+            .thenApplyAsync(uploaded -> {
+                try {
+                    // Import errors are written next to the devices
+                    return new JobServiceModel(this.registry.importDevices(containerUri, containerUri));
+                } catch (IOException | IotHubException e) {
+                    String message = "Unable to start the registry import job";
+                    log.error(message, e);
+                    throw new CompletionException(new ExternalDependencyException(message, e));
+                }
+            }, this.jobsExecutor);
+    }
+
+    @Override
+    public CompletionStage<JobServiceModel> getJobAsync(final String jobId) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return new JobServiceModel(this.registry.getJob(jobId));
+            } catch (IOException | IotHubException e) {
+                String message = String.format("Unable to get registry job: %s", jobId);
+                log.error(message, e);
+                throw new CompletionException(e instanceof IotHubNotFoundException
+                    ? new ResourceNotFoundException(message, e)
+                    : new ExternalDependencyException(message, e));
+            }
+        }, this.jobsExecutor);
+    }
+
+    @Override
+    public CompletionStage<Source<ByteString, ?>> getExportedDevicesAsync(final String jobId)
+        throws InvalidConfigurationException {
+        String containerUri = getContainerUri(this.exportContainerUri, "export");
+        return this.getJobAsync(jobId).thenCompose(job -> {
+            if (job.getJobType() != JobType.exportDevices) {
+                throw new CompletionException(new InvalidInputException(
+                    String.format("Job %s is not a registry export job", jobId)));
+            }
+            if (job.getJobStatus() != JobStatus.completed) {
+                throw new CompletionException(new ConflictingResourceException(
+                    String.format("Registry export job %s is not completed: %s", jobId, job.getJobStatus())));
+            }
+            if (!jobId.equals(this.latestExportJobId.get())) {
+                throw new CompletionException(new ResourceNotFoundException(String.format(
+                    "The devices of registry export job %s were overwritten, only the latest export is available",
+                    jobId)));
+            }
+
+            return this.blobClient.downloadAsync(containerUri, DEVICES_BLOB);
+        });
+    }
+
+    private static String getContainerUri(final String containerUri, final String operation)
+        throws InvalidConfigurationException {
+        if (containerUri == null || containerUri.isEmpty()) {
+            throw new InvalidConfigurationException(String.format(
+                "The blob container for registry %s jobs is not configured", operation));
+        }
+
+        return containerUri;
+    }
+}
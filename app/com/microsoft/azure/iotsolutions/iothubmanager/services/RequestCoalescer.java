@@ -0,0 +1,54 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.services;
+
+import com.google.inject.Singleton;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+@Singleton
+public class RequestCoalescer implements IRequestCoalescer {
+
+    private final ConcurrentHashMap<String, CompletableFuture<?>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder coalescedCount = new LongAdder();
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> CompletionStage<T> coalesce(final String key, final Supplier<CompletionStage<T>> call) {
+        CompletableFuture<T> promise = new CompletableFuture<>();
+        CompletableFuture<?> running = this.inFlight.putIfAbsent(key, promise);
+        if (running != null) {
+            this.coalescedCount.increment();
+            return ((CompletableFuture<T>) running).thenApply(Function.identity());
+        }
+
+        try {
+            call.get().whenComplete((result, error) -> {
+                // Requests arriving from now on start a new call
+                this.inFlight.remove(key, promise);
+                if (error != null) {
+                    promise.completeExceptionally(error);
+                } else {
+                    promise.complete(result);
+                }
+            });
+        } catch (RuntimeException e) {
+            this.inFlight.remove(key, promise);
+            promise.completeExceptionally(e);
+        }
+
+        // Callers get their own stage, so that one of them can't complete
+        // or cancel the call shared with the others
+        return promise.thenApply(Function.identity());
+    }
+
+    @Override
+    public long getCoalescedCount() {
+        return this.coalescedCount.sum();
+    }
+}
@@ -0,0 +1,188 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.services.external;
+
+import akka.stream.Materializer;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+import akka.util.ByteStringBuilder;
+import com.google.inject.Inject;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.exceptions.*;
+import play.Logger;
+import play.libs.ws.SourceBodyWritable;
+import play.libs.ws.WSClient;
+import play.libs.ws.WSRequest;
+import play.libs.ws.WSResponse;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Client for the Azure Storage blob REST API, see
+ * https://docs.microsoft.com/rest/api/storageservices/blob-service-rest-api
+ */
+public class BlobContainerClient implements IBlobContainerClient {
+
+    private static final Logger.ALogger log = Logger.of(BlobContainerClient.class);
+
+    private static final String STORAGE_VERSION = "2017-04-17";
+    private static final int BLOCK_SIZE = 4 * 1024 * 1024;
+
+    private final WSClient wsClient;
+    private final Materializer materializer;
+
+    @Inject
+    public BlobContainerClient(final WSClient wsClient, final Materializer materializer) {
+        this.wsClient = wsClient;
+        this.materializer = materializer;
+    }
+
+    /**
+     * Blocks of 4 MB are uploaded one at a time, then committed together,
+     * so that the content is never held in memory.
+     */
+    @Override
+    public CompletionStage<Void> uploadAsync(
+        final String containerUri,
+        final String blobName,
+        final Source<ByteString, ?> content) {
+        String blobUri = getBlobUri(containerUri, blobName);
+        AtomicInteger blockCount = new AtomicInteger(0);
+
+        return content
+            .filter(bytes -> !bytes.isEmpty())
+            // An empty element marks the end of the content, to upload the last block
+            .concat(Source.single(ByteString.empty()))
+            .statefulMapConcat(() -> {
+                ByteStringBuilder buffer = new ByteStringBuilder();
+                return bytes -> {
+                    buffer.append(bytes);
+                    if (buffer.length() < BLOCK_SIZE && !(bytes.isEmpty() && buffer.length() > 0)) {
+                        return Collections.emptyList();
+                    }
+                    ByteString block = buffer.result();
+                    buffer.clear();
+                    return Collections.singletonList(block);
+                };
+            })
+            .mapAsync(1, block -> {
+                String blockId = getBlockId(blockCount.getAndIncrement());
+                // In-memory bodies other than JSON are sent as UTF-8 text,
+                // a streamed body with its length is sent as is
+                return this.request(blobUri + "&comp=block&blockid=" + urlEncode(blockId))
+                    .addHeader("Content-Length", String.valueOf(block.length()))
+                    .put(new SourceBodyWritable(Source.single(block), "application/octet-stream"))
+                    .thenApply(response -> checkResponse(response, blobUri, "upload block"))
+                    .thenApply(response -> blockId);
+            })
+            .runWith(Sink.<String>seq(), this.materializer)
+            .thenCompose(blockIds -> {
+                StringBuilder blockList = new StringBuilder("<?xml version=\"1.0\" encoding=\"utf-8\"?><BlockList>");
+                for (String blockId : blockIds) {
+                    blockList.append("<Latest>").append(blockId).append("</Latest>");
+                }
+                blockList.append("</BlockList>");
+
+                return this.request(blobUri + "&comp=blocklist")
+                    .setContentType("application/xml")
+                    .put(blockList.toString())
+                    .thenApply(response -> {
+                        checkResponse(response, blobUri, "commit");
+                        log.info("Uploaded blob {} in {} blocks", blobName, blockIds.size());
+                        return null;
+                    });
+            });
+    }
+
+    @Override
+    public CompletionStage<Source<ByteString, ?>> downloadAsync(final String containerUri, final String blobName) {
+        String blobUri = getBlobUri(containerUri, blobName);
+        return this.request(blobUri)
+            .setMethod("GET")
+            .stream()
+            .thenApply(response -> checkResponse(response, blobUri, "download").getBodyAsSource());
+    }
+
+    /**
+     * Get the URI of a blob from the SAS URI of its container, e.g.
+     * http://127.0.0.1:10000/devstoreaccount1/export?sv=...&sig=... gives
+     * http://127.0.0.1:10000/devstoreaccount1/export/devices.txt?sv=...&sig=...
+     * The result always has a query string, to append parameters with `&`.
+     */
+    static String getBlobUri(final String containerUri, final String blobName) {
+        int query = containerUri.indexOf('?');
+        String path = query < 0 ? containerUri : containerUri.substring(0, query);
+        String sas = query < 0 ? "" : containerUri.substring(query + 1);
+        if (path.endsWith("/")) {
+            path = path.substring(0, path.length() - 1);
+        }
+
+        return path + "/" + blobName + "?" + sas;
+    }
+
+    /**
+     * The query string is passed as parameters: WS escapes the query of
+     * the URL again, which would break the SAS signature and block ids.
+     */
+    private WSRequest request(final String uri) {
+        int query = uri.indexOf('?');
+        WSRequest request = this.wsClient.url(query < 0 ? uri : uri.substring(0, query))
+            .addHeader("x-ms-version", STORAGE_VERSION)
+            .addHeader("x-ms-blob-type", "BlockBlob");
+        if (query < 0) {
+            return request;
+        }
+
+        for (String parameter : uri.substring(query + 1).split("&")) {
+            int equals = parameter.indexOf('=');
+            if (equals > 0) {
+                request = request.addQueryParameter(
+                    parameter.substring(0, equals), urlDecode(parameter.substring(equals + 1)));
+            }
+        }
+        return request;
+    }
+
+    private static <T extends WSResponse> T checkResponse(final T response, final String blobUri, final String operation) {
+        if (response.getStatus() < 300) {
+            return response;
+        }
+
+        // Never log the SAS token
+        String blob = blobUri.substring(0, blobUri.indexOf('?'));
+        String message = String.format("Unable to %s blob %s, status: %d", operation, blob, response.getStatus());
+        log.error(message);
+        throw new CompletionException(response.getStatus() == 404
+            ? new ResourceNotFoundException(message)
+            : new ExternalDependencyException(message));
+    }
+
+    private static String getBlockId(final int index) {
+        // Block ids of a blob must all have the same length
+        return Base64.getEncoder().encodeToString(
+            String.format("block-%08d", index).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String urlDecode(final String value) {
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String urlEncode(final String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
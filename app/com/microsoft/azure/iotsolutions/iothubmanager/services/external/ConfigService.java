@@ -2,54 +2,282 @@
 
 package com.microsoft.azure.iotsolutions.iothubmanager.services.external;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import com.google.inject.Inject;
+import com.google.inject.Singleton;
 import com.microsoft.azure.iotsolutions.iothubmanager.services.helpers.HashMapHelper;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.helpers.MappedOutbox;
 import com.microsoft.azure.iotsolutions.iothubmanager.services.models.DeviceTwinProperties;
 import com.microsoft.azure.iotsolutions.iothubmanager.services.models.DeviceTwinServiceModel;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.OutboxStatsServiceModel;
 import com.microsoft.azure.iotsolutions.iothubmanager.services.runtime.IServicesConfig;
 import play.Logger;
+import play.inject.ApplicationLifecycle;
 import play.libs.Json;
 import play.libs.ws.*;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.*;
 
+/**
+ * The config service builds the device group filters from the names of the
+ * tags and reported properties of the devices. Names are collected during
+ * a short window and only the names not recorded yet are kept, so that bulk
+ * updates and twin jobs produce one request per window instead of one
+ * request per device. A name is recorded as soon as its batch is appended
+ * to the outbox, before it is sent. The most recently recorded names are
+ * remembered, up to a fixed number: older names can be sent again.
+ *
+ * Each batch of names is first written to a local outbox file, then sent
+ * in the background; a batch leaves the outbox only once the config
+ * service acknowledged it, so names are not lost while the config service
+ * is down or when the service restarts. Failed requests are retried with
+ * an exponential backoff.
+ */
+@Singleton
 public class ConfigService implements IConfigService {
 
     private static final Logger.ALogger log = Logger.of(ConfigService.class);
 
+    private static final int OUTBOX_INITIAL_SIZE = 1024 * 1024;
+    private static final int MAX_BATCHES_PER_REQUEST = 100;
+    private static final int RECORDED_NAMES_SIZE = 10000;
+
     private final WSClient wsClient;
     private final String serviceUrl;
+    private final long windowMillis;
+    private final long minRetryDelayMillis;
+    private final long maxRetryDelayMillis;
+    private final ScheduledExecutorService scheduler;
+    private final MappedOutbox outbox;
+
+    // Names recorded in the outbox, whether they have been sent or not
+    private final Cache<String, Boolean> recordedTags = Caffeine.newBuilder()
+        .maximumSize(RECORDED_NAMES_SIZE)
+        .build();
+    private final Cache<String, Boolean> recordedReported = Caffeine.newBuilder()
+        .maximumSize(RECORDED_NAMES_SIZE)
+        .build();
+
+    // Names waiting for the next batch, guarded by this
+    private HashSet<String> pendingTags = new HashSet<>();
+    private HashSet<String> pendingReported = new HashSet<>();
+    private CompletableFuture<Void> nextBatch = null;
+
+    // State of the drainer, only used on the scheduler thread
+    private boolean draining = false;
+    private volatile int failureCount = 0;
 
     @Inject
-    public ConfigService(final IServicesConfig config, final WSClient wsClient) {
+    public ConfigService(
+        final IServicesConfig config,
+        final WSClient wsClient,
+        final ApplicationLifecycle lifecycle) {
         this.serviceUrl = config.getConfigServiceUrl();
         this.wsClient = wsClient;
+        this.windowMillis = config.getDeviceGroupFiltersWindow().toMillis();
+        this.minRetryDelayMillis = config.getDeviceGroupFiltersMinRetryDelay().toMillis();
+        this.maxRetryDelayMillis = config.getDeviceGroupFiltersMaxRetryDelay().toMillis();
+
+        String outboxPath = config.getDeviceGroupFiltersOutboxPath();
+        if (outboxPath == null || outboxPath.isEmpty()) {
+            outboxPath = Paths.get(
+                System.getProperty("java.io.tmpdir"), "iothub-manager", "config-service-outbox.dat").toString();
+            log.warn("The config service outbox path is not set, using {}: the device group filters not "
+                + "yet sent are lost if the temporary directory is cleared. Set PCS_CONFIG_OUTBOX_PATH "
+                + "to a file on a persistent volume.", outboxPath);
+        }
+        try {
+            this.outbox = new MappedOutbox(Paths.get(outboxPath), OUTBOX_INITIAL_SIZE);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to open the config service outbox: " + outboxPath, e);
+        }
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "config-service-filters");
+            thread.setDaemon(true);
+            return thread;
+        });
+        lifecycle.addStopHook(() -> {
+            this.scheduler.shutdownNow();
+            this.outbox.close();
+            return CompletableFuture.completedFuture(null);
+        });
+
+        // Send the names left over by the previous run
+        for (MappedOutbox.Message message : this.outbox.peek(Integer.MAX_VALUE)) {
+            DeviceGroupFiltersApiModel model = parseBatch(message);
+            record(this.recordedTags, model.getTags());
+            record(this.recordedReported, model.getReported());
+        }
+        if (this.outbox.size() > 0) {
+            log.info("Sending {} batches of device group filters left in the outbox", this.outbox.size());
+            this.scheduler.execute(() -> this.drainLater(0));
+        }
     }
 
+    /**
+     * Add the names of the twin tags and reported properties to the next
+     * batch. The result completes once the batch has been recorded in the
+     * outbox, or immediately when all the names are already recorded.
+     */
     @Override
     public CompletionStage updateDeviceGroupFiltersAsync(DeviceTwinServiceModel twin) {
-        DeviceGroupFiltersApiModel model = new DeviceGroupFiltersApiModel();
-
+        HashSet<String> tags = new HashSet<>();
         if (twin.getTags() != null) {
-            model.setTags(HashMapHelper.mapToHashSet("", twin.getTags()));
+            tags = HashMapHelper.mapToHashSet("", twin.getTags());
+            tags.removeAll(this.recordedTags.getAllPresent(tags).keySet());
         }
 
+        HashSet<String> reported = new HashSet<>();
         DeviceTwinProperties properties = twin.getProperties();
         if (properties != null && properties.getReported() != null) {
-            model.setReported(HashMapHelper.mapToHashSet("", properties.getReported()));
+            reported = HashMapHelper.mapToHashSet("", properties.getReported());
+            reported.removeAll(this.recordedReported.getAllPresent(reported).keySet());
+        }
+
+        synchronized (this) {
+            this.pendingTags.addAll(tags);
+            this.pendingReported.addAll(reported);
+            if (this.pendingTags.isEmpty() && this.pendingReported.isEmpty()) {
+                return CompletableFuture.completedFuture(null);
+            }
+
+            return this.scheduleBatch(this.windowMillis);
+        }
+    }
+
+    @Override
+    public OutboxStatsServiceModel getOutboxStats() {
+        long oldest = this.outbox.getOldestTimestamp();
+        return new OutboxStatsServiceModel(
+            this.outbox.size(),
+            this.outbox.sizeInBytes(),
+            oldest == 0 ? 0 : Math.max(0, System.currentTimeMillis() - oldest),
+            this.failureCount);
+    }
+
+    private synchronized CompletableFuture<Void> scheduleBatch(final long delayMillis) {
+        if (this.nextBatch == null) {
+            this.nextBatch = new CompletableFuture<>();
+            this.scheduler.schedule(this::recordPendingFilters, delayMillis, TimeUnit.MILLISECONDS);
+        }
+
+        return this.nextBatch;
+    }
+
+    private void recordPendingFilters() {
+        HashSet<String> tags;
+        HashSet<String> reported;
+        CompletableFuture<Void> batch;
+        synchronized (this) {
+            tags = this.pendingTags;
+            reported = this.pendingReported;
+            batch = this.nextBatch;
+            this.pendingTags = new HashSet<>();
+            this.pendingReported = new HashSet<>();
+            this.nextBatch = null;
         }
 
+        DeviceGroupFiltersApiModel model = new DeviceGroupFiltersApiModel();
+        model.setTags(tags);
+        model.setReported(reported);
+
+        try {
+            this.outbox.append(Json.toJson(model).toString().getBytes(StandardCharsets.UTF_8));
+            record(this.recordedTags, tags);
+            record(this.recordedReported, reported);
+            this.drainLater(0);
+        } catch (Exception e) {
+            log.error("Unable to record device group filters in the outbox", e);
+
+            // The names are recorded again with the next batch
+            synchronized (this) {
+                this.pendingTags.addAll(tags);
+                this.pendingReported.addAll(reported);
+                this.scheduleBatch(this.minRetryDelayMillis);
+            }
+        }
+
+        batch.complete(null);
+    }
+
+    private static void record(final Cache<String, Boolean> recorded, final Set<String> names) {
+        for (String name : names) {
+            recorded.put(name, true);
+        }
+    }
+
+    /**
+     * Start sending the outbox, unless a request is already running or
+     * waiting for its retry delay.
+     */
+    private void drainLater(final long delayMillis) {
+        if (this.draining) {
+            return;
+        }
+
+        this.draining = true;
+        this.scheduler.schedule(this::drain, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Send the oldest batches in the outbox, merged into one request.
+     */
+    private void drain() {
+        List<MappedOutbox.Message> messages = this.outbox.peek(MAX_BATCHES_PER_REQUEST);
+        if (messages.isEmpty()) {
+            this.draining = false;
+            return;
+        }
+
+        HashSet<String> tags = new HashSet<>();
+        HashSet<String> reported = new HashSet<>();
+        for (MappedOutbox.Message message : messages) {
+            DeviceGroupFiltersApiModel batch = parseBatch(message);
+            tags.addAll(batch.getTags());
+            reported.addAll(batch.getReported());
+        }
+
+        DeviceGroupFiltersApiModel model = new DeviceGroupFiltersApiModel();
+        model.setTags(tags);
+        model.setReported(reported);
+
         String url = this.serviceUrl + "/devicegroupfilters";
-        return CompletableFuture.runAsync(() ->
-            this.wsClient.url(url)
-                .post(Json.toJson(model))
-                .handle((response, error) -> {
-                    if (error != null) {
-                        String message = String.format("Fail to access config service: %s", url);
-                        log.error(message, error.getCause());
-                    }
-                    return response;
-                })
-        );
+        this.wsClient.url(url)
+            .post(Json.toJson(model))
+            .whenComplete((response, error) -> {
+                if (error == null && response.getStatus() >= 200 && response.getStatus() < 300) {
+                    this.scheduler.execute(() -> this.onDelivered(messages.get(messages.size() - 1)));
+                } else {
+                    String message = error == null
+                        ? String.format("Fail to access config service: %s, status %d", url, response.getStatus())
+                        : String.format("Fail to access config service: %s", url);
+                    log.error(message, error);
+                    this.scheduler.execute(this::onFailed);
+                }
+            });
+    }
+
+    private void onDelivered(final MappedOutbox.Message last) {
+        this.outbox.acknowledge(last);
+        this.failureCount = 0;
+        this.drain();
+    }
+
+    private void onFailed() {
+        this.failureCount++;
+        long delay = this.minRetryDelayMillis << Math.min(this.failureCount - 1, 20);
+        this.scheduler.schedule(this::drain, Math.min(delay, this.maxRetryDelayMillis), TimeUnit.MILLISECONDS);
+    }
+
+    private static DeviceGroupFiltersApiModel parseBatch(final MappedOutbox.Message message) {
+        return Json.fromJson(Json.parse(message.getPayload()), DeviceGroupFiltersApiModel.class);
     }
 }
@@ -0,0 +1,29 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.services.external;
+
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+import com.google.inject.ImplementedBy;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Read and write blobs of an Azure Storage container, addressed with a
+ * container SAS URI, e.g. the containers used by the registry import and
+ * export jobs. Works with the Azurite storage emulator as well.
+ */
+@ImplementedBy(BlobContainerClient.class)
+public interface IBlobContainerClient {
+
+    /**
+     * Upload a blob of any size, `content` is sent block by block while
+     * it is read.
+     */
+    CompletionStage<Void> uploadAsync(String containerUri, String blobName, Source<ByteString, ?> content);
+
+    /**
+     * @return The content of the blob, streamed from the storage account
+     */
+    CompletionStage<Source<ByteString, ?>> downloadAsync(String containerUri, String blobName);
+}
@@ -4,6 +4,7 @@ package com.microsoft.azure.iotsolutions.iothubmanager.services.external;
 
 import com.google.inject.ImplementedBy;
 import com.microsoft.azure.iotsolutions.iothubmanager.services.models.DeviceTwinServiceModel;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.OutboxStatsServiceModel;
 
 import java.util.concurrent.CompletionStage;
 
@@ -12,4 +13,5 @@ public interface IConfigService {
 
     CompletionStage updateDeviceGroupFiltersAsync(DeviceTwinServiceModel twin);
 
+    OutboxStatsServiceModel getOutboxStats();
 }
@@ -0,0 +1,165 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.services.helpers;
+
+import java.time.Duration;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Run blocking IoT Hub SDK calls on an executor, with a time limit.
+ * Unlike CompletableFuture.supplyAsync, completing or cancelling the
+ * returned future stops the call: a call still waiting in the executor
+ * queue is skipped, a running call is interrupted.
+ *
+ * The SDK sends its requests with HttpURLConnection, whose reads ignore
+ * interrupts: an interrupt only stops calls that check for it, e.g.
+ * between the pages of a query, and the thread stays busy until the
+ * current HTTP request returns.
+ */
+public final class AsyncHelper {
+
+    private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "async-helper-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private AsyncHelper() {
+    }
+
+    /**
+     * Run `call` on `executor`. Exceptions thrown by the call complete the
+     * future exceptionally, a CompletionException is unwrapped first.
+     */
+    public static <T> CompletableFuture<T> supplyAsync(final Callable<T> call, final Executor executor) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        InterruptibleCall<T> task = new InterruptibleCall<>(call, result);
+        result.whenComplete((value, error) -> task.interrupt());
+        executor.execute(task);
+        return result;
+    }
+
+    /**
+     * Run `call` on `executor`, failing with the exception returned by
+     * `onTimeout` if the call did not start within `startTimeout`. Once
+     * started, the call is not timed out: for calls that are not safe to
+     * retry, the caller must not fail while the outcome is unknown.
+     */
+    public static <T> CompletableFuture<T> supplyAsync(
+        final Callable<T> call,
+        final Executor executor,
+        final Duration startTimeout,
+        final Supplier<Throwable> onTimeout) {
+        // Either the call starts or the timeout fires, never both
+        AtomicBoolean claimed = new AtomicBoolean(false);
+        CompletableFuture<T> result = supplyAsync(() -> {
+            if (!claimed.compareAndSet(false, true)) {
+                throw new CancellationException();
+            }
+            return call.call();
+        }, executor);
+
+        ScheduledFuture<?> timeoutTask = timer.schedule(() -> {
+            if (claimed.compareAndSet(false, true)) {
+                result.completeExceptionally(onTimeout.get());
+            }
+        }, startTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        result.whenComplete((value, error) -> timeoutTask.cancel(false));
+        return result;
+    }
+
+    /**
+     * Complete `future` with the exception returned by `onTimeout` if it
+     * is not completed within `timeout`.
+     */
+    public static <T> CompletableFuture<T> withTimeout(
+        final CompletableFuture<T> future,
+        final Duration timeout,
+        final Supplier<Throwable> onTimeout) {
+        if (future.isDone()) {
+            return future;
+        }
+
+        ScheduledFuture<?> timeoutTask = timer.schedule(
+            () -> future.completeExceptionally(onTimeout.get()),
+            timeout.toMillis(),
+            TimeUnit.MILLISECONDS);
+        future.whenComplete((value, error) -> timeoutTask.cancel(false));
+        return future;
+    }
+
+    /**
+     * Complete `future` with `value` if it is not completed within
+     * `timeout`.
+     */
+    public static <T> CompletableFuture<T> completeOnTimeout(
+        final CompletableFuture<T> future,
+        final T value,
+        final Duration timeout) {
+        if (future.isDone()) {
+            return future;
+        }
+
+        ScheduledFuture<?> timeoutTask = timer.schedule(
+            () -> future.complete(value),
+            timeout.toMillis(),
+            TimeUnit.MILLISECONDS);
+        future.whenComplete((result, error) -> timeoutTask.cancel(false));
+        return future;
+    }
+
+    private static class InterruptibleCall<T> implements Runnable {
+
+        private final Callable<T> call;
+        private final CompletableFuture<T> result;
+
+        // Thread running the call, guarded by this
+        private Thread runner = null;
+
+        InterruptibleCall(final Callable<T> call, final CompletableFuture<T> result) {
+            this.call = call;
+            this.result = result;
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                if (this.result.isDone()) {
+                    return;
+                }
+                this.runner = Thread.currentThread();
+            }
+
+            T value = null;
+            Throwable error = null;
+            try {
+                value = this.call.call();
+            } catch (CompletionException e) {
+                error = e.getCause() == null ? e : e.getCause();
+            } catch (Throwable e) {
+                error = e;
+            } finally {
+                // Don't leak an interruption to the stages depending on
+                // the result, or to the next task of the thread
+                synchronized (this) {
+                    this.runner = null;
+                    Thread.interrupted();
+                }
+            }
+
+            if (error == null) {
+                this.result.complete(value);
+            } else {
+                this.result.completeExceptionally(error);
+            }
+        }
+
+        synchronized void interrupt() {
+            if (this.runner != null) {
+                this.runner.interrupt();
+            }
+        }
+    }
+}
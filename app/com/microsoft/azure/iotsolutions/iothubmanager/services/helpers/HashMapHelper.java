@@ -46,20 +46,8 @@ public class HashMapHelper {
      * @param map    the map to be converted such as HashMap, LinkedTreeMap.
      */
     public static HashSet<String> mapToHashSet(String prefix, Map<String, Object> map) {
-        String dottedPrefix = prefix == null || prefix.isEmpty() ? "" : prefix + ".";
         HashSet<String> set = new HashSet<>();
-        if (map != null) {
-            for (Map.Entry<String, Object> setEntry : map.entrySet()) {
-                Object value = setEntry.getValue();
-                if (value instanceof String
-                    || value instanceof Boolean
-                    || value instanceof Number) {
-                    set.add(dottedPrefix + setEntry.getKey());
-                } else if (value instanceof Map) {
-                    set.addAll(mapToHashSet(dottedPrefix + setEntry.getKey(), (Map) setEntry.getValue()));
-                }
-            }
-        }
+        KeyPathFlattener.collectPaths(prefix, map, set);
         return set;
     }
 }
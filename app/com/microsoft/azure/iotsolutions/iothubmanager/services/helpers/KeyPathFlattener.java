@@ -0,0 +1,196 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.services.helpers;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * Flatten twin documents into the dotted paths of their values, e.g.
+ * Tags.IsSimulated, Reported.Telemetry.Interval...
+ *
+ * Documents are nested maps, as deserialized by the IoT Hub SDK (HashMap,
+ * LinkedTreeMap) or by Jackson (JsonNode objects). Only string, boolean
+ * and number values are reported; null values, arrays and empty objects
+ * are skipped.
+ *
+ * Documents are walked with an explicit stack instead of recursion, and
+ * the paths are taken from a trie shared by all the twins: every twin of a
+ * hub has mostly the same paths, so each path string is built once and
+ * then reused, instead of being concatenated again at every level of every
+ * twin. Paths are only built for the nodes holding a value, the objects
+ * above them only hold their key.
+ */
+public final class KeyPathFlattener {
+
+    // Bound the memory used by the trie when paths contain unbounded
+    // values, e.g. timestamps or device ids used as keys
+    private static final int MAX_CACHED_NODES = 100_000;
+
+    private static final Node ROOT = new Node(null, "");
+    private static final AtomicInteger cachedNodes = new AtomicInteger();
+
+    private KeyPathFlattener() {
+    }
+
+    /**
+     * Add the path of every value of the document to `paths`.
+     *
+     * @param prefix   path of the document, without trailing dot, empty for none
+     * @param document map or JsonNode object to flatten
+     * @param paths    collection receiving the paths
+     */
+    public static void collectPaths(
+        final String prefix,
+        final Object document,
+        final Collection<String> paths) {
+        forEachValue(prefix, document, (path, value) -> paths.add(path));
+    }
+
+    /**
+     * Call `consumer` with the path and the value of every value of the
+     * document. Values read from a JsonNode are converted to String,
+     * Boolean or Number.
+     *
+     * @param prefix   path of the document, without trailing dot, empty for none
+     * @param document map or JsonNode object to flatten
+     * @param consumer receives the path and the value
+     */
+    public static void forEachValue(
+        final String prefix,
+        final Object document,
+        final BiConsumer<String, Object> consumer) {
+        Iterator<? extends Map.Entry<?, ?>> fields = fieldsOf(document);
+        if (fields == null) {
+            return;
+        }
+
+        Node root = prefix == null || prefix.isEmpty() ? ROOT : ROOT.child(prefix);
+        ArrayDeque<Frame> stack = new ArrayDeque<>();
+        Frame frame = new Frame(root, fields);
+        while (frame != null) {
+            if (!frame.fields.hasNext()) {
+                frame = stack.pollFirst();
+                continue;
+            }
+
+            Map.Entry<?, ?> field = frame.fields.next();
+            Object value = field.getValue();
+            Iterator<? extends Map.Entry<?, ?>> children = fieldsOf(value);
+            if (children != null) {
+                if (children.hasNext()) {
+                    stack.addFirst(frame);
+                    frame = new Frame(frame.node.child(String.valueOf(field.getKey())), children);
+                }
+                continue;
+            }
+
+            Object scalar = scalarOf(value);
+            if (scalar != null) {
+                consumer.accept(frame.node.child(String.valueOf(field.getKey())).getPath(), scalar);
+            }
+        }
+    }
+
+    private static Iterator<? extends Map.Entry<?, ?>> fieldsOf(final Object value) {
+        if (value instanceof Map) {
+            return ((Map<?, ?>) value).entrySet().iterator();
+        }
+        if (value instanceof JsonNode && ((JsonNode) value).isObject()) {
+            return ((JsonNode) value).fields();
+        }
+
+        return null;
+    }
+
+    private static Object scalarOf(final Object value) {
+        if (value instanceof String || value instanceof Boolean || value instanceof Number) {
+            return value;
+        }
+        if (value instanceof JsonNode) {
+            JsonNode node = (JsonNode) value;
+            if (node.isTextual()) {
+                return node.textValue();
+            }
+            if (node.isBoolean()) {
+                return node.booleanValue();
+            }
+            if (node.isNumber()) {
+                return node.numberValue();
+            }
+        }
+
+        return null;
+    }
+
+    private static final class Frame {
+        private final Node node;
+        private final Iterator<? extends Map.Entry<?, ?>> fields;
+
+        private Frame(final Node node, final Iterator<? extends Map.Entry<?, ?>> fields) {
+            this.node = node;
+            this.fields = fields;
+        }
+    }
+
+    private static final class Node {
+        private final Node parent;
+        private final String key;
+        private final ConcurrentHashMap<String, Node> children = new ConcurrentHashMap<>();
+        private volatile String path;
+
+        private Node(final Node parent, final String key) {
+            this.parent = parent;
+            this.key = key;
+        }
+
+        private Node child(final String key) {
+            Node child = this.children.get(key);
+            if (child != null) {
+                return child;
+            }
+
+            if (cachedNodes.get() >= MAX_CACHED_NODES) {
+                return new Node(this, key);
+            }
+
+            return this.children.computeIfAbsent(key, k -> {
+                cachedNodes.incrementAndGet();
+                return new Node(this, k);
+            });
+        }
+
+        private String getPath() {
+            String path = this.path;
+            if (path == null) {
+                int length = -1;
+                for (Node node = this; node.parent != null; node = node.parent) {
+                    length += node.key.length() + 1;
+                }
+
+                char[] chars = new char[length];
+                int end = length;
+                for (Node node = this; node.parent != null; node = node.parent) {
+                    int start = end - node.key.length();
+                    node.key.getChars(0, node.key.length(), chars, start);
+                    if (start > 0) {
+                        chars[start - 1] = '.';
+                    }
+                    end = start - 1;
+                }
+
+                path = new String(chars);
+                this.path = path;
+            }
+
+            return path;
+        }
+    }
+}
@@ -0,0 +1,308 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.services.helpers;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of messages waiting to be delivered, stored in a memory
+ * mapped file so that the messages survive a restart of the service.
+ *
+ * The file starts with a header holding the offset of the first message
+ * not acknowledged yet, followed by the messages:
+ * [length][crc32][timestamp][payload], terminated by a zero length. The
+ * length is written last, so a message torn by a crash is never read back.
+ *
+ * Acknowledging messages moves the head of the log; the acknowledged space
+ * is reclaimed by moving the remaining messages back to the start of the
+ * file, once they don't overlap the space they are copied to.
+ */
+public class MappedOutbox implements Closeable {
+
+    private static final int MAGIC = 0x4f555442; // "OUTB"
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_HEADER_SIZE = 16;
+    private static final int TERMINATOR_SIZE = 4;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private MappedByteBuffer buffer;
+
+    // Offsets of the messages between head and tail, guarded by this
+    private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+    private int head;
+    private int tail;
+    private long nextSequence = 0;
+
+    public MappedOutbox(final Path path, final int initialSize) throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+
+        this.file = new RandomAccessFile(path.toFile(), "rw");
+        this.channel = this.file.getChannel();
+
+        // Two writers would overwrite each other's messages
+        FileLock lock;
+        try {
+            lock = this.channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null;
+        }
+        if (lock == null) {
+            this.file.close();
+            throw new IOException("The outbox is already in use: " + path);
+        }
+
+        boolean created = this.channel.size() < HEADER_SIZE + TERMINATOR_SIZE;
+        this.map(Math.max(initialSize, (int) this.channel.size()));
+
+        if (created || this.buffer.getInt(0) != MAGIC) {
+            this.buffer.putInt(HEADER_SIZE, 0);
+            this.buffer.putInt(0, MAGIC);
+            this.tail = HEADER_SIZE;
+            this.writeHead(HEADER_SIZE);
+        } else {
+            this.head = this.buffer.getInt(4);
+            this.recover();
+        }
+    }
+
+    /**
+     * Append a message, and flush it to disk before returning.
+     */
+    public synchronized void append(final byte[] payload) {
+        int size = RECORD_HEADER_SIZE + payload.length;
+        if (this.tail + size + TERMINATOR_SIZE > this.buffer.capacity()) {
+            this.compact();
+        }
+        if (this.tail + size + TERMINATOR_SIZE > this.buffer.capacity()) {
+            this.grow(this.tail + size + TERMINATOR_SIZE);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        long timestamp = System.currentTimeMillis();
+
+        int offset = this.tail;
+        this.buffer.putInt(offset + 4, (int) crc.getValue());
+        this.buffer.putLong(offset + 8, timestamp);
+        ByteBuffer view = this.buffer.duplicate();
+        view.position(offset + RECORD_HEADER_SIZE);
+        view.put(payload);
+        this.buffer.putInt(offset + size, 0);
+        this.buffer.putInt(offset, payload.length);
+        this.buffer.force();
+
+        this.tail = offset + size;
+        this.entries.addLast(new Entry(this.nextSequence++, offset, this.tail, timestamp));
+    }
+
+    /**
+     * Get up to `limit` messages, oldest first, without removing them.
+     */
+    public synchronized List<Message> peek(final int limit) {
+        List<Message> messages = new ArrayList<>(Math.min(limit, this.entries.size()));
+        Iterator<Entry> iterator = this.entries.iterator();
+        while (iterator.hasNext() && messages.size() < limit) {
+            Entry entry = iterator.next();
+            byte[] payload = new byte[entry.end - entry.offset - RECORD_HEADER_SIZE];
+            ByteBuffer view = this.buffer.duplicate();
+            view.position(entry.offset + RECORD_HEADER_SIZE);
+            view.get(payload);
+            messages.add(new Message(entry.sequence, payload, entry.timestamp));
+        }
+
+        return messages;
+    }
+
+    /**
+     * Remove the messages up to, and including, the given message.
+     */
+    public synchronized void acknowledge(final Message last) {
+        int end = -1;
+        while (!this.entries.isEmpty() && this.entries.peekFirst().sequence <= last.sequence) {
+            end = this.entries.removeFirst().end;
+        }
+        if (end < 0) {
+            return;
+        }
+
+        if (this.entries.isEmpty()) {
+            // Terminate the log at the start of the file before moving the
+            // head there, so that a crash in between still reads it empty
+            this.buffer.putInt(HEADER_SIZE, 0);
+            this.buffer.force();
+            this.tail = HEADER_SIZE;
+            this.writeHead(HEADER_SIZE);
+        } else {
+            this.writeHead(end);
+            if (this.head > this.buffer.capacity() / 2) {
+                this.compact();
+            }
+        }
+    }
+
+    /**
+     * @return Number of messages not acknowledged yet
+     */
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    /**
+     * @return Bytes used by the messages not acknowledged yet
+     */
+    public synchronized long sizeInBytes() {
+        return this.tail - this.head;
+    }
+
+    /**
+     * @return When the oldest message not acknowledged yet was appended,
+     * or 0 when there are none
+     */
+    public synchronized long getOldestTimestamp() {
+        return this.entries.isEmpty() ? 0 : this.entries.peekFirst().timestamp;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        this.buffer.force();
+        this.channel.close();
+        this.file.close();
+    }
+
+    /**
+     * Move the messages back to the start of the file. The head is moved
+     * only after the messages have been copied and flushed, and only when
+     * the copy doesn't overwrite them, so that a crash leaves either the
+     * old or the new log readable.
+     */
+    private void compact() {
+        int length = this.tail - this.head;
+        if (this.head == HEADER_SIZE || HEADER_SIZE + length + TERMINATOR_SIZE > this.head) {
+            return;
+        }
+
+        ByteBuffer source = this.buffer.duplicate();
+        source.position(this.head).limit(this.tail);
+        ByteBuffer target = this.buffer.duplicate();
+        target.position(HEADER_SIZE);
+        target.put(source);
+        this.buffer.putInt(HEADER_SIZE + length, 0);
+        this.buffer.force();
+
+        int shift = this.head - HEADER_SIZE;
+        ArrayDeque<Entry> moved = new ArrayDeque<>(this.entries.size());
+        for (Entry entry : this.entries) {
+            moved.addLast(new Entry(entry.sequence, entry.offset - shift, entry.end - shift, entry.timestamp));
+        }
+        this.entries.clear();
+        this.entries.addAll(moved);
+        this.tail -= shift;
+        this.writeHead(HEADER_SIZE);
+    }
+
+    /**
+     * Read the messages after the head, up to the first message missing
+     * or corrupted by a crash while it was written.
+     */
+    private void recover() {
+        int offset = this.head;
+        while (offset + RECORD_HEADER_SIZE <= this.buffer.capacity()) {
+            int length = this.buffer.getInt(offset);
+            int end = offset + RECORD_HEADER_SIZE + length;
+            if (length <= 0 || end + TERMINATOR_SIZE > this.buffer.capacity()) {
+                break;
+            }
+
+            ByteBuffer payload = this.buffer.duplicate();
+            payload.position(offset + RECORD_HEADER_SIZE).limit(end);
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            if ((int) crc.getValue() != this.buffer.getInt(offset + 4)) {
+                break;
+            }
+
+            this.entries.addLast(new Entry(this.nextSequence++, offset, end, this.buffer.getLong(offset + 8)));
+            offset = end;
+        }
+
+        this.tail = offset;
+        this.buffer.putInt(this.tail, 0);
+        this.buffer.force();
+    }
+
+    private void grow(final int minimumSize) {
+        int size = this.buffer.capacity();
+        while (size < minimumSize) {
+            size *= 2;
+        }
+        this.map(size);
+    }
+
+    private void map(final int size) {
+        try {
+            this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to map the outbox file", e);
+        }
+    }
+
+    private void writeHead(final int head) {
+        this.buffer.putInt(4, head);
+        this.buffer.force();
+        this.head = head;
+    }
+
+    public static class Message {
+
+        private final long sequence;
+        private final byte[] payload;
+        private final long timestamp;
+
+        private Message(final long sequence, final byte[] payload, final long timestamp) {
+            this.sequence = sequence;
+            this.payload = payload;
+            this.timestamp = timestamp;
+        }
+
+        public byte[] getPayload() {
+            return this.payload;
+        }
+
+        public long getTimestamp() {
+            return this.timestamp;
+        }
+    }
+
+    private static class Entry {
+
+        private final long sequence;
+        private final int offset;
+        private final int end;
+        private final long timestamp;
+
+        private Entry(final long sequence, final int offset, final int end, final long timestamp) {
+            this.sequence = sequence;
+            this.offset = offset;
+            this.end = end;
+            this.timestamp = timestamp;
+        }
+    }
+}
@@ -3,53 +3,104 @@
 package com.microsoft.azure.iotsolutions.iothubmanager.services.helpers;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.exceptions.InvalidInputException;
 
-public class QueryConditionClause {
+import java.util.regex.Pattern;
 
-    private String key;
-    private String operator;
-    private Object value;
-    private Boolean textual;
+/**
+ * One condition of a device query, e.g. `tags.building = 43`. Clauses are
+ * validated when created, so that any clause can be rendered to the IoT Hub
+ * query language.
+ */
+public final class QueryConditionClause {
+
+    // Dotted path of a device, twin or tag field, e.g. properties.reported.type
+    private static final Pattern KEY = Pattern.compile("[A-Za-z_$][\\w$-]*(\\.[A-Za-z_$][\\w$-]*)*");
+
+    private final String key;
+    private final QueryConditionOperator operator;
+    private final JsonNode value;
+
+    public QueryConditionClause(
+        final String key,
+        final QueryConditionOperator operator,
+        final JsonNode value) throws InvalidInputException {
+        if (key == null || !KEY.matcher(key).matches()) {
+            throw new InvalidInputException("Key is not valid: " + key);
+        }
+
+        if (operator == QueryConditionOperator.IN) {
+            if (value == null || !value.isArray()) {
+                throw new InvalidInputException("The value of an IN condition must be an array: " + key);
+            }
+            for (JsonNode item : value) {
+                checkScalar(key, item);
+            }
+        } else {
+            checkScalar(key, value);
+        }
 
-    public QueryConditionClause(final String key, final String operator, final Object value) {
         this.key = key;
         this.operator = operator;
         this.value = value;
-        this.textual = true;
     }
 
     @JsonProperty("Key")
     public String getKey() {
-        return key;
-    }
-
-    public void setKey(String key) {
-        this.key = key;
+        return this.key;
     }
 
     @JsonProperty("Operator")
-    public String getOperator() {
-        return operator;
-    }
-
-    public void setOperator(String operator) {
-        this.operator = operator;
+    public QueryConditionOperator getOperator() {
+        return this.operator;
     }
 
     @JsonProperty("Value")
-    public Object getValue() {
-        return value;
+    public JsonNode getValue() {
+        return this.value;
     }
 
-    public void setValue(Object value) {
-        this.value = value;
+    /**
+     * Append the clause in the IoT Hub query language, e.g. `tags.type = 'Chiller'`
+     */
+    public void appendTo(final StringBuilder query) {
+        query.append(this.key).append(' ').append(this.operator.getSymbol()).append(' ');
+        if (this.value.isArray()) {
+            query.append('[');
+            for (int i = 0; i < this.value.size(); i++) {
+                if (i > 0) {
+                    query.append(", ");
+                }
+                appendValue(query, this.value.get(i));
+            }
+            query.append(']');
+        } else {
+            appendValue(query, this.value);
+        }
     }
 
-    public Boolean isTextual() {
-        return this.textual;
+    private static void appendValue(final StringBuilder query, final JsonNode value) {
+        if (!value.isTextual()) {
+            query.append(value.asText());
+            return;
+        }
+
+        query.append('\'');
+        String text = value.textValue();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\'' || c == '\\') {
+                query.append('\\');
+            }
+            query.append(c);
+        }
+        query.append('\'');
     }
 
-    public void setTextual(Boolean textual) {
-        this.textual = textual;
+    private static void checkScalar(final String key, final JsonNode value) throws InvalidInputException {
+        if (value == null || !(value.isTextual() || value.isNumber() || value.isBoolean() || value.isNull())) {
+            throw new InvalidInputException("The value of a condition must be a string, a number or a boolean: " + key);
+        }
     }
 }
@@ -0,0 +1,183 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.services.helpers;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.DeviceTwinServiceModel;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Evaluate query conditions against twins held in memory, with the same
+ * results as the IoT Hub query the translator renders for them:
+ * - values are only compared to values of the same type (numbers, strings
+ *   or booleans), any other comparison is false, including `!=`
+ * - a condition on a field the twin does not have is false
+ * - strings are compared by character, with no collation
+ */
+public class QueryConditionEvaluator {
+
+    private static final String DEVICE_ID = "deviceId";
+    private static final String TAGS_PREFIX = "tags.";
+    private static final String DESIRED_PREFIX = "properties.desired.";
+    private static final String REPORTED_PREFIX = "properties.reported.";
+
+    /**
+     * Whether all the clauses can be evaluated locally: only the device id,
+     * tags and properties are held by the twins, and comparisons with null
+     * depend on metadata which is not held either.
+     */
+    public static boolean isSupported(List<QueryConditionClause> clauses) {
+        for (QueryConditionClause clause : clauses) {
+            if (normalizeKey(clause.getKey()) == null) {
+                return false;
+            }
+
+            JsonNode value = clause.getValue();
+            if (value.isNull()) {
+                return false;
+            }
+            for (JsonNode item : value) {
+                if (item.isNull()) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Whether the twin matches all the clauses. Clauses which are not
+     * supported never match.
+     */
+    public static boolean matches(List<QueryConditionClause> clauses, DeviceTwinServiceModel twin) {
+        if (twin == null) {
+            return false;
+        }
+
+        for (QueryConditionClause clause : clauses) {
+            if (!matches(clause, twin)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Normalize the key of a twin field: the `tags` and `properties` prefixes
+     * are not case sensitive, the names defined by the users are. Returns
+     * null for the fields which are not held by the twins.
+     */
+    public static String normalizeKey(String key) {
+        String[] segments = key.split("\\.", 3);
+        if (segments.length == 1 && segments[0].equalsIgnoreCase(DEVICE_ID)) {
+            return DEVICE_ID;
+        }
+        if (segments.length >= 2 && segments[0].equalsIgnoreCase("tags")) {
+            return TAGS_PREFIX + key.substring(segments[0].length() + 1);
+        }
+        if (segments.length == 3 && segments[0].equalsIgnoreCase("properties")) {
+            if (segments[1].equalsIgnoreCase("desired")) {
+                return DESIRED_PREFIX + segments[2];
+            }
+            if (segments[1].equalsIgnoreCase("reported")) {
+                return REPORTED_PREFIX + segments[2];
+            }
+        }
+        return null;
+    }
+
+    private static boolean matches(QueryConditionClause clause, DeviceTwinServiceModel twin) {
+        String key = normalizeKey(clause.getKey());
+        if (key == null) {
+            return false;
+        }
+
+        Object actual = getField(twin, key);
+        if (actual == null) {
+            return false;
+        }
+
+        if (clause.getOperator() == QueryConditionOperator.IN) {
+            for (JsonNode item : clause.getValue()) {
+                Integer comparison = compare(actual, item);
+                if (comparison != null && comparison == 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        Integer comparison = compare(actual, clause.getValue());
+        if (comparison == null) {
+            return false;
+        }
+
+        switch (clause.getOperator()) {
+            case EQ:
+                return comparison == 0;
+            case NE:
+                return comparison != 0;
+            case LT:
+                return comparison < 0;
+            case LE:
+                return comparison <= 0;
+            case GT:
+                return comparison > 0;
+            case GE:
+                return comparison >= 0;
+            default:
+                return false;
+        }
+    }
+
+    private static Object getField(DeviceTwinServiceModel twin, String key) {
+        if (key.equals(DEVICE_ID)) {
+            return twin.getDeviceId();
+        }
+
+        Map<?, ?> fields;
+        String path;
+        if (key.startsWith(TAGS_PREFIX)) {
+            fields = twin.getTags();
+            path = key.substring(TAGS_PREFIX.length());
+        } else if (twin.getProperties() == null) {
+            return null;
+        } else if (key.startsWith(DESIRED_PREFIX)) {
+            fields = twin.getProperties().getDesired();
+            path = key.substring(DESIRED_PREFIX.length());
+        } else {
+            fields = twin.getProperties().getReported();
+            path = key.substring(REPORTED_PREFIX.length());
+        }
+
+        Object value = fields;
+        for (String name : path.split("\\.")) {
+            if (!(value instanceof Map)) {
+                return null;
+            }
+            value = ((Map<?, ?>) value).get(name);
+        }
+
+        return value;
+    }
+
+    /**
+     * Compare a twin value to a condition value, null when their types differ
+     */
+    private static Integer compare(Object actual, JsonNode expected) {
+        if (actual instanceof Number && expected.isNumber()) {
+            return Double.compare(((Number) actual).doubleValue(), expected.asDouble());
+        }
+        if (actual instanceof String && expected.isTextual()) {
+            return ((String) actual).compareTo(expected.textValue());
+        }
+        if (actual instanceof Boolean && expected.isBoolean()) {
+            return Boolean.compare((Boolean) actual, expected.booleanValue());
+        }
+        return null;
+    }
+}
@@ -0,0 +1,35 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.services.helpers;
+
+import com.microsoft.azure.iotsolutions.iothubmanager.services.exceptions.InvalidInputException;
+
+public enum QueryConditionOperator {
+    EQ("="),
+    NE("!="),
+    LT("<"),
+    LE("<="),
+    GT(">"),
+    GE(">="),
+    IN("IN");
+
+    private final String symbol;
+
+    QueryConditionOperator(String symbol) {
+        this.symbol = symbol;
+    }
+
+    /**
+     * @return The operator in the IoT Hub query language
+     */
+    public String getSymbol() {
+        return this.symbol;
+    }
+
+    public static QueryConditionOperator from(String value) throws InvalidInputException {
+        for (QueryConditionOperator v : values()) {
+            if (v.name().equalsIgnoreCase(value)) return v;
+        }
+        throw new InvalidInputException("Operator is not valid: " + value);
+    }
+}
@@ -4,75 +4,112 @@ package com.microsoft.azure.iotsolutions.iothubmanager.services.helpers;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import com.microsoft.azure.iotsolutions.iothubmanager.services.exceptions.InvalidInputException;
 
-import java.io.StringWriter;
+import java.io.IOException;
 import java.util.*;
 
+/**
+ * Translate device query conditions to the IoT Hub query language. The
+ * conditions are either a JSON array of clauses, e.g.
+ * [{"Key": "tags.building", "Operator": "EQ", "Value": 43}], or a condition
+ * already written in the IoT Hub query language, passed through with
+ * double quotes replaced by single quotes.
+ * Translations are cached, dashboards send the same conditions over and over.
+ */
 public class QueryConditionTranslator {
 
-    private static final HashMap<String, String> operatorMap = new HashMap<String, String>() {
-        {
-            put("EQ", "=");
-            put("NE", "!=");
-            put("LT", "<");
-            put("LE", ">=");
-            put("GT", ">");
-            put("GE", ">=");
-            put("IN", "IN");
-        }
-    };
+    private static final int CACHE_SIZE = 1000;
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private static final Cache<String, String> cache = Caffeine.newBuilder()
+        .maximumSize(CACHE_SIZE)
+        .build();
 
     public static String ToQueryString(String conditions) throws InvalidInputException {
-        List<QueryConditionClause> clauses = new ArrayList<QueryConditionClause>();
-        JsonNode jsonResult;
+        if (conditions == null) {
+            return "";
+        }
+
+        String query = cache.getIfPresent(conditions);
+        if (query == null) {
+            query = translate(conditions);
+            cache.put(conditions, query);
+        }
+
+        return query;
+    }
+
+    /**
+     * Parse a JSON array of clauses. Clause properties are case insensitive.
+     *
+     * @throws InvalidInputException when the array or one of its clauses is not valid
+     */
+    public static List<QueryConditionClause> parse(String conditions) throws InvalidInputException {
+        JsonNode clauses;
         try {
-            ObjectMapper mapper = new ObjectMapper();
-            jsonResult = mapper.readTree(conditions);
-            for (JsonNode node : jsonResult) {
-                // To make "Key", "Operator" and "Value" case insensitive
-                JsonNode keyNode = getNode(node, "Key", "key");
-                JsonNode operatorNode = getNode(node, "Operator", "operator");
-                JsonNode valueNode = getNode(node, "Value", "value");
-                if (keyNode == null || operatorNode == null || valueNode == null) {
-                    break;
-                }
-                QueryConditionClause clause = new QueryConditionClause(
-                    keyNode.asText(),
-                    operatorNode.asText(),
-                    valueNode);
-                clause.setTextual(valueNode.isTextual());
-                clauses.add(clause);
+            clauses = mapper.readTree(conditions);
+        } catch (IOException e) {
+            throw new InvalidInputException("Query conditions are not valid JSON: " + conditions, e);
+        }
+
+        if (clauses == null || !clauses.isArray()) {
+            throw new InvalidInputException("Query conditions must be an array: " + conditions);
+        }
+
+        List<QueryConditionClause> result = new ArrayList<>(clauses.size());
+        for (JsonNode clause : clauses) {
+            JsonNode key = getField(clause, "Key");
+            JsonNode operator = getField(clause, "Operator");
+            JsonNode value = getField(clause, "Value");
+            if (key == null || !key.isTextual() || operator == null || !operator.isTextual() || value == null) {
+                throw new InvalidInputException("Query condition must have a Key, an Operator and a Value: " + clause);
             }
-        } catch (Exception e) {
-            // Any exception raised in deserializing will be ignored
+
+            result.add(new QueryConditionClause(
+                key.textValue(),
+                QueryConditionOperator.from(operator.textValue()),
+                value));
         }
 
-        if (clauses.size() == 0) {
-            return conditions.replace('\"', '\'').replaceAll("\\[\\s*\\]", "");
-        } else {
-            StringWriter sb = new StringWriter();
-            for (QueryConditionClause clause : clauses) {
-                String op = operatorMap.get(clause.getOperator());
-                if (op == null) {
-                    throw new InvalidInputException("Operator is not valid: " + clause.getOperator());
-                }
-                String value = clause.getValue().toString();
-                String quotedValue;
-                if (clause.isTextual()) {
-                    quotedValue = value.replace('\"', '\'');
-                } else {
-                    quotedValue = value;
-                }
-                sb.append(" and ").append(clause.getKey())
-                    .append(' ').append(op).append(' ')
-                    .append(quotedValue);
+        return result;
+    }
+
+    /**
+     * Render clauses in the IoT Hub query language, joined with `and`
+     */
+    public static String render(List<QueryConditionClause> clauses) {
+        StringBuilder query = new StringBuilder();
+        for (QueryConditionClause clause : clauses) {
+            if (query.length() > 0) {
+                query.append(" and ");
             }
-            return sb.toString().replaceFirst(" and ", "");
+            clause.appendTo(query);
+        }
+
+        return query.toString();
+    }
+
+    private static String translate(String conditions) throws InvalidInputException {
+        if (conditions.trim().startsWith("[")) {
+            return render(parse(conditions));
         }
+
+        return conditions.replace('\"', '\'');
     }
 
-    private static JsonNode getNode(JsonNode node, String key1, String key2) {
-        return node.findValue(key1) != null ? node.findValue(key1) : node.findValue(key2) != null ? node.findValue(key2) : null;
+    private static JsonNode getField(JsonNode clause, String name) {
+        Iterator<Map.Entry<String, JsonNode>> fields = clause.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            if (field.getKey().equalsIgnoreCase(name)) {
+                return field.getValue();
+            }
+        }
+
+        return null;
     }
 }
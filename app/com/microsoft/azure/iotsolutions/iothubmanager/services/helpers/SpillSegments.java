@@ -0,0 +1,211 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.services.helpers;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Key-value store for immutable values evicted from a memory cache,
+ * written to append-only segment files: [key length][value length][crc32]
+ * [key][value]. The offsets of the values are only kept in memory, the
+ * files are emptied when the store is opened.
+ *
+ * The store is bounded by two segments: once the active segment is full,
+ * the previous segment and its values are dropped, and a new segment is
+ * started. Values are never rewritten, so a value read back is always the
+ * one that was written.
+ */
+public class SpillSegments implements Closeable {
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+    private static final String LOCK_FILE = "spill.lock";
+    private static final int RECORD_HEADER_SIZE = 12;
+
+    private final Path directory;
+    private final long segmentSize;
+    private final FileChannel lockChannel;
+
+    // Guarded by this
+    private final HashMap<String, Location> locations = new HashMap<>();
+    private Segment active;
+    private Segment previous = null;
+    private int nextSegment = 0;
+
+    public SpillSegments(final Path directory, final long maxSize) throws IOException {
+        this.directory = directory;
+        this.segmentSize = Math.max(1, maxSize / 2);
+
+        Files.createDirectories(directory);
+
+        // Two stores in the same directory would delete each other's segments
+        this.lockChannel = FileChannel.open(directory.resolve(LOCK_FILE),
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = this.lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null;
+        }
+        if (lock == null) {
+            this.lockChannel.close();
+            throw new IOException("The spill directory is already in use: " + directory);
+        }
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+
+        this.active = this.openSegment();
+    }
+
+    public synchronized boolean contains(final String key) {
+        return this.locations.containsKey(key);
+    }
+
+    /**
+     * Write the value, unless a value was already written for the key.
+     */
+    public synchronized void put(final String key, final byte[] value) throws IOException {
+        if (this.locations.containsKey(key)) {
+            return;
+        }
+
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int size = RECORD_HEADER_SIZE + keyBytes.length + value.length;
+        if (this.active.size > 0 && this.active.size + size > this.segmentSize) {
+            this.roll();
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(value);
+        ByteBuffer record = ByteBuffer.allocate(size);
+        record.putInt(keyBytes.length).putInt(value.length).putInt((int) crc.getValue());
+        record.put(keyBytes).put(value);
+        record.flip();
+
+        long offset = this.active.size;
+        while (record.hasRemaining()) {
+            this.active.channel.write(record, offset + record.position());
+        }
+
+        this.active.size += size;
+        this.locations.put(key, new Location(
+            this.active, offset + RECORD_HEADER_SIZE + keyBytes.length, value.length, (int) crc.getValue()));
+    }
+
+    /**
+     * @return The value written for the key, or null
+     */
+    public synchronized byte[] get(final String key) throws IOException {
+        Location location = this.locations.get(key);
+        if (location == null) {
+            return null;
+        }
+
+        ByteBuffer value = ByteBuffer.allocate(location.length);
+        while (value.hasRemaining()) {
+            if (location.segment.channel.read(value, location.offset + value.position()) < 0) {
+                break;
+            }
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(value.array(), 0, value.position());
+        if (value.hasRemaining() || (int) crc.getValue() != location.crc) {
+            this.locations.remove(key);
+            throw new IOException("Corrupted value in " + location.segment.path + " for " + key);
+        }
+
+        return value.array();
+    }
+
+    /**
+     * @return Number of values stored
+     */
+    public synchronized int size() {
+        return this.locations.size();
+    }
+
+    /**
+     * @return Bytes used by the segment files
+     */
+    public synchronized long sizeInBytes() {
+        return this.active.size + (this.previous == null ? 0 : this.previous.size);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        this.locations.clear();
+        this.active.channel.close();
+        if (this.previous != null) {
+            this.previous.channel.close();
+        }
+        this.lockChannel.close();
+    }
+
+    private void roll() throws IOException {
+        if (this.previous != null) {
+            Iterator<Map.Entry<String, Location>> iterator = this.locations.entrySet().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().getValue().segment == this.previous) {
+                    iterator.remove();
+                }
+            }
+
+            this.previous.channel.close();
+            Files.deleteIfExists(this.previous.path);
+        }
+
+        this.previous = this.active;
+        this.active = this.openSegment();
+    }
+
+    private Segment openSegment() throws IOException {
+        Path path = this.directory.resolve(SEGMENT_PREFIX + this.nextSegment++ + SEGMENT_SUFFIX);
+        FileChannel channel = FileChannel.open(path,
+            StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+        return new Segment(path, channel);
+    }
+
+    private static class Segment {
+
+        private final Path path;
+        private final FileChannel channel;
+        private long size = 0;
+
+        private Segment(final Path path, final FileChannel channel) {
+            this.path = path;
+            this.channel = channel;
+        }
+    }
+
+    private static class Location {
+
+        private final Segment segment;
+        private final long offset;
+        private final int length;
+        private final int crc;
+
+        private Location(final Segment segment, final long offset, final int length, final int crc) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.crc = crc;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.services.models;
+
+public final class BulkDeviceResultServiceModel {
+
+    private final String deviceId;
+    private final boolean succeeded;
+    private final String errorCode;
+    private final String errorStatus;
+
+    public BulkDeviceResultServiceModel(
+        final String deviceId,
+        final boolean succeeded,
+        final String errorCode,
+        final String errorStatus) {
+        this.deviceId = deviceId;
+        this.succeeded = succeeded;
+        this.errorCode = errorCode;
+        this.errorStatus = errorStatus;
+    }
+
+    public static BulkDeviceResultServiceModel success(final String deviceId) {
+        return new BulkDeviceResultServiceModel(deviceId, true, null, null);
+    }
+
+    public static BulkDeviceResultServiceModel failure(
+        final String deviceId, final String errorCode, final String errorStatus) {
+        return new BulkDeviceResultServiceModel(deviceId, false, errorCode, errorStatus);
+    }
+
+    public String getDeviceId() {
+        return this.deviceId;
+    }
+
+    public boolean isSucceeded() {
+        return this.succeeded;
+    }
+
+    public String getErrorCode() {
+        return this.errorCode;
+    }
+
+    public String getErrorStatus() {
+        return this.errorStatus;
+    }
+}
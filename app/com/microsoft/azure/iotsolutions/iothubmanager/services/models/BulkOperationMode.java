@@ -0,0 +1,21 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.services.models;
+
+/**
+ * Registry operation applied to every device of a bulk request, named
+ * after the IoT Hub import modes.
+ */
+public enum BulkOperationMode {
+    create,
+    update,
+    createOrUpdate,
+    delete;
+
+    public static BulkOperationMode from(String value) {
+        for (BulkOperationMode v : values()) {
+            if (v.name().equalsIgnoreCase(value)) return v;
+        }
+        throw new IllegalArgumentException("BulkOperationMode");
+    }
+}
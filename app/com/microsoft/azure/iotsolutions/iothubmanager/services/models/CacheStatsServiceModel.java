@@ -0,0 +1,66 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.services.models;
+
+/**
+ * Counters of a cache since the service started
+ */
+public class CacheStatsServiceModel {
+
+    private final long hitCount;
+    private final long revalidationCount;
+    private final long missCount;
+    private final long evictionCount;
+    private final long size;
+
+    public CacheStatsServiceModel(
+        final long hitCount,
+        final long revalidationCount,
+        final long missCount,
+        final long evictionCount,
+        final long size) {
+        this.hitCount = hitCount;
+        this.revalidationCount = revalidationCount;
+        this.missCount = missCount;
+        this.evictionCount = evictionCount;
+        this.size = size;
+    }
+
+    /**
+     * @return Reads served from memory without calling IoT Hub
+     */
+    public long getHitCount() {
+        return this.hitCount;
+    }
+
+    /**
+     * @return Reads served from memory after checking with IoT Hub that
+     * the entry didn't change
+     */
+    public long getRevalidationCount() {
+        return this.revalidationCount;
+    }
+
+    /**
+     * @return Reads loaded from IoT Hub
+     */
+    public long getMissCount() {
+        return this.missCount;
+    }
+
+    public long getEvictionCount() {
+        return this.evictionCount;
+    }
+
+    public long getSize() {
+        return this.size;
+    }
+
+    /**
+     * @return Share of the reads served without calling IoT Hub
+     */
+    public double getHitRatio() {
+        long requests = this.hitCount + this.revalidationCount + this.missCount;
+        return requests == 0 ? 1.0 : (double) this.hitCount / requests;
+    }
+}
@@ -0,0 +1,59 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.services.models;
+
+import java.util.List;
+
+/**
+ * The devices which joined and left a group between two versions of its
+ * membership. When the changes since the version requested are no longer
+ * known, `reset` is set and `added` holds the whole membership.
+ */
+public final class DeviceGroupChangesServiceModel {
+
+    private final String groupId;
+    private final long fromVersion;
+    private final long version;
+    private final boolean reset;
+    private final List<String> added;
+    private final List<String> removed;
+
+    public DeviceGroupChangesServiceModel(
+        final String groupId,
+        final long fromVersion,
+        final long version,
+        final boolean reset,
+        final List<String> added,
+        final List<String> removed) {
+        this.groupId = groupId;
+        this.fromVersion = fromVersion;
+        this.version = version;
+        this.reset = reset;
+        this.added = added;
+        this.removed = removed;
+    }
+
+    public String getGroupId() {
+        return this.groupId;
+    }
+
+    public long getFromVersion() {
+        return this.fromVersion;
+    }
+
+    public long getVersion() {
+        return this.version;
+    }
+
+    public boolean isReset() {
+        return this.reset;
+    }
+
+    public List<String> getAdded() {
+        return this.added;
+    }
+
+    public List<String> getRemoved() {
+        return this.removed;
+    }
+}
@@ -0,0 +1,30 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.services.models;
+
+import java.util.List;
+
+public final class DeviceGroupMembersServiceModel {
+
+    private final String groupId;
+    private final long version;
+    private final List<String> deviceIds;
+
+    public DeviceGroupMembersServiceModel(final String groupId, final long version, final List<String> deviceIds) {
+        this.groupId = groupId;
+        this.version = version;
+        this.deviceIds = deviceIds;
+    }
+
+    public String getGroupId() {
+        return this.groupId;
+    }
+
+    public long getVersion() {
+        return this.version;
+    }
+
+    public List<String> getDeviceIds() {
+        return this.deviceIds;
+    }
+}
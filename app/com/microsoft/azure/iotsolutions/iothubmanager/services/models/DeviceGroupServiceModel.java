@@ -0,0 +1,46 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.services.models;
+
+import com.microsoft.azure.iotsolutions.iothubmanager.services.helpers.QueryConditionClause;
+
+import java.util.List;
+
+public final class DeviceGroupServiceModel {
+
+    private final String id;
+    private final List<QueryConditionClause> conditions;
+    private final long version;
+    private final int count;
+
+    public DeviceGroupServiceModel(
+        final String id,
+        final List<QueryConditionClause> conditions,
+        final long version,
+        final int count) {
+        this.id = id;
+        this.conditions = conditions;
+        this.version = version;
+        this.count = count;
+    }
+
+    public String getId() {
+        return this.id;
+    }
+
+    public List<QueryConditionClause> getConditions() {
+        return this.conditions;
+    }
+
+    /**
+     * Version of the membership, incremented each time a device joins or
+     * leaves the group.
+     */
+    public long getVersion() {
+        return this.version;
+    }
+
+    public int getCount() {
+        return this.count;
+    }
+}
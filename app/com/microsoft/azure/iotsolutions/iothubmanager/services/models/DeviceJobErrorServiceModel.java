@@ -16,6 +16,9 @@ public class DeviceJobErrorServiceModel {
     private String code;
     private String description;
 
+    // Used to read the jobs cached on disk
+    private DeviceJobErrorServiceModel() {}
+
     /**
      * A Json string is expected here.
      * for example:
@@ -0,0 +1,43 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.services.models;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One page of the device results of a job
+ */
+public class DeviceJobServiceListModel {
+
+    private final List<DeviceJobServiceModel> items;
+    private final String continuationToken;
+    private final Map<DeviceJobStatus, Long> statusCounts;
+
+    public DeviceJobServiceListModel(
+        List<DeviceJobServiceModel> items,
+        String continuationToken,
+        Map<DeviceJobStatus, Long> statusCounts) {
+        this.items = items;
+        this.continuationToken = continuationToken;
+        this.statusCounts = statusCounts;
+    }
+
+    public List<DeviceJobServiceModel> getItems() {
+        return this.items;
+    }
+
+    /**
+     * @return The token of the next page, null when this is the last page
+     */
+    public String getContinuationToken() {
+        return this.continuationToken;
+    }
+
+    /**
+     * @return Number of devices of the page in each status
+     */
+    public Map<DeviceJobStatus, Long> getStatusCounts() {
+        return this.statusCounts;
+    }
+}
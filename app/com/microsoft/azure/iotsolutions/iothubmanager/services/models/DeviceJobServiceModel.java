@@ -2,13 +2,20 @@
 
 package com.microsoft.azure.iotsolutions.iothubmanager.services.models;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.microsoft.azure.iotsolutions.iothubmanager.services.exceptions.ExternalDependencyException;
 import com.microsoft.azure.sdk.iot.service.jobs.JobResult;
+import org.joda.time.DateTime;
+import org.joda.time.format.ISODateTimeFormat;
+import play.Logger;
+import play.libs.Json;
 
 import java.util.Date;
 
 public class DeviceJobServiceModel {
 
+    private static final Logger.ALogger log = Logger.of(DeviceJobServiceModel.class);
+
     private String deviceId;
     private DeviceJobStatus status;
     private Date startTimeUtc;
@@ -18,6 +25,9 @@ public class DeviceJobServiceModel {
     private MethodResultServiceModel outcome;
     private DeviceJobErrorServiceModel error;
 
+    // Used to read the jobs cached on disk
+    private DeviceJobServiceModel() {}
+
     public DeviceJobServiceModel(JobResult deviceJob) throws ExternalDependencyException {
         this.deviceId = deviceJob.getDeviceId();
 
@@ -36,6 +46,30 @@ public class DeviceJobServiceModel {
         }
     }
 
+    /**
+     * Create the device job from a document returned by the IoT Hub query
+     * API for devices.jobs
+     */
+    public DeviceJobServiceModel(JsonNode deviceJob) throws ExternalDependencyException {
+        this.deviceId = deviceJob.path("deviceId").asText(null);
+        this.status = parseStatus(deviceJob.path("status").asText(null));
+        this.startTimeUtc = parseDate(deviceJob.path("startTimeUtc").asText(null));
+        this.endTimeUtc = parseDate(deviceJob.path("endTimeUtc").asText(null));
+        this.createdDateTimeUtc = parseDate(deviceJob.path("createdDateTimeUtc").asText(null));
+        this.lastUpdatedDateTimeUtc = parseDate(deviceJob.path("lastUpdatedDateTimeUtc").asText(null));
+
+        JsonNode response = deviceJob.path("outcome").path("deviceMethodResponse");
+        if (response.isObject()) {
+            this.outcome = new MethodResultServiceModel();
+            this.outcome.setStatus(response.path("status").asInt());
+            this.outcome.setJsonPayload(Json.stringify(response.path("payload")));
+        }
+
+        if (deviceJob.path("error").isObject()) {
+            this.error = new DeviceJobErrorServiceModel(deviceJob.get("error").toString());
+        }
+    }
+
     public String getDeviceId() {
         return deviceId;
     }
@@ -67,4 +101,26 @@ public class DeviceJobServiceModel {
     public DeviceJobErrorServiceModel getError() {
         return error;
     }
+
+    private static DeviceJobStatus parseStatus(String value) {
+        if (value == null) {
+            return null;
+        }
+
+        // 'pending' devices are reported as 'enqueued' or 'queued'
+        if (value.equals("enqueued") || value.equals("queued")) {
+            return DeviceJobStatus.pending;
+        }
+
+        try {
+            return DeviceJobStatus.valueOf(value);
+        } catch (IllegalArgumentException e) {
+            log.warn("Unknown device job status: {}", value);
+            return null;
+        }
+    }
+
+    private static Date parseDate(String value) {
+        return value == null ? null : DateTime.parse(value, ISODateTimeFormat.dateTimeParser().withZoneUTC()).toDate();
+    }
 }
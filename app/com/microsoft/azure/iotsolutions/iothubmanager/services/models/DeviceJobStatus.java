@@ -23,6 +23,14 @@ public enum DeviceJobStatus {
         return this.value;
     }
 
+    /**
+     * @return True if the job of the device is completed, failed or
+     * cancelled, and will not change anymore
+     */
+    public boolean isFinal() {
+        return this == completed || this == failed || this == cancelled;
+    }
+
     public static DeviceJobStatus fromAzureJobStatus(com.microsoft.azure.sdk.iot.service.jobs.JobStatus azureJobStatus) {
         // 'pending' is not defined in Java SDK, use 'enqueued' as workaround
         if (azureJobStatus == com.microsoft.azure.sdk.iot.service.jobs.JobStatus.enqueued) {
@@ -2,6 +2,7 @@
 
 package com.microsoft.azure.iotsolutions.iothubmanager.services.models;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.microsoft.azure.iotsolutions.iothubmanager.services.exceptions.InvalidInputException;
 import com.microsoft.azure.sdk.iot.service.*;
 import com.microsoft.azure.sdk.iot.service.auth.*;
@@ -50,15 +51,63 @@ public final class DeviceServiceModel {
             device.geteTag(),
             device.getDeviceId(),
             device.getCloudToDeviceMessageCount(),
-            device.getLastActivityTime() == null ? null : DateTime.parse(device.getLastActivityTime(), ISODateTimeFormat.dateTimeParser().withZoneUTC()),
+            parseDateTime(device.getLastActivityTime()),
             device.getConnectionState() == DeviceConnectionState.Connected,
             device.getStatus() == DeviceStatus.Enabled,
-            device.getStatusUpdatedTime() == null ? null : DateTime.parse(device.getStatusUpdatedTime(), ISODateTimeFormat.dateTimeParser().withZoneUTC()),
+            parseDateTime(device.getStatusUpdatedTime()),
             twin,
             new AuthenticationMechanismServiceModel(device),
             iotHubHostName);
     }
 
+    /**
+     * Create the device from a twin document returned by the IoT Hub query
+     * API, which includes the registry fields of the device. The query API
+     * does not return the device keys, so SAS authentication only carries
+     * the authentication type.
+     */
+    public DeviceServiceModel(final JsonNode twin, String iotHubHostName) {
+        this(
+            twin.path("deviceEtag").asText(null),
+            twin.path("deviceId").asText(null),
+            twin.path("cloudToDeviceMessageCount").asLong(0),
+            parseDateTime(twin.path("lastActivityTime").asText(null)),
+            "Connected".equalsIgnoreCase(twin.path("connectionState").asText()),
+            "Enabled".equalsIgnoreCase(twin.path("status").asText()),
+            parseDateTime(twin.path("statusUpdateTime").asText(null)),
+            new DeviceTwinServiceModel(twin),
+            authenticationFromJson(twin),
+            iotHubHostName);
+    }
+
+    /**
+     * Copy of this device with a different authentication, e.g. to carry
+     * over the keys read from the registry.
+     */
+    public DeviceServiceModel withAuthentication(final AuthenticationMechanismServiceModel authentication) {
+        return new DeviceServiceModel(
+            this.eTag,
+            this.id,
+            this.c2DMessageCount,
+            this.lastActivity,
+            this.connected,
+            this.enabled,
+            this.lastStatusUpdated,
+            this.twin,
+            authentication,
+            this.ioTHubHostName);
+    }
+
+    /**
+     * @return False when the device uses SAS authentication but the keys
+     * were not loaded, e.g. when the device was read with a query
+     */
+    public boolean hasKeys() {
+        return this.authentication == null
+            || this.authentication.getAuthenticationType() != AuthenticationType.Sas
+            || this.authentication.getPrimaryKey() != null;
+    }
+
     public String getETag() {
         return eTag;
     }
@@ -103,12 +152,38 @@ public final class DeviceServiceModel {
         return this.authentication;
     }
 
+    private static DateTime parseDateTime(String value) {
+        return value == null ? null : DateTime.parse(value, ISODateTimeFormat.dateTimeParser().withZoneUTC());
+    }
+
+    private static AuthenticationMechanismServiceModel authenticationFromJson(JsonNode twin) {
+        AuthenticationMechanismServiceModel authentication = new AuthenticationMechanismServiceModel();
+        switch (twin.path("authenticationType").asText()) {
+            case "sas":
+                authentication.setAuthenticationType(AuthenticationType.Sas);
+                return authentication;
+            case "selfSigned":
+                authentication.setAuthenticationType(AuthenticationType.SelfSinged);
+                break;
+            case "certificateAuthority":
+                authentication.setAuthenticationType(AuthenticationType.CertificateAuthority);
+                break;
+            default:
+                return null;
+        }
+
+        JsonNode thumbprint = twin.path("x509Thumbprint");
+        authentication.setPrimaryThumbprint(thumbprint.path("primaryThumbprint").asText(null));
+        authentication.setSecondaryThumbprint(thumbprint.path("secondaryThumbprint").asText(null));
+        return authentication;
+    }
+
     public Device toAzureModel() throws InvalidInputException {
         try {
             if (this.authentication == null || this.authentication.getAuthenticationType() == null) {
                 return Device.createFromId(
                     this.getId(),
-                    this.getEnabled() ? DeviceStatus.Enabled : DeviceStatus.Disabled,
+                    Boolean.TRUE.equals(this.getEnabled()) ? DeviceStatus.Enabled : DeviceStatus.Disabled,
                     new SymmetricKey());
             } else if (this.authentication.getAuthenticationType() == AuthenticationType.Sas) {
                 SymmetricKey key = new SymmetricKey();
@@ -116,7 +191,7 @@ public final class DeviceServiceModel {
                 key.setSecondaryKey(this.authentication.getSecondaryKey());
                 return Device.createFromId(
                     this.getId(),
-                    this.getEnabled() ? DeviceStatus.Enabled : DeviceStatus.Disabled,
+                    Boolean.TRUE.equals(this.getEnabled()) ? DeviceStatus.Enabled : DeviceStatus.Disabled,
                     key);
             } else {
                 Device device = Device.createDevice(this.getId(),
@@ -3,8 +3,10 @@
 package com.microsoft.azure.iotsolutions.iothubmanager.services.models;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.microsoft.azure.iotsolutions.iothubmanager.services.helpers.HashMapHelper;
 import com.microsoft.azure.sdk.iot.service.devicetwin.DeviceTwinDevice;
+import play.libs.Json;
 
 import java.util.*;
 
@@ -46,6 +48,24 @@ public final class DeviceTwinServiceModel {
         );
     }
 
+    /**
+     * Create the twin from a document returned by the IoT Hub query API.
+     * Metadata entries such as $metadata and $version are not included,
+     * the same as the twins returned by the SDK.
+     */
+    public DeviceTwinServiceModel(final JsonNode twin) {
+        this(
+            twin.path("etag").asText(null),
+            twin.path("deviceId").asText(null),
+            new DeviceTwinProperties(
+                jsonToHashMap(twin.path("properties").path("desired")),
+                jsonToHashMap(twin.path("properties").path("reported"))
+            ),
+            jsonToHashMap(twin.path("tags")),
+            isSimulated(jsonToHashMap(twin.path("tags")))
+        );
+    }
+
     @JsonProperty("ETag")
     public String getETag() {
         return this.eTag;
@@ -80,6 +100,16 @@ public final class DeviceTwinServiceModel {
         return keys.contains(SIMULATED_KEY) && tags.get(SIMULATED_KEY).toString().equalsIgnoreCase("Y");
     }
 
+    private static HashMap<String, Object> jsonToHashMap(JsonNode node) {
+        HashMap<String, Object> result = new HashMap<>();
+        node.fields().forEachRemaining(field -> {
+            if (!field.getKey().startsWith("$")) {
+                result.put(field.getKey(), Json.fromJson(field.getValue(), Object.class));
+            }
+        });
+        return result;
+    }
+
     public DeviceTwinDevice toDeviceTwinDevice() {
         DeviceTwinDevice twinDevice = this.getDeviceId() == null || this.getDeviceId().isEmpty()
             ? new DeviceTwinDevice() : new DeviceTwinDevice(this.getDeviceId());
@@ -0,0 +1,27 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.services.models;
+
+import java.util.List;
+
+public class JobServiceListModel {
+
+    private final List<JobServiceModel> items;
+    private final String continuationToken;
+
+    public JobServiceListModel(List<JobServiceModel> jobs, String continuationToken) {
+        this.items = jobs;
+        this.continuationToken = continuationToken;
+    }
+
+    public List<JobServiceModel> getItems() {
+        return this.items;
+    }
+
+    /**
+     * @return Token to get the next page, null on the last page
+     */
+    public String getContinuationToken() {
+        return this.continuationToken;
+    }
+}
@@ -3,6 +3,7 @@
 package com.microsoft.azure.iotsolutions.iothubmanager.services.models;
 
 import com.microsoft.azure.iotsolutions.iothubmanager.services.exceptions.ExternalDependencyException;
+import com.microsoft.azure.sdk.iot.service.JobProperties;
 import com.microsoft.azure.sdk.iot.service.jobs.*;
 
 import java.util.*;
@@ -59,6 +60,20 @@ public class JobServiceModel {
         }
     }
 
+    /**
+     * Create the job from a registry import or export job. IoT Hub only
+     * reports the progress of these jobs, as a percentage.
+     */
+    public JobServiceModel(JobProperties registryJob) {
+        this.jobId = registryJob.getJobId();
+        this.startTimeUtc = registryJob.getStartTimeUtc();
+        this.endTimeUtc = registryJob.getEndTimeUtc();
+        this.jobType = JobType.fromRegistryJobType(registryJob.getType());
+        this.jobStatus = JobStatus.fromRegistryJobStatus(registryJob.getStatus());
+        this.failureReason = registryJob.getFailureReason();
+        this.statusMessage = String.format("Progress: %d%%", registryJob.getProgress());
+    }
+
     public String getJobId() {
         return jobId;
     }
@@ -25,6 +25,14 @@ public enum JobStatus {
         return this.value;
     }
 
+    /**
+     * @return True if the job is completed, failed or cancelled, and will
+     * not change anymore
+     */
+    public boolean isFinal() {
+        return this == completed || this == failed || this == cancelled;
+    }
+
     /**
      * Convert ordinal or value to JobStatus
      *
@@ -44,6 +52,11 @@ public enum JobStatus {
         return JobStatus.valueOf(azureJobStatus.toString());
     }
 
+    public static JobStatus fromRegistryJobStatus(com.microsoft.azure.sdk.iot.service.JobProperties.JobStatus registryJobStatus) {
+        if (registryJobStatus == null) return unknown;
+        return JobStatus.valueOf(registryJobStatus.toString().toLowerCase());
+    }
+
     public static com.microsoft.azure.sdk.iot.service.jobs.JobStatus toAzureJobStatus(JobStatus jobStatus) {
         if(jobStatus == null) throw new IllegalArgumentException("JobStatus");
         switch (jobStatus) {
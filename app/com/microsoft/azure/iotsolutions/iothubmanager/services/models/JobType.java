@@ -6,6 +6,8 @@ import com.fasterxml.jackson.annotation.JsonValue;
 
 public enum JobType {
     unknown(0),
+    exportDevices(1),
+    importDevices(2),
     scheduleDeviceMethod(3),
     scheduleUpdateTwin(4);
 
@@ -31,6 +33,18 @@ public enum JobType {
         return JobType.valueOf(azureJobType.toString());
     }
 
+    public static JobType fromRegistryJobType(com.microsoft.azure.sdk.iot.service.JobProperties.JobType registryJobType) {
+        if (registryJobType == null) return unknown;
+        switch (registryJobType) {
+            case EXPORT:
+                return exportDevices;
+            case IMPORT:
+                return importDevices;
+            default:
+                return unknown;
+        }
+    }
+
     public static com.microsoft.azure.sdk.iot.service.jobs.JobType toAzureJobType(JobType jobType) {
         if (jobType == null) throw new IllegalArgumentException("JobType");
         switch (jobType) {
@@ -0,0 +1,51 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.services.models;
+
+/**
+ * State of the messages waiting to be delivered to another service
+ */
+public class OutboxStatsServiceModel {
+
+    private final long backlogSize;
+    private final long backlogBytes;
+    private final long drainLagMillis;
+    private final long failureCount;
+
+    public OutboxStatsServiceModel(
+        final long backlogSize,
+        final long backlogBytes,
+        final long drainLagMillis,
+        final long failureCount) {
+        this.backlogSize = backlogSize;
+        this.backlogBytes = backlogBytes;
+        this.drainLagMillis = drainLagMillis;
+        this.failureCount = failureCount;
+    }
+
+    /**
+     * @return Messages not delivered yet
+     */
+    public long getBacklogSize() {
+        return this.backlogSize;
+    }
+
+    public long getBacklogBytes() {
+        return this.backlogBytes;
+    }
+
+    /**
+     * @return Age of the oldest message not delivered yet, 0 when all the
+     * messages have been delivered
+     */
+    public long getDrainLagMillis() {
+        return this.drainLagMillis;
+    }
+
+    /**
+     * @return Failed delivery attempts since the last successful one
+     */
+    public long getFailureCount() {
+        return this.failureCount;
+    }
+}
@@ -0,0 +1,33 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.services.models;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.List;
+
+/**
+ * One page of raw documents returned by an IoT Hub query, e.g. device
+ * twins or device jobs, and the token to request the next page.
+ */
+public class QueryResultServiceModel {
+
+    private final List<JsonNode> items;
+    private final String continuationToken;
+
+    public QueryResultServiceModel(List<JsonNode> items, String continuationToken) {
+        this.items = items;
+        this.continuationToken = continuationToken;
+    }
+
+    public List<JsonNode> getItems() {
+        return this.items;
+    }
+
+    /**
+     * @return The token of the next page, null when this is the last page
+     */
+    public String getContinuationToken() {
+        return this.continuationToken;
+    }
+}
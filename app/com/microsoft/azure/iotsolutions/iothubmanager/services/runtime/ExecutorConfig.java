@@ -0,0 +1,32 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.services.runtime;
+
+/**
+ * Size of a thread pool running blocking IoT Hub SDK calls
+ */
+public class ExecutorConfig {
+
+    private final int threads;
+    private final int queueSize;
+
+    public ExecutorConfig(final int threads, final int queueSize) {
+        this.threads = threads;
+        this.queueSize = queueSize;
+    }
+
+    /**
+     * @return Number of threads of the pool
+     */
+    public int getThreads() {
+        return this.threads;
+    }
+
+    /**
+     * @return Maximum number of calls waiting for a thread, calls beyond
+     * this limit are rejected
+     */
+    public int getQueueSize() {
+        return this.queueSize;
+    }
+}
@@ -2,6 +2,8 @@
 
 package com.microsoft.azure.iotsolutions.iothubmanager.services.runtime;
 
+import java.time.Duration;
+
 public interface IServicesConfig {
 
     /**
@@ -17,4 +19,237 @@ public interface IServicesConfig {
      * @return Config service URL
      */
     String getConfigServiceUrl();
+
+    /**
+     * Get the maximum number of devices returned by one device query.
+     *
+     * @return Page size
+     */
+    int getDeviceQueryPageSize();
+
+    /**
+     * Whether device reads can be served from the in-memory registry mirror.
+     *
+     * @return True if the mirror is enabled
+     */
+    boolean isDeviceMirrorEnabled();
+
+    /**
+     * Get the interval between two background refreshes of the mirror.
+     *
+     * @return Refresh interval
+     */
+    Duration getDeviceMirrorRefreshInterval();
+
+    /**
+     * Get the maximum age of the mirror content before reads go back
+     * to IoT Hub.
+     *
+     * @return Staleness bound
+     */
+    Duration getDeviceMirrorMaxStaleness();
+
+    /**
+     * Whether single device reads are cached.
+     *
+     * @return True if the device cache is enabled
+     */
+    boolean isDeviceCacheEnabled();
+
+    /**
+     * Get how long a cached device is served without calling IoT Hub.
+     *
+     * @return Time to live
+     */
+    Duration getDeviceCacheTtl();
+
+    /**
+     * Get how long a cached device can be revalidated with its ETag
+     * before it is evicted.
+     *
+     * @return Maximum age
+     */
+    Duration getDeviceCacheMaxAge();
+
+    /**
+     * Get the maximum number of cached devices.
+     *
+     * @return Maximum size
+     */
+    long getDeviceCacheMaxSize();
+
+    /**
+     * Whether device query pages are cached.
+     *
+     * @return True when enabled
+     */
+    boolean isDeviceQueryCacheEnabled();
+
+    /**
+     * Get how long a cached query page is served, when the devices
+     * are not changed through this service.
+     *
+     * @return Time to live
+     */
+    Duration getDeviceQueryCacheTtl();
+
+    /**
+     * Get the maximum number of devices in all the cached query pages.
+     *
+     * @return Maximum number of devices
+     */
+    long getDeviceQueryCacheMaxDevices();
+
+    /**
+     * Get the number of bulk registry operations of a bulk request
+     * running at the same time.
+     *
+     * @return Number of concurrent batches
+     */
+    int getDeviceBulkConcurrency();
+
+    /**
+     * Get the SAS URI of the blob container receiving the registry exports.
+     *
+     * @return Container URI, null when exports are not configured
+     */
+    String getRegistryExportContainerUri();
+
+    /**
+     * Get the SAS URI of the blob container holding the registry imports.
+     *
+     * @return Container URI, null when imports are not configured
+     */
+    String getRegistryImportContainerUri();
+
+    /**
+     * Get how long the new tag and reported property names are collected
+     * before being sent to the config service in one request.
+     *
+     * @return Batching window
+     */
+    Duration getDeviceGroupFiltersWindow();
+
+    /**
+     * Get the file where the names are stored until the config service
+     * acknowledges them, so that they survive a restart.
+     *
+     * @return Path of the outbox file
+     */
+    String getDeviceGroupFiltersOutboxPath();
+
+    /**
+     * Get the delay before sending again names the config service failed
+     * to receive, doubled after each failure up to the maximum delay.
+     *
+     * @return Delay before the first retry
+     */
+    Duration getDeviceGroupFiltersMinRetryDelay();
+
+    /**
+     * @return Maximum delay between two attempts to send names to the
+     * config service
+     */
+    Duration getDeviceGroupFiltersMaxRetryDelay();
+
+    /**
+     * Get how long a job request can wait for IoT Hub, including the time
+     * waiting for a thread of the jobs pool, before failing with 503.
+     * Requests scheduling a job only wait this long for a thread: once
+     * sent, they wait for IoT Hub, which may have created the job.
+     *
+     * @return Time limit of the job requests
+     */
+    Duration getJobsTimeout();
+
+    /**
+     * Get how long the job listings are served from the local index of
+     * the jobs before all the jobs are read again from IoT Hub, in the
+     * background.
+     *
+     * @return Maximum age of the job index
+     */
+    Duration getJobIndexMaxAge();
+
+    /**
+     * Get the maximum number of device results of the finished jobs kept
+     * in memory, before the least recently used jobs are moved to disk.
+     *
+     * @return Maximum number of device results in memory
+     */
+    long getCompletedJobCacheMaxDevices();
+
+    /**
+     * Get the directory where the finished jobs evicted from memory are
+     * written.
+     *
+     * @return Path of the spill directory
+     */
+    String getCompletedJobCacheSpillPath();
+
+    /**
+     * Get the maximum size of the finished jobs written to disk.
+     *
+     * @return Maximum size of the spill files, in bytes
+     */
+    long getCompletedJobCacheSpillMaxBytes();
+
+    /**
+     * Get the delay between two reads of a watched job, after it changed.
+     *
+     * @return Minimum polling interval of the watched jobs
+     */
+    Duration getJobWatchMinInterval();
+
+    /**
+     * Get the longest delay between two reads of a watched job that
+     * doesn't change.
+     *
+     * @return Maximum polling interval of the watched jobs
+     */
+    Duration getJobWatchMaxInterval();
+
+    /**
+     * Whether the blocking IoT Hub SDK calls run on virtual threads,
+     * when supported by the Java runtime.
+     *
+     * @return True if virtual threads are enabled
+     */
+    boolean isVirtualThreadsEnabled();
+
+    /**
+     * Get the maximum number of calls in flight in each pool when the
+     * calls run on virtual threads; 0 means no limit.
+     *
+     * @return Maximum number of calls per pool
+     */
+    int getVirtualThreadMaxCalls();
+
+    /**
+     * Get the size of the pool running the device registry calls.
+     *
+     * @return Pool size
+     */
+    ExecutorConfig getRegistryExecutorConfig();
+
+    /**
+     * Get the size of the pool running the device twin calls.
+     *
+     * @return Pool size
+     */
+    ExecutorConfig getTwinExecutorConfig();
+
+    /**
+     * Get the size of the pool running the device method invocations.
+     *
+     * @return Pool size
+     */
+    ExecutorConfig getMethodExecutorConfig();
+
+    /**
+     * Get the size of the pool running the job calls.
+     *
+     * @return Pool size
+     */
+    ExecutorConfig getJobsExecutorConfig();
 }
@@ -2,6 +2,9 @@
 
 package com.microsoft.azure.iotsolutions.iothubmanager.services.runtime;
 
+import java.nio.file.Paths;
+import java.time.Duration;
+
 /**
  * Service layer configuration
  */
@@ -9,6 +12,38 @@ public class ServicesConfig implements IServicesConfig {
 
     private String hubConnString;
     private String configServiceUrl;
+    private int deviceQueryPageSize = 100;
+    private boolean deviceMirrorEnabled = false;
+    private Duration deviceMirrorRefreshInterval = Duration.ofSeconds(30);
+    private Duration deviceMirrorMaxStaleness = Duration.ofMinutes(2);
+    private boolean deviceCacheEnabled = true;
+    private Duration deviceCacheTtl = Duration.ofSeconds(10);
+    private Duration deviceCacheMaxAge = Duration.ofMinutes(5);
+    private long deviceCacheMaxSize = 10000;
+    private boolean deviceQueryCacheEnabled = true;
+    private Duration deviceQueryCacheTtl = Duration.ofSeconds(15);
+    private long deviceQueryCacheMaxDevices = 50000;
+    private int deviceBulkConcurrency = 4;
+    private String registryExportContainerUri = null;
+    private String registryImportContainerUri = null;
+    private Duration deviceGroupFiltersWindow = Duration.ofSeconds(5);
+    private String deviceGroupFiltersOutboxPath = null;
+    private Duration deviceGroupFiltersMinRetryDelay = Duration.ofSeconds(1);
+    private Duration deviceGroupFiltersMaxRetryDelay = Duration.ofMinutes(5);
+    private Duration jobsTimeout = Duration.ofSeconds(30);
+    private Duration jobIndexMaxAge = Duration.ofSeconds(10);
+    private long completedJobCacheMaxDevices = 100000;
+    private String completedJobCacheSpillPath =
+        Paths.get(System.getProperty("java.io.tmpdir"), "iothub-manager", "completed-jobs").toString();
+    private long completedJobCacheSpillMaxBytes = 256L * 1024 * 1024;
+    private Duration jobWatchMinInterval = Duration.ofSeconds(1);
+    private Duration jobWatchMaxInterval = Duration.ofSeconds(30);
+    private boolean virtualThreadsEnabled = false;
+    private int virtualThreadMaxCalls = 10000;
+    private ExecutorConfig registryExecutorConfig = new ExecutorConfig(16, 1000);
+    private ExecutorConfig twinExecutorConfig = new ExecutorConfig(16, 1000);
+    private ExecutorConfig methodExecutorConfig = new ExecutorConfig(32, 200);
+    private ExecutorConfig jobsExecutorConfig = new ExecutorConfig(4, 100);
 
     public ServicesConfig(final String hubConnString, final String configServiceUrl) {
         this.hubConnString = hubConnString;
@@ -32,4 +67,423 @@ public class ServicesConfig implements IServicesConfig {
     public String getConfigServiceUrl() {
         return this.configServiceUrl;
     }
+
+    /**
+     * Get the maximum number of devices returned by one device query.
+     *
+     * @return Page size
+     */
+    public int getDeviceQueryPageSize() {
+        return this.deviceQueryPageSize;
+    }
+
+    public void setDeviceQueryPageSize(int pageSize) {
+        this.deviceQueryPageSize = pageSize;
+    }
+
+    /**
+     * Whether device reads can be served from the in-memory registry mirror.
+     *
+     * @return True if the mirror is enabled
+     */
+    public boolean isDeviceMirrorEnabled() {
+        return this.deviceMirrorEnabled;
+    }
+
+    public void setDeviceMirrorEnabled(boolean enabled) {
+        this.deviceMirrorEnabled = enabled;
+    }
+
+    /**
+     * Get the interval between two background refreshes of the mirror.
+     *
+     * @return Refresh interval
+     */
+    public Duration getDeviceMirrorRefreshInterval() {
+        return this.deviceMirrorRefreshInterval;
+    }
+
+    public void setDeviceMirrorRefreshInterval(Duration interval) {
+        this.deviceMirrorRefreshInterval = interval;
+    }
+
+    /**
+     * Get the maximum age of the mirror content before reads go back
+     * to IoT Hub.
+     *
+     * @return Staleness bound
+     */
+    public Duration getDeviceMirrorMaxStaleness() {
+        return this.deviceMirrorMaxStaleness;
+    }
+
+    public void setDeviceMirrorMaxStaleness(Duration maxStaleness) {
+        this.deviceMirrorMaxStaleness = maxStaleness;
+    }
+
+    /**
+     * Whether single device reads are cached.
+     *
+     * @return True if the device cache is enabled
+     */
+    public boolean isDeviceCacheEnabled() {
+        return this.deviceCacheEnabled;
+    }
+
+    public void setDeviceCacheEnabled(boolean enabled) {
+        this.deviceCacheEnabled = enabled;
+    }
+
+    /**
+     * Get how long a cached device is served without calling IoT Hub.
+     *
+     * @return Time to live
+     */
+    public Duration getDeviceCacheTtl() {
+        return this.deviceCacheTtl;
+    }
+
+    public void setDeviceCacheTtl(Duration ttl) {
+        this.deviceCacheTtl = ttl;
+    }
+
+    /**
+     * Get how long a cached device can be revalidated with its ETag
+     * before it is evicted.
+     *
+     * @return Maximum age
+     */
+    public Duration getDeviceCacheMaxAge() {
+        return this.deviceCacheMaxAge;
+    }
+
+    public void setDeviceCacheMaxAge(Duration maxAge) {
+        this.deviceCacheMaxAge = maxAge;
+    }
+
+    /**
+     * Get the maximum number of cached devices.
+     *
+     * @return Maximum size
+     */
+    public long getDeviceCacheMaxSize() {
+        return this.deviceCacheMaxSize;
+    }
+
+    public void setDeviceCacheMaxSize(long maxSize) {
+        this.deviceCacheMaxSize = maxSize;
+    }
+
+    /**
+     * Whether device query pages are cached.
+     *
+     * @return True when enabled
+     */
+    public boolean isDeviceQueryCacheEnabled() {
+        return this.deviceQueryCacheEnabled;
+    }
+
+    public void setDeviceQueryCacheEnabled(boolean enabled) {
+        this.deviceQueryCacheEnabled = enabled;
+    }
+
+    /**
+     * Get how long a cached query page is served, when the devices
+     * are not changed through this service.
+     *
+     * @return Time to live
+     */
+    public Duration getDeviceQueryCacheTtl() {
+        return this.deviceQueryCacheTtl;
+    }
+
+    public void setDeviceQueryCacheTtl(Duration ttl) {
+        this.deviceQueryCacheTtl = ttl;
+    }
+
+    /**
+     * Get the maximum number of devices in all the cached query pages.
+     *
+     * @return Maximum number of devices
+     */
+    public long getDeviceQueryCacheMaxDevices() {
+        return this.deviceQueryCacheMaxDevices;
+    }
+
+    public void setDeviceQueryCacheMaxDevices(long maxDevices) {
+        this.deviceQueryCacheMaxDevices = maxDevices;
+    }
+
+    /**
+     * Get the number of bulk registry operations of a bulk request
+     * running at the same time.
+     *
+     * @return Number of concurrent batches
+     */
+    public int getDeviceBulkConcurrency() {
+        return this.deviceBulkConcurrency;
+    }
+
+    public void setDeviceBulkConcurrency(int concurrency) {
+        this.deviceBulkConcurrency = concurrency;
+    }
+
+    /**
+     * Get the SAS URI of the blob container receiving the registry exports.
+     *
+     * @return Container URI, null when exports are not configured
+     */
+    public String getRegistryExportContainerUri() {
+        return this.registryExportContainerUri;
+    }
+
+    public void setRegistryExportContainerUri(String containerUri) {
+        this.registryExportContainerUri = containerUri;
+    }
+
+    /**
+     * Get the SAS URI of the blob container holding the registry imports.
+     *
+     * @return Container URI, null when imports are not configured
+     */
+    public String getRegistryImportContainerUri() {
+        return this.registryImportContainerUri;
+    }
+
+    public void setRegistryImportContainerUri(String containerUri) {
+        this.registryImportContainerUri = containerUri;
+    }
+
+    /**
+     * Get how long the new tag and reported property names are collected
+     * before being sent to the config service in one request.
+     *
+     * @return Batching window
+     */
+    public Duration getDeviceGroupFiltersWindow() {
+        return this.deviceGroupFiltersWindow;
+    }
+
+    public void setDeviceGroupFiltersWindow(Duration window) {
+        this.deviceGroupFiltersWindow = window;
+    }
+
+    /**
+     * Get the file where the names are stored until the config service
+     * acknowledges them, so that they survive a restart.
+     *
+     * @return Path of the outbox file, null when not set
+     */
+    public String getDeviceGroupFiltersOutboxPath() {
+        return this.deviceGroupFiltersOutboxPath;
+    }
+
+    public void setDeviceGroupFiltersOutboxPath(String path) {
+        this.deviceGroupFiltersOutboxPath = path;
+    }
+
+    /**
+     * Get the delay before sending again names the config service failed
+     * to receive, doubled after each failure up to the maximum delay.
+     *
+     * @return Delay before the first retry
+     */
+    public Duration getDeviceGroupFiltersMinRetryDelay() {
+        return this.deviceGroupFiltersMinRetryDelay;
+    }
+
+    public void setDeviceGroupFiltersMinRetryDelay(Duration delay) {
+        this.deviceGroupFiltersMinRetryDelay = delay;
+    }
+
+    /**
+     * @return Maximum delay between two attempts to send names to the
+     * config service
+     */
+    public Duration getDeviceGroupFiltersMaxRetryDelay() {
+        return this.deviceGroupFiltersMaxRetryDelay;
+    }
+
+    public void setDeviceGroupFiltersMaxRetryDelay(Duration delay) {
+        this.deviceGroupFiltersMaxRetryDelay = delay;
+    }
+
+    /**
+     * Get how long a job request can wait for IoT Hub, including the time
+     * waiting for a thread of the jobs pool, before failing with 503.
+     * Requests scheduling a job only wait this long for a thread: once
+     * sent, they wait for IoT Hub, which may have created the job.
+     *
+     * @return Time limit of the job requests
+     */
+    public Duration getJobsTimeout() {
+        return this.jobsTimeout;
+    }
+
+    public void setJobsTimeout(Duration timeout) {
+        this.jobsTimeout = timeout;
+    }
+
+    /**
+     * Get how long the job listings are served from the local index of
+     * the jobs before all the jobs are read again from IoT Hub, in the
+     * background.
+     *
+     * @return Maximum age of the job index
+     */
+    public Duration getJobIndexMaxAge() {
+        return this.jobIndexMaxAge;
+    }
+
+    public void setJobIndexMaxAge(Duration maxAge) {
+        this.jobIndexMaxAge = maxAge;
+    }
+
+    /**
+     * Get the maximum number of device results of the finished jobs kept
+     * in memory, before the least recently used jobs are moved to disk.
+     *
+     * @return Maximum number of device results in memory
+     */
+    public long getCompletedJobCacheMaxDevices() {
+        return this.completedJobCacheMaxDevices;
+    }
+
+    public void setCompletedJobCacheMaxDevices(long maxDevices) {
+        this.completedJobCacheMaxDevices = maxDevices;
+    }
+
+    /**
+     * Get the directory where the finished jobs evicted from memory are
+     * written.
+     *
+     * @return Path of the spill directory
+     */
+    public String getCompletedJobCacheSpillPath() {
+        return this.completedJobCacheSpillPath;
+    }
+
+    public void setCompletedJobCacheSpillPath(String path) {
+        this.completedJobCacheSpillPath = path;
+    }
+
+    /**
+     * Get the maximum size of the finished jobs written to disk.
+     *
+     * @return Maximum size of the spill files, in bytes
+     */
+    public long getCompletedJobCacheSpillMaxBytes() {
+        return this.completedJobCacheSpillMaxBytes;
+    }
+
+    public void setCompletedJobCacheSpillMaxBytes(long maxBytes) {
+        this.completedJobCacheSpillMaxBytes = maxBytes;
+    }
+
+    /**
+     * Get the delay between two reads of a watched job, after it changed.
+     *
+     * @return Minimum polling interval of the watched jobs
+     */
+    public Duration getJobWatchMinInterval() {
+        return this.jobWatchMinInterval;
+    }
+
+    public void setJobWatchMinInterval(Duration interval) {
+        this.jobWatchMinInterval = interval;
+    }
+
+    /**
+     * Get the longest delay between two reads of a watched job that
+     * doesn't change.
+     *
+     * @return Maximum polling interval of the watched jobs
+     */
+    public Duration getJobWatchMaxInterval() {
+        return this.jobWatchMaxInterval;
+    }
+
+    public void setJobWatchMaxInterval(Duration interval) {
+        this.jobWatchMaxInterval = interval;
+    }
+
+    /**
+     * Whether the blocking IoT Hub SDK calls run on virtual threads,
+     * when supported by the Java runtime.
+     *
+     * @return True if virtual threads are enabled
+     */
+    public boolean isVirtualThreadsEnabled() {
+        return this.virtualThreadsEnabled;
+    }
+
+    public void setVirtualThreadsEnabled(boolean enabled) {
+        this.virtualThreadsEnabled = enabled;
+    }
+
+    /**
+     * Get the maximum number of calls in flight in each pool when the
+     * calls run on virtual threads; 0 means no limit.
+     *
+     * @return Maximum number of calls per pool
+     */
+    public int getVirtualThreadMaxCalls() {
+        return this.virtualThreadMaxCalls;
+    }
+
+    public void setVirtualThreadMaxCalls(int maxCalls) {
+        this.virtualThreadMaxCalls = maxCalls;
+    }
+
+    /**
+     * Get the size of the pool running the device registry calls.
+     *
+     * @return Pool size
+     */
+    public ExecutorConfig getRegistryExecutorConfig() {
+        return this.registryExecutorConfig;
+    }
+
+    public void setRegistryExecutorConfig(ExecutorConfig config) {
+        this.registryExecutorConfig = config;
+    }
+
+    /**
+     * Get the size of the pool running the device twin calls.
+     *
+     * @return Pool size
+     */
+    public ExecutorConfig getTwinExecutorConfig() {
+        return this.twinExecutorConfig;
+    }
+
+    public void setTwinExecutorConfig(ExecutorConfig config) {
+        this.twinExecutorConfig = config;
+    }
+
+    /**
+     * Get the size of the pool running the device method invocations.
+     *
+     * @return Pool size
+     */
+    public ExecutorConfig getMethodExecutorConfig() {
+        return this.methodExecutorConfig;
+    }
+
+    public void setMethodExecutorConfig(ExecutorConfig config) {
+        this.methodExecutorConfig = config;
+    }
+
+    /**
+     * Get the size of the pool running the job calls.
+     *
+     * @return Pool size
+     */
+    public ExecutorConfig getJobsExecutorConfig() {
+        return this.jobsExecutorConfig;
+    }
+
+    public void setJobsExecutorConfig(ExecutorConfig config) {
+        this.jobsExecutorConfig = config;
+    }
 }
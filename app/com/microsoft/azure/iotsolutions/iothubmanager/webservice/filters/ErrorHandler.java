@@ -45,6 +45,13 @@ public class ErrorHandler extends DefaultHttpErrorHandler {
     }
 
     public CompletionStage<Result> onServerError(RequestHeader request, Throwable e) {
+        // An IoT Hub executor is saturated, the client can retry later
+        if (e instanceof RejectedExecutionException || e.getCause() instanceof RejectedExecutionException) {
+            return CompletableFuture.completedFuture(
+                Results.status(Status.SERVICE_UNAVAILABLE, getErrorResponse(e, true))
+            );
+        }
+
         if (e instanceof CompletionException) {
             Throwable cause = e.getCause();
             if (cause instanceof ResourceNotFoundException) {
@@ -66,6 +73,11 @@ public class ErrorHandler extends DefaultHttpErrorHandler {
                     Results.badRequest(getErrorResponse(cause, true))
                 );
             }
+            if (cause instanceof ConflictingResourceException) {
+                return CompletableFuture.completedFuture(
+                    Results.status(Status.CONFLICT, getErrorResponse(cause, true))
+                );
+            }
             if (cause instanceof ResourceOutOfDateException) {
                 return CompletableFuture.completedFuture(
                     Results.status(Status.PRECONDITION_FAILED, getErrorResponse(cause, true))
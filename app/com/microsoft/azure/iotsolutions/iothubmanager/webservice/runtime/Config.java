@@ -2,6 +2,7 @@
 
 package com.microsoft.azure.iotsolutions.iothubmanager.webservice.runtime;
 
+import com.microsoft.azure.iotsolutions.iothubmanager.services.runtime.ExecutorConfig;
 import com.microsoft.azure.iotsolutions.iothubmanager.services.runtime.IServicesConfig;
 import com.microsoft.azure.iotsolutions.iothubmanager.services.runtime.ServicesConfig;
 import com.microsoft.azure.iotsolutions.iothubmanager.webservice.auth.ClientAuthConfig;
@@ -24,6 +25,54 @@ public class Config implements IConfig {
     private final String IOTHUB_CONNSTRING_KEY = APPLICATION_KEY + "iothub.connstring";
     private final String CONFIG_WEB_SERVICE_URL_KEY = APPLICATION_KEY + "config-webservice-url";
 
+    private final String DEVICE_QUERY_PAGE_SIZE_KEY = APPLICATION_KEY + "device-query.page-size";
+
+    private final String DEVICE_MIRROR_KEY = APPLICATION_KEY + "device-mirror.";
+    private final String DEVICE_MIRROR_ENABLED_KEY = DEVICE_MIRROR_KEY + "enabled";
+    private final String DEVICE_MIRROR_REFRESH_INTERVAL_KEY = DEVICE_MIRROR_KEY + "refresh-interval";
+    private final String DEVICE_MIRROR_MAX_STALENESS_KEY = DEVICE_MIRROR_KEY + "max-staleness";
+
+    private final String DEVICE_CACHE_KEY = APPLICATION_KEY + "device-cache.";
+    private final String DEVICE_CACHE_ENABLED_KEY = DEVICE_CACHE_KEY + "enabled";
+    private final String DEVICE_CACHE_TTL_KEY = DEVICE_CACHE_KEY + "ttl";
+    private final String DEVICE_CACHE_MAX_AGE_KEY = DEVICE_CACHE_KEY + "max-age";
+    private final String DEVICE_CACHE_MAX_SIZE_KEY = DEVICE_CACHE_KEY + "max-size";
+
+    private final String DEVICE_QUERY_CACHE_KEY = APPLICATION_KEY + "device-query-cache.";
+    private final String DEVICE_QUERY_CACHE_ENABLED_KEY = DEVICE_QUERY_CACHE_KEY + "enabled";
+    private final String DEVICE_QUERY_CACHE_TTL_KEY = DEVICE_QUERY_CACHE_KEY + "ttl";
+    private final String DEVICE_QUERY_CACHE_MAX_DEVICES_KEY = DEVICE_QUERY_CACHE_KEY + "max-devices";
+
+    private final String DEVICE_BULK_CONCURRENCY_KEY = APPLICATION_KEY + "device-bulk.concurrency";
+
+    private final String REGISTRY_JOBS_KEY = APPLICATION_KEY + "registry-jobs.";
+    private final String REGISTRY_EXPORT_CONTAINER_URI_KEY = REGISTRY_JOBS_KEY + "export-container-uri";
+    private final String REGISTRY_IMPORT_CONTAINER_URI_KEY = REGISTRY_JOBS_KEY + "import-container-uri";
+
+    private final String DEVICE_GROUP_FILTERS_KEY = APPLICATION_KEY + "device-group-filters.";
+    private final String DEVICE_GROUP_FILTERS_WINDOW_KEY = DEVICE_GROUP_FILTERS_KEY + "window";
+    private final String DEVICE_GROUP_FILTERS_OUTBOX_PATH_KEY = DEVICE_GROUP_FILTERS_KEY + "outbox-path";
+    private final String DEVICE_GROUP_FILTERS_MIN_RETRY_DELAY_KEY = DEVICE_GROUP_FILTERS_KEY + "min-retry-delay";
+    private final String DEVICE_GROUP_FILTERS_MAX_RETRY_DELAY_KEY = DEVICE_GROUP_FILTERS_KEY + "max-retry-delay";
+
+    private final String JOBS_TIMEOUT_KEY = APPLICATION_KEY + "jobs.timeout";
+    private final String JOBS_INDEX_MAX_AGE_KEY = APPLICATION_KEY + "jobs.index-max-age";
+    private final String COMPLETED_JOB_CACHE_KEY = APPLICATION_KEY + "jobs.completed-cache.";
+    private final String COMPLETED_JOB_CACHE_MAX_DEVICES_KEY = COMPLETED_JOB_CACHE_KEY + "max-devices";
+    private final String COMPLETED_JOB_CACHE_SPILL_PATH_KEY = COMPLETED_JOB_CACHE_KEY + "spill-path";
+    private final String COMPLETED_JOB_CACHE_SPILL_MAX_SIZE_KEY = COMPLETED_JOB_CACHE_KEY + "spill-max-size";
+    private final String JOB_WATCH_KEY = APPLICATION_KEY + "jobs.watch.";
+    private final String JOB_WATCH_MIN_INTERVAL_KEY = JOB_WATCH_KEY + "min-interval";
+    private final String JOB_WATCH_MAX_INTERVAL_KEY = JOB_WATCH_KEY + "max-interval";
+
+    private final String IOTHUB_EXECUTOR_KEY = APPLICATION_KEY + "iothub-executor.";
+    private final String VIRTUAL_THREADS_KEY = IOTHUB_EXECUTOR_KEY + "virtual-threads";
+    private final String VIRTUAL_THREAD_MAX_CALLS_KEY = IOTHUB_EXECUTOR_KEY + "virtual-thread-max-calls";
+    private final String REGISTRY_EXECUTOR_KEY = IOTHUB_EXECUTOR_KEY + "registry";
+    private final String TWIN_EXECUTOR_KEY = IOTHUB_EXECUTOR_KEY + "twin";
+    private final String METHOD_EXECUTOR_KEY = IOTHUB_EXECUTOR_KEY + "method";
+    private final String JOBS_EXECUTOR_KEY = IOTHUB_EXECUTOR_KEY + "jobs";
+
     private final String CLIENT_AUTH_KEY = APPLICATION_KEY + "client-auth.";
     private final String AUTH_REQUIRED_KEY = CLIENT_AUTH_KEY + "auth_required";
     private final String AUTH_TYPE_KEY = CLIENT_AUTH_KEY + "auth_type";
@@ -52,10 +101,169 @@ public class Config implements IConfig {
 
         String cs = data.getString(IOTHUB_CONNSTRING_KEY);
         String configServiceUrl = data.getString(CONFIG_WEB_SERVICE_URL_KEY);
-        this.servicesConfig = new ServicesConfig(cs, configServiceUrl);
+        ServicesConfig servicesConfig = new ServicesConfig(cs, configServiceUrl);
+
+        // Default to 100 devices per page
+        if (data.hasPath(DEVICE_QUERY_PAGE_SIZE_KEY)) {
+            servicesConfig.setDeviceQueryPageSize(data.getInt(DEVICE_QUERY_PAGE_SIZE_KEY));
+        }
+
+        // Default to disabled, every read goes to IoT Hub
+        if (data.hasPath(DEVICE_MIRROR_ENABLED_KEY)) {
+            servicesConfig.setDeviceMirrorEnabled(data.getBoolean(DEVICE_MIRROR_ENABLED_KEY));
+        }
+
+        // Default to 30 seconds
+        if (data.hasPath(DEVICE_MIRROR_REFRESH_INTERVAL_KEY)) {
+            servicesConfig.setDeviceMirrorRefreshInterval(data.getDuration(DEVICE_MIRROR_REFRESH_INTERVAL_KEY));
+        }
+
+        // Default to 2 minutes
+        if (data.hasPath(DEVICE_MIRROR_MAX_STALENESS_KEY)) {
+            servicesConfig.setDeviceMirrorMaxStaleness(data.getDuration(DEVICE_MIRROR_MAX_STALENESS_KEY));
+        }
+
+        // Default to enabled
+        if (data.hasPath(DEVICE_CACHE_ENABLED_KEY)) {
+            servicesConfig.setDeviceCacheEnabled(data.getBoolean(DEVICE_CACHE_ENABLED_KEY));
+        }
+
+        // Default to 10 seconds
+        if (data.hasPath(DEVICE_CACHE_TTL_KEY)) {
+            servicesConfig.setDeviceCacheTtl(data.getDuration(DEVICE_CACHE_TTL_KEY));
+        }
+
+        // Default to 5 minutes
+        if (data.hasPath(DEVICE_CACHE_MAX_AGE_KEY)) {
+            servicesConfig.setDeviceCacheMaxAge(data.getDuration(DEVICE_CACHE_MAX_AGE_KEY));
+        }
+
+        // Default to 10000 devices
+        if (data.hasPath(DEVICE_CACHE_MAX_SIZE_KEY)) {
+            servicesConfig.setDeviceCacheMaxSize(data.getLong(DEVICE_CACHE_MAX_SIZE_KEY));
+        }
+
+        // Default to enabled
+        if (data.hasPath(DEVICE_QUERY_CACHE_ENABLED_KEY)) {
+            servicesConfig.setDeviceQueryCacheEnabled(data.getBoolean(DEVICE_QUERY_CACHE_ENABLED_KEY));
+        }
+
+        // Default to 15 seconds
+        if (data.hasPath(DEVICE_QUERY_CACHE_TTL_KEY)) {
+            servicesConfig.setDeviceQueryCacheTtl(data.getDuration(DEVICE_QUERY_CACHE_TTL_KEY));
+        }
+
+        // Default to 50000 devices
+        if (data.hasPath(DEVICE_QUERY_CACHE_MAX_DEVICES_KEY)) {
+            servicesConfig.setDeviceQueryCacheMaxDevices(data.getLong(DEVICE_QUERY_CACHE_MAX_DEVICES_KEY));
+        }
+
+        // Default to 4 batches
+        if (data.hasPath(DEVICE_BULK_CONCURRENCY_KEY)) {
+            servicesConfig.setDeviceBulkConcurrency(data.getInt(DEVICE_BULK_CONCURRENCY_KEY));
+        }
+
+        // Default to no container, registry exports are disabled
+        if (data.hasPath(REGISTRY_EXPORT_CONTAINER_URI_KEY)) {
+            servicesConfig.setRegistryExportContainerUri(data.getString(REGISTRY_EXPORT_CONTAINER_URI_KEY));
+        }
+
+        // Default to no container, registry imports are disabled
+        if (data.hasPath(REGISTRY_IMPORT_CONTAINER_URI_KEY)) {
+            servicesConfig.setRegistryImportContainerUri(data.getString(REGISTRY_IMPORT_CONTAINER_URI_KEY));
+        }
+
+        // Default to 5 seconds
+        if (data.hasPath(DEVICE_GROUP_FILTERS_WINDOW_KEY)) {
+            servicesConfig.setDeviceGroupFiltersWindow(data.getDuration(DEVICE_GROUP_FILTERS_WINDOW_KEY));
+        }
+
+        // Default to the temporary directory, with a warning
+        if (data.hasPath(DEVICE_GROUP_FILTERS_OUTBOX_PATH_KEY)) {
+            servicesConfig.setDeviceGroupFiltersOutboxPath(data.getString(DEVICE_GROUP_FILTERS_OUTBOX_PATH_KEY));
+        }
+
+        // Default to 1 second
+        if (data.hasPath(DEVICE_GROUP_FILTERS_MIN_RETRY_DELAY_KEY)) {
+            servicesConfig.setDeviceGroupFiltersMinRetryDelay(data.getDuration(DEVICE_GROUP_FILTERS_MIN_RETRY_DELAY_KEY));
+        }
+
+        // Default to 5 minutes
+        if (data.hasPath(DEVICE_GROUP_FILTERS_MAX_RETRY_DELAY_KEY)) {
+            servicesConfig.setDeviceGroupFiltersMaxRetryDelay(data.getDuration(DEVICE_GROUP_FILTERS_MAX_RETRY_DELAY_KEY));
+        }
+
+        // Default to 30 seconds
+        if (data.hasPath(JOBS_TIMEOUT_KEY)) {
+            servicesConfig.setJobsTimeout(data.getDuration(JOBS_TIMEOUT_KEY));
+        }
+
+        // Default to 10 seconds
+        if (data.hasPath(JOBS_INDEX_MAX_AGE_KEY)) {
+            servicesConfig.setJobIndexMaxAge(data.getDuration(JOBS_INDEX_MAX_AGE_KEY));
+        }
+
+        // Default to 100000 devices
+        if (data.hasPath(COMPLETED_JOB_CACHE_MAX_DEVICES_KEY)) {
+            servicesConfig.setCompletedJobCacheMaxDevices(data.getLong(COMPLETED_JOB_CACHE_MAX_DEVICES_KEY));
+        }
+
+        // Default to the temporary directory
+        if (data.hasPath(COMPLETED_JOB_CACHE_SPILL_PATH_KEY)) {
+            servicesConfig.setCompletedJobCacheSpillPath(data.getString(COMPLETED_JOB_CACHE_SPILL_PATH_KEY));
+        }
+
+        // Default to 256 MB
+        if (data.hasPath(COMPLETED_JOB_CACHE_SPILL_MAX_SIZE_KEY)) {
+            servicesConfig.setCompletedJobCacheSpillMaxBytes(data.getBytes(COMPLETED_JOB_CACHE_SPILL_MAX_SIZE_KEY));
+        }
+
+        // Default to 1 second
+        if (data.hasPath(JOB_WATCH_MIN_INTERVAL_KEY)) {
+            servicesConfig.setJobWatchMinInterval(data.getDuration(JOB_WATCH_MIN_INTERVAL_KEY));
+        }
+
+        // Default to 30 seconds
+        if (data.hasPath(JOB_WATCH_MAX_INTERVAL_KEY)) {
+            servicesConfig.setJobWatchMaxInterval(data.getDuration(JOB_WATCH_MAX_INTERVAL_KEY));
+        }
+
+        // Default to platform threads
+        if (data.hasPath(VIRTUAL_THREADS_KEY)) {
+            servicesConfig.setVirtualThreadsEnabled(data.getBoolean(VIRTUAL_THREADS_KEY));
+        }
+
+        // Default to 10000 calls per pool on virtual threads
+        if (data.hasPath(VIRTUAL_THREAD_MAX_CALLS_KEY)) {
+            servicesConfig.setVirtualThreadMaxCalls(data.getInt(VIRTUAL_THREAD_MAX_CALLS_KEY));
+        }
+
+        // Default to 16 threads and 1000 queued calls
+        servicesConfig.setRegistryExecutorConfig(
+            this.getExecutorConfig(REGISTRY_EXECUTOR_KEY, servicesConfig.getRegistryExecutorConfig()));
+
+        // Default to 16 threads and 1000 queued calls
+        servicesConfig.setTwinExecutorConfig(
+            this.getExecutorConfig(TWIN_EXECUTOR_KEY, servicesConfig.getTwinExecutorConfig()));
+
+        // Default to 32 threads and 200 queued calls
+        servicesConfig.setMethodExecutorConfig(
+            this.getExecutorConfig(METHOD_EXECUTOR_KEY, servicesConfig.getMethodExecutorConfig()));
+
+        // Default to 4 threads and 100 queued calls
+        servicesConfig.setJobsExecutorConfig(
+            this.getExecutorConfig(JOBS_EXECUTOR_KEY, servicesConfig.getJobsExecutorConfig()));
+
+        this.servicesConfig = servicesConfig;
         return this.servicesConfig;
     }
 
+    private ExecutorConfig getExecutorConfig(String key, ExecutorConfig defaults) {
+        int threads = data.hasPath(key + ".threads") ? data.getInt(key + ".threads") : defaults.getThreads();
+        int queueSize = data.hasPath(key + ".queue-size") ? data.getInt(key + ".queue-size") : defaults.getQueueSize();
+        return new ExecutorConfig(threads, queueSize);
+    }
+
     /**
      * Client authorization configuration
      */
@@ -0,0 +1,66 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.webservice.v1.controllers;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.inject.Inject;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.IDeviceGroups;
+import com.microsoft.azure.iotsolutions.iothubmanager.webservice.v1.models.*;
+import play.libs.Json;
+import play.mvc.*;
+
+import java.util.concurrent.CompletionStage;
+
+import static play.libs.Json.toJson;
+
+/**
+ * Device groups with a membership maintained by the service. Clients
+ * holding a membership version can poll the changes since that version
+ * instead of querying the devices of the group again.
+ */
+public final class DeviceGroupsController extends Controller {
+
+    private final IDeviceGroups deviceGroups;
+
+    @Inject
+    public DeviceGroupsController(final IDeviceGroups deviceGroups) {
+        this.deviceGroups = deviceGroups;
+    }
+
+    public CompletionStage<Result> getAllAsync() {
+        return this.deviceGroups.getListAsync()
+            .thenApply(groups -> ok(toJson(new DeviceGroupListApiModel(groups))));
+    }
+
+    public CompletionStage<Result> getAsync(final String id) {
+        return this.deviceGroups.getAsync(id)
+            .thenApply(group -> ok(toJson(new DeviceGroupApiModel(group))));
+    }
+
+    /**
+     * The body holds the conditions of the group, in the format accepted
+     * by the device queries, e.g. {"Conditions": [{"Key": "tags.building",
+     * "Operator": "EQ", "Value": 43}]}
+     */
+    public CompletionStage<Result> putAsync(final String id) {
+        JsonNode json = request().body().asJson();
+        String conditions = json == null ? "" : Json.stringify(json.path("Conditions"));
+        return this.deviceGroups.createOrUpdateAsync(id, conditions)
+            .thenApply(group -> ok(toJson(new DeviceGroupApiModel(group))));
+    }
+
+    public CompletionStage<Result> deleteAsync(final String id) {
+        return this.deviceGroups.deleteAsync(id)
+            .thenApply(result -> ok());
+    }
+
+    public CompletionStage<Result> getMembersAsync(final String id) {
+        return this.deviceGroups.getMembersAsync(id)
+            .thenApply(members -> ok(toJson(new DeviceGroupMembersApiModel(members))));
+    }
+
+    public CompletionStage<Result> getChangesAsync(final String id, final Long since) {
+        return this.deviceGroups.getChangesAsync(id, since)
+            .thenApply(changes -> ok(toJson(new DeviceGroupChangesApiModel(changes))));
+    }
+}
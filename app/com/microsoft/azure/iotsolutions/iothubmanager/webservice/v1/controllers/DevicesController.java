@@ -2,14 +2,22 @@
 
 package com.microsoft.azure.iotsolutions.iothubmanager.webservice.v1.controllers;
 
+import akka.NotUsed;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.google.inject.Inject;
 import com.microsoft.azure.iotsolutions.iothubmanager.services.IDevices;
 import com.microsoft.azure.iotsolutions.iothubmanager.services.exceptions.*;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.BulkOperationMode;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.DeviceServiceModel;
 import com.microsoft.azure.iotsolutions.iothubmanager.webservice.v1.models.*;
+import play.http.HttpErrorHandler;
 import play.libs.Json;
 import play.mvc.*;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CompletionStage;
 
 import static play.libs.Json.fromJson;
@@ -20,6 +28,7 @@ public final class DevicesController extends Controller {
     private final IDevices deviceService;
 
     final String ContinuationTokenName = "x-ms-continuation";
+    final String NdJsonContentType = "application/x-ndjson";
 
     @Inject
     public DevicesController(final IDevices deviceService) {
@@ -35,6 +44,16 @@ public final class DevicesController extends Controller {
             .thenApply(devices -> ok(toJson(new DeviceListApiModel(devices))));
     }
 
+    /**
+     * Stream all the devices matching the query as newline delimited JSON,
+     * one device per line, reading the devices from IoT Hub page by page.
+     */
+    public Result getDevicesStream(String query) throws InvalidInputException {
+        Source<ByteString, NotUsed> devices = deviceService.streamAsync(query)
+            .map(device -> ByteString.fromString(Json.stringify(toJson(new DeviceRegistryApiModel(device))) + "\n"));
+        return ok().chunked(devices).as(NdJsonContentType);
+    }
+
     public CompletionStage<Result> queryDevicesAsync() throws ExternalDependencyException {
         String continuationToken = "";
         String query;
@@ -76,10 +95,52 @@ public final class DevicesController extends Controller {
             .thenApply(result -> ok());
     }
 
+    /**
+     * Create, update or delete many devices with one request. The body is
+     * an array of devices; the result of each device is returned, in the
+     * same order, whether or not the other devices succeeded.
+     */
+    @BodyParser.Of(BulkJsonBodyParser.class)
+    public CompletionStage<Result> bulkAsync(final String mode) throws InvalidInputException {
+        BulkOperationMode operationMode;
+        try {
+            operationMode = BulkOperationMode.from(mode);
+        } catch (IllegalArgumentException e) {
+            throw new InvalidInputException("Unsupported bulk operation mode: " + mode);
+        }
+
+        JsonNode json = request().body().asJson();
+        if (json == null || !json.isArray()) {
+            throw new InvalidInputException("The request body must be an array of devices");
+        }
+
+        List<DeviceServiceModel> devices = new ArrayList<>(json.size());
+        for (JsonNode device : json) {
+            devices.add(fromJson(device, DeviceRegistryApiModel.class).toServiceModel());
+        }
+
+        return deviceService.bulkAsync(devices, operationMode)
+            .thenApply(results -> ok(toJson(new BulkDeviceResultListApiModel(results))));
+    }
+
     public CompletionStage<Result> invokeDeviceMethodAsync(final String id) throws ExternalDependencyException {
         JsonNode json = request().body().asJson();
         final MethodParameterApiModel parameter = fromJson(json, MethodParameterApiModel.class);
         return deviceService.invokeDeviceMethodAsync(id, parameter.toServiceModel())
             .thenApply(result -> ok(toJson(new MethodResultApiModel(result))));
     }
+
+    /**
+     * JSON body parser accepting bulk requests larger than the default
+     * memory buffer of Play, e.g. 50k devices.
+     */
+    public static class BulkJsonBodyParser extends BodyParser.Json {
+
+        private static final int MAX_LENGTH = 32 * 1024 * 1024;
+
+        @Inject
+        public BulkJsonBodyParser(HttpErrorHandler errorHandler) {
+            super(MAX_LENGTH, errorHandler);
+        }
+    }
 }
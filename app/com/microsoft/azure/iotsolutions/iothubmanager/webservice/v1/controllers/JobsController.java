@@ -2,17 +2,27 @@
 
 package com.microsoft.azure.iotsolutions.iothubmanager.webservice.v1.controllers;
 
+import akka.NotUsed;
+import akka.stream.OverflowStrategy;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.google.inject.Inject;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.IJobWatcher;
 import com.microsoft.azure.iotsolutions.iothubmanager.services.IJobs;
 import com.microsoft.azure.iotsolutions.iothubmanager.services.exceptions.*;
 import com.microsoft.azure.iotsolutions.iothubmanager.services.models.*;
 import com.microsoft.azure.iotsolutions.iothubmanager.webservice.v1.helpers.DateHelper;
+import com.microsoft.azure.iotsolutions.iothubmanager.webservice.v1.models.DeviceJobApiModel;
+import com.microsoft.azure.iotsolutions.iothubmanager.webservice.v1.models.DeviceJobListApiModel;
 import com.microsoft.azure.iotsolutions.iothubmanager.webservice.v1.models.JobApiModel;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import play.Logger;
+import play.libs.EventSource;
+import play.libs.Json;
 import play.mvc.Controller;
+import play.mvc.Http;
 import play.mvc.Result;
 
 import javax.transaction.NotSupportedException;
@@ -26,13 +36,26 @@ public final class JobsController extends Controller {
 
     private static final Logger.ALogger log = Logger.of(JobsController.class);
 
+    private static final String ContinuationTokenName = "x-ms-continuation";
+    private static final String NdJsonContentType = "application/x-ndjson";
+
+    // Updates waiting to be sent to a slow client, the oldest are dropped
+    private static final int EVENTS_BUFFER_SIZE = 16;
+
     private final IJobs jobService;
+    private final IJobWatcher jobWatcher;
 
     @Inject
-    public JobsController(final IJobs jobService) {
+    public JobsController(final IJobs jobService, final IJobWatcher jobWatcher) {
         this.jobService = jobService;
+        this.jobWatcher = jobWatcher;
     }
 
+    /**
+     * The response body is the page of jobs; the token of the next page,
+     * if any, is returned in the x-ms-continuation header, and is sent back
+     * in the same header to get that page.
+     */
     public CompletionStage<Result> getJobsAsync()
         throws InvalidInputException, ExternalDependencyException {
         String type = request().getQueryString("jobType");
@@ -52,6 +75,9 @@ public final class JobsController extends Controller {
             from = (from == null || from.isEmpty()) ? "" : from;
             to = (to == null || to.isEmpty()) ? "" : to;
             pageSize = size == null || size.isEmpty() ? 100 : Integer.parseInt(size);
+            if (pageSize < 1) {
+                throw new IllegalArgumentException("The page size must be at least 1");
+            }
 
             temp = DateHelper.parseDate(from);
             jobFrom = (temp == null) ? Long.MIN_VALUE : temp.getMillis();
@@ -63,10 +89,18 @@ public final class JobsController extends Controller {
             throw new InvalidInputException(message, e);
         }
 
-        return this.jobService.getJobsAsync(jobType, jobStatus, pageSize, jobFrom, jobTo)
+        String continuationToken = null;
+        if (request().getHeaders().contains(ContinuationTokenName)) {
+            continuationToken = request().getHeaders().getAll(ContinuationTokenName).get(0);
+        }
+
+        return this.jobService.getJobsAsync(jobType, jobStatus, pageSize, jobFrom, jobTo, continuationToken)
             .thenApply(jobs -> {
                 List jobList = new ArrayList<JobApiModel>();
-                jobs.forEach(job -> jobList.add(new JobApiModel(job)));
+                jobs.getItems().forEach(job -> jobList.add(new JobApiModel(job)));
+                if (jobs.getContinuationToken() != null) {
+                    response().setHeader(ContinuationTokenName, jobs.getContinuationToken());
+                }
                 return ok(toJson(jobList));
             });
     }
@@ -89,6 +123,122 @@ public final class JobsController extends Controller {
             .thenApply(job -> ok(toJson(new JobApiModel(job))));
     }
 
+    /**
+     * Get one page of the device results of the job, with the number of
+     * devices of the page in each status. As for the jobs, the token of
+     * the next page, if any, is returned in the x-ms-continuation header,
+     * and is sent back in the same header to get that page.
+     */
+    public CompletionStage<Result> getDeviceJobsAsync(String jobId)
+        throws InvalidInputException, ExternalDependencyException {
+        String deviceJobStatus = request().getQueryString("deviceJobStatus");
+        String size = request().getQueryString("pageSize");
+        DeviceJobStatus status;
+        int pageSize;
+        try {
+            status = deviceJobStatus == null || deviceJobStatus.isEmpty()
+                ? null : DeviceJobStatus.from(Integer.parseInt(deviceJobStatus));
+            pageSize = size == null || size.isEmpty() ? 100 : Integer.parseInt(size);
+            if (pageSize < 1) {
+                throw new IllegalArgumentException("The page size must be at least 1");
+            }
+        } catch (IllegalArgumentException e) {
+            String message = String.format("Invalid query string: %s, %s", deviceJobStatus, size);
+            log.error(message, e);
+            throw new InvalidInputException(message, e);
+        }
+
+        String continuationToken = null;
+        if (request().getHeaders().contains(ContinuationTokenName)) {
+            continuationToken = request().getHeaders().getAll(ContinuationTokenName).get(0);
+        }
+
+        return this.jobService.getDeviceJobsAsync(jobId, status, pageSize, continuationToken)
+            .thenApply(deviceJobs -> {
+                if (deviceJobs.getContinuationToken() != null) {
+                    response().setHeader(ContinuationTokenName, deviceJobs.getContinuationToken());
+                }
+                return ok(toJson(new DeviceJobListApiModel(jobId, deviceJobs)));
+            });
+    }
+
+    /**
+     * Stream all the device results of the job as newline delimited JSON,
+     * one device per line, reading the results from IoT Hub page by page.
+     * The last line holds the number of devices in each status:
+     * {"StatusCounts": {"completed": 10, "failed": 2}}
+     */
+    public Result getDeviceJobsStream(String jobId) throws InvalidInputException {
+        String deviceJobStatus = request().getQueryString("deviceJobStatus");
+        DeviceJobStatus status;
+        try {
+            status = deviceJobStatus == null || deviceJobStatus.isEmpty()
+                ? null : DeviceJobStatus.from(Integer.parseInt(deviceJobStatus));
+        } catch (IllegalArgumentException e) {
+            String message = String.format("Invalid query string: %s", deviceJobStatus);
+            log.error(message, e);
+            throw new InvalidInputException(message, e);
+        }
+
+        // The counts are added up while the pages are written, and read once
+        // the last page has been written
+        Map<DeviceJobStatus, Long> counts = new EnumMap<>(DeviceJobStatus.class);
+        Source<ByteString, NotUsed> lines = this.jobService.streamDeviceJobsAsync(jobId, status)
+            .mapConcat(page -> {
+                page.getStatusCounts().forEach((key, count) -> counts.merge(key, count, Long::sum));
+                List<ByteString> pageLines = new ArrayList<>(page.getItems().size());
+                page.getItems().forEach(deviceJob -> pageLines.add(
+                    ByteString.fromString(Json.stringify(toJson(new DeviceJobApiModel(deviceJob))) + "\n")));
+                return pageLines;
+            })
+            .concat(Source.single(ByteString.empty()).map(last -> {
+                Map<String, Object> summary = Collections.singletonMap(
+                    "StatusCounts", DeviceJobListApiModel.toStatusCounts(counts));
+                return ByteString.fromString(Json.stringify(toJson(summary)) + "\n");
+            }));
+
+        return ok().chunked(lines).as(NdJsonContentType);
+    }
+
+    /**
+     * Stream the progress of the job as Server-Sent Events: a "progress"
+     * event with the job every time its status or statistics change, then
+     * a "completed" event once the job is finished. The job is polled once
+     * for all the clients watching it.
+     */
+    public Result getJobEvents(String jobId) {
+        Source<EventSource.Event, NotUsed> events = Source.<EventSource.Event>queue(
+            EVENTS_BUFFER_SIZE, OverflowStrategy.dropHead())
+            .mapMaterializedValue(queue -> {
+                IJobWatcher.Watch watch = this.jobWatcher.watch(jobId, new IJobWatcher.Listener() {
+                    @Override
+                    public void onUpdate(JobServiceModel job) {
+                        queue.offer(EventSource.Event.event(toJson(new JobApiModel(job))).withName("progress"));
+                    }
+
+                    @Override
+                    public void onCompleted() {
+                        queue.offer(EventSource.Event.event(jobId).withName("completed"));
+                        queue.complete();
+                    }
+
+                    @Override
+                    public void onError(Throwable error) {
+                        // The error is logged by the watcher, and its message may be null
+                        queue.offer(EventSource.Event.event("Unable to read the progress of job " + jobId)
+                            .withName("error"));
+                        queue.complete();
+                    }
+                });
+
+                // Stop watching once the client disconnects
+                queue.watchCompletion().whenComplete((done, error) -> watch.close());
+                return NotUsed.getInstance();
+            });
+
+        return ok().chunked(events.via(EventSource.flow())).as(Http.MimeTypes.EVENT_STREAM);
+    }
+
     public CompletionStage<Result> scheduleJobAsync()
         throws NotSupportedException, ExternalDependencyException {
         JsonNode json = request().body().asJson();
@@ -0,0 +1,84 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.webservice.v1.controllers;
+
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+import com.google.inject.Inject;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.IRegistryJobs;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.exceptions.*;
+import com.microsoft.azure.iotsolutions.iothubmanager.webservice.v1.models.JobApiModel;
+import play.libs.F;
+import play.libs.streams.Accumulator;
+import play.mvc.*;
+
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+
+import static play.libs.Json.toJson;
+
+/**
+ * Export and import the device registry. Devices are exchanged as JSON
+ * lines, in the IoT Hub import/export format, see
+ * https://docs.microsoft.com/azure/iot-hub/iot-hub-bulk-identity-mgmt
+ */
+public final class RegistryJobsController extends Controller {
+
+    private final IRegistryJobs registryJobs;
+
+    final String NdJsonContentType = "application/x-ndjson";
+
+    @Inject
+    public RegistryJobsController(final IRegistryJobs registryJobs) {
+        this.registryJobs = registryJobs;
+    }
+
+    public CompletionStage<Result> exportAsync(final Boolean excludeKeys)
+        throws ExternalDependencyException, InvalidConfigurationException {
+        return this.registryJobs.exportAsync(excludeKeys)
+            .thenApply(job -> ok(toJson(new JobApiModel(job))));
+    }
+
+    /**
+     * The request body is forwarded to the blob container while it is
+     * received, imports are not limited by the memory of the service.
+     */
+    @SuppressWarnings("unchecked")
+    @BodyParser.Of(StreamedBodyParser.class)
+    public CompletionStage<Result> importAsync()
+        throws ExternalDependencyException, InvalidConfigurationException {
+        Source<ByteString, ?> devices = request().body().as(Source.class);
+        return this.registryJobs.importAsync(devices)
+            .thenApply(job -> ok(toJson(new JobApiModel(job))));
+    }
+
+    public CompletionStage<Result> getJobAsync(final String jobId) throws ExternalDependencyException {
+        return this.registryJobs.getJobAsync(jobId)
+            .thenApply(job -> ok(toJson(new JobApiModel(job))));
+    }
+
+    public CompletionStage<Result> getExportedDevicesAsync(final String jobId)
+        throws ExternalDependencyException, InvalidConfigurationException {
+        return this.registryJobs.getExportedDevicesAsync(jobId)
+            .thenApply(devices -> ok().chunked(devices).as(NdJsonContentType));
+    }
+
+    /**
+     * Body parser giving access to the request body as a stream, instead
+     * of buffering it.
+     */
+    public static class StreamedBodyParser implements BodyParser<Source<ByteString, ?>> {
+
+        private final Executor executor;
+
+        @Inject
+        public StreamedBodyParser(Executor executor) {
+            this.executor = executor;
+        }
+
+        @Override
+        public Accumulator<ByteString, F.Either<Result, Source<ByteString, ?>>> apply(Http.RequestHeader request) {
+            return Accumulator.<ByteString>source().map(F.Either::Right, this.executor);
+        }
+    }
+}
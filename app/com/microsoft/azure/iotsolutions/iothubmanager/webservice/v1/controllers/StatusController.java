@@ -3,7 +3,15 @@
 package com.microsoft.azure.iotsolutions.iothubmanager.webservice.v1.controllers;
 
 import com.google.inject.Inject;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.ICompletedJobCache;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.IDeviceCache;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.IDeviceQueryCache;
 import com.microsoft.azure.iotsolutions.iothubmanager.services.IIoTHubWrapper;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.IJobWatcher;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.IRequestCoalescer;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.external.IConfigService;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.CacheStatsServiceModel;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.OutboxStatsServiceModel;
 import com.microsoft.azure.iotsolutions.iothubmanager.webservice.v1.models.StatusApiModel;
 import com.microsoft.azure.sdk.iot.service.RegistryManager;
 import play.mvc.Result;
@@ -17,24 +25,72 @@ import static play.mvc.Results.ok;
 public final class StatusController {
 
     private final IIoTHubWrapper ioTHubWrapper;
+    private final IDeviceCache deviceCache;
+    private final IDeviceQueryCache queryCache;
+    private final IRequestCoalescer coalescer;
+    private final IConfigService configService;
+    private final ICompletedJobCache completedJobCache;
+    private final IJobWatcher jobWatcher;
 
     @Inject
-    public StatusController(IIoTHubWrapper ioTHubWrapper) {
+    public StatusController(
+        IIoTHubWrapper ioTHubWrapper,
+        IDeviceCache deviceCache,
+        IDeviceQueryCache queryCache,
+        IRequestCoalescer coalescer,
+        IConfigService configService,
+        ICompletedJobCache completedJobCache,
+        IJobWatcher jobWatcher) {
         this.ioTHubWrapper = ioTHubWrapper;
+        this.deviceCache = deviceCache;
+        this.queryCache = queryCache;
+        this.coalescer = coalescer;
+        this.configService = configService;
+        this.completedJobCache = completedJobCache;
+        this.jobWatcher = jobWatcher;
     }
 
     /**
      * @return Service health status.
      */
     public Result get() {
-        StatusApiModel status = new StatusApiModel(true, "Alive and well");
+        StatusApiModel status;
         try {
             RegistryManager registry = this.ioTHubWrapper.getRegistryManagerClient();
+            status = new StatusApiModel(true, "Alive and well");
         } catch (Exception e) {
-            status = new StatusApiModel(false, e.getMessage());
-            status.getDependencies().put("IoTHub", "ERROR:" + e.getMessage());
-        } finally {
-            return ok(toJson(status));
+            String message = e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage();
+            status = new StatusApiModel(false, message);
+            status.getDependencies().put("IoTHub", "ERROR:" + message);
         }
+
+        // The metrics are reported whether or not IoT Hub is reachable
+        CacheStatsServiceModel cacheStats = this.deviceCache.getStats();
+        status.getProperties().put("DeviceCache.HitRatio", String.format("%.3f", cacheStats.getHitRatio()));
+        status.getProperties().put("DeviceCache.Hits", String.valueOf(cacheStats.getHitCount()));
+        status.getProperties().put("DeviceCache.Revalidations", String.valueOf(cacheStats.getRevalidationCount()));
+        status.getProperties().put("DeviceCache.Misses", String.valueOf(cacheStats.getMissCount()));
+        status.getProperties().put("DeviceCache.Evictions", String.valueOf(cacheStats.getEvictionCount()));
+        status.getProperties().put("DeviceCache.Size", String.valueOf(cacheStats.getSize()));
+        CacheStatsServiceModel queryCacheStats = this.queryCache.getStats();
+        status.getProperties().put("QueryCache.HitRatio", String.format("%.3f", queryCacheStats.getHitRatio()));
+        status.getProperties().put("QueryCache.Hits", String.valueOf(queryCacheStats.getHitCount()));
+        status.getProperties().put("QueryCache.Misses", String.valueOf(queryCacheStats.getMissCount()));
+        status.getProperties().put("QueryCache.Evictions", String.valueOf(queryCacheStats.getEvictionCount()));
+        status.getProperties().put("QueryCache.Pages", String.valueOf(queryCacheStats.getSize()));
+        CacheStatsServiceModel jobCacheStats = this.completedJobCache.getStats();
+        status.getProperties().put("CompletedJobCache.HitRatio", String.format("%.3f", jobCacheStats.getHitRatio()));
+        status.getProperties().put("CompletedJobCache.Hits", String.valueOf(jobCacheStats.getHitCount()));
+        status.getProperties().put("CompletedJobCache.Misses", String.valueOf(jobCacheStats.getMissCount()));
+        status.getProperties().put("CompletedJobCache.Evictions", String.valueOf(jobCacheStats.getEvictionCount()));
+        status.getProperties().put("CompletedJobCache.Jobs", String.valueOf(jobCacheStats.getSize()));
+        status.getProperties().put("WatchedJobs", String.valueOf(this.jobWatcher.getActiveJobCount()));
+        status.getProperties().put("CoalescedRequests", String.valueOf(this.coalescer.getCoalescedCount()));
+        OutboxStatsServiceModel outboxStats = this.configService.getOutboxStats();
+        status.getProperties().put("ConfigOutbox.Backlog", String.valueOf(outboxStats.getBacklogSize()));
+        status.getProperties().put("ConfigOutbox.BacklogBytes", String.valueOf(outboxStats.getBacklogBytes()));
+        status.getProperties().put("ConfigOutbox.DrainLagMs", String.valueOf(outboxStats.getDrainLagMillis()));
+        status.getProperties().put("ConfigOutbox.Failures", String.valueOf(outboxStats.getFailureCount()));
+        return ok(toJson(status));
     }
 }
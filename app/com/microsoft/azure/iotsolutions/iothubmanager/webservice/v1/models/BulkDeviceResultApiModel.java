@@ -0,0 +1,41 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.webservice.v1.models;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.BulkDeviceResultServiceModel;
+
+public final class BulkDeviceResultApiModel {
+
+    private final String id;
+    private final boolean succeeded;
+    private final String errorCode;
+    private final String errorStatus;
+
+    public BulkDeviceResultApiModel(final BulkDeviceResultServiceModel result) {
+        this.id = result.getDeviceId();
+        this.succeeded = result.isSucceeded();
+        this.errorCode = result.getErrorCode();
+        this.errorStatus = result.getErrorStatus();
+    }
+
+    @JsonProperty("Id")
+    public String getId() {
+        return this.id;
+    }
+
+    @JsonProperty("Succeeded")
+    public boolean getSucceeded() {
+        return this.succeeded;
+    }
+
+    @JsonProperty("ErrorCode")
+    public String getErrorCode() {
+        return this.errorCode;
+    }
+
+    @JsonProperty("ErrorStatus")
+    public String getErrorStatus() {
+        return this.errorStatus;
+    }
+}
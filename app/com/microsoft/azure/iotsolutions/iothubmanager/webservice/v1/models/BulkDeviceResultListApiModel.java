@@ -0,0 +1,48 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.webservice.v1.models;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.BulkDeviceResultServiceModel;
+import com.microsoft.azure.iotsolutions.iothubmanager.webservice.v1.Version;
+
+import java.util.*;
+
+public final class BulkDeviceResultListApiModel {
+
+    private final List<BulkDeviceResultApiModel> items;
+    private int succeededCount = 0;
+
+    public BulkDeviceResultListApiModel(final List<BulkDeviceResultServiceModel> results) {
+        this.items = new ArrayList<>(results.size());
+        for (BulkDeviceResultServiceModel result : results) {
+            this.items.add(new BulkDeviceResultApiModel(result));
+            if (result.isSucceeded()) {
+                this.succeededCount++;
+            }
+        }
+    }
+
+    @JsonProperty("Items")
+    public List<BulkDeviceResultApiModel> getItems() {
+        return this.items;
+    }
+
+    @JsonProperty("SucceededCount")
+    public int getSucceededCount() {
+        return this.succeededCount;
+    }
+
+    @JsonProperty("FailedCount")
+    public int getFailedCount() {
+        return this.items.size() - this.succeededCount;
+    }
+
+    @JsonProperty("$metadata")
+    public Dictionary<String, String> getMetadata() {
+        return new Hashtable<String, String>() {{
+            put("$type", "BulkDeviceResultList;" + Version.NUMBER);
+            put("$uri", "/" + Version.PATH + "/devices/bulk");
+        }};
+    }
+}
@@ -0,0 +1,53 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.webservice.v1.models;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.helpers.QueryConditionClause;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.DeviceGroupServiceModel;
+import com.microsoft.azure.iotsolutions.iothubmanager.webservice.v1.Version;
+
+import java.util.*;
+
+public final class DeviceGroupApiModel {
+
+    private final String id;
+    private final List<QueryConditionClause> conditions;
+    private final long version;
+    private final int count;
+
+    public DeviceGroupApiModel(final DeviceGroupServiceModel group) {
+        this.id = group.getId();
+        this.conditions = group.getConditions();
+        this.version = group.getVersion();
+        this.count = group.getCount();
+    }
+
+    @JsonProperty("Id")
+    public String getId() {
+        return this.id;
+    }
+
+    @JsonProperty("Conditions")
+    public List<QueryConditionClause> getConditions() {
+        return this.conditions;
+    }
+
+    @JsonProperty("Version")
+    public long getVersion() {
+        return this.version;
+    }
+
+    @JsonProperty("Count")
+    public int getCount() {
+        return this.count;
+    }
+
+    @JsonProperty("$metadata")
+    public Dictionary<String, String> getMetadata() {
+        return new Hashtable<String, String>() {{
+            put("$type", "DeviceGroup;" + Version.NUMBER);
+            put("$uri", "/" + Version.PATH + "/devicegroups/" + id);
+        }};
+    }
+}
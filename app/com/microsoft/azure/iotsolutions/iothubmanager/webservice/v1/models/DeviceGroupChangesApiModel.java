@@ -0,0 +1,65 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.webservice.v1.models;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.DeviceGroupChangesServiceModel;
+import com.microsoft.azure.iotsolutions.iothubmanager.webservice.v1.Version;
+
+import java.util.*;
+
+public final class DeviceGroupChangesApiModel {
+
+    private final String groupId;
+    private final long fromVersion;
+    private final long version;
+    private final boolean reset;
+    private final List<String> added;
+    private final List<String> removed;
+
+    public DeviceGroupChangesApiModel(final DeviceGroupChangesServiceModel changes) {
+        this.groupId = changes.getGroupId();
+        this.fromVersion = changes.getFromVersion();
+        this.version = changes.getVersion();
+        this.reset = changes.isReset();
+        this.added = changes.getAdded();
+        this.removed = changes.getRemoved();
+    }
+
+    @JsonProperty("FromVersion")
+    public long getFromVersion() {
+        return this.fromVersion;
+    }
+
+    @JsonProperty("Version")
+    public long getVersion() {
+        return this.version;
+    }
+
+    /**
+     * True when the changes since FromVersion are no longer known: Added
+     * then holds all the members, and the previous membership is replaced.
+     */
+    @JsonProperty("Reset")
+    public boolean getReset() {
+        return this.reset;
+    }
+
+    @JsonProperty("Added")
+    public List<String> getAdded() {
+        return this.added;
+    }
+
+    @JsonProperty("Removed")
+    public List<String> getRemoved() {
+        return this.removed;
+    }
+
+    @JsonProperty("$metadata")
+    public Dictionary<String, String> getMetadata() {
+        return new Hashtable<String, String>() {{
+            put("$type", "DeviceGroupChanges;" + Version.NUMBER);
+            put("$uri", "/" + Version.PATH + "/devicegroups/" + groupId + "/changes");
+        }};
+    }
+}
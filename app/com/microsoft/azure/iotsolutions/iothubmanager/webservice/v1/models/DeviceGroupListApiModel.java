@@ -0,0 +1,34 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.webservice.v1.models;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.DeviceGroupServiceModel;
+import com.microsoft.azure.iotsolutions.iothubmanager.webservice.v1.Version;
+
+import java.util.*;
+
+public final class DeviceGroupListApiModel {
+
+    private final List<DeviceGroupApiModel> items;
+
+    public DeviceGroupListApiModel(final List<DeviceGroupServiceModel> groups) {
+        this.items = new ArrayList<>(groups.size());
+        for (DeviceGroupServiceModel group : groups) {
+            this.items.add(new DeviceGroupApiModel(group));
+        }
+    }
+
+    @JsonProperty("Items")
+    public List<DeviceGroupApiModel> getItems() {
+        return this.items;
+    }
+
+    @JsonProperty("$metadata")
+    public Dictionary<String, String> getMetadata() {
+        return new Hashtable<String, String>() {{
+            put("$type", "DeviceGroupList;" + Version.NUMBER);
+            put("$uri", "/" + Version.PATH + "/devicegroups");
+        }};
+    }
+}
@@ -0,0 +1,40 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.webservice.v1.models;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.DeviceGroupMembersServiceModel;
+import com.microsoft.azure.iotsolutions.iothubmanager.webservice.v1.Version;
+
+import java.util.*;
+
+public final class DeviceGroupMembersApiModel {
+
+    private final String groupId;
+    private final long version;
+    private final List<String> items;
+
+    public DeviceGroupMembersApiModel(final DeviceGroupMembersServiceModel members) {
+        this.groupId = members.getGroupId();
+        this.version = members.getVersion();
+        this.items = members.getDeviceIds();
+    }
+
+    @JsonProperty("Version")
+    public long getVersion() {
+        return this.version;
+    }
+
+    @JsonProperty("Items")
+    public List<String> getItems() {
+        return this.items;
+    }
+
+    @JsonProperty("$metadata")
+    public Dictionary<String, String> getMetadata() {
+        return new Hashtable<String, String>() {{
+            put("$type", "DeviceGroupMembers;" + Version.NUMBER);
+            put("$uri", "/" + Version.PATH + "/devicegroups/" + groupId + "/devices");
+        }};
+    }
+}
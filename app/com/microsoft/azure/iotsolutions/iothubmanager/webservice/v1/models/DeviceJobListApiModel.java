@@ -0,0 +1,54 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.webservice.v1.models;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.DeviceJobServiceListModel;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.DeviceJobServiceModel;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.DeviceJobStatus;
+import com.microsoft.azure.iotsolutions.iothubmanager.webservice.v1.Version;
+
+import java.util.*;
+
+public final class DeviceJobListApiModel {
+
+    private final String jobId;
+    private final List<DeviceJobApiModel> items;
+    private final Map<String, Long> statusCounts;
+
+    public DeviceJobListApiModel(final String jobId, final DeviceJobServiceListModel deviceJobs) {
+        this.jobId = jobId;
+        this.items = new ArrayList<>(deviceJobs.getItems().size());
+        for (DeviceJobServiceModel deviceJob : deviceJobs.getItems()) {
+            this.items.add(new DeviceJobApiModel(deviceJob));
+        }
+        this.statusCounts = toStatusCounts(deviceJobs.getStatusCounts());
+    }
+
+    @JsonProperty("Items")
+    public List<DeviceJobApiModel> getItems() {
+        return this.items;
+    }
+
+    /**
+     * Number of devices of the page in each status, by status name
+     */
+    @JsonProperty("StatusCounts")
+    public Map<String, Long> getStatusCounts() {
+        return this.statusCounts;
+    }
+
+    @JsonProperty("$metadata")
+    public Dictionary<String, String> getMetadata() {
+        return new Hashtable<String, String>() {{
+            put("$type", "DeviceJobList;" + Version.NUMBER);
+            put("$uri", "/" + Version.PATH + "/jobs/" + jobId + "/devices");
+        }};
+    }
+
+    public static Map<String, Long> toStatusCounts(final Map<DeviceJobStatus, Long> counts) {
+        Map<String, Long> result = new LinkedHashMap<>();
+        counts.forEach((status, count) -> result.put(status.name(), count));
+        return result;
+    }
+}
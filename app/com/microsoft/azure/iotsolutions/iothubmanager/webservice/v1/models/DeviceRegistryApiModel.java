@@ -17,7 +17,7 @@ public final class DeviceRegistryApiModel {
 
     private String eTag = null;
     private String id = null;
-    private boolean enabled = false;
+    private Boolean enabled = null;
     private long c2DMessageCount = 0;
     private Date lastActivity = null;
     private boolean connected = false;
@@ -79,7 +79,7 @@ public final class DeviceRegistryApiModel {
     }
 
     @JsonProperty("Enabled")
-    public boolean getEnabled() {
+    public Boolean getEnabled() {
         return this.enabled;
     }
 
@@ -22,6 +22,7 @@ public final class StatusApiModel {
     private String uid = Uptime.getProcessId();
     private DateTimeFormatter dateFormat = DateTimeFormat.forPattern("yyyy-MM-dd'T'HH:mm:ssZZ");
     private Dictionary<String, String> dependencies;
+    private Dictionary<String, String> properties;
 
     public StatusApiModel(final Boolean isOk, final String msg) {
         this.status = isOk ? "OK" : "ERROR";
@@ -31,6 +32,9 @@ public final class StatusApiModel {
         this.dependencies = new Hashtable<String, String>() {{
             put("IoTHub", "OK:...msg...");
         }};
+        this.properties = new Hashtable<String, String>() {{
+            put("Foo", "Bar");
+        }};
     }
 
     @JsonProperty("Name")
@@ -66,9 +70,7 @@ public final class StatusApiModel {
 
     @JsonProperty("Properties")
     public Dictionary<String, String> getProperties() {
-        return new Hashtable<String, String>() {{
-            put("Foo", "Bar");
-        }};
+        return this.properties;
     }
 
     @JsonProperty("Dependencies")
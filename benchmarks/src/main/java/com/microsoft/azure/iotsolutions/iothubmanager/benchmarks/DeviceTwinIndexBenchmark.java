@@ -0,0 +1,99 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.benchmarks;
+
+import com.microsoft.azure.iotsolutions.iothubmanager.services.DeviceTwinIndex;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.IDeviceRegistryMirror;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.helpers.QueryConditionClause;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.helpers.QueryConditionTranslator;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.DeviceServiceModel;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.DeviceTwinProperties;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.DeviceTwinServiceModel;
+import org.openjdk.jmh.annotations.*;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Device group conditions evaluated by the twin index over one million
+ * devices, spread over 100 buildings and 4 device types.
+ *
+ * Run with: sbt "benchmarks/jmh:run DeviceTwinIndexBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+public class DeviceTwinIndexBenchmark {
+
+    private static final int DEVICES = 1_000_000;
+    private static final String[] TYPES = {"Chiller", "Elevator", "Engine", "Truck"};
+
+    private DeviceTwinIndex index;
+    private List<QueryConditionClause> equality;
+    private List<QueryConditionClause> combined;
+
+    @Setup
+    public void setUp() throws Exception {
+        Mirror mirror = new Mirror();
+        this.index = new DeviceTwinIndex(mirror);
+
+        for (int i = 0; i < DEVICES; i++) {
+            String id = "device-" + i;
+            HashMap<String, Object> tags = new HashMap<>();
+            tags.put("building", i % 100);
+            HashMap<String, Object> reported = new HashMap<>();
+            reported.put("type", TYPES[i % TYPES.length]);
+            reported.put("firmware", "1.0." + (i % 10));
+            DeviceTwinServiceModel twin = new DeviceTwinServiceModel(
+                "etag", id, new DeviceTwinProperties(new HashMap<>(), reported), tags, false);
+            mirror.listener.onDeviceChanged(
+                new DeviceServiceModel("etag", id, 0, null, true, true, null, twin, null, null));
+        }
+
+        this.equality = QueryConditionTranslator.parse(
+            "[{ \"Key\": \"tags.building\", \"Operator\": \"EQ\", \"Value\": 43 }]");
+        this.combined = QueryConditionTranslator.parse("["
+            + "{ \"Key\": \"tags.building\", \"Operator\": \"LT\", \"Value\": 50 },"
+            + "{ \"Key\": \"properties.reported.type\", \"Operator\": \"IN\", \"Value\": [\"Chiller\", \"Elevator\"] },"
+            + "{ \"Key\": \"properties.reported.firmware\", \"Operator\": \"NE\", \"Value\": \"1.0.2\" }"
+            + "]");
+    }
+
+    @Benchmark
+    public int equality() {
+        return this.index.evaluate(this.equality).map(RoaringBitmap::getCardinality).orElse(0);
+    }
+
+    @Benchmark
+    public int combined() {
+        return this.index.evaluate(this.combined).map(RoaringBitmap::getCardinality).orElse(0);
+    }
+
+    /**
+     * Only hands the listener to the benchmark, which feeds the index directly
+     */
+    private static final class Mirror implements IDeviceRegistryMirror {
+
+        private Listener listener;
+
+        public boolean isEnabled() { return true; }
+
+        public boolean isFresh() { return true; }
+
+        public Optional<DeviceServiceModel> get(String id) { return Optional.empty(); }
+
+        public Optional<List<DeviceServiceModel>> getPage(String afterId, int limit) { return Optional.empty(); }
+
+        public void put(DeviceServiceModel device) {}
+
+        public void remove(String id) {}
+
+        public void refresh() {}
+
+        public void addListener(Listener listener) { this.listener = listener; }
+    }
+}
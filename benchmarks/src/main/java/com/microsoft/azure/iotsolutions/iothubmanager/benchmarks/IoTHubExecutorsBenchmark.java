@@ -0,0 +1,156 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.benchmarks;
+
+import com.microsoft.azure.iotsolutions.iothubmanager.services.IoTHubExecutors;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.runtime.ExecutorConfig;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.runtime.ServicesConfig;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.openjdk.jmh.annotations.*;
+import play.api.inject.DefaultApplicationLifecycle;
+import play.inject.DelegateApplicationLifecycle;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.*;
+
+/**
+ * Time to complete a burst of concurrent device method invocations, with
+ * IoT Hub replaced by a local HTTP stand-in answering after a fixed
+ * latency. Each call is a blocking HttpURLConnection request, which is how
+ * the IoT Hub service SDK calls the hub, so the calling thread is held for
+ * the whole round trip. With platform threads the burst takes about
+ * (concurrency / threads) round trips, with virtual threads about one.
+ *
+ * The stand-in doesn't use TLS nor the SDK request signing, the numbers
+ * measure the executors, not the SDK.
+ *
+ * Run with: sbt "benchmarks/jmh:run IoTHubExecutorsBenchmark"
+ * Virtual threads require running sbt with Java 21 or later.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Dhttp.maxConnections=10000"})
+public class IoTHubExecutorsBenchmark {
+
+    // Latency of the IoT Hub stand-in
+    private static final long HUB_LATENCY_MILLIS = 50;
+
+    // Size of the method pool, as in application.conf
+    private static final int THREADS = 32;
+
+    private static final byte[] METHOD_RESPONSE =
+        "{\"status\":200,\"payload\":{}}".getBytes(StandardCharsets.UTF_8);
+
+    @Param({"false", "true"})
+    public boolean virtualThreads;
+
+    @Param({"100", "1000", "5000"})
+    public int concurrency;
+
+    private DefaultApplicationLifecycle lifecycle;
+    private Executor executor;
+    private HttpServer hub;
+    private ExecutorService hubExecutor;
+    private ScheduledExecutorService hubScheduler;
+    private URL methodUrl;
+
+    @Setup
+    public void setUp() throws IOException {
+        this.startHubStandIn();
+
+        ServicesConfig config = new ServicesConfig("", "");
+        config.setVirtualThreadsEnabled(this.virtualThreads);
+        config.setVirtualThreadMaxCalls(0);
+        config.setMethodExecutorConfig(new ExecutorConfig(THREADS, this.concurrency));
+
+        this.lifecycle = new DefaultApplicationLifecycle();
+        this.executor = new IoTHubExecutors(config, new DelegateApplicationLifecycle(this.lifecycle))
+            .getMethodExecutor();
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.lifecycle.stop();
+        this.hub.stop(0);
+        this.hubExecutor.shutdownNow();
+        this.hubScheduler.shutdownNow();
+    }
+
+    @Benchmark
+    public void invokeDeviceMethods() {
+        CompletableFuture<?>[] calls = new CompletableFuture<?>[this.concurrency];
+        for (int i = 0; i < this.concurrency; i++) {
+            calls[i] = CompletableFuture.runAsync(this::invokeMethod, this.executor);
+        }
+        CompletableFuture.allOf(calls).join();
+    }
+
+    private void invokeMethod() {
+        try {
+            HttpURLConnection connection = (HttpURLConnection) this.methodUrl.openConnection();
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/json");
+            try (OutputStream body = connection.getOutputStream()) {
+                body.write("{\"methodName\":\"reboot\",\"payload\":{}}".getBytes(StandardCharsets.UTF_8));
+            }
+            try (InputStream response = connection.getInputStream()) {
+                while (response.read() != -1) {
+                    // Read the whole response, so that the connection is reused
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * The stand-in answers from a scheduler instead of sleeping, so that
+     * it can hold thousands of calls without as many threads.
+     */
+    private void startHubStandIn() throws IOException {
+        this.hubScheduler = Executors.newScheduledThreadPool(4);
+        this.hub = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 10000);
+        this.hub.createContext("/twins", exchange -> {
+            drain(exchange);
+            this.hubScheduler.schedule(() -> respond(exchange), HUB_LATENCY_MILLIS, TimeUnit.MILLISECONDS);
+        });
+        this.hubExecutor = Executors.newFixedThreadPool(4);
+        this.hub.setExecutor(this.hubExecutor);
+        this.hub.start();
+
+        this.methodUrl = new URL("http://127.0.0.1:" + this.hub.getAddress().getPort()
+            + "/twins/device1/methods?api-version=2016-11-14");
+    }
+
+    private static void drain(final HttpExchange exchange) throws IOException {
+        try (InputStream request = exchange.getRequestBody()) {
+            while (request.read() != -1) {
+                // The request body is not used
+            }
+        }
+    }
+
+    private static void respond(final HttpExchange exchange) {
+        try {
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, METHOD_RESPONSE.length);
+            try (OutputStream response = exchange.getResponseBody()) {
+                response.write(METHOD_RESPONSE);
+            }
+        } catch (IOException e) {
+            exchange.close();
+        }
+    }
+}
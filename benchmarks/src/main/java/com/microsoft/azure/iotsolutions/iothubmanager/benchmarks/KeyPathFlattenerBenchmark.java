@@ -0,0 +1,91 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.benchmarks;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.helpers.KeyPathFlattener;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Paths of a large reported properties document, 4 levels deep with about
+ * 500 values, flattened by the recursive implementation the service used
+ * before, and by KeyPathFlattener from a map or from a JsonNode.
+ *
+ * Run with: sbt "benchmarks/jmh:run -prof gc KeyPathFlattenerBenchmark"
+ * to see the memory allocated per operation next to the time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KeyPathFlattenerBenchmark {
+
+    private Map<String, Object> map;
+    private JsonNode json;
+
+    @Setup
+    public void setUp() {
+        this.map = createDocument(4, 4);
+        this.json = new ObjectMapper().valueToTree(this.map);
+    }
+
+    @Benchmark
+    public HashSet<String> recursive() {
+        return mapToHashSet("", this.map);
+    }
+
+    @Benchmark
+    public HashSet<String> iterativeFromMap() {
+        HashSet<String> paths = new HashSet<>();
+        KeyPathFlattener.collectPaths("", this.map, paths);
+        return paths;
+    }
+
+    @Benchmark
+    public HashSet<String> iterativeFromJson() {
+        HashSet<String> paths = new HashSet<>();
+        KeyPathFlattener.collectPaths("", this.json, paths);
+        return paths;
+    }
+
+    /**
+     * Objects with `width` values and `width` child objects per level,
+     * down to `depth` levels
+     */
+    private static Map<String, Object> createDocument(final int depth, final int width) {
+        Map<String, Object> document = new HashMap<>();
+        for (int i = 0; i < width; i++) {
+            document.put("value" + i, i % 2 == 0 ? "text" : (Object) i);
+            if (depth > 1) {
+                document.put("object" + i, createDocument(depth - 1, width));
+            }
+        }
+
+        return document;
+    }
+
+    // Implementation of HashMapHelper.mapToHashSet before KeyPathFlattener
+    private static HashSet<String> mapToHashSet(String prefix, Map<String, Object> map) {
+        String dottedPrefix = prefix == null || prefix.isEmpty() ? "" : prefix + ".";
+        HashSet<String> set = new HashSet<>();
+        if (map != null) {
+            for (Map.Entry<String, Object> setEntry : map.entrySet()) {
+                Object value = setEntry.getValue();
+                if (value instanceof String
+                    || value instanceof Boolean
+                    || value instanceof Number) {
+                    set.add(dottedPrefix + setEntry.getKey());
+                } else if (value instanceof Map) {
+                    set.addAll(mapToHashSet(dottedPrefix + setEntry.getKey(), (Map) setEntry.getValue()));
+                }
+            }
+        }
+        return set;
+    }
+}
@@ -0,0 +1,41 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.benchmarks;
+
+import com.microsoft.azure.iotsolutions.iothubmanager.services.exceptions.InvalidInputException;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.helpers.QueryConditionTranslator;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Translation of the conditions of a device group, as sent by dashboards
+ * on every refresh: served from the translation cache, and parsed and
+ * rendered from scratch.
+ *
+ * Run with: sbt "benchmarks/jmh:run -prof gc QueryConditionTranslatorBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryConditionTranslatorBenchmark {
+
+    private static final String CONDITIONS = "["
+        + "{ \"Key\": \"tags.building\", \"Operator\": \"EQ\", \"Value\": 43 },"
+        + "{ \"Key\": \"properties.reported.type\", \"Operator\": \"IN\", \"Value\": [\"Chiller\", \"Elevator\"] },"
+        + "{ \"Key\": \"properties.reported.firmware\", \"Operator\": \"GE\", \"Value\": \"1.0.2\" }"
+        + "]";
+
+    @Benchmark
+    public String cached() throws InvalidInputException {
+        return QueryConditionTranslator.ToQueryString(CONDITIONS);
+    }
+
+    @Benchmark
+    public String uncached() throws InvalidInputException {
+        return QueryConditionTranslator.render(QueryConditionTranslator.parse(CONDITIONS));
+    }
+}
@@ -0,0 +1,115 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.services;
+
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.*;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.runtime.ServicesConfig;
+import com.microsoft.azure.sdk.iot.service.jobs.JobResult;
+import helpers.UnitTest;
+import org.junit.*;
+import org.junit.experimental.categories.Category;
+import play.inject.ApplicationLifecycle;
+
+import java.nio.file.Files;
+import java.util.*;
+
+import static org.mockito.Mockito.*;
+
+public class CompletedJobCacheTest {
+
+    private ServicesConfig config;
+
+    @Before
+    public void setUp() throws Exception {
+        this.config = new ServicesConfig("", "");
+        this.config.setCompletedJobCacheMaxDevices(3);
+        this.config.setCompletedJobCacheSpillPath(Files.createTempDirectory("completed-jobs").toString());
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void JobsEvictedFromMemoryAreReadFromDisk() throws Exception {
+        ICompletedJobCache cache = new CompletedJobCache(this.config, mock(ApplicationLifecycle.class));
+        cache.put("job1", true, null, createJob("job1", com.microsoft.azure.sdk.iot.service.jobs.JobStatus.completed));
+        cache.put("job2", true, null, createJob("job2", com.microsoft.azure.sdk.iot.service.jobs.JobStatus.failed));
+
+        // job1 no longer fits in memory
+        JobServiceModel job = cache.get("job1", true, null);
+        Assert.assertNotNull(job);
+        Assert.assertEquals("job1", job.getJobId());
+        Assert.assertEquals(JobType.scheduleDeviceMethod, job.getJobType());
+        Assert.assertEquals(JobStatus.completed, job.getJobStatus());
+        Assert.assertEquals(new Date(1000), job.getCreatedTimeUtc());
+        Assert.assertEquals(2, job.getDevices().size());
+        Assert.assertEquals("device1", job.getDevices().get(0).getDeviceId());
+        Assert.assertEquals(DeviceJobStatus.failed, job.getDevices().get(0).getStatus());
+        Assert.assertEquals("GatewayTimeout", job.getDevices().get(0).getError().getCode());
+
+        Assert.assertNull(cache.get("job1", false, null));
+        Assert.assertNull(cache.get("job1", true, DeviceJobStatus.failed));
+        Assert.assertEquals(1, cache.getStats().getHitCount());
+        Assert.assertEquals(2, cache.getStats().getMissCount());
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void RunningJobsAreNotCached() throws Exception {
+        ICompletedJobCache cache = new CompletedJobCache(this.config, mock(ApplicationLifecycle.class));
+        cache.put("job1", false, null, createJob("job1", com.microsoft.azure.sdk.iot.service.jobs.JobStatus.running));
+
+        Assert.assertNull(cache.get("job1", false, null));
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void CompletedJobsWithRunningDevicesAreNotCached() throws Exception {
+        ICompletedJobCache cache = new CompletedJobCache(this.config, mock(ApplicationLifecycle.class));
+        cache.put("job1", true, null, createJob(
+            "job1",
+            com.microsoft.azure.sdk.iot.service.jobs.JobStatus.completed,
+            com.microsoft.azure.sdk.iot.service.jobs.JobStatus.running));
+
+        Assert.assertNull(cache.get("job1", true, null));
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void JobsReadFromDiskAreCountedOnce() throws Exception {
+        ICompletedJobCache cache = new CompletedJobCache(this.config, mock(ApplicationLifecycle.class));
+        cache.put("job1", true, null, createJob("job1", com.microsoft.azure.sdk.iot.service.jobs.JobStatus.completed));
+        cache.put("job2", true, null, createJob("job2", com.microsoft.azure.sdk.iot.service.jobs.JobStatus.failed));
+        Assert.assertEquals(2, cache.getStats().getSize());
+
+        // job1 is read back into memory, evicting job2, and stays on disk
+        Assert.assertNotNull(cache.get("job1", true, null));
+        Assert.assertEquals(2, cache.getStats().getSize());
+    }
+
+    private static JobServiceModel createJob(
+        final String id,
+        final com.microsoft.azure.sdk.iot.service.jobs.JobStatus status) throws Exception {
+        return createJob(id, status, com.microsoft.azure.sdk.iot.service.jobs.JobStatus.completed);
+    }
+
+    private static JobServiceModel createJob(
+        final String id,
+        final com.microsoft.azure.sdk.iot.service.jobs.JobStatus status,
+        final com.microsoft.azure.sdk.iot.service.jobs.JobStatus device2Status) throws Exception {
+        JobResult job = mock(JobResult.class);
+        when(job.getJobId()).thenReturn(id);
+        when(job.getCreatedTime()).thenReturn(new Date(1000));
+        when(job.getJobType()).thenReturn(com.microsoft.azure.sdk.iot.service.jobs.JobType.scheduleDeviceMethod);
+        when(job.getJobStatus()).thenReturn(status);
+
+        JobResult device1 = mock(JobResult.class);
+        when(device1.getDeviceId()).thenReturn("device1");
+        when(device1.getJobStatus()).thenReturn(com.microsoft.azure.sdk.iot.service.jobs.JobStatus.failed);
+        when(device1.getError()).thenReturn("{\"code\":\"GatewayTimeout\",\"description\":\"Timed out\"}");
+
+        JobResult device2 = mock(JobResult.class);
+        when(device2.getDeviceId()).thenReturn("device2");
+        when(device2.getJobStatus()).thenReturn(device2Status);
+
+        return new JobServiceModel(job, Arrays.asList(device1, device2));
+    }
+}
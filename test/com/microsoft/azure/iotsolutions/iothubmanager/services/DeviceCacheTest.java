@@ -0,0 +1,141 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.*;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.runtime.ServicesConfig;
+import helpers.UnitTest;
+import org.junit.*;
+import org.junit.experimental.categories.Category;
+import play.libs.Json;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class DeviceCacheTest {
+
+    private IIoTHubWrapper ioTHubWrapper;
+    private IIoTHubQueryClient queryClient;
+    private ServicesConfig config;
+    private AtomicInteger loads;
+    private Function<String, CompletionStage<DeviceServiceModel>> loader;
+
+    @Before
+    public void setUp() throws Exception {
+        this.ioTHubWrapper = mock(IIoTHubWrapper.class);
+        when(this.ioTHubWrapper.getIotHubHostName()).thenReturn("hub.azure-devices.net");
+        this.queryClient = mock(IIoTHubQueryClient.class);
+
+        this.config = new ServicesConfig("", "");
+        this.config.setDeviceCacheTtl(Duration.ofHours(1));
+
+        this.loads = new AtomicInteger(0);
+        this.loader = id -> {
+            this.loads.incrementAndGet();
+            return CompletableFuture.completedFuture(createDevice(id, "etag-" + id, "key-" + id));
+        };
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void FreshDevicesAreServedFromMemory() throws Exception {
+        IDeviceCache cache = new DeviceCache(this.ioTHubWrapper, this.queryClient, this.config);
+
+        cache.getAsync("device1", this.loader).toCompletableFuture().get();
+        DeviceServiceModel device = cache.getAsync("device1", this.loader).toCompletableFuture().get();
+
+        Assert.assertEquals("device1", device.getId());
+        Assert.assertEquals(1, this.loads.get());
+        Assert.assertEquals(1, cache.getStats().getHitCount());
+        Assert.assertEquals(1, cache.getStats().getMissCount());
+        verifyZeroInteractions(this.queryClient);
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void UnchangedDevicesAreRevalidatedWithoutReload() throws Exception {
+        this.config.setDeviceCacheTtl(Duration.ZERO);
+        IDeviceCache cache = new DeviceCache(this.ioTHubWrapper, this.queryClient, this.config);
+        this.mockQuery("device1", "etag-device1");
+
+        cache.getAsync("device1", this.loader).toCompletableFuture().get();
+        Thread.sleep(5);
+        DeviceServiceModel device = cache.getAsync("device1", this.loader).toCompletableFuture().get();
+
+        Assert.assertEquals(1, this.loads.get());
+        Assert.assertEquals(1, cache.getStats().getRevalidationCount());
+        // The keys are not returned by the query, they are kept from the cached entry
+        Assert.assertEquals("key-device1", device.getAuthentication().getPrimaryKey());
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void ChangedDevicesAreReloaded() throws Exception {
+        this.config.setDeviceCacheTtl(Duration.ZERO);
+        IDeviceCache cache = new DeviceCache(this.ioTHubWrapper, this.queryClient, this.config);
+        this.mockQuery("device1", "etag-changed");
+
+        cache.getAsync("device1", this.loader).toCompletableFuture().get();
+        Thread.sleep(5);
+        cache.getAsync("device1", this.loader).toCompletableFuture().get();
+
+        Assert.assertEquals(2, this.loads.get());
+        Assert.assertEquals(0, cache.getStats().getRevalidationCount());
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void InvalidatedDevicesAreReloaded() throws Exception {
+        IDeviceCache cache = new DeviceCache(this.ioTHubWrapper, this.queryClient, this.config);
+
+        cache.getAsync("device1", this.loader).toCompletableFuture().get();
+        cache.invalidate("device1");
+        cache.getAsync("device1", this.loader).toCompletableFuture().get();
+
+        Assert.assertEquals(2, this.loads.get());
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void DevicesLoadedWhileInvalidatedAreNotCached() throws Exception {
+        IDeviceCache cache = new DeviceCache(this.ioTHubWrapper, this.queryClient, this.config);
+        CompletableFuture<DeviceServiceModel> load = new CompletableFuture<>();
+        CompletionStage<DeviceServiceModel> device = cache.getAsync("device1", id -> load);
+
+        // The device read before the update is stale
+        cache.invalidate("device1");
+        load.complete(createDevice("device1", "etag-old", "key-old"));
+        device.toCompletableFuture().get();
+
+        DeviceServiceModel reloaded = cache.getAsync("device1", this.loader).toCompletableFuture().get();
+        Assert.assertEquals("etag-device1", reloaded.getETag());
+        Assert.assertEquals(1, this.loads.get());
+    }
+
+    private void mockQuery(String id, String deviceEtag) throws Exception {
+        JsonNode twin = Json.newObject()
+            .put("deviceId", id)
+            .put("etag", "twin-etag")
+            .put("deviceEtag", deviceEtag)
+            .put("status", "enabled")
+            .put("authenticationType", "sas");
+        when(this.queryClient.queryAsync(anyString(), isNull(), anyInt()))
+            .thenReturn(CompletableFuture.completedFuture(
+                new QueryResultServiceModel(Collections.singletonList(twin), null)));
+    }
+
+    private static DeviceServiceModel createDevice(String id, String eTag, String primaryKey) {
+        AuthenticationMechanismServiceModel authentication = new AuthenticationMechanismServiceModel();
+        authentication.setAuthenticationType(AuthenticationType.Sas);
+        authentication.setPrimaryKey(primaryKey);
+        return new DeviceServiceModel(eTag, id, 0, null, true, true, null, null, authentication, "hub.azure-devices.net");
+    }
+}
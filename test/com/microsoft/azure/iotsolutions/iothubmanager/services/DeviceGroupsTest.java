@@ -0,0 +1,191 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.exceptions.InvalidInputException;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.exceptions.ResourceNotFoundException;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.*;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.runtime.ServicesConfig;
+import helpers.UnitTest;
+import org.junit.*;
+import org.junit.experimental.categories.Category;
+import play.libs.Json;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class DeviceGroupsTest {
+
+    private static final String BUILDING_43 = "[{\"Key\":\"tags.building\",\"Operator\":\"EQ\",\"Value\":43}]";
+
+    private IDeviceRegistryMirror mirror;
+    private IIoTHubQueryClient queryClient;
+    private IDeviceGroups deviceGroups;
+
+    @Before
+    public void setUp() throws Exception {
+        this.mirror = mock(IDeviceRegistryMirror.class);
+        this.queryClient = mock(IIoTHubQueryClient.class);
+        this.deviceGroups = new DeviceGroups(
+            this.mirror,
+            mock(IDeviceTwinIndex.class),
+            this.queryClient,
+            new ServicesConfig("", ""));
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void GroupsAreLoadedFromIoTHub() throws Exception {
+        this.mockHub("device1", "device2");
+
+        DeviceGroupServiceModel group = this.deviceGroups.createOrUpdateAsync("building43", BUILDING_43)
+            .toCompletableFuture().get();
+
+        Assert.assertEquals(2, group.getCount());
+        Assert.assertEquals(2, group.getVersion());
+        Assert.assertEquals(Arrays.asList("device1", "device2"), this.getMembers().getDeviceIds());
+        verify(this.queryClient).queryAsync(
+            eq("SELECT deviceId FROM devices WHERE tags.building = 43"), isNull(), anyInt());
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void TwinChangesUpdateTheMembership() throws Exception {
+        this.mockHub("device1", "device2");
+        this.deviceGroups.createOrUpdateAsync("building43", BUILDING_43).toCompletableFuture().get();
+
+        this.deviceGroups.onDeviceChanged(device("device3", 43));
+        this.deviceGroups.onDeviceChanged(device("device1", 40));
+        this.deviceGroups.onDeviceChanged(device("device2", 43));
+        this.deviceGroups.onDeviceRemoved("device3");
+        this.deviceGroups.onDeviceChanged(device("device4", 43));
+
+        DeviceGroupMembersServiceModel members = this.getMembers();
+        Assert.assertEquals(Arrays.asList("device2", "device4"), members.getDeviceIds());
+        Assert.assertEquals(6, members.getVersion());
+
+        // device3 joined then left, it is not part of the changes
+        DeviceGroupChangesServiceModel changes = this.deviceGroups.getChangesAsync("building43", 2)
+            .toCompletableFuture().get();
+        Assert.assertFalse(changes.isReset());
+        Assert.assertEquals(6, changes.getVersion());
+        Assert.assertEquals(Collections.singletonList("device4"), changes.getAdded());
+        Assert.assertEquals(Collections.singletonList("device1"), changes.getRemoved());
+
+        changes = this.deviceGroups.getChangesAsync("building43", 6).toCompletableFuture().get();
+        Assert.assertTrue(changes.getAdded().isEmpty());
+        Assert.assertTrue(changes.getRemoved().isEmpty());
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void UnknownVersionsGetTheWholeMembership() throws Exception {
+        this.mockHub("device1", "device2");
+        this.deviceGroups.createOrUpdateAsync("building43", BUILDING_43).toCompletableFuture().get();
+
+        DeviceGroupChangesServiceModel changes = this.deviceGroups.getChangesAsync("building43", 10)
+            .toCompletableFuture().get();
+
+        Assert.assertTrue(changes.isReset());
+        Assert.assertEquals(Arrays.asList("device1", "device2"), changes.getAdded());
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void TwinUpdateJobsReloadTheGroupsTheyChange() throws Exception {
+        this.mockHub("device1");
+        this.deviceGroups.createOrUpdateAsync("building43", BUILDING_43).toCompletableFuture().get();
+
+        HashMap<String, Object> tags = new HashMap<>();
+        tags.put("floor", 2);
+        this.deviceGroups.onTwinUpdateJob(new DeviceTwinServiceModel(null, null, null, tags, false), 60);
+        Assert.assertEquals(Collections.singletonList("device1"), this.getMembers().getDeviceIds());
+
+        tags.put("building", 43);
+        this.mockHub("device1", "device2");
+        this.deviceGroups.onTwinUpdateJob(new DeviceTwinServiceModel(null, null, null, tags, false), 60);
+        Assert.assertEquals(Arrays.asList("device1", "device2"), this.getMembers().getDeviceIds());
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void GroupsOnRegistryFieldsAreRejected() throws Exception {
+        try {
+            this.deviceGroups.createOrUpdateAsync(
+                "enabled", "[{\"Key\":\"status\",\"Operator\":\"EQ\",\"Value\":\"enabled\"}]")
+                .toCompletableFuture().join();
+            Assert.fail("The group should be rejected");
+        } catch (CompletionException e) {
+            Assert.assertTrue(e.getCause() instanceof InvalidInputException);
+        }
+
+        Assert.assertTrue(this.deviceGroups.getListAsync().toCompletableFuture().get().isEmpty());
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void DeviceChangesAreNotBlockedByALoad() throws Exception {
+        this.mockHub("device1");
+        this.deviceGroups.createOrUpdateAsync("building43", BUILDING_43).toCompletableFuture().get();
+
+        HashMap<String, Object> tags = new HashMap<>();
+        tags.put("building", 43);
+        this.deviceGroups.onTwinUpdateJob(new DeviceTwinServiceModel(null, null, null, tags, false), 60);
+
+        // A device changes while the reload walks the mirror
+        when(this.mirror.isFresh()).thenReturn(true);
+        when(this.mirror.getPage(isNull(), anyInt())).thenAnswer(invocation -> {
+            CompletableFuture.runAsync(() -> this.deviceGroups.onDeviceChanged(device("device2", 43)))
+                .get(1, TimeUnit.SECONDS);
+            return Optional.of(Collections.singletonList(device("device1", 43)));
+        });
+
+        Assert.assertEquals(Arrays.asList("device1", "device2"), this.getMembers().getDeviceIds());
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void GroupsWhoseLoadFailedCanBeDeleted() throws Exception {
+        CompletableFuture<QueryResultServiceModel> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new CompletionException(new Exception("IoT Hub is down")));
+        when(this.queryClient.queryAsync(anyString(), isNull(), anyInt())).thenReturn(failed);
+        this.deviceGroups.createOrUpdateAsync("building43", BUILDING_43).toCompletableFuture().handle((r, e) -> r).get();
+
+        Assert.assertTrue(this.deviceGroups.deleteAsync("building43").toCompletableFuture().get());
+        try {
+            this.deviceGroups.deleteAsync("building43").toCompletableFuture().join();
+            Assert.fail("The group should be gone");
+        } catch (CompletionException e) {
+            Assert.assertTrue(e.getCause() instanceof ResourceNotFoundException);
+        }
+        verify(this.queryClient, times(1)).queryAsync(anyString(), isNull(), anyInt());
+    }
+
+    private DeviceGroupMembersServiceModel getMembers() throws Exception {
+        return this.deviceGroups.getMembersAsync("building43").toCompletableFuture().get();
+    }
+
+    private void mockHub(String... deviceIds) throws Exception {
+        List<JsonNode> items = new ArrayList<>();
+        for (String id : deviceIds) {
+            items.add(Json.newObject().put("deviceId", id));
+        }
+
+        when(this.queryClient.queryAsync(anyString(), isNull(), anyInt()))
+            .thenReturn(CompletableFuture.completedFuture(new QueryResultServiceModel(items, null)));
+    }
+
+    private static DeviceServiceModel device(String id, int building) {
+        HashMap<String, Object> tags = new HashMap<>();
+        tags.put("building", building);
+        DeviceTwinServiceModel twin = new DeviceTwinServiceModel(
+            "etag", id, new DeviceTwinProperties(new HashMap<>(), new HashMap<>()), tags, false);
+        return new DeviceServiceModel("etag", id, 0, null, true, true, null, twin, null, null);
+    }
+}
@@ -0,0 +1,194 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.services;
+
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.*;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.runtime.ServicesConfig;
+import helpers.UnitTest;
+import org.junit.*;
+import org.junit.experimental.categories.Category;
+import play.libs.Json;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+public class DeviceQueryCacheTest {
+
+    private static final String ALL = "SELECT * FROM devices";
+    private static final String BUILDING = "SELECT * FROM devices where tags.building = 'Building 43'";
+    private static final String REPORTED = "SELECT * FROM devices where properties.reported.firmware = '1.0'";
+
+    private ServicesConfig config;
+    private AtomicInteger loads;
+
+    @Before
+    public void setUp() {
+        this.config = new ServicesConfig("", "");
+        this.config.setDeviceQueryCacheTtl(Duration.ofHours(1));
+        this.loads = new AtomicInteger(0);
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void PagesAreServedFromMemory() throws Exception {
+        IDeviceQueryCache cache = new DeviceQueryCache(this.config);
+
+        this.get(cache, BUILDING, "device1");
+        this.get(cache, BUILDING, "device1");
+        this.get(cache, ALL, "device1");
+
+        Assert.assertEquals(2, this.loads.get());
+        Assert.assertEquals(1, cache.getStats().getHitCount());
+        Assert.assertEquals(2, cache.getStats().getMissCount());
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void UpdatesInvalidatePagesContainingTheDeviceOrFilteringOnChangedFields() throws Exception {
+        IDeviceQueryCache cache = new DeviceQueryCache(this.config);
+        this.get(cache, ALL, "device1");
+        this.get(cache, BUILDING, "device2");
+        this.get(cache, REPORTED, "device3");
+
+        // device1 is in the listing, tags.building is filtered by the second query
+        cache.onDeviceUpdated("device1", createTwin("building", "Building 44"));
+        this.get(cache, ALL, "device1");
+        this.get(cache, BUILDING, "device2");
+        this.get(cache, REPORTED, "device3");
+
+        Assert.assertEquals(5, this.loads.get());
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void CreatesInvalidateUnfilteredPages() throws Exception {
+        IDeviceQueryCache cache = new DeviceQueryCache(this.config);
+        this.get(cache, ALL, "device1");
+        this.get(cache, BUILDING, "device2");
+
+        cache.onDeviceCreated("device3", createTwin("floor", "2"));
+        this.get(cache, ALL, "device1");
+        this.get(cache, BUILDING, "device2");
+
+        Assert.assertEquals(3, this.loads.get());
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void DeletesInvalidateAllPagesOfQueriesContainingTheDevice() throws Exception {
+        IDeviceQueryCache cache = new DeviceQueryCache(this.config);
+        this.get(cache, ALL, null, "device1");
+        this.get(cache, ALL, "token", "device2");
+        this.get(cache, BUILDING, null, "device3");
+
+        cache.onDeviceDeleted("device1");
+        this.get(cache, ALL, null, "device1");
+        this.get(cache, ALL, "token", "device2");
+        this.get(cache, BUILDING, null, "device3");
+
+        Assert.assertEquals(5, this.loads.get());
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void TwinUpdateJobsInvalidateOnlyPagesFilteringOnChangedFields() throws Exception {
+        IDeviceQueryCache cache = new DeviceQueryCache(this.config);
+        this.get(cache, ALL, "device1");
+        this.get(cache, BUILDING, "device2");
+
+        cache.onTwinUpdateJob(createTwin("building", "Building 44"));
+        this.get(cache, ALL, "device1");
+        this.get(cache, BUILDING, "device2");
+
+        Assert.assertEquals(3, this.loads.get());
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void PagesLoadedWhileADeviceChangesAreNotCached() throws Exception {
+        IDeviceQueryCache cache = new DeviceQueryCache(this.config);
+        CompletableFuture<DeviceServiceListModel> load = new CompletableFuture<>();
+        CompletionStage<DeviceServiceListModel> page = cache.getAsync(ALL, null, () -> {
+            this.loads.incrementAndGet();
+            return load;
+        });
+
+        // The page read before the delete still contains the device
+        cache.onDeviceDeleted("device1");
+        load.complete(new DeviceServiceListModel(Collections.singletonList(createDevice("device1")), null));
+        page.toCompletableFuture().get();
+
+        this.get(cache, ALL, "device2");
+        Assert.assertEquals(2, this.loads.get());
+    }
+
+    @Test
+    @Category({UnitTest.class})
+    public void FilteredFieldsIgnoreKeywordsFunctionsAndValues() {
+        Set<String> fields = DeviceQueryCache.getFilteredFields(
+            "SELECT * FROM devices where tags.building = 'tags.floor' and "
+                + "is_defined(properties.reported.firmware) and status in ['enabled', 'disabled']");
+
+        Assert.assertEquals(
+            new HashSet<>(Arrays.asList("tags.building", "properties.reported.firmware", "status")),
+            fields);
+        Assert.assertTrue(DeviceQueryCache.getFilteredFields(ALL).isEmpty());
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void FieldsAfterEscapedQuotesInvalidatePages() throws Exception {
+        String query = "SELECT * FROM devices where tags.a = 'x\\'y' and tags.b = 'z'";
+        Assert.assertEquals(
+            new HashSet<>(Arrays.asList("tags.a", "tags.b")),
+            DeviceQueryCache.getFilteredFields(query));
+
+        IDeviceQueryCache cache = new DeviceQueryCache(this.config);
+        this.get(cache, query, "device1");
+        cache.onDeviceUpdated("device2", createTwin("b", "z"));
+        this.get(cache, query, "device1");
+
+        Assert.assertEquals(2, this.loads.get());
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void DisabledCacheAlwaysLoads() throws Exception {
+        this.config.setDeviceQueryCacheEnabled(false);
+        IDeviceQueryCache cache = new DeviceQueryCache(this.config);
+
+        this.get(cache, ALL, "device1");
+        this.get(cache, ALL, "device1");
+
+        Assert.assertEquals(2, this.loads.get());
+    }
+
+    private void get(IDeviceQueryCache cache, String query, String deviceId) throws Exception {
+        this.get(cache, query, null, deviceId);
+    }
+
+    private void get(IDeviceQueryCache cache, String query, String token, String deviceId) throws Exception {
+        Supplier<CompletionStage<DeviceServiceListModel>> loader = () -> {
+            this.loads.incrementAndGet();
+            return CompletableFuture.completedFuture(
+                new DeviceServiceListModel(Collections.singletonList(createDevice(deviceId)), null));
+        };
+        cache.getAsync(query, token, loader).toCompletableFuture().get();
+    }
+
+    private static DeviceServiceModel createDevice(String deviceId) {
+        return new DeviceServiceModel(
+            Json.newObject().put("deviceId", deviceId).put("deviceEtag", "etag"),
+            "hub.azure-devices.net");
+    }
+
+    private static DeviceTwinServiceModel createTwin(String tag, String value) {
+        return new DeviceTwinServiceModel(Json.newObject()
+            .put("deviceId", "device")
+            .set("tags", Json.newObject().put(tag, value)));
+    }
+}
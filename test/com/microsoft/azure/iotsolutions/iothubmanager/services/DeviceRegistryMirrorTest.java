@@ -0,0 +1,207 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.*;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.runtime.ServicesConfig;
+import com.microsoft.azure.sdk.iot.service.*;
+import com.microsoft.azure.sdk.iot.service.auth.AuthenticationType;
+import com.microsoft.azure.sdk.iot.service.auth.SymmetricKey;
+import helpers.UnitTest;
+import org.junit.*;
+import org.junit.experimental.categories.Category;
+import play.inject.ApplicationLifecycle;
+import play.libs.Json;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class DeviceRegistryMirrorTest {
+
+    private IIoTHubWrapper ioTHubWrapper;
+    private IIoTHubQueryClient queryClient;
+    private ServicesConfig config;
+
+    @Before
+    public void setUp() throws Exception {
+        this.queryClient = mock(IIoTHubQueryClient.class);
+        this.ioTHubWrapper = mock(IIoTHubWrapper.class);
+        when(this.ioTHubWrapper.getIotHubHostName()).thenReturn("hub.azure-devices.net");
+
+        this.config = new ServicesConfig("", "");
+        this.config.setDeviceMirrorEnabled(true);
+        this.config.setDeviceMirrorRefreshInterval(Duration.ofHours(1));
+        this.config.setDeviceMirrorMaxStaleness(Duration.ofHours(1));
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void RefreshServesDevicesAndTwins() throws Exception {
+        this.mockHub("device1", "device2");
+        IDeviceRegistryMirror mirror = this.createMirror();
+
+        Assert.assertTrue(mirror.get("device1").isPresent());
+        Assert.assertNotNull(mirror.get("device1").get().getTwin());
+        Assert.assertEquals(2, mirror.getPage(null, 100).get().size());
+        Assert.assertFalse(mirror.get("unknown").isPresent());
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void RefreshRemovesDeletedDevices() throws Exception {
+        this.mockHub("device1", "device2");
+        IDeviceRegistryMirror mirror = this.createMirror();
+
+        this.mockHub("device1");
+        mirror.refresh();
+
+        Assert.assertTrue(mirror.get("device1").isPresent());
+        Assert.assertFalse(mirror.get("device2").isPresent());
+        Assert.assertEquals(1, mirror.getPage(null, 100).get().size());
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void PagesAreSortedById() throws Exception {
+        this.mockHub("device3", "device1", "device2");
+        IDeviceRegistryMirror mirror = this.createMirror();
+
+        List<DeviceServiceModel> firstPage = mirror.getPage(null, 2).get();
+        List<DeviceServiceModel> secondPage = mirror.getPage("device2", 2).get();
+
+        Assert.assertEquals(2, firstPage.size());
+        Assert.assertEquals("device1", firstPage.get(0).getId());
+        Assert.assertEquals("device2", firstPage.get(1).getId());
+        Assert.assertEquals(1, secondPage.size());
+        Assert.assertEquals("device3", secondPage.get(0).getId());
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void LocalWritesAreVisible() throws Exception {
+        this.mockHub("device1");
+        IDeviceRegistryMirror mirror = this.createMirror();
+
+        mirror.put(new DeviceServiceModel(this.mockDevice("device2"), null, "hub.azure-devices.net"));
+        mirror.remove("device1");
+
+        Assert.assertTrue(mirror.get("device2").isPresent());
+        Assert.assertFalse(mirror.get("device1").isPresent());
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void RefreshKeepsKeysOfUnchangedDevices() throws Exception {
+        this.mockHub("device1");
+        IDeviceRegistryMirror mirror = this.createMirror();
+        Assert.assertFalse(mirror.get("device1").get().hasKeys());
+
+        mirror.put(new DeviceServiceModel(this.mockDevice("device1"), null, "hub.azure-devices.net"));
+        mirror.refresh();
+
+        Assert.assertTrue(mirror.get("device1").get().hasKeys());
+        Assert.assertNotNull(mirror.get("device1").get().getTwin());
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void RefreshOnlyReadsNewAndChangedDevices() throws Exception {
+        this.mockHub("device1", "device2");
+        IDeviceRegistryMirror mirror = this.createMirror();
+
+        mirror.refresh();
+        verify(this.queryClient, never()).queryAsync(contains(" IN "), any(), anyInt());
+
+        // device2 has a new twin ETag, device3 is new
+        this.mockHub(Arrays.asList(
+            createTwin("device1", "twin-etag-device1"),
+            createTwin("device2", "new-twin-etag"),
+            createTwin("device3", "twin-etag-device3")));
+        mirror.refresh();
+
+        verify(this.queryClient, times(1)).queryAsync(
+            eq("SELECT * FROM devices WHERE deviceId IN ['device2', 'device3']"), any(), anyInt());
+        Assert.assertEquals("new-twin-etag", mirror.get("device2").get().getTwin().getETag());
+        Assert.assertTrue(mirror.get("device3").isPresent());
+        verify(this.queryClient, times(1)).queryAsync(eq("SELECT * FROM devices"), any(), anyInt());
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void DisabledMirrorNeverServesReads() throws Exception {
+        this.config.setDeviceMirrorEnabled(false);
+        IDeviceRegistryMirror mirror = new DeviceRegistryMirror(
+            this.ioTHubWrapper, this.queryClient, this.config, mock(ApplicationLifecycle.class));
+
+        mirror.put(new DeviceServiceModel(this.mockDevice("device1"), null, "hub.azure-devices.net"));
+
+        Assert.assertFalse(mirror.isFresh());
+        Assert.assertFalse(mirror.get("device1").isPresent());
+        Assert.assertFalse(mirror.getPage(null, 100).isPresent());
+    }
+
+    private IDeviceRegistryMirror createMirror() throws InterruptedException {
+        IDeviceRegistryMirror mirror = new DeviceRegistryMirror(
+            this.ioTHubWrapper, this.queryClient, this.config, mock(ApplicationLifecycle.class));
+
+        // The first refresh is scheduled in the background as soon as the mirror is created
+        while (!mirror.isFresh()) {
+            Thread.sleep(10);
+        }
+
+        return mirror;
+    }
+
+    private void mockHub(String... deviceIds) throws Exception {
+        List<JsonNode> twins = new ArrayList<>();
+        for (String id : deviceIds) {
+            twins.add(createTwin(id, "twin-etag-" + id));
+        }
+        this.mockHub(twins);
+    }
+
+    /**
+     * IoT Hub answers the queries of all the devices, and of devices by
+     * id, with the twins given
+     */
+    private void mockHub(List<JsonNode> twins) throws Exception {
+        when(this.queryClient.queryAsync(anyString(), isNull(), anyInt())).thenAnswer(invocation -> {
+            String query = invocation.getArgument(0);
+            List<JsonNode> items = new ArrayList<>();
+            for (JsonNode twin : twins) {
+                if (!query.contains(" IN ") || query.contains("'" + twin.get("deviceId").asText() + "'")) {
+                    items.add(twin);
+                }
+            }
+            return CompletableFuture.completedFuture(new QueryResultServiceModel(items, null));
+        });
+    }
+
+    private static JsonNode createTwin(String id, String twinETag) {
+        return Json.newObject()
+            .put("deviceId", id)
+            .put("etag", twinETag)
+            .put("deviceEtag", "etag-" + id)
+            .put("status", "enabled")
+            .put("connectionState", "Connected")
+            .put("authenticationType", "sas");
+    }
+
+    private Device mockDevice(String id) {
+        Device device = mock(Device.class);
+        when(device.getDeviceId()).thenReturn(id);
+        when(device.geteTag()).thenReturn("etag-" + id);
+        when(device.getAuthenticationType()).thenReturn(AuthenticationType.SAS);
+        SymmetricKey key = mock(SymmetricKey.class);
+        when(key.getPrimaryKey()).thenReturn("primary-" + id);
+        when(device.getSymmetricKey()).thenReturn(key);
+        when(device.getConnectionState()).thenReturn(DeviceConnectionState.Connected);
+        when(device.getStatus()).thenReturn(DeviceStatus.Enabled);
+        return device;
+    }
+}
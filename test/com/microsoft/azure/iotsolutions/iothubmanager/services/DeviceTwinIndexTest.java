@@ -0,0 +1,125 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.services;
+
+import com.microsoft.azure.iotsolutions.iothubmanager.services.helpers.QueryConditionClause;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.helpers.QueryConditionTranslator;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.DeviceServiceModel;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.DeviceTwinProperties;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.DeviceTwinServiceModel;
+import helpers.UnitTest;
+import org.junit.*;
+import org.junit.experimental.categories.Category;
+import org.mockito.ArgumentCaptor;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.*;
+
+import static org.mockito.Mockito.*;
+
+public class DeviceTwinIndexTest {
+
+    private IDeviceRegistryMirror mirror;
+    private DeviceTwinIndex index;
+
+    @Before
+    public void setUp() {
+        this.mirror = mock(IDeviceRegistryMirror.class);
+        this.index = new DeviceTwinIndex(this.mirror);
+
+        this.index.put("device1", twin("device1", "Building 40", 10, "chiller"));
+        this.index.put("device2", twin("device2", "Building 40", 25.5, "elevator"));
+        this.index.put("device3", twin("device3", "Building 43", "20", "chiller"));
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void EqualityConditionsUseTheTagPostings() throws Exception {
+        Assert.assertEquals(Arrays.asList("device1", "device2"),
+            this.query("[{\"Key\":\"Tags.Building\",\"Operator\":\"EQ\",\"Value\":\"Building 40\"}]"));
+        Assert.assertEquals(Collections.singletonList("device3"),
+            this.query("[{\"Key\":\"tags.Building\",\"Operator\":\"NE\",\"Value\":\"Building 40\"}]"));
+        Assert.assertEquals(Collections.emptyList(),
+            this.query("[{\"Key\":\"tags.Building\",\"Operator\":\"EQ\",\"Value\":\"Building 1\"}]"));
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void RangesOnlyMatchValuesOfTheSameType() throws Exception {
+        // device3 reports the temperature as a string, the same as IoT Hub it is not compared to numbers
+        Assert.assertEquals(Arrays.asList("device1", "device2"),
+            this.query("[{\"Key\":\"properties.reported.temperature\",\"Operator\":\"GE\",\"Value\":10}]"));
+        Assert.assertEquals(Collections.singletonList("device2"),
+            this.query("[{\"Key\":\"properties.reported.temperature\",\"Operator\":\"GT\",\"Value\":10}]"));
+        Assert.assertEquals(Collections.singletonList("device1"),
+            this.query("[{\"Key\":\"properties.reported.temperature\",\"Operator\":\"LT\",\"Value\":20}]"));
+        Assert.assertEquals(Collections.singletonList("device3"),
+            this.query("[{\"Key\":\"properties.reported.temperature\",\"Operator\":\"LE\",\"Value\":\"20\"}]"));
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void ConditionsAreIntersected() throws Exception {
+        Assert.assertEquals(Collections.singletonList("device1"), this.query("["
+            + "{\"Key\":\"tags.Building\",\"Operator\":\"IN\",\"Value\":[\"Building 40\",\"Building 1\"]},"
+            + "{\"Key\":\"properties.desired.mode\",\"Operator\":\"EQ\",\"Value\":\"chiller\"}]"));
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void ChangesReplaceThePreviousValues() throws Exception {
+        String range = "[{\"Key\":\"properties.reported.temperature\",\"Operator\":\"LT\",\"Value\":20}]";
+        Assert.assertEquals(Collections.singletonList("device1"), this.query(range));
+
+        this.index.put("device1", twin("device1", "Building 43", 30, "chiller"));
+        this.index.remove("device3");
+
+        Assert.assertEquals(Collections.singletonList("device2"),
+            this.query("[{\"Key\":\"tags.Building\",\"Operator\":\"EQ\",\"Value\":\"Building 40\"}]"));
+        Assert.assertEquals(Collections.singletonList("device1"),
+            this.query("[{\"Key\":\"tags.Building\",\"Operator\":\"EQ\",\"Value\":\"Building 43\"}]"));
+        Assert.assertEquals(Collections.emptyList(), this.query(range));
+        Assert.assertEquals(2, this.index.size());
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void RegistryFieldsAreNotIndexed() throws Exception {
+        List<QueryConditionClause> clauses = QueryConditionTranslator.parse(
+            "[{\"Key\":\"deviceId\",\"Operator\":\"EQ\",\"Value\":\"device1\"}]");
+
+        Assert.assertFalse(this.index.evaluate(clauses).isPresent());
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void MirrorChangesAreIndexed() throws Exception {
+        ArgumentCaptor<IDeviceRegistryMirror.Listener> listener =
+            ArgumentCaptor.forClass(IDeviceRegistryMirror.Listener.class);
+        verify(this.mirror).addListener(listener.capture());
+
+        listener.getValue().onDeviceChanged(new DeviceServiceModel(
+            "etag", "device4", 0, null, true, true, null, twin("device4", "Building 40", 30, "chiller"), null, null));
+        listener.getValue().onDeviceRemoved("device1");
+
+        Assert.assertEquals(Arrays.asList("device2", "device4"),
+            this.query("[{\"Key\":\"tags.Building\",\"Operator\":\"EQ\",\"Value\":\"Building 40\"}]"));
+    }
+
+    private List<String> query(String conditions) throws Exception {
+        RoaringBitmap matches = this.index.evaluate(QueryConditionTranslator.parse(conditions)).get();
+        List<String> result = new ArrayList<>();
+        matches.forEach((int ordinal) -> result.add(this.index.getDeviceId(ordinal)));
+        return result;
+    }
+
+    private static DeviceTwinServiceModel twin(String id, String building, Object temperature, String mode) {
+        HashMap<String, Object> tags = new HashMap<>();
+        tags.put("Building", building);
+        HashMap<String, Object> reported = new HashMap<>();
+        reported.put("temperature", temperature);
+        HashMap<String, Object> desired = new HashMap<>();
+        desired.put("mode", mode);
+        return new DeviceTwinServiceModel("etag", id, new DeviceTwinProperties(desired, reported), tags, false);
+    }
+}
@@ -0,0 +1,213 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.services;
+
+import com.microsoft.azure.iotsolutions.iothubmanager.services.exceptions.*;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.external.IConfigService;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.*;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.runtime.ServicesConfig;
+import com.microsoft.azure.sdk.iot.service.devicetwin.DeviceTwin;
+import com.microsoft.azure.sdk.iot.service.devicetwin.DeviceTwinDevice;
+import helpers.UnitTest;
+import org.junit.*;
+import org.junit.experimental.categories.Category;
+import play.libs.Json;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class DevicesBulkTest {
+
+    private IIoTHubRegistryClient registryClient;
+    private DeviceTwin twinClient;
+    private ServicesConfig config;
+    private List<CompletableFuture<List<BulkDeviceResultServiceModel>>> calls;
+
+    @Before
+    public void setUp() throws Exception {
+        this.registryClient = mock(IIoTHubRegistryClient.class);
+        this.twinClient = mock(DeviceTwin.class);
+        this.config = new ServicesConfig("", "");
+        this.config.setDeviceBulkConcurrency(2);
+        this.calls = Collections.synchronizedList(new ArrayList<>());
+
+        // Every bulk call stays pending until the test completes it
+        when(this.registryClient.bulkAsync(anyList(), any())).thenAnswer(invocation -> {
+            List<DeviceServiceModel> batch = invocation.getArgument(0);
+            List<BulkDeviceResultServiceModel> results = new ArrayList<>();
+            for (DeviceServiceModel device : batch) {
+                results.add(BulkDeviceResultServiceModel.success(device.getId()));
+            }
+            CompletableFuture<List<BulkDeviceResultServiceModel>> call = new CompletableFuture<>();
+            this.calls.add(call);
+            return call.thenApply(ignored -> results);
+        });
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void BatchesOf100DevicesRunUpToTheConcurrencyLimit() throws Exception {
+        IDevices devices = this.createDevices();
+
+        CompletableFuture<List<BulkDeviceResultServiceModel>> result = devices
+            .bulkAsync(createDevices(250, false), BulkOperationMode.create)
+            .toCompletableFuture();
+
+        Assert.assertEquals(2, this.calls.size());
+        this.calls.get(0).complete(null);
+        Assert.assertEquals(3, this.calls.size());
+        this.calls.get(1).complete(null);
+        this.calls.get(2).complete(null);
+
+        List<BulkDeviceResultServiceModel> results = result.get();
+        Assert.assertEquals(250, results.size());
+        Assert.assertEquals("device0", results.get(0).getDeviceId());
+        Assert.assertEquals("device249", results.get(249).getDeviceId());
+        verify(this.registryClient, times(2)).bulkAsync(argThat(batch -> batch.size() == 100), any());
+        verify(this.registryClient, times(1)).bulkAsync(argThat(batch -> batch.size() == 50), any());
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void FailedBatchOnlyFailsItsDevices() throws Exception {
+        IDevices devices = this.createDevices();
+
+        CompletableFuture<List<BulkDeviceResultServiceModel>> result = devices
+            .bulkAsync(createDevices(150, false), BulkOperationMode.delete)
+            .toCompletableFuture();
+        this.calls.get(0).completeExceptionally(new ExternalDependencyException("IoT Hub unavailable"));
+        this.calls.get(1).complete(null);
+
+        List<BulkDeviceResultServiceModel> results = result.get();
+        Assert.assertFalse(results.get(0).isSucceeded());
+        Assert.assertEquals("ExternalDependencyException", results.get(0).getErrorCode());
+        Assert.assertFalse(results.get(99).isSucceeded());
+        Assert.assertTrue(results.get(100).isSucceeded());
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void TwinsWithTagsAreUpdatedAfterTheRegistry() throws Exception {
+        IDevices devices = this.createDevices();
+        List<DeviceServiceModel> batch = new ArrayList<>(createDevices(2, false));
+        batch.addAll(createDevices(1, true));
+
+        CompletableFuture<List<BulkDeviceResultServiceModel>> result = devices
+            .bulkAsync(batch, BulkOperationMode.createOrUpdate)
+            .toCompletableFuture();
+        verify(this.twinClient, never()).updateTwin(any());
+        this.calls.get(0).complete(null);
+
+        Assert.assertEquals(3, result.get().size());
+        verify(this.twinClient, times(1)).updateTwin(any(DeviceTwinDevice.class));
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void BulkUpdatesKeepTheGroupMembership() throws Exception {
+        IIoTHubQueryClient queryClient = mock(IIoTHubQueryClient.class);
+        when(queryClient.queryAsync(anyString(), isNull(), anyInt()))
+            .thenReturn(CompletableFuture.completedFuture(new QueryResultServiceModel(
+                Collections.singletonList(Json.newObject().put("deviceId", "device0")), null)));
+        IDeviceGroups deviceGroups = new DeviceGroups(
+            mock(IDeviceRegistryMirror.class), mock(IDeviceTwinIndex.class), queryClient, this.config);
+        deviceGroups.createOrUpdateAsync("building43", "[{\"Key\":\"tags.building\",\"Operator\":\"EQ\",\"Value\":43}]")
+            .toCompletableFuture().get();
+        IDevices devices = this.createDevices(deviceGroups);
+
+        // Only the registry is written, the twin is not part of the request
+        CompletableFuture<List<BulkDeviceResultServiceModel>> result = devices
+            .bulkAsync(createDevices(1, false), BulkOperationMode.update)
+            .toCompletableFuture();
+        this.calls.get(0).complete(null);
+        result.get();
+
+        DeviceGroupMembersServiceModel members = deviceGroups.getMembersAsync("building43")
+            .toCompletableFuture().get();
+        Assert.assertEquals(Collections.singletonList("device0"), members.getDeviceIds());
+        verify(queryClient, times(1)).queryAsync(anyString(), isNull(), anyInt());
+
+        // Tags the group doesn't filter on don't change the membership either
+        HashMap<String, Object> tags = new HashMap<>();
+        tags.put("floor", 2);
+        DeviceServiceModel device = new DeviceServiceModel(null, "device0", 0, null, false, true, null,
+            new DeviceTwinServiceModel(null, "device0", null, tags, false), null, null);
+        result = devices.bulkAsync(Collections.singletonList(device), BulkOperationMode.update)
+            .toCompletableFuture();
+        this.calls.get(1).complete(null);
+        result.get();
+
+        members = deviceGroups.getMembersAsync("building43").toCompletableFuture().get();
+        Assert.assertEquals(Collections.singletonList("device0"), members.getDeviceIds());
+        verify(queryClient, times(1)).queryAsync(anyString(), isNull(), anyInt());
+    }
+
+    @Test(expected = InvalidInputException.class)
+    @Category({UnitTest.class})
+    public void UpdatesRequireDeviceIds() throws Exception {
+        IDevices devices = this.createDevices();
+        DeviceServiceModel device = createDevices(1, false).get(0);
+        device.setId(null);
+
+        devices.bulkAsync(Collections.singletonList(device), BulkOperationMode.update);
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void MirrorTokensFailWhenTheMirrorIsUnavailable() throws Exception {
+        IDevices devices = this.createDevices();
+
+        try {
+            devices.queryAsync("", "mirror:device100").toCompletableFuture().join();
+            Assert.fail("The listing should not restart from the first page");
+        } catch (CompletionException e) {
+            Assert.assertTrue(e.getCause() instanceof InvalidInputException);
+        }
+    }
+
+    private IDevices createDevices() throws Exception {
+        return this.createDevices(mock(IDeviceGroups.class));
+    }
+
+    private IDevices createDevices(IDeviceGroups deviceGroups) throws Exception {
+        IIoTHubWrapper ioTHubWrapper = mock(IIoTHubWrapper.class);
+        when(ioTHubWrapper.getDeviceTwinClient()).thenReturn(this.twinClient);
+        IIoTHubExecutors executors = mock(IIoTHubExecutors.class);
+        Executor direct = Runnable::run;
+        when(executors.getRegistryExecutor()).thenReturn(direct);
+        when(executors.getTwinExecutor()).thenReturn(direct);
+        when(executors.getMethodExecutor()).thenReturn(direct);
+
+        return new Devices(
+            ioTHubWrapper,
+            mock(IConfigService.class),
+            mock(IDeviceRegistryMirror.class),
+            mock(IDeviceTwinIndex.class),
+            deviceGroups,
+            mock(IDeviceCache.class),
+            new DeviceQueryCache(this.config),
+            new RequestCoalescer(),
+            mock(IIoTHubQueryClient.class),
+            this.registryClient,
+            executors,
+            this.config);
+    }
+
+    private static List<DeviceServiceModel> createDevices(int count, boolean withTags) {
+        List<DeviceServiceModel> devices = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String id = (withTags ? "tagged" : "device") + i;
+            DeviceTwinServiceModel twin = null;
+            if (withTags) {
+                HashMap<String, Object> tags = new HashMap<>();
+                tags.put("building", "43");
+                twin = new DeviceTwinServiceModel(null, id, null, tags, false);
+            }
+            devices.add(new DeviceServiceModel(null, id, 0, null, false, true, null, twin, null, null));
+        }
+        return devices;
+    }
+}
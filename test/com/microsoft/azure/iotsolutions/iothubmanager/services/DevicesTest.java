@@ -2,11 +2,15 @@
 
 package com.microsoft.azure.iotsolutions.iothubmanager.services;
 
+import akka.actor.ActorSystem;
+import akka.stream.ActorMaterializer;
+import akka.stream.javadsl.Sink;
 import com.microsoft.azure.iotsolutions.iothubmanager.services.exceptions.*;
 import com.microsoft.azure.iotsolutions.iothubmanager.services.external.ConfigService;
 import com.microsoft.azure.iotsolutions.iothubmanager.services.external.IConfigService;
 import com.microsoft.azure.iotsolutions.iothubmanager.services.models.*;
 import com.microsoft.azure.iotsolutions.iothubmanager.services.runtime.IServicesConfig;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.runtime.ServicesConfig;
 import com.microsoft.azure.iotsolutions.iothubmanager.webservice.runtime.Config;
 import com.microsoft.azure.sdk.iot.device.*;
 import com.microsoft.azure.sdk.iot.service.auth.SymmetricKey;
@@ -14,10 +18,14 @@ import helpers.IntegrationTest;
 import helpers.DeviceMethodEmulator;
 import org.junit.*;
 import org.junit.experimental.categories.Category;
+import play.api.inject.DefaultApplicationLifecycle;
+import play.inject.ApplicationLifecycle;
+import play.inject.DelegateApplicationLifecycle;
 import play.test.WSTestClient;
 
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.nio.file.Files;
 import java.time.Duration;
 import java.util.*;
 
@@ -27,6 +35,8 @@ public class DevicesTest {
     private static IServicesConfig servicesConfig;
     private static IConfigService configService;
     private static IIoTHubWrapper ioTHubWrapper;
+    private static IIoTHubQueryClient queryClient;
+    private static ApplicationLifecycle lifecycle;
     private static IDevices deviceService;
     private static ArrayList<DeviceServiceModel> testDevices = new ArrayList<>();
     private static ArrayList<DeviceClient> testDeviceEmulators = new ArrayList<>();
@@ -43,9 +53,27 @@ public class DevicesTest {
 
         config = new Config();
         servicesConfig = config.getServicesConfig();
-        configService = new ConfigService(servicesConfig, WSTestClient.newClient(9005));
-        ioTHubWrapper = new IoTHubWrapper(servicesConfig);
-        deviceService = new Devices(ioTHubWrapper, configService);
+        ((ServicesConfig) servicesConfig).setDeviceGroupFiltersOutboxPath(
+            Files.createTempDirectory("iothub-manager").resolve("config-service-outbox.dat").toString());
+        lifecycle = new DelegateApplicationLifecycle(new DefaultApplicationLifecycle());
+        configService = new ConfigService(servicesConfig, WSTestClient.newClient(9005), lifecycle);
+        ioTHubWrapper = new IoTHubWrapper(servicesConfig, lifecycle);
+        queryClient = new IoTHubQueryClient(ioTHubWrapper, WSTestClient.newClient(9005));
+        IDeviceRegistryMirror mirror = new DeviceRegistryMirror(ioTHubWrapper, queryClient, servicesConfig, lifecycle);
+        IDeviceTwinIndex index = new DeviceTwinIndex(mirror);
+        deviceService = new Devices(
+            ioTHubWrapper,
+            configService,
+            mirror,
+            index,
+            new DeviceGroups(mirror, index, queryClient, servicesConfig),
+            new DeviceCache(ioTHubWrapper, queryClient, servicesConfig),
+            new DeviceQueryCache(servicesConfig),
+            new RequestCoalescer(),
+            queryClient,
+            new IoTHubRegistryClient(ioTHubWrapper, WSTestClient.newClient(9005)),
+            new IoTHubExecutors(servicesConfig, lifecycle),
+            servicesConfig);
 
         createTestDevices(2, batchId);
 
@@ -108,6 +136,21 @@ public class DevicesTest {
         }
     }
 
+    @Test(timeout = 100000)
+    @Category({IntegrationTest.class})
+    public void streamAsyncTest() throws Exception {
+        ActorSystem system = ActorSystem.create();
+        try {
+            String jsonString = String.format("[{ \"Key\": \"Tags.BatchId\", \"Operator\": \"EQ\", \"Value\": \"%s\" }]", batchId);
+            List<DeviceServiceModel> devices = deviceService.streamAsync(jsonString)
+                .runWith(Sink.seq(), ActorMaterializer.create(system))
+                .toCompletableFuture().get();
+            Assert.assertEquals(testDevices.size(), devices.size());
+        } finally {
+            system.terminate();
+        }
+    }
+
     @Test(timeout = 10000)
     @Category({IntegrationTest.class})
     public void getAsyncFailureTest() throws Exception {
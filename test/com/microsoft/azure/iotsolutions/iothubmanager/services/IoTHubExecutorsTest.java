@@ -0,0 +1,70 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.services;
+
+import com.microsoft.azure.iotsolutions.iothubmanager.services.runtime.ExecutorConfig;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.runtime.ServicesConfig;
+import helpers.UnitTest;
+import org.junit.*;
+import org.junit.experimental.categories.Category;
+import play.inject.ApplicationLifecycle;
+
+import java.util.concurrent.*;
+
+import static org.mockito.Mockito.mock;
+
+public class IoTHubExecutorsTest {
+
+    private ServicesConfig config;
+
+    @Before
+    public void setUp() {
+        this.config = new ServicesConfig("", "");
+        this.config.setMethodExecutorConfig(new ExecutorConfig(1, 1));
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void SaturatedExecutorRejectsCalls() throws Exception {
+        this.assertSaturatedExecutorRejectsCalls();
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void SaturatedVirtualThreadExecutorRejectsCalls() throws Exception {
+        // Falls back to platform threads when the runtime has no virtual threads
+        this.config.setVirtualThreadsEnabled(true);
+        this.config.setVirtualThreadMaxCalls(2);
+        this.assertSaturatedExecutorRejectsCalls();
+    }
+
+    private void assertSaturatedExecutorRejectsCalls() throws Exception {
+        IIoTHubExecutors executors = new IoTHubExecutors(this.config, mock(ApplicationLifecycle.class));
+        CountDownLatch release = new CountDownLatch(1);
+        Runnable blocked = () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+
+        // Two calls accepted: one running and one queued, or two
+        // running on virtual threads
+        CompletableFuture<Void> running = CompletableFuture.runAsync(blocked, executors.getMethodExecutor());
+        CompletableFuture<Void> queued = CompletableFuture.runAsync(blocked, executors.getMethodExecutor());
+
+        try {
+            CompletableFuture.runAsync(blocked, executors.getMethodExecutor());
+            Assert.fail("The call should have been rejected");
+        } catch (RejectedExecutionException e) {
+            // Expected
+        }
+
+        // Other kinds of calls are not affected
+        Assert.assertTrue(CompletableFuture.supplyAsync(() -> true, executors.getRegistryExecutor()).get());
+
+        release.countDown();
+        CompletableFuture.allOf(running, queued).get();
+    }
+}
@@ -0,0 +1,38 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.services;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.BulkOperationMode;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.DeviceServiceModel;
+import helpers.UnitTest;
+import org.junit.*;
+import org.junit.experimental.categories.Category;
+
+public class IoTHubRegistryClientTest {
+
+    @Test
+    @Category({UnitTest.class})
+    public void UpdatesWithoutEnabledKeepTheDeviceStatus() {
+        DeviceServiceModel device = createDevice(null);
+
+        Assert.assertFalse(IoTHubRegistryClient.toImportDevice(device, BulkOperationMode.update).has("status"));
+        Assert.assertFalse(IoTHubRegistryClient.toImportDevice(device, BulkOperationMode.createOrUpdate).has("status"));
+        Assert.assertEquals("enabled",
+            IoTHubRegistryClient.toImportDevice(device, BulkOperationMode.create).path("status").asText());
+    }
+
+    @Test
+    @Category({UnitTest.class})
+    public void EnabledIsWrittenAsTheDeviceStatus() {
+        ObjectNode enabled = IoTHubRegistryClient.toImportDevice(createDevice(true), BulkOperationMode.update);
+        ObjectNode disabled = IoTHubRegistryClient.toImportDevice(createDevice(false), BulkOperationMode.create);
+
+        Assert.assertEquals("enabled", enabled.path("status").asText());
+        Assert.assertEquals("disabled", disabled.path("status").asText());
+    }
+
+    private static DeviceServiceModel createDevice(Boolean enabled) {
+        return new DeviceServiceModel(null, "device1", 0, null, false, enabled, null, null, null, "hub.azure-devices.net");
+    }
+}
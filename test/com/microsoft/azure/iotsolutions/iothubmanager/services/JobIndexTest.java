@@ -0,0 +1,115 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.services;
+
+import com.microsoft.azure.iotsolutions.iothubmanager.services.exceptions.InvalidInputException;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.*;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.runtime.ServicesConfig;
+import helpers.UnitTest;
+import org.junit.*;
+import org.junit.experimental.categories.Category;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import static org.mockito.Mockito.*;
+
+public class JobIndexTest {
+
+    private ServicesConfig config;
+
+    @Before
+    public void setUp() {
+        this.config = new ServicesConfig("", "");
+        this.config.setJobIndexMaxAge(Duration.ofHours(1));
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void PagesAreSortedByCreationTimeAndStopAtTheWindow() throws Exception {
+        JobIndex index = new JobIndex(this.config);
+        index.loadAsync(jobs -> {
+            jobs.accept(createJob("job1", 1000, JobType.scheduleUpdateTwin));
+            jobs.accept(createJob("job2", 2000, JobType.scheduleDeviceMethod));
+            jobs.accept(createJob("job3", 3000, JobType.scheduleUpdateTwin));
+            jobs.accept(createJob("job4", 4000, JobType.scheduleUpdateTwin));
+            jobs.accept(createJob("job5", 5000, JobType.scheduleUpdateTwin));
+            return CompletableFuture.completedFuture(null);
+        }).toCompletableFuture().get();
+        Assert.assertTrue(index.isFresh());
+
+        JobServiceListModel page = index.getPage(JobType.scheduleUpdateTwin, null, 1000, 4500, 2, null);
+        Assert.assertEquals(Arrays.asList("job4", "job3"), ids(page));
+        Assert.assertNotNull(page.getContinuationToken());
+
+        page = index.getPage(JobType.scheduleUpdateTwin, null, 1000, 4500, 2, page.getContinuationToken());
+        Assert.assertEquals(Collections.singletonList("job1"), ids(page));
+        Assert.assertNull(page.getContinuationToken());
+
+        try {
+            index.getPage(null, null, 0, Long.MAX_VALUE, 2, "not a token");
+            Assert.fail("The continuation token should be rejected");
+        } catch (InvalidInputException e) {
+            // expected
+        }
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void JobsWrittenDuringALoadAreKept() throws Exception {
+        JobIndex index = new JobIndex(this.config);
+        index.put(createJob("job3", 3000, JobType.scheduleUpdateTwin));
+        AtomicInteger loads = new AtomicInteger(0);
+        AtomicReference<Consumer<JobServiceModel>> loader = new AtomicReference<>();
+        CompletableFuture<Void> loaded = new CompletableFuture<>();
+
+        CompletableFuture<Void> first = index.loadAsync(jobs -> {
+            loads.incrementAndGet();
+            loader.set(jobs);
+            return loaded;
+        }).toCompletableFuture();
+        CompletableFuture<Void> second = index.loadAsync(jobs -> {
+            loads.incrementAndGet();
+            return loaded;
+        }).toCompletableFuture();
+
+        // A job scheduled while all the jobs are read, then read by the load
+        JobServiceModel scheduled = createJob("job2", 2000, JobType.scheduleDeviceMethod);
+        index.put(scheduled);
+        loader.get().accept(createJob("job1", 1000, JobType.scheduleUpdateTwin));
+        loader.get().accept(createJob("job2", 2000, JobType.scheduleDeviceMethod));
+
+        // The jobs read so far are listed before the load completes
+        JobServiceListModel page = index.getPage(null, null, 0, Long.MAX_VALUE, 10, null);
+        Assert.assertEquals(Arrays.asList("job3", "job2", "job1"), ids(page));
+        Assert.assertFalse(index.isLoaded());
+
+        loaded.complete(null);
+        first.get();
+        second.get();
+
+        Assert.assertEquals(1, loads.get());
+        page = index.getPage(null, null, 0, Long.MAX_VALUE, 10, null);
+        Assert.assertEquals(Arrays.asList("job2", "job1"), ids(page));
+        Assert.assertSame(scheduled, page.getItems().get(0));
+    }
+
+    private static JobServiceModel createJob(final String id, final long created, final JobType type) {
+        JobServiceModel job = mock(JobServiceModel.class);
+        when(job.getJobId()).thenReturn(id);
+        when(job.getCreatedTimeUtc()).thenReturn(new Date(created));
+        when(job.getJobType()).thenReturn(type);
+        when(job.getJobStatus()).thenReturn(JobStatus.completed);
+        return job;
+    }
+
+    private static List<String> ids(final JobServiceListModel page) {
+        List<String> ids = new ArrayList<>();
+        page.getItems().forEach(job -> ids.add(job.getJobId()));
+        return ids;
+    }
+}
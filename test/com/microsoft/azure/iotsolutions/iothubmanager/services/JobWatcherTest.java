@@ -0,0 +1,113 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.services;
+
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.*;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.runtime.ServicesConfig;
+import helpers.UnitTest;
+import org.junit.*;
+import org.junit.experimental.categories.Category;
+import play.inject.ApplicationLifecycle;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class JobWatcherTest {
+
+    private IJobs jobs;
+    private IJobWatcher watcher;
+
+    @Before
+    public void setUp() {
+        ServicesConfig config = new ServicesConfig("", "");
+        config.setJobWatchMinInterval(Duration.ofMillis(10));
+        config.setJobWatchMaxInterval(Duration.ofMillis(40));
+
+        this.jobs = mock(IJobs.class);
+        this.watcher = new JobWatcher(this.jobs, config, mock(ApplicationLifecycle.class));
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void WatchersOfAJobShareOnePollerUntilTheJobIsFinished() throws Exception {
+        when(this.jobs.getJobAsync(eq("job1"), eq(false), isNull())).thenReturn(
+            CompletableFuture.completedFuture(createJob(JobStatus.running, 1)),
+            CompletableFuture.completedFuture(createJob(JobStatus.running, 1)),
+            CompletableFuture.completedFuture(createJob(JobStatus.completed, 2)));
+
+        RecordingListener first = new RecordingListener();
+        RecordingListener second = new RecordingListener();
+        this.watcher.watch("job1", first);
+        this.watcher.watch("job1", second);
+
+        first.completed.await();
+        second.completed.await();
+
+        // Unchanged jobs are not sent again
+        Assert.assertEquals(Arrays.asList(JobStatus.running, JobStatus.completed), first.statuses);
+        Assert.assertEquals(Arrays.asList(JobStatus.running, JobStatus.completed), second.statuses);
+        verify(this.jobs, times(3)).getJobAsync(eq("job1"), eq(false), isNull());
+        Assert.assertEquals(0, this.watcher.getActiveJobCount());
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void PollingStopsWhenTheLastWatcherLeaves() throws Exception {
+        when(this.jobs.getJobAsync(eq("job1"), eq(false), isNull())).thenAnswer(
+            invocation -> CompletableFuture.completedFuture(createJob(JobStatus.running, 1)));
+
+        RecordingListener listener = new RecordingListener();
+        IJobWatcher.Watch watch = this.watcher.watch("job1", listener);
+        listener.updated.await();
+        Assert.assertEquals(1, this.watcher.getActiveJobCount());
+
+        watch.close();
+        while (this.watcher.getActiveJobCount() > 0) {
+            Thread.sleep(10);
+        }
+
+        // No poll is left scheduled
+        Thread.sleep(100);
+        reset(this.jobs);
+        Thread.sleep(100);
+        verify(this.jobs, never()).getJobAsync(anyString(), anyBoolean(), any());
+    }
+
+    private static JobServiceModel createJob(final JobStatus status, final int succeeded) {
+        JobStatistics statistics = new JobStatistics();
+        statistics.setDeviceCount(2);
+        statistics.setSucceededCount(succeeded);
+
+        JobServiceModel job = new JobServiceModel();
+        job.setJobId("job1");
+        job.setJobStatus(status);
+        job.setResultStatistics(statistics);
+        return job;
+    }
+
+    private static class RecordingListener implements IJobWatcher.Listener {
+
+        private final List<JobStatus> statuses = new CopyOnWriteArrayList<>();
+        private final CountDownLatch updated = new CountDownLatch(1);
+        private final CountDownLatch completed = new CountDownLatch(1);
+
+        @Override
+        public void onUpdate(final JobServiceModel job) {
+            this.statuses.add(job.getJobStatus());
+            this.updated.countDown();
+        }
+
+        @Override
+        public void onCompleted() {
+            this.completed.countDown();
+        }
+
+        @Override
+        public void onError(final Throwable error) {
+        }
+    }
+}
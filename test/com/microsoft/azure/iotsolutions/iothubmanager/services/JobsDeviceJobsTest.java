@@ -0,0 +1,126 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.services;
+
+import akka.actor.ActorSystem;
+import akka.stream.ActorMaterializer;
+import akka.stream.javadsl.Sink;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.external.IConfigService;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.*;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.runtime.ServicesConfig;
+import helpers.UnitTest;
+import org.junit.*;
+import org.junit.experimental.categories.Category;
+import play.inject.ApplicationLifecycle;
+import play.libs.Json;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class JobsDeviceJobsTest {
+
+    private static final String QUERY = "select * from devices.jobs where devices.jobs.jobId = 'job1'";
+
+    private IIoTHubQueryClient queryClient;
+    private IJobs jobs;
+
+    @Before
+    public void setUp() throws Exception {
+        ServicesConfig config = new ServicesConfig("", "");
+        this.queryClient = mock(IIoTHubQueryClient.class);
+
+        this.jobs = new Jobs(
+            mock(IIoTHubWrapper.class),
+            this.queryClient,
+            mock(IConfigService.class),
+            mock(IDeviceQueryCache.class),
+            mock(IDeviceGroups.class),
+            new JobIndex(config),
+            mock(ICompletedJobCache.class),
+            new IoTHubExecutors(config, mock(ApplicationLifecycle.class)),
+            config);
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void PagesOfDeviceResultsAreCountedByStatus() throws Exception {
+        when(this.queryClient.queryAsync(QUERY, "token1", 2)).thenReturn(CompletableFuture.completedFuture(
+            new QueryResultServiceModel(Arrays.asList(
+                createDeviceJob("device1", "completed"),
+                createDeviceJob("device2", "failed")), "token2")));
+
+        DeviceJobServiceListModel page = this.jobs.getDeviceJobsAsync("job1", null, 2, "token1")
+            .toCompletableFuture().get();
+
+        Assert.assertEquals("token2", page.getContinuationToken());
+        Assert.assertEquals(2, page.getItems().size());
+        Assert.assertEquals("device1", page.getItems().get(0).getDeviceId());
+        Assert.assertEquals(200, page.getItems().get(0).getOutcome().getStatus());
+        Assert.assertEquals(DeviceJobStatus.failed, page.getItems().get(1).getStatus());
+        Assert.assertEquals("GatewayTimeout", page.getItems().get(1).getError().getCode());
+        Assert.assertEquals(Long.valueOf(1), page.getStatusCounts().get(DeviceJobStatus.completed));
+        Assert.assertEquals(Long.valueOf(1), page.getStatusCounts().get(DeviceJobStatus.failed));
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void StreamReadsAllThePages() throws Exception {
+        when(this.queryClient.queryAsync(eq(QUERY), eq(""), anyInt())).thenReturn(CompletableFuture.completedFuture(
+            new QueryResultServiceModel(Collections.singletonList(createDeviceJob("device1", "completed")), "token2")));
+        when(this.queryClient.queryAsync(eq(QUERY), eq("token2"), anyInt())).thenReturn(CompletableFuture.completedFuture(
+            new QueryResultServiceModel(Collections.singletonList(createDeviceJob("device2", "completed")), null)));
+
+        ActorSystem system = ActorSystem.create();
+        try {
+            List<DeviceJobServiceListModel> pages = this.jobs.streamDeviceJobsAsync("job1", null)
+                .runWith(Sink.seq(), ActorMaterializer.create(system))
+                .toCompletableFuture().get();
+
+            Assert.assertEquals(2, pages.size());
+            Assert.assertEquals("device2", pages.get(1).getItems().get(0).getDeviceId());
+        } finally {
+            system.terminate();
+        }
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void QueuedDevicesArePendingAndUnknownStatusesAreNotCounted() throws Exception {
+        when(this.queryClient.queryAsync(QUERY, null, 10)).thenReturn(CompletableFuture.completedFuture(
+            new QueryResultServiceModel(Arrays.asList(
+                createDeviceJob("device1", "enqueued"),
+                createDeviceJob("device2", "queued"),
+                createDeviceJob("device3", "unknown")), null)));
+
+        DeviceJobServiceListModel page = this.jobs.getDeviceJobsAsync("job1", null, 10, null)
+            .toCompletableFuture().get();
+
+        Assert.assertEquals(DeviceJobStatus.pending, page.getItems().get(0).getStatus());
+        Assert.assertEquals(DeviceJobStatus.pending, page.getItems().get(1).getStatus());
+        Assert.assertNull(page.getItems().get(2).getStatus());
+        Assert.assertEquals(Long.valueOf(2), page.getStatusCounts().get(DeviceJobStatus.pending));
+        Assert.assertEquals(1, page.getStatusCounts().size());
+    }
+
+    private static JsonNode createDeviceJob(final String deviceId, final String status) {
+        ObjectNode document = Json.newObject()
+            .put("deviceId", deviceId)
+            .put("jobId", "job1")
+            .put("status", status)
+            .put("createdDateTimeUtc", "2017-11-20T10:00:00.000Z");
+        if (status.equals("failed")) {
+            document.set("error", Json.newObject()
+                .put("code", "GatewayTimeout")
+                .put("description", "Timed out waiting for the response from device."));
+        } else {
+            document.set("outcome", Json.newObject()
+                .set("deviceMethodResponse", Json.newObject().put("status", 200).set("payload", Json.newObject())));
+        }
+        return document;
+    }
+}
@@ -0,0 +1,89 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.services;
+
+import com.microsoft.azure.iotsolutions.iothubmanager.services.external.IConfigService;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.*;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.runtime.ServicesConfig;
+import helpers.UnitTest;
+import org.junit.*;
+import org.junit.experimental.categories.Category;
+import play.inject.ApplicationLifecycle;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class JobsListingTest {
+
+    private IJobIndex jobIndex;
+    private CompletableFuture<Void> load;
+    private IJobs jobs;
+
+    @Before
+    public void setUp() throws Exception {
+        ServicesConfig config = new ServicesConfig("", "");
+        config.setJobsTimeout(Duration.ofMillis(200));
+        this.jobIndex = mock(IJobIndex.class);
+        this.load = new CompletableFuture<>();
+        when(this.jobIndex.loadAsync(any())).thenReturn(this.load);
+        when(this.jobIndex.getPage(any(), any(), anyLong(), anyLong(), anyInt(), any()))
+            .thenReturn(new JobServiceListModel(Collections.emptyList(), null));
+
+        this.jobs = new Jobs(
+            mock(IIoTHubWrapper.class),
+            mock(IIoTHubQueryClient.class),
+            mock(IConfigService.class),
+            mock(IDeviceQueryCache.class),
+            mock(IDeviceGroups.class),
+            this.jobIndex,
+            mock(ICompletedJobCache.class),
+            new IoTHubExecutors(config, mock(ApplicationLifecycle.class)),
+            config);
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void StaleIndexIsServedWhileItIsReloaded() throws Exception {
+        when(this.jobIndex.isLoaded()).thenReturn(true);
+        when(this.jobIndex.isFresh()).thenReturn(false);
+
+        CompletableFuture<JobServiceListModel> page = this.jobs
+            .getJobsAsync(null, null, null, 0, Long.MAX_VALUE, null).toCompletableFuture();
+
+        Assert.assertTrue(page.isDone());
+        verify(this.jobIndex, times(1)).loadAsync(any());
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void FirstListingWaitsForTheIndex() throws Exception {
+        when(this.jobIndex.isLoaded()).thenReturn(false);
+        when(this.jobIndex.isFresh()).thenReturn(false);
+
+        CompletableFuture<JobServiceListModel> page = this.jobs
+            .getJobsAsync(null, null, null, 0, Long.MAX_VALUE, null).toCompletableFuture();
+
+        Assert.assertFalse(page.isDone());
+        this.load.complete(null);
+        Assert.assertTrue(page.get().getItems().isEmpty());
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void FirstListingServesTheJobsReadWhenTheLoadTimesOut() throws Exception {
+        when(this.jobIndex.isLoaded()).thenReturn(false);
+        when(this.jobIndex.isFresh()).thenReturn(false);
+
+        CompletableFuture<JobServiceListModel> page = this.jobs
+            .getJobsAsync(null, null, null, 0, Long.MAX_VALUE, null).toCompletableFuture();
+
+        // The load is still running, the page comes from the jobs read so far
+        Assert.assertTrue(page.get().getItems().isEmpty());
+        Assert.assertFalse(this.load.isDone());
+        verify(this.jobIndex, times(1)).getPage(any(), any(), anyLong(), anyLong(), anyInt(), any());
+    }
+}
@@ -6,13 +6,18 @@ import com.microsoft.azure.iotsolutions.iothubmanager.services.external.ConfigSe
 import com.microsoft.azure.iotsolutions.iothubmanager.services.external.IConfigService;
 import com.microsoft.azure.iotsolutions.iothubmanager.services.models.*;
 import com.microsoft.azure.iotsolutions.iothubmanager.services.runtime.IServicesConfig;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.runtime.ServicesConfig;
 import com.microsoft.azure.iotsolutions.iothubmanager.webservice.runtime.Config;
 import com.microsoft.azure.sdk.iot.service.exceptions.IotHubTooManyRequestsException;
 import helpers.IntegrationTest;
 import org.junit.*;
 import org.junit.experimental.categories.Category;
+import play.api.inject.DefaultApplicationLifecycle;
+import play.inject.ApplicationLifecycle;
+import play.inject.DelegateApplicationLifecycle;
 import play.test.WSTestClient;
 
+import java.nio.file.Files;
 import java.time.Duration;
 import java.util.*;
 
@@ -22,6 +27,12 @@ public class JobsTest {
     private static IServicesConfig servicesConfig;
     private static IConfigService configService;
     private static IIoTHubWrapper ioTHubWrapper;
+    private static IIoTHubQueryClient queryClient;
+    private static ApplicationLifecycle lifecycle;
+    private static IIoTHubExecutors executors;
+    private static IDeviceQueryCache queryCache;
+    private static IDeviceGroups deviceGroups;
+    private static ICompletedJobCache completedJobs;
     private static IDevices deviceService;
     private static IJobs jobService;
     private static ArrayList<DeviceServiceModel> testDevices = new ArrayList<>();
@@ -38,10 +49,34 @@ public class JobsTest {
 
         config = new Config();
         servicesConfig = config.getServicesConfig();
-        configService = new ConfigService(servicesConfig, WSTestClient.newClient(9005));
-        ioTHubWrapper = new IoTHubWrapper(servicesConfig);
-        deviceService = new Devices(ioTHubWrapper, configService);
-        jobService = new Jobs(ioTHubWrapper, configService);
+        ((ServicesConfig) servicesConfig).setDeviceGroupFiltersOutboxPath(
+            Files.createTempDirectory("iothub-manager").resolve("config-service-outbox.dat").toString());
+        ((ServicesConfig) servicesConfig).setCompletedJobCacheSpillPath(
+            Files.createTempDirectory("iothub-manager").resolve("completed-jobs").toString());
+        lifecycle = new DelegateApplicationLifecycle(new DefaultApplicationLifecycle());
+        configService = new ConfigService(servicesConfig, WSTestClient.newClient(9005), lifecycle);
+        ioTHubWrapper = new IoTHubWrapper(servicesConfig, lifecycle);
+        queryClient = new IoTHubQueryClient(ioTHubWrapper, WSTestClient.newClient(9005));
+        executors = new IoTHubExecutors(servicesConfig, lifecycle);
+        queryCache = new DeviceQueryCache(servicesConfig);
+        completedJobs = new CompletedJobCache(servicesConfig, lifecycle);
+        IDeviceRegistryMirror mirror = new DeviceRegistryMirror(ioTHubWrapper, queryClient, servicesConfig, lifecycle);
+        IDeviceTwinIndex index = new DeviceTwinIndex(mirror);
+        deviceGroups = new DeviceGroups(mirror, index, queryClient, servicesConfig);
+        deviceService = new Devices(
+            ioTHubWrapper,
+            configService,
+            mirror,
+            index,
+            deviceGroups,
+            new DeviceCache(ioTHubWrapper, queryClient, servicesConfig),
+            queryCache,
+            new RequestCoalescer(),
+            queryClient,
+            new IoTHubRegistryClient(ioTHubWrapper, WSTestClient.newClient(9005)),
+            executors,
+            servicesConfig);
+        jobService = new Jobs(ioTHubWrapper, queryClient, configService, queryCache, deviceGroups, new JobIndex(servicesConfig), completedJobs, executors, servicesConfig);
 
         createTestDevices(2, batchId);
 
@@ -66,7 +101,7 @@ public class JobsTest {
         long from = 0;
         long to = new Date().getTime();
         List<JobServiceModel> jobs = jobService.getJobsAsync(
-            JobType.scheduleUpdateTwin, JobStatus.completed, 10, from, to).toCompletableFuture().get();
+            JobType.scheduleUpdateTwin, JobStatus.completed, 10, from, to, null).toCompletableFuture().get().getItems();
         if (jobs.size() > 0) {
             Assert.assertTrue(!jobs.get(0).getJobId().isEmpty());
             Assert.assertEquals(jobs.get(0).getJobType(), JobType.scheduleUpdateTwin);
@@ -74,14 +109,14 @@ public class JobsTest {
         }
 
         jobs = jobService.getJobsAsync(
-            JobType.scheduleDeviceMethod, JobStatus.completed, 10, from, to).toCompletableFuture().get();
+            JobType.scheduleDeviceMethod, JobStatus.completed, 10, from, to, null).toCompletableFuture().get().getItems();
         if (jobs.size() > 0) {
             Assert.assertTrue(!jobs.get(0).getJobId().isEmpty());
             Assert.assertEquals(jobs.get(0).getJobType(), JobType.scheduleDeviceMethod);
             Assert.assertEquals(jobs.get(0).getJobStatus(), JobStatus.completed);
         }
 
-        jobs = jobService.getJobsAsync(null, null, 10, from, to).toCompletableFuture().get();
+        jobs = jobService.getJobsAsync(null, null, 10, from, to, null).toCompletableFuture().get().getItems();
         if (jobs.size() > 0) {
             Assert.assertTrue(!jobs.get(0).getJobId().isEmpty());
             Assert.assertNotNull(jobs.get(0).getJobType());
@@ -100,7 +135,7 @@ public class JobsTest {
         }};
         DeviceTwinServiceModel twin = new DeviceTwinServiceModel("*", "", null, tags, true);
 
-        IJobs twinJobService = new Jobs(ioTHubWrapper, configService);
+        IJobs twinJobService = new Jobs(ioTHubWrapper, queryClient, configService, queryCache, deviceGroups, new JobIndex(servicesConfig), completedJobs, executors, servicesConfig);
         // retry scheduling job with back off time when throttled by IotHub
         for (int i = 1; i <= MAX_RETRIES; i++) {
             try {
@@ -125,7 +160,7 @@ public class JobsTest {
                     System.out.println(String.format("Warning: job scheduling is throttled and will be retried(%d) after 30s", i));
                     Thread.sleep(30000);
                     // reconnect to IotHub
-                    twinJobService = new Jobs(ioTHubWrapper, configService);
+                    twinJobService = new Jobs(ioTHubWrapper, queryClient, configService, queryCache, deviceGroups, new JobIndex(servicesConfig), completedJobs, executors, servicesConfig);
                     continue;
                 } else {
                     Assert.fail(String.format("failed to schedule twin job due to %s", e.getCause().getMessage()));
@@ -161,7 +196,7 @@ public class JobsTest {
                 Assert.assertEquals(parameter.getName(), newJob.getMethodParameter().getName());
                 Assert.assertEquals(parameter.getJsonPayload(), newJob.getMethodParameter().getJsonPayload());
 
-                List<JobServiceModel> jobs = jobService.getJobsAsync(JobType.scheduleDeviceMethod, JobStatus.completed, 10, Long.MIN_VALUE, Long.MAX_VALUE).toCompletableFuture().get();
+                List<JobServiceModel> jobs = jobService.getJobsAsync(JobType.scheduleDeviceMethod, JobStatus.completed, 10, Long.MIN_VALUE, Long.MAX_VALUE, null).toCompletableFuture().get().getItems();
                 if (jobs.size() > 0) {
                     Assert.assertEquals(JobType.scheduleDeviceMethod, jobs.get(0).getJobType());
                 }
@@ -171,7 +206,7 @@ public class JobsTest {
                     System.out.println(String.format("Warning: job scheduling is throttled and will be retried(%d) after 30s", i));
                     Thread.sleep(30000);
                     // reconnect to IotHub
-                    jobService = new Jobs(ioTHubWrapper, configService);
+                    jobService = new Jobs(ioTHubWrapper, queryClient, configService, queryCache, deviceGroups, new JobIndex(servicesConfig), completedJobs, executors, servicesConfig);
                     continue;
                 } else {
                     Assert.fail("failed to schedule method job");
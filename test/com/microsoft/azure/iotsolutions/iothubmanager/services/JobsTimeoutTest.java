@@ -0,0 +1,98 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.services;
+
+import com.microsoft.azure.iotsolutions.iothubmanager.services.exceptions.ExternalDependencyException;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.external.IConfigService;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.JobServiceModel;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.MethodParameterServiceModel;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.runtime.ExecutorConfig;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.runtime.ServicesConfig;
+import com.microsoft.azure.sdk.iot.service.jobs.JobClient;
+import com.microsoft.azure.sdk.iot.service.jobs.JobResult;
+import helpers.UnitTest;
+import org.junit.*;
+import org.junit.experimental.categories.Category;
+import play.inject.ApplicationLifecycle;
+
+import java.time.Duration;
+import java.util.Date;
+import java.util.concurrent.*;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class JobsTimeoutTest {
+
+    private JobClient jobClient;
+    private IJobs jobs;
+
+    @Before
+    public void setUp() throws Exception {
+        ServicesConfig config = new ServicesConfig("", "");
+        config.setJobsTimeout(Duration.ofMillis(200));
+        config.setJobsExecutorConfig(new ExecutorConfig(1, 10));
+
+        this.jobClient = mock(JobClient.class);
+        IIoTHubWrapper ioTHubWrapper = mock(IIoTHubWrapper.class);
+        when(ioTHubWrapper.getJobClient()).thenReturn(this.jobClient);
+
+        this.jobs = new Jobs(
+            ioTHubWrapper,
+            mock(IIoTHubQueryClient.class),
+            mock(IConfigService.class),
+            mock(IDeviceQueryCache.class),
+            mock(IDeviceGroups.class),
+            new JobIndex(config),
+            mock(ICompletedJobCache.class),
+            new IoTHubExecutors(config, mock(ApplicationLifecycle.class)),
+            config);
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void SlowCallsFailWithExternalDependencyErrorAndReleaseTheThread() throws Exception {
+        CountDownLatch interrupted = new CountDownLatch(1);
+        when(this.jobClient.getJob(anyString())).thenAnswer(invocation -> {
+            try {
+                Thread.sleep(60_000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+            return null;
+        });
+
+        try {
+            this.jobs.getJobAsync("job", false, null).toCompletableFuture().join();
+            Assert.fail();
+        } catch (CompletionException e) {
+            Assert.assertTrue(e.getCause() instanceof ExternalDependencyException);
+        }
+        Assert.assertTrue(interrupted.await(1, TimeUnit.SECONDS));
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void SlowSchedulingCallsAreNotTimedOut() throws Exception {
+        JobResult job = mock(JobResult.class);
+        when(job.getJobId()).thenReturn("job");
+        when(job.getJobType()).thenReturn(com.microsoft.azure.sdk.iot.service.jobs.JobType.scheduleDeviceMethod);
+        when(job.getJobStatus()).thenReturn(com.microsoft.azure.sdk.iot.service.jobs.JobStatus.queued);
+        when(this.jobClient.scheduleDeviceMethod(
+            anyString(), anyString(), anyString(), any(), any(), any(), any(), anyLong()))
+            .thenAnswer(invocation -> {
+                // IoT Hub created the job, but answers after the time limit
+                Thread.sleep(500);
+                return job;
+            });
+
+        MethodParameterServiceModel parameter = new MethodParameterServiceModel();
+        parameter.setName("reboot");
+        CompletableFuture<JobServiceModel> result = this.jobs.scheduleDeviceMethodAsync(
+            "job", "deviceId = 'device1'", parameter, new Date(), 60).toCompletableFuture();
+
+        Assert.assertEquals("job", result.get().getJobId());
+        verify(this.jobClient, times(1)).scheduleDeviceMethod(
+            anyString(), anyString(), anyString(), any(), any(), any(), any(), anyLong());
+    }
+}
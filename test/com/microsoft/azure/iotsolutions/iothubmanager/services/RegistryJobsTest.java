@@ -0,0 +1,148 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.services;
+
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.exceptions.*;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.external.IBlobContainerClient;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.*;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.runtime.ServicesConfig;
+import com.microsoft.azure.sdk.iot.service.JobProperties;
+import com.microsoft.azure.sdk.iot.service.RegistryManager;
+import helpers.UnitTest;
+import org.junit.*;
+import org.junit.experimental.categories.Category;
+
+import java.util.concurrent.*;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class RegistryJobsTest {
+
+    private static final String EXPORT_URI = "http://127.0.0.1:10000/devstoreaccount1/export?sig=export";
+    private static final String IMPORT_URI = "http://127.0.0.1:10000/devstoreaccount1/import?sig=import";
+
+    private RegistryManager registry;
+    private IBlobContainerClient blobClient;
+    private ServicesConfig config;
+
+    @Before
+    public void setUp() {
+        this.registry = mock(RegistryManager.class);
+        this.blobClient = mock(IBlobContainerClient.class);
+        this.config = new ServicesConfig("", "");
+        this.config.setRegistryExportContainerUri(EXPORT_URI);
+        this.config.setRegistryImportContainerUri(IMPORT_URI);
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void ExportReportsTheJobProgress() throws Exception {
+        JobProperties job = mockJob(JobProperties.JobType.EXPORT, JobProperties.JobStatus.RUNNING, 42);
+        when(this.registry.exportDevices(EXPORT_URI, true)).thenReturn(job);
+
+        JobServiceModel result = this.createRegistryJobs().exportAsync(true).toCompletableFuture().get();
+
+        Assert.assertEquals("job1", result.getJobId());
+        Assert.assertEquals(JobType.exportDevices, result.getJobType());
+        Assert.assertEquals(JobStatus.running, result.getJobStatus());
+        Assert.assertEquals("Progress: 42%", result.getStatusMessage());
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void ImportUploadsTheDevicesBeforeStartingTheJob() throws Exception {
+        Source<ByteString, ?> devices = Source.single(ByteString.fromString("{\"id\":\"device1\"}\n"));
+        when(this.blobClient.uploadAsync(IMPORT_URI, "devices.txt", devices))
+            .thenReturn(CompletableFuture.completedFuture(null));
+        JobProperties job = mockJob(JobProperties.JobType.IMPORT, JobProperties.JobStatus.ENQUEUED, 0);
+        when(this.registry.importDevices(IMPORT_URI, IMPORT_URI)).thenReturn(job);
+
+        JobServiceModel result = this.createRegistryJobs().importAsync(devices).toCompletableFuture().get();
+
+        Assert.assertEquals(JobType.importDevices, result.getJobType());
+        Assert.assertEquals(JobStatus.enqueued, result.getJobStatus());
+        verify(this.blobClient).uploadAsync(IMPORT_URI, "devices.txt", devices);
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void ExportedDevicesRequireACompletedJob() throws Exception {
+        JobProperties job = mockJob(JobProperties.JobType.EXPORT, JobProperties.JobStatus.RUNNING, 42);
+        when(this.registry.getJob("job1")).thenReturn(job);
+
+        try {
+            this.createRegistryJobs().getExportedDevicesAsync("job1").toCompletableFuture().get();
+            Assert.fail("The devices of a running export must not be returned");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof ConflictingResourceException);
+        }
+        verify(this.blobClient, never()).downloadAsync(anyString(), anyString());
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void ExportedDevicesAreStreamedFromTheContainer() throws Exception {
+        JobProperties job = mockJob(JobProperties.JobType.EXPORT, JobProperties.JobStatus.COMPLETED, 100);
+        when(this.registry.exportDevices(EXPORT_URI, true)).thenReturn(job);
+        when(this.registry.getJob("job1")).thenReturn(job);
+        Source<ByteString, ?> devices = Source.single(ByteString.fromString("{\"id\":\"device1\"}\n"));
+        when(this.blobClient.downloadAsync(EXPORT_URI, "devices.txt"))
+            .thenReturn(CompletableFuture.completedFuture(devices));
+        IRegistryJobs registryJobs = this.createRegistryJobs();
+        registryJobs.exportAsync(true).toCompletableFuture().get();
+
+        Source<ByteString, ?> result = registryJobs.getExportedDevicesAsync("job1").toCompletableFuture().get();
+
+        Assert.assertSame(devices, result);
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void OnlyTheLatestExportIsAvailable() throws Exception {
+        JobProperties first = mockJob(JobProperties.JobType.EXPORT, JobProperties.JobStatus.COMPLETED, 100);
+        JobProperties second = mockJob(JobProperties.JobType.EXPORT, JobProperties.JobStatus.RUNNING, 10);
+        when(second.getJobId()).thenReturn("job2");
+        when(this.registry.exportDevices(EXPORT_URI, true)).thenReturn(first, second);
+        when(this.registry.getJob("job1")).thenReturn(first);
+        IRegistryJobs registryJobs = this.createRegistryJobs();
+        registryJobs.exportAsync(true).toCompletableFuture().get();
+        registryJobs.exportAsync(true).toCompletableFuture().get();
+
+        try {
+            registryJobs.getExportedDevicesAsync("job1").toCompletableFuture().get();
+            Assert.fail("The devices of job1 were overwritten by job2");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof ResourceNotFoundException);
+        }
+        verify(this.blobClient, never()).downloadAsync(anyString(), anyString());
+    }
+
+    @Test(expected = InvalidConfigurationException.class)
+    @Category({UnitTest.class})
+    public void ExportRequiresAContainer() throws Exception {
+        this.config.setRegistryExportContainerUri(null);
+
+        this.createRegistryJobs().exportAsync(true);
+    }
+
+    private IRegistryJobs createRegistryJobs() throws Exception {
+        IIoTHubWrapper ioTHubWrapper = mock(IIoTHubWrapper.class);
+        when(ioTHubWrapper.getRegistryManagerClient()).thenReturn(this.registry);
+        IIoTHubExecutors executors = mock(IIoTHubExecutors.class);
+        when(executors.getJobsExecutor()).thenReturn(ForkJoinPool.commonPool());
+
+        return new RegistryJobs(ioTHubWrapper, this.blobClient, executors, this.config);
+    }
+
+    private static JobProperties mockJob(JobProperties.JobType type, JobProperties.JobStatus status, int progress) {
+        JobProperties job = mock(JobProperties.class);
+        when(job.getJobId()).thenReturn("job1");
+        when(job.getType()).thenReturn(type);
+        when(job.getStatus()).thenReturn(status);
+        when(job.getProgress()).thenReturn(progress);
+        return job;
+    }
+}
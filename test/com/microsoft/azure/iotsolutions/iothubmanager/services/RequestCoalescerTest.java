@@ -0,0 +1,87 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.services;
+
+import helpers.UnitTest;
+import org.junit.*;
+import org.junit.experimental.categories.Category;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RequestCoalescerTest {
+
+    private IRequestCoalescer coalescer;
+    private AtomicInteger calls;
+
+    @Before
+    public void setUp() {
+        this.coalescer = new RequestCoalescer();
+        this.calls = new AtomicInteger(0);
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void ConcurrentIdenticalRequestsShareOneCall() throws Exception {
+        CompletableFuture<String> hub = new CompletableFuture<>();
+
+        CompletionStage<String> first = this.coalescer.coalesce("device:1", () -> this.call(hub));
+        CompletionStage<String> second = this.coalescer.coalesce("device:1", () -> this.call(hub));
+        hub.complete("result");
+
+        Assert.assertEquals("result", first.toCompletableFuture().get());
+        Assert.assertEquals("result", second.toCompletableFuture().get());
+        Assert.assertEquals(1, this.calls.get());
+        Assert.assertEquals(1, this.coalescer.getCoalescedCount());
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void DifferentKeysAreNotShared() throws Exception {
+        CompletableFuture<String> hub = new CompletableFuture<>();
+
+        this.coalescer.coalesce("device:1", () -> this.call(hub));
+        this.coalescer.coalesce("device:2", () -> this.call(hub));
+        hub.complete("result");
+
+        Assert.assertEquals(2, this.calls.get());
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void CompletedCallsAreNotReused() throws Exception {
+        this.coalescer.coalesce("device:1", () -> this.call(CompletableFuture.completedFuture("first")))
+            .toCompletableFuture().get();
+        String result = this.coalescer.coalesce("device:1", () -> this.call(CompletableFuture.completedFuture("second")))
+            .toCompletableFuture().get();
+
+        Assert.assertEquals("second", result);
+        Assert.assertEquals(2, this.calls.get());
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void FailuresAreSharedAndNotReused() throws Exception {
+        CompletableFuture<String> hub = new CompletableFuture<>();
+        CompletionStage<String> first = this.coalescer.coalesce("device:1", () -> this.call(hub));
+        CompletionStage<String> second = this.coalescer.coalesce("device:1", () -> this.call(hub));
+        hub.completeExceptionally(new IllegalStateException("hub error"));
+
+        for (CompletionStage<String> request : new CompletionStage[]{first, second}) {
+            try {
+                request.toCompletableFuture().get();
+                Assert.fail("The request should have failed");
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+        }
+
+        this.coalescer.coalesce("device:1", () -> this.call(CompletableFuture.completedFuture("retry")));
+        Assert.assertEquals(2, this.calls.get());
+    }
+
+    private CompletionStage<String> call(CompletableFuture<String> result) {
+        this.calls.incrementAndGet();
+        return result;
+    }
+}
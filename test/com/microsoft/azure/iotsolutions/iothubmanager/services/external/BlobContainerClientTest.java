@@ -0,0 +1,141 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.services.external;
+
+import akka.actor.ActorSystem;
+import akka.stream.ActorMaterializer;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.exceptions.ResourceNotFoundException;
+import helpers.BlobStorageEmulator;
+import helpers.UnitTest;
+import org.junit.*;
+import org.junit.experimental.categories.Category;
+import play.libs.ws.WSClient;
+import play.test.WSTestClient;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+
+public class BlobContainerClientTest {
+
+    private static final int MB = 1024 * 1024;
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private BlobStorageEmulator emulator;
+    private WSClient wsClient;
+    private ActorSystem system;
+    private ActorMaterializer materializer;
+    private IBlobContainerClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        this.emulator = new BlobStorageEmulator("devstoreaccount1/export");
+        this.wsClient = WSTestClient.newClient(this.emulator.getPort());
+        this.system = ActorSystem.create();
+        this.materializer = ActorMaterializer.create(this.system);
+        this.client = new BlobContainerClient(this.wsClient, this.materializer);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.wsClient.close();
+        this.system.terminate();
+        this.emulator.close();
+    }
+
+    @Test(timeout = 10000)
+    @Category({UnitTest.class})
+    public void LargeBlobsAreUploadedInBlocksOf4MB() throws Exception {
+        this.client.uploadAsync(this.emulator.getContainerUri(), "devices.txt", createContent(9 * MB))
+            .toCompletableFuture().get();
+
+        Assert.assertEquals(Arrays.asList(4 * MB, 4 * MB, MB), this.emulator.getBlockSizes());
+        Assert.assertArrayEquals(createBytes(9 * MB), this.emulator.getBlob("devices.txt"));
+    }
+
+    @Test(timeout = 10000)
+    @Category({UnitTest.class})
+    public void BlobsEndingOnABlockBoundaryHaveNoEmptyBlock() throws Exception {
+        this.client.uploadAsync(this.emulator.getContainerUri(), "devices.txt", createContent(8 * MB))
+            .toCompletableFuture().get();
+
+        Assert.assertEquals(Arrays.asList(4 * MB, 4 * MB), this.emulator.getBlockSizes());
+        Assert.assertArrayEquals(createBytes(8 * MB), this.emulator.getBlob("devices.txt"));
+    }
+
+    @Test(timeout = 10000)
+    @Category({UnitTest.class})
+    public void EmptyContentIsCommittedAsAnEmptyBlob() throws Exception {
+        this.client.uploadAsync(this.emulator.getContainerUri(), "devices.txt", Source.empty())
+            .toCompletableFuture().get();
+
+        Assert.assertTrue(this.emulator.getBlockSizes().isEmpty());
+        Assert.assertEquals(0, this.emulator.getBlob("devices.txt").length);
+    }
+
+    @Test(timeout = 10000)
+    @Category({UnitTest.class})
+    public void BlobsAreDownloadedAsAStream() throws Exception {
+        byte[] content = createBytes(5 * MB + 3);
+        this.emulator.putBlob("devices.txt", content);
+
+        ByteString downloaded = this.client.downloadAsync(this.emulator.getContainerUri(), "devices.txt")
+            .thenCompose(source -> source.runWith(
+                Sink.fold(ByteString.empty(), ByteString::concat), this.materializer))
+            .toCompletableFuture().get();
+
+        Assert.assertArrayEquals(content, downloaded.toArray());
+    }
+
+    @Test(timeout = 10000)
+    @Category({UnitTest.class})
+    public void MissingBlobsAreNotFound() throws Exception {
+        try {
+            this.client.downloadAsync(this.emulator.getContainerUri(), "missing.txt").toCompletableFuture().get();
+            Assert.fail("The download should have failed");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof ResourceNotFoundException);
+        }
+    }
+
+    @Test
+    @Category({UnitTest.class})
+    public void BlobUriKeepsTheContainerSasToken() {
+        Assert.assertEquals(
+            "http://127.0.0.1:10000/devstoreaccount1/export/devices.txt?sv=2017-04-17&sig=abc",
+            BlobContainerClient.getBlobUri(
+                "http://127.0.0.1:10000/devstoreaccount1/export?sv=2017-04-17&sig=abc", "devices.txt"));
+        Assert.assertEquals(
+            "https://account.blob.core.windows.net/export/devices.txt?sig=abc",
+            BlobContainerClient.getBlobUri(
+                "https://account.blob.core.windows.net/export/?sig=abc", "devices.txt"));
+    }
+
+    @Test
+    @Category({UnitTest.class})
+    public void BlobUriWithoutSasTokenHasAnEmptyQuery() {
+        Assert.assertEquals(
+            "http://127.0.0.1:10000/devstoreaccount1/export/devices.txt?",
+            BlobContainerClient.getBlobUri("http://127.0.0.1:10000/devstoreaccount1/export", "devices.txt"));
+    }
+
+    /**
+     * The content is streamed in small chunks, as read from the registry
+     */
+    private static Source<ByteString, ?> createContent(final int size) {
+        byte[] bytes = createBytes(size);
+        return Source.range(0, (size - 1) / CHUNK_SIZE)
+            .map(chunk -> ByteString.fromArray(
+                bytes, chunk * CHUNK_SIZE, Math.min(CHUNK_SIZE, size - chunk * CHUNK_SIZE)));
+    }
+
+    private static byte[] createBytes(final int size) {
+        byte[] bytes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            bytes[i] = (byte) (i % 251);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,168 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.services.external;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.DeviceTwinProperties;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.DeviceTwinServiceModel;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.OutboxStatsServiceModel;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.runtime.ServicesConfig;
+import helpers.ConfigServiceEmulator;
+import helpers.UnitTest;
+import org.junit.*;
+import org.junit.experimental.categories.Category;
+import org.mockito.ArgumentCaptor;
+import play.inject.ApplicationLifecycle;
+import play.libs.ws.WSClient;
+import play.test.WSTestClient;
+
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionStage;
+
+import static org.mockito.Mockito.*;
+
+public class ConfigServiceTest {
+
+    private ConfigServiceEmulator emulator;
+    private WSClient wsClient;
+    private ServicesConfig config;
+    private ApplicationLifecycle lifecycle;
+    private IConfigService configService;
+
+    @Before
+    public void setUp() throws Exception {
+        this.emulator = new ConfigServiceEmulator();
+        this.wsClient = WSTestClient.newClient(this.emulator.getPort());
+
+        this.config = new ServicesConfig("", this.emulator.getUrl());
+        this.config.setDeviceGroupFiltersWindow(Duration.ofMillis(200));
+        this.config.setDeviceGroupFiltersMinRetryDelay(Duration.ofMillis(50));
+        this.config.setDeviceGroupFiltersMaxRetryDelay(Duration.ofMillis(200));
+        this.config.setDeviceGroupFiltersOutboxPath(
+            Files.createTempDirectory("config-service").resolve("outbox.dat").toString());
+        this.configService = this.createConfigService();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.stopConfigService();
+        this.wsClient.close();
+        this.emulator.close();
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void UpdatesWithinTheWindowAreSentTogether() throws Exception {
+        this.configService.updateDeviceGroupFiltersAsync(this.createTwin("building", "temperature"));
+        this.configService.updateDeviceGroupFiltersAsync(this.createTwin("floor", "temperature"))
+            .toCompletableFuture().join();
+
+        List<JsonNode> filters = this.awaitFilters(1);
+        Assert.assertEquals(this.asSet("building", "floor"), this.asSet(filters.get(0).get("Tags")));
+        Assert.assertEquals(this.asSet("temperature"), this.asSet(filters.get(0).get("Reported")));
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void NamesAlreadySentAreNotSentAgain() throws Exception {
+        this.configService.updateDeviceGroupFiltersAsync(this.createTwin("building", "temperature"))
+            .toCompletableFuture().join();
+        this.awaitFilters(1);
+
+        CompletionStage result = this.configService.updateDeviceGroupFiltersAsync(
+            this.createTwin("building", "temperature"));
+        Assert.assertTrue(result.toCompletableFuture().isDone());
+
+        this.configService.updateDeviceGroupFiltersAsync(this.createTwin("building", "humidity"))
+            .toCompletableFuture().join();
+        List<JsonNode> filters = this.awaitFilters(2);
+        Assert.assertEquals(this.asSet(), this.asSet(filters.get(1).get("Tags")));
+        Assert.assertEquals(this.asSet("humidity"), this.asSet(filters.get(1).get("Reported")));
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void FailedRequestsAreRetriedFromTheOutbox() throws Exception {
+        this.emulator.setStatus(503);
+        this.configService.updateDeviceGroupFiltersAsync(this.createTwin("building", "temperature"))
+            .toCompletableFuture().join();
+        while (this.configService.getOutboxStats().getFailureCount() < 2) {
+            Thread.sleep(10);
+        }
+
+        OutboxStatsServiceModel stats = this.configService.getOutboxStats();
+        Assert.assertEquals(1, stats.getBacklogSize());
+        Assert.assertTrue(stats.getBacklogBytes() > 0);
+        Assert.assertTrue(stats.getDrainLagMillis() >= 0);
+        Assert.assertTrue(this.emulator.getFilters().isEmpty());
+
+        this.emulator.setStatus(200);
+        JsonNode filters = this.awaitFilters(1).get(0);
+        Assert.assertEquals(this.asSet("building"), this.asSet(filters.get("Tags")));
+        Assert.assertEquals(this.asSet("temperature"), this.asSet(filters.get("Reported")));
+
+        while (this.configService.getOutboxStats().getBacklogSize() > 0) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(0, this.configService.getOutboxStats().getDrainLagMillis());
+        Assert.assertEquals(0, this.configService.getOutboxStats().getFailureCount());
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void NamesNotSentBeforeARestartAreSentAfterIt() throws Exception {
+        this.emulator.setStatus(503);
+        this.configService.updateDeviceGroupFiltersAsync(this.createTwin("building", "temperature"))
+            .toCompletableFuture().join();
+        this.stopConfigService();
+
+        this.emulator.setStatus(200);
+        this.configService = this.createConfigService();
+
+        JsonNode filters = this.awaitFilters(1).get(0);
+        Assert.assertEquals(this.asSet("building"), this.asSet(filters.get("Tags")));
+        Assert.assertEquals(this.asSet("temperature"), this.asSet(filters.get("Reported")));
+    }
+
+    private IConfigService createConfigService() {
+        this.lifecycle = mock(ApplicationLifecycle.class);
+        return new ConfigService(this.config, this.wsClient, this.lifecycle);
+    }
+
+    private void stopConfigService() throws Exception {
+        ArgumentCaptor<Callable> stopHook = ArgumentCaptor.forClass(Callable.class);
+        verify(this.lifecycle, atLeastOnce()).addStopHook(stopHook.capture());
+        stopHook.getValue().call();
+        reset(this.lifecycle);
+    }
+
+    private List<JsonNode> awaitFilters(int count) throws InterruptedException {
+        while (this.emulator.getFilters().size() < count) {
+            Thread.sleep(10);
+        }
+
+        return this.emulator.getFilters();
+    }
+
+    private DeviceTwinServiceModel createTwin(String tag, String reported) {
+        HashMap<String, Object> tags = new HashMap<>();
+        tags.put(tag, "value");
+        HashMap<String, Object> reportedProperties = new HashMap<>();
+        reportedProperties.put(reported, 1);
+        return new DeviceTwinServiceModel(
+            "etag", "device", new DeviceTwinProperties(null, reportedProperties), tags, false);
+    }
+
+    private Set<String> asSet(String... names) {
+        return new HashSet<>(Arrays.asList(names));
+    }
+
+    private Set<String> asSet(JsonNode names) {
+        Set<String> set = new HashSet<>();
+        names.forEach(name -> set.add(name.asText()));
+        return set;
+    }
+}
@@ -0,0 +1,130 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.services.helpers;
+
+import helpers.UnitTest;
+import org.junit.*;
+import org.junit.experimental.categories.Category;
+
+import java.time.Duration;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class AsyncHelperTest {
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        this.executor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        this.executor.shutdownNow();
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void ErrorsOfTheCallAreUnwrapped() {
+        IllegalStateException error = new IllegalStateException();
+        CompletableFuture<Object> result = AsyncHelper.supplyAsync(() -> {
+            throw new CompletionException(error);
+        }, this.executor);
+
+        try {
+            result.join();
+            Assert.fail();
+        } catch (CompletionException e) {
+            Assert.assertSame(error, e.getCause());
+        }
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void CallsRunningPastTheTimeoutAreInterrupted() throws Exception {
+        CountDownLatch interrupted = new CountDownLatch(1);
+        CompletableFuture<Object> result = AsyncHelper.supplyAsync(() -> {
+            try {
+                Thread.sleep(60_000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+            return null;
+        }, this.executor);
+
+        TimeoutException timeout = new TimeoutException();
+        AsyncHelper.withTimeout(result, Duration.ofMillis(100), () -> timeout);
+
+        try {
+            result.join();
+            Assert.fail();
+        } catch (CompletionException e) {
+            Assert.assertSame(timeout, e.getCause());
+        }
+        Assert.assertTrue(interrupted.await(1, TimeUnit.SECONDS));
+
+        // The thread is not interrupted anymore when it runs the next call
+        Assert.assertFalse(AsyncHelper.supplyAsync(() -> Thread.currentThread().isInterrupted(), this.executor).join());
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void CancelledCallsAreSkipped() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Object> first = AsyncHelper.supplyAsync(() -> {
+            release.await();
+            return null;
+        }, this.executor);
+
+        AtomicBoolean ran = new AtomicBoolean(false);
+        CompletableFuture<Object> second = AsyncHelper.supplyAsync(() -> {
+            ran.set(true);
+            return null;
+        }, this.executor);
+
+        second.cancel(true);
+        release.countDown();
+        first.join();
+        AsyncHelper.supplyAsync(() -> null, this.executor).join();
+
+        Assert.assertFalse(ran.get());
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void CallsStartedBeforeTheStartTimeoutAreNotTimedOut() throws Exception {
+        CompletableFuture<Object> result = AsyncHelper.supplyAsync(() -> {
+            Thread.sleep(300);
+            return "done";
+        }, this.executor, Duration.ofMillis(100), TimeoutException::new);
+
+        Assert.assertEquals("done", result.get());
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void CallsQueuedPastTheStartTimeoutAreSkipped() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AsyncHelper.supplyAsync(() -> {
+            release.await();
+            return null;
+        }, this.executor);
+
+        AtomicBoolean ran = new AtomicBoolean(false);
+        CompletableFuture<Object> result = AsyncHelper.supplyAsync(() -> {
+            ran.set(true);
+            return null;
+        }, this.executor, Duration.ofMillis(100), TimeoutException::new);
+
+        try {
+            result.join();
+            Assert.fail();
+        } catch (CompletionException e) {
+            Assert.assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        release.countDown();
+        AsyncHelper.supplyAsync(() -> null, this.executor).join();
+        Assert.assertFalse(ran.get());
+    }
+}
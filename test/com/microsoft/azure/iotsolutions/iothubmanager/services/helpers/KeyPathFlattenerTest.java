@@ -0,0 +1,78 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.services.helpers;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.gson.internal.LinkedTreeMap;
+import helpers.UnitTest;
+import org.junit.*;
+import org.junit.experimental.categories.Category;
+import play.libs.Json;
+
+import java.util.*;
+
+public class KeyPathFlattenerTest {
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void JsonDocumentsAreFlattenedLikeMaps() {
+        LinkedTreeMap<String, Object> telemetry = new LinkedTreeMap<>();
+        telemetry.put("Interval", 10);
+        telemetry.put("Unit", "s");
+        HashMap<String, Object> map = new HashMap<>();
+        map.put("Firmware", "1.0.0");
+        map.put("Online", true);
+        map.put("Telemetry", telemetry);
+        map.put("Empty", new HashMap<>());
+        map.put("Missing", null);
+        map.put("List", Arrays.asList(1, 2));
+
+        JsonNode json = Json.parse("{ \"Firmware\": \"1.0.0\", \"Online\": true, "
+            + "\"Telemetry\": { \"Interval\": 10, \"Unit\": \"s\" }, "
+            + "\"Empty\": {}, \"Missing\": null, \"List\": [1, 2] }");
+
+        Map<String, Object> fromMap = new HashMap<>();
+        KeyPathFlattener.forEachValue("Reported", map, fromMap::put);
+        Map<String, Object> fromJson = new HashMap<>();
+        KeyPathFlattener.forEachValue("Reported", json, fromJson::put);
+
+        Assert.assertEquals(4, fromMap.size());
+        Assert.assertEquals("1.0.0", fromMap.get("Reported.Firmware"));
+        Assert.assertEquals(true, fromMap.get("Reported.Online"));
+        Assert.assertEquals(10, fromMap.get("Reported.Telemetry.Interval"));
+        Assert.assertEquals("s", fromMap.get("Reported.Telemetry.Unit"));
+        Assert.assertEquals(fromMap, fromJson);
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void PathsAreSharedByTheTwins() {
+        List<String> first = new ArrayList<>();
+        KeyPathFlattener.collectPaths("", Json.parse("{ \"a\": { \"b\": 1 } }"), first);
+        List<String> second = new ArrayList<>();
+        KeyPathFlattener.collectPaths("", Json.parse("{ \"a\": { \"b\": 2 } }"), second);
+
+        Assert.assertEquals(Collections.singletonList("a.b"), first);
+        Assert.assertSame(first.get(0), second.get(0));
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void DeepDocumentsDoNotOverflowTheStack() {
+        ObjectNode root = Json.newObject();
+        ObjectNode node = root;
+        for (int i = 0; i < 10_000; i++) {
+            ObjectNode child = Json.newObject();
+            node.set("n", child);
+            node = child;
+        }
+        node.put("leaf", 1);
+
+        List<String> paths = new ArrayList<>();
+        KeyPathFlattener.collectPaths("", root, paths);
+
+        Assert.assertEquals(1, paths.size());
+        Assert.assertTrue(paths.get(0).endsWith("n.n.leaf"));
+    }
+}
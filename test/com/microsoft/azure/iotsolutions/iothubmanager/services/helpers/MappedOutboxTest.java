@@ -0,0 +1,118 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.services.helpers;
+
+import helpers.UnitTest;
+import org.junit.*;
+import org.junit.experimental.categories.Category;
+
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+public class MappedOutboxTest {
+
+    private Path path;
+
+    @Before
+    public void setUp() throws Exception {
+        this.path = Files.createTempDirectory("outbox").resolve("outbox.dat");
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void MessagesSurviveReopening() throws Exception {
+        try (MappedOutbox outbox = new MappedOutbox(this.path, 1024)) {
+            outbox.append(bytes("first"));
+            outbox.append(bytes("second"));
+        }
+
+        try (MappedOutbox outbox = new MappedOutbox(this.path, 1024)) {
+            List<MappedOutbox.Message> messages = outbox.peek(10);
+            Assert.assertEquals(2, messages.size());
+            Assert.assertEquals("first", text(messages.get(0)));
+            Assert.assertEquals("second", text(messages.get(1)));
+            Assert.assertTrue(outbox.getOldestTimestamp() > 0);
+        }
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void AcknowledgedMessagesAreRemoved() throws Exception {
+        try (MappedOutbox outbox = new MappedOutbox(this.path, 1024)) {
+            outbox.append(bytes("first"));
+            outbox.append(bytes("second"));
+            outbox.append(bytes("third"));
+
+            List<MappedOutbox.Message> messages = outbox.peek(2);
+            outbox.acknowledge(messages.get(1));
+            Assert.assertEquals(1, outbox.size());
+        }
+
+        try (MappedOutbox outbox = new MappedOutbox(this.path, 1024)) {
+            List<MappedOutbox.Message> messages = outbox.peek(10);
+            Assert.assertEquals(1, messages.size());
+            Assert.assertEquals("third", text(messages.get(0)));
+
+            outbox.acknowledge(messages.get(0));
+            Assert.assertEquals(0, outbox.size());
+            Assert.assertEquals(0, outbox.sizeInBytes());
+            Assert.assertEquals(0, outbox.getOldestTimestamp());
+        }
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void AcknowledgedSpaceIsReused() throws Exception {
+        try (MappedOutbox outbox = new MappedOutbox(this.path, 256)) {
+            // Keep one message behind, so that the log is never reset
+            outbox.append(bytes("message-0"));
+            for (int i = 1; i < 1000; i++) {
+                outbox.append(bytes("message-" + i));
+                outbox.acknowledge(outbox.peek(1).get(0));
+            }
+
+            List<MappedOutbox.Message> messages = outbox.peek(10);
+            Assert.assertEquals(1, messages.size());
+            Assert.assertEquals("message-999", text(messages.get(0)));
+        }
+
+        Assert.assertEquals(256, Files.size(this.path));
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void CorruptedMessagesAreDropped() throws Exception {
+        try (MappedOutbox outbox = new MappedOutbox(this.path, 1024)) {
+            outbox.append(bytes("first"));
+            outbox.append(bytes("second"));
+        }
+
+        // Simulate a crash while the second message was written
+        try (RandomAccessFile file = new RandomAccessFile(this.path.toFile(), "rw")) {
+            byte[] content = new byte[(int) file.length()];
+            file.readFully(content);
+            int offset = new String(content, StandardCharsets.ISO_8859_1).indexOf("second");
+            file.seek(offset);
+            file.write('S');
+        }
+
+        try (MappedOutbox outbox = new MappedOutbox(this.path, 1024)) {
+            outbox.append(bytes("third"));
+            List<MappedOutbox.Message> messages = outbox.peek(10);
+            Assert.assertEquals(2, messages.size());
+            Assert.assertEquals("first", text(messages.get(0)));
+            Assert.assertEquals("third", text(messages.get(1)));
+        }
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String text(MappedOutbox.Message message) {
+        return new String(message.getPayload(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,211 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.services.helpers;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.microsoft.azure.iotsolutions.iothubmanager.services.models.DeviceTwinServiceModel;
+import helpers.UnitTest;
+import org.junit.*;
+import org.junit.experimental.categories.Category;
+import play.libs.Json;
+
+import java.util.*;
+
+public class QueryConditionEvaluatorTest {
+
+    private static final List<DeviceTwinServiceModel> TWINS = Arrays.asList(
+        twin("{ 'deviceId': 'chiller-01', 'tags': { 'building': 43, 'floor': '2', 'location': { 'city': 'Redmond' } },"
+            + " 'properties': { 'reported': { 'type': 'Chiller', 'firmware': '1.0.10', 'online': true },"
+            + " 'desired': { 'interval': 10 } } }"),
+        twin("{ 'deviceId': 'chiller-02', 'tags': { 'building': 43.5, 'floor': 2, 'owner': \"O'Brien\" },"
+            + " 'properties': { 'reported': { 'type': 'chiller', 'firmware': '1.0.9', 'online': false },"
+            + " 'desired': { 'interval': '10' } } }"),
+        twin("{ 'deviceId': 'elevator-01', 'tags': { 'building': '43', 'location': { 'city': 'Seattle' } },"
+            + " 'properties': { 'reported': { 'type': 'Elevator', 'online': true }, 'desired': {} } }"),
+        twin("{ 'deviceId': 'truck-01', 'tags': {}, 'properties': { 'reported': {}, 'desired': {} } }"));
+
+    private static final List<String> CONDITIONS = Arrays.asList(
+        "[{ 'Key': 'tags.building', 'Operator': 'EQ', 'Value': 43 }]",
+        "[{ 'Key': 'tags.building', 'Operator': 'EQ', 'Value': '43' }]",
+        "[{ 'Key': 'Tags.building', 'Operator': 'NE', 'Value': 43 }]",
+        "[{ 'Key': 'tags.building', 'Operator': 'GT', 'Value': 43 }]",
+        "[{ 'Key': 'tags.building', 'Operator': 'LE', 'Value': 43.5 }]",
+        "[{ 'Key': 'tags.floor', 'Operator': 'IN', 'Value': [2, '3'] }]",
+        "[{ 'Key': 'tags.owner', 'Operator': 'EQ', 'Value': \"O'Brien\" }]",
+        "[{ 'Key': 'tags.location.city', 'Operator': 'LT', 'Value': 'S' }]",
+        "[{ 'Key': 'tags.location', 'Operator': 'NE', 'Value': 'Redmond' }]",
+        "[{ 'Key': 'properties.reported.type', 'Operator': 'IN', 'Value': ['Chiller', 'Elevator'] }]",
+        "[{ 'Key': 'Properties.Reported.firmware', 'Operator': 'GE', 'Value': '1.0.2' }]",
+        "[{ 'Key': 'properties.reported.online', 'Operator': 'EQ', 'Value': true },"
+            + " { 'Key': 'properties.desired.interval', 'Operator': 'LT', 'Value': 20 }]",
+        "[{ 'Key': 'properties.reported.online', 'Operator': 'GT', 'Value': false }]",
+        "[{ 'Key': 'deviceId', 'Operator': 'IN', 'Value': ['chiller-02', 'truck-01'] }]",
+        "[]");
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void MatchesTheQueriesSentToIoTHub() throws Exception {
+        for (String conditions : CONDITIONS) {
+            String json = conditions.replace('\'', '"').replace("O\"Brien", "O'Brien");
+            List<QueryConditionClause> clauses = QueryConditionTranslator.parse(json);
+            String query = QueryConditionTranslator.ToQueryString(json);
+            Assert.assertTrue(conditions, QueryConditionEvaluator.isSupported(clauses));
+
+            for (DeviceTwinServiceModel twin : TWINS) {
+                Assert.assertEquals(
+                    String.format("%s on %s", query, twin.getDeviceId()),
+                    new HubQuery(query).matches(toDocument(twin)),
+                    QueryConditionEvaluator.matches(clauses, twin));
+            }
+        }
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void RegistryFieldsAndNullsAreNotSupported() throws Exception {
+        Assert.assertFalse(QueryConditionEvaluator.isSupported(QueryConditionTranslator.parse(
+            "[{ \"Key\": \"status\", \"Operator\": \"EQ\", \"Value\": \"enabled\" }]")));
+        Assert.assertFalse(QueryConditionEvaluator.isSupported(QueryConditionTranslator.parse(
+            "[{ \"Key\": \"tags.building\", \"Operator\": \"EQ\", \"Value\": null }]")));
+        Assert.assertFalse(QueryConditionEvaluator.isSupported(QueryConditionTranslator.parse(
+            "[{ \"Key\": \"tags.building\", \"Operator\": \"IN\", \"Value\": [43, null] }]")));
+    }
+
+    private static DeviceTwinServiceModel twin(String json) {
+        return new DeviceTwinServiceModel(Json.parse(json.replace('\'', '"').replace("O\"Brien", "O'Brien")));
+    }
+
+    private static JsonNode toDocument(DeviceTwinServiceModel twin) {
+        ObjectNode document = Json.newObject().put("deviceId", twin.getDeviceId());
+        document.set("tags", Json.toJson(twin.getTags()));
+        ObjectNode properties = document.putObject("properties");
+        properties.set("desired", Json.toJson(twin.getProperties().getDesired()));
+        properties.set("reported", Json.toJson(twin.getProperties().getReported()));
+        return document;
+    }
+
+    /**
+     * Reference implementation of the subset of the IoT Hub query language
+     * rendered by the translator: `path op value` clauses joined by `and`,
+     * where comparing values of different types is undefined, i.e. false.
+     */
+    private static final class HubQuery {
+
+        private final String query;
+        private int position;
+
+        HubQuery(String query) {
+            this.query = query;
+        }
+
+        boolean matches(JsonNode document) {
+            this.position = 0;
+            boolean result = true;
+            while (this.position < this.query.length()) {
+                String path = this.next();
+                String operator = this.next();
+                JsonNode value = this.value();
+                result &= this.matches(this.resolve(document, path), operator, value);
+                if (this.position < this.query.length()) {
+                    Assert.assertEquals("and", this.next());
+                }
+            }
+            return result;
+        }
+
+        private boolean matches(JsonNode actual, String operator, JsonNode value) {
+            if (operator.equals("IN")) {
+                for (JsonNode item : value) {
+                    if (this.matches(actual, "=", item)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+
+            Integer comparison = null;
+            if (actual.isNumber() && value.isNumber()) {
+                comparison = Double.compare(actual.asDouble(), value.asDouble());
+            } else if (actual.isTextual() && value.isTextual()) {
+                comparison = actual.asText().compareTo(value.asText());
+            } else if (actual.isBoolean() && value.isBoolean()) {
+                comparison = Boolean.compare(actual.asBoolean(), value.asBoolean());
+            }
+            if (comparison == null) {
+                return false;
+            }
+
+            switch (operator) {
+                case "=": return comparison == 0;
+                case "!=": return comparison != 0;
+                case "<": return comparison < 0;
+                case "<=": return comparison <= 0;
+                case ">": return comparison > 0;
+                case ">=": return comparison >= 0;
+                default: throw new AssertionError("Unexpected operator: " + operator);
+            }
+        }
+
+        // Collection names are not case sensitive, property names are
+        private JsonNode resolve(JsonNode document, String path) {
+            String[] names = path.split("\\.");
+            JsonNode node = document;
+            for (int i = 0; i < names.length; i++) {
+                String name = names[i];
+                if (i == 0 || (i == 1 && names[0].equalsIgnoreCase("properties"))) {
+                    name = name.equalsIgnoreCase("deviceId") ? "deviceId" : name.toLowerCase();
+                }
+                node = node.path(name);
+            }
+            return node;
+        }
+
+        private JsonNode value() {
+            this.skipSpaces();
+            char c = this.query.charAt(this.position);
+            if (c == '[') {
+                this.position++;
+                List<JsonNode> items = new ArrayList<>();
+                while (this.query.charAt(this.position) != ']') {
+                    items.add(this.value());
+                    this.skipSpaces();
+                    if (this.query.charAt(this.position) == ',') {
+                        this.position++;
+                    }
+                }
+                this.position++;
+                return Json.toJson(items);
+            }
+            if (c == '\'') {
+                StringBuilder text = new StringBuilder();
+                this.position++;
+                while (this.query.charAt(this.position) != '\'') {
+                    if (this.query.charAt(this.position) == '\\') {
+                        this.position++;
+                    }
+                    text.append(this.query.charAt(this.position++));
+                }
+                this.position++;
+                return Json.toJson(text.toString());
+            }
+            return Json.parse(this.next());
+        }
+
+        private String next() {
+            this.skipSpaces();
+            int start = this.position;
+            while (this.position < this.query.length()
+                && " ,]".indexOf(this.query.charAt(this.position)) < 0) {
+                this.position++;
+            }
+            return this.query.substring(start, this.position);
+        }
+
+        private void skipSpaces() {
+            while (this.position < this.query.length() && this.query.charAt(this.position) == ' ') {
+                this.position++;
+            }
+        }
+    }
+}
@@ -2,6 +2,7 @@
 
 package com.microsoft.azure.iotsolutions.iothubmanager.services.helpers;
 
+import com.microsoft.azure.iotsolutions.iothubmanager.services.exceptions.InvalidInputException;
 import helpers.UnitTest;
 import org.junit.*;
 import org.junit.experimental.categories.Category;
@@ -38,4 +39,47 @@ public class QueryConditionTranslatorTest {
         Assert.assertEquals(QueryConditionTranslator.ToQueryString("[]"), "");
         Assert.assertEquals(QueryConditionTranslator.ToQueryString("[  ]"), "");
     }
+
+    @Test()
+    @Category({UnitTest.class})
+    public void ToQueryOperatorsAndValuesTest() throws Exception {
+        String conditions = "["
+            + "{ \"key\": \"tags.floor\", \"operator\": \"LE\", \"value\": 2 },"
+            + "{ \"Key\": \"tags.owner\", \"Operator\": \"NE\", \"Value\": \"O'Brien\" },"
+            + "{ \"Key\": \"properties.reported.type\", \"Operator\": \"IN\", \"Value\": [\"Chiller\", \"Elevator\"] }"
+            + "]";
+        String query = QueryConditionTranslator.ToQueryString(conditions);
+        String expected = "tags.floor <= 2 and tags.owner != 'O\\'Brien' and properties.reported.type IN ['Chiller', 'Elevator']";
+        Assert.assertEquals(expected, query);
+    }
+
+    @Test()
+    @Category({UnitTest.class})
+    public void ToQueryCachedTest() throws Exception {
+        String conditions = "[{ \"Key\": \"tags.building\", \"Operator\": \"EQ\", \"Value\": 43 }]";
+        String query = QueryConditionTranslator.ToQueryString(conditions);
+        Assert.assertSame(query, QueryConditionTranslator.ToQueryString(new String(conditions)));
+    }
+
+    @Test()
+    @Category({UnitTest.class})
+    public void ToQueryRejectsMalformedConditionsTest() {
+        String[] malformed = {
+            "[{ \"Key\": \"tags.building\", \"Operator\": \"EQ\"",
+            "[{ \"Key\": \"tags.building\", \"Operator\": \"EQ\" }]",
+            "[{ \"Key\": \"tags.building\", \"Operator\": \"LIKE\", \"Value\": 43 }]",
+            "[{ \"Key\": \"tags.building = 1 or 1\", \"Operator\": \"EQ\", \"Value\": 43 }]",
+            "[{ \"Key\": \"tags.building\", \"Operator\": \"IN\", \"Value\": 43 }]",
+            "[{ \"Key\": \"tags.building\", \"Operator\": \"EQ\", \"Value\": { \"a\": 1 } }]"
+        };
+
+        for (String conditions : malformed) {
+            try {
+                QueryConditionTranslator.ToQueryString(conditions);
+                Assert.fail("Conditions should be rejected: " + conditions);
+            } catch (InvalidInputException e) {
+                // Expected
+            }
+        }
+    }
 }
@@ -0,0 +1,121 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package com.microsoft.azure.iotsolutions.iothubmanager.services.helpers;
+
+import helpers.UnitTest;
+import org.junit.*;
+import org.junit.experimental.categories.Category;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+public class SpillSegmentsTest {
+
+    // Each record is 12 bytes of header, 2 of key and 40 of value: two
+    // records don't fit in one segment of 100 bytes
+    private static final int MAX_SIZE = 200;
+    private static final int VALUE_SIZE = 40;
+
+    private Path directory;
+
+    @Before
+    public void setUp() throws Exception {
+        this.directory = Files.createTempDirectory("spill");
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void ValuesAreReadBack() throws Exception {
+        try (SpillSegments spill = new SpillSegments(this.directory, MAX_SIZE)) {
+            spill.put("k1", value('a'));
+            spill.put("k1", value('b'));
+
+            // Values are never rewritten
+            Assert.assertArrayEquals(value('a'), spill.get("k1"));
+            Assert.assertNull(spill.get("k2"));
+            Assert.assertEquals(1, spill.size());
+        }
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void FullSegmentsRollToANewSegment() throws Exception {
+        try (SpillSegments spill = new SpillSegments(this.directory, MAX_SIZE)) {
+            spill.put("k1", value('a'));
+            spill.put("k2", value('b'));
+
+            Assert.assertTrue(Files.exists(this.directory.resolve("segment-0.dat")));
+            Assert.assertTrue(Files.exists(this.directory.resolve("segment-1.dat")));
+            Assert.assertEquals(2, spill.size());
+            Assert.assertArrayEquals(value('a'), spill.get("k1"));
+            Assert.assertArrayEquals(value('b'), spill.get("k2"));
+        }
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void RollingDropsThePreviousSegmentAndItsKeys() throws Exception {
+        try (SpillSegments spill = new SpillSegments(this.directory, MAX_SIZE)) {
+            spill.put("k1", value('a'));
+            spill.put("k2", value('b'));
+            spill.put("k3", value('c'));
+
+            Assert.assertFalse(Files.exists(this.directory.resolve("segment-0.dat")));
+            Assert.assertFalse(spill.contains("k1"));
+            Assert.assertNull(spill.get("k1"));
+            Assert.assertArrayEquals(value('b'), spill.get("k2"));
+            Assert.assertArrayEquals(value('c'), spill.get("k3"));
+            Assert.assertEquals(2, spill.size());
+            Assert.assertEquals(2 * (12 + 2 + VALUE_SIZE), spill.sizeInBytes());
+
+            // The key can be written again once dropped
+            spill.put("k1", value('d'));
+            Assert.assertArrayEquals(value('d'), spill.get("k1"));
+        }
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void CorruptedValuesAreDropped() throws Exception {
+        try (SpillSegments spill = new SpillSegments(this.directory, MAX_SIZE)) {
+            spill.put("k1", value('a'));
+
+            // Change the last byte of the value on disk
+            try (RandomAccessFile file = new RandomAccessFile(this.directory.resolve("segment-0.dat").toFile(), "rw")) {
+                file.seek(file.length() - 1);
+                file.write('z');
+            }
+
+            try {
+                spill.get("k1");
+                Assert.fail("The corrupted value should be rejected");
+            } catch (IOException e) {
+                // expected
+            }
+            Assert.assertFalse(spill.contains("k1"));
+            Assert.assertNull(spill.get("k1"));
+        }
+    }
+
+    @Test(timeout = 5000)
+    @Category({UnitTest.class})
+    public void SegmentsAreEmptiedWhenOpened() throws Exception {
+        try (SpillSegments spill = new SpillSegments(this.directory, MAX_SIZE)) {
+            spill.put("k1", value('a'));
+        }
+
+        try (SpillSegments spill = new SpillSegments(this.directory, MAX_SIZE)) {
+            Assert.assertNull(spill.get("k1"));
+            Assert.assertEquals(0, spill.sizeInBytes());
+        }
+    }
+
+    private static byte[] value(final char fill) {
+        byte[] value = new byte[VALUE_SIZE];
+        Arrays.fill(value, (byte) fill);
+        return value;
+    }
+}
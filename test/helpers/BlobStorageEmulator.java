@@ -0,0 +1,160 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package helpers;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Local stand-in for an Azure Storage blob container, supporting the Put
+ * Block, Put Block List and Get Blob calls. As in Azure Storage, blocks are
+ * only visible once committed with a block list, and every request must
+ * carry the SAS signature of the container.
+ */
+public class BlobStorageEmulator implements AutoCloseable {
+
+    private static final Pattern LATEST_BLOCK = Pattern.compile("<Latest>([^<]*)</Latest>");
+
+    // SAS signatures are base64, escaped in the container URI
+    private static final String SIGNATURE = "a/b+c=";
+
+    private final HttpServer server;
+    private final String container;
+    private final Map<String, byte[]> uncommittedBlocks = new ConcurrentHashMap<>();
+    private final Map<String, byte[]> blobs = new ConcurrentHashMap<>();
+    private final List<Integer> blockSizes = new CopyOnWriteArrayList<>();
+
+    public BlobStorageEmulator(final String container) throws IOException {
+        this.container = container;
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        this.server.createContext("/" + container + "/", exchange -> {
+            try {
+                this.handle(exchange);
+            } finally {
+                exchange.close();
+            }
+        });
+        this.server.start();
+    }
+
+    /**
+     * The SAS URI of the container, with a fake token
+     */
+    public String getContainerUri() {
+        return "http://localhost:" + this.getPort() + "/" + this.container + "?sv=2017-04-17&sig=a%2Fb%2Bc%3D";
+    }
+
+    public int getPort() {
+        return this.server.getAddress().getPort();
+    }
+
+    /**
+     * @return The committed content of a blob, null if not found
+     */
+    public byte[] getBlob(final String name) {
+        return this.blobs.get(name);
+    }
+
+    public void putBlob(final String name, final byte[] content) {
+        this.blobs.put(name, content);
+    }
+
+    /**
+     * The size of each block received, in order
+     */
+    public List<Integer> getBlockSizes() {
+        return this.blockSizes;
+    }
+
+    @Override
+    public void close() {
+        this.server.stop(0);
+    }
+
+    private void handle(final HttpExchange exchange) throws IOException {
+        String blob = exchange.getRequestURI().getPath().substring(this.container.length() + 2);
+        Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+        byte[] body = readAll(exchange.getRequestBody());
+        if (!SIGNATURE.equals(query.get("sig"))) {
+            exchange.sendResponseHeaders(403, -1);
+            return;
+        }
+
+        if ("PUT".equals(exchange.getRequestMethod()) && "block".equals(query.get("comp"))) {
+            // Blocks can't be sent with chunked encoding
+            if (exchange.getRequestHeaders().getFirst("Content-Length") == null) {
+                exchange.sendResponseHeaders(411, -1);
+                return;
+            }
+            this.uncommittedBlocks.put(blob + "\n" + query.get("blockid"), body);
+            this.blockSizes.add(body.length);
+            exchange.sendResponseHeaders(201, -1);
+        } else if ("PUT".equals(exchange.getRequestMethod()) && "blocklist".equals(query.get("comp"))) {
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            Matcher blockId = LATEST_BLOCK.matcher(new String(body, StandardCharsets.UTF_8));
+            while (blockId.find()) {
+                byte[] block = this.uncommittedBlocks.remove(blob + "\n" + blockId.group(1));
+                if (block == null) {
+                    exchange.sendResponseHeaders(400, -1);
+                    return;
+                }
+                content.write(block);
+            }
+            this.blobs.put(blob, content.toByteArray());
+            exchange.sendResponseHeaders(201, -1);
+        } else if ("GET".equals(exchange.getRequestMethod())) {
+            byte[] content = this.blobs.get(blob);
+            if (content == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            // Chunked, the client doesn't know the size in advance
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream response = exchange.getResponseBody()) {
+                response.write(content);
+            }
+        } else {
+            exchange.sendResponseHeaders(405, -1);
+        }
+    }
+
+    private static Map<String, String> parseQuery(final String query) throws UnsupportedEncodingException {
+        Map<String, String> parameters = new HashMap<>();
+        if (query == null) {
+            return parameters;
+        }
+        for (String parameter : query.split("&")) {
+            int equals = parameter.indexOf('=');
+            if (equals > 0) {
+                parameters.put(parameter.substring(0, equals), URLDecoder.decode(parameter.substring(equals + 1), "UTF-8"));
+            }
+        }
+        return parameters;
+    }
+
+    private static byte[] readAll(final InputStream input) throws IOException {
+        try (InputStream body = input) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[64 * 1024];
+            int count;
+            while ((count = body.read(buffer)) != -1) {
+                bytes.write(buffer, 0, count);
+            }
+            return bytes.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,64 @@
+// Copyright (c) Microsoft. All rights reserved.
+
+package helpers;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.sun.net.httpserver.HttpServer;
+import play.libs.Json;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Local stand-in for the config service, recording the device group
+ * filters it receives. Requests can be made to fail, to simulate an
+ * outage of the config service.
+ */
+public class ConfigServiceEmulator implements AutoCloseable {
+
+    private final HttpServer server;
+    private final List<JsonNode> filters = new CopyOnWriteArrayList<>();
+    private volatile int status = 200;
+
+    public ConfigServiceEmulator() throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        this.server.createContext("/devicegroupfilters", exchange -> {
+            try (InputStream body = exchange.getRequestBody()) {
+                JsonNode json = Json.parse(body);
+                if (this.status == 200 && "POST".equals(exchange.getRequestMethod())) {
+                    this.filters.add(json);
+                }
+            }
+            exchange.sendResponseHeaders(this.status, -1);
+            exchange.close();
+        });
+        this.server.start();
+    }
+
+    public String getUrl() {
+        return "http://localhost:" + this.getPort();
+    }
+
+    public int getPort() {
+        return this.server.getAddress().getPort();
+    }
+
+    /**
+     * The device group filters received, one entry per request
+     */
+    public List<JsonNode> getFilters() {
+        return this.filters;
+    }
+
+    public void setStatus(int status) {
+        this.status = status;
+    }
+
+    @Override
+    public void close() {
+        this.server.stop(0);
+    }
+}